@@ -0,0 +1,23 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.BannerCounterService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class BannerCounterFlusher {
+
+    @Autowired
+    private BannerCounterService bannerCounterService;
+
+    // Ghi lượt xem/click đã gom trong bộ nhớ xuống MongoDB
+    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
+    public void flush() {
+        try {
+            bannerCounterService.flush();
+        } catch (Exception e) {
+            System.err.println("Banner counter flush failed: " + e.getMessage());
+        }
+    }
+}
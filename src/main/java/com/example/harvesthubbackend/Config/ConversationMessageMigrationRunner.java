@@ -0,0 +1,32 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.ConversationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ConversationMessageMigrationRunner {
+
+    @Autowired
+    private ConversationService conversationService;
+
+    // Hội thoại cũ còn nhúng mảng messages sẽ không hiển thị lịch sử chat,
+    // nên chuyển sang conversation_messages một lần sau khi khởi động (thread riêng, không chặn startup)
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                int migrated = conversationService.migrateEmbeddedMessages();
+                if (migrated > 0) {
+                    System.out.println("Migrated embedded messages of " + migrated + " conversations");
+                }
+            } catch (Exception e) {
+                System.err.println("Conversation message migration failed: " + e.getMessage());
+            }
+        }, "conversation-message-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.FlashSaleService;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class FlashSaleIndexRefresher {
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    // Dọn recordedOrderIds cũ trước khi nhận traffic; lỗi chỉ ghi log, lần khởi động sau chạy lại
+    @PostConstruct
+    public void migrateRecordedOrderIds() {
+        try {
+            int migrated = flashSaleService.migrateRecordedOrderIds();
+            if (migrated > 0) {
+                System.out.println("Moved " + migrated + " flash sale order records out of flashsales");
+            }
+        } catch (Exception e) {
+            System.err.println("Flash sale order record migration failed: " + e.getMessage());
+        }
+    }
+
+    // Dựng lại index flash sale mỗi phút để nhận thay đổi từ instance khác / sửa trực tiếp trong database
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void refreshActiveFlashSales() {
+        try {
+            flashSaleService.refreshActiveIndex();
+        } catch (Exception e) {
+            System.err.println("Flash sale index refresh failed: " + e.getMessage());
+        }
+    }
+}
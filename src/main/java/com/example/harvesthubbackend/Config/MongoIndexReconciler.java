@@ -0,0 +1,30 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.MongoIndexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class MongoIndexReconciler {
+
+    @Autowired
+    private MongoIndexService mongoIndexService;
+
+    // Đối chiếu index sau khi app sẵn sàng, chạy trên thread riêng để không chặn khởi động
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        Thread thread = new Thread(() -> {
+            System.out.println("Reconciling MongoDB indexes...");
+            try {
+                mongoIndexService.reconcile();
+                System.out.println("MongoDB index reconciliation finished");
+            } catch (Exception e) {
+                System.err.println("MongoDB index reconciliation failed: " + e.getMessage());
+            }
+        }, "mongo-index-reconciler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.NotificationBroadcastService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class NotificationBroadcastResumer {
+
+    @Autowired
+    private NotificationBroadcastService broadcastService;
+
+    // Chạy tiếp job broadcast FANOUT bị dừng (restart, instance chết, lỗi còn lượt thử) từ cursor đã lưu
+    @Scheduled(fixedDelay = 60000, initialDelay = 30000)
+    public void resumeUnfinishedBroadcasts() {
+        try {
+            int resumed = broadcastService.resumeUnfinished();
+            if (resumed > 0) {
+                System.out.println("Resumed " + resumed + " notification broadcast jobs");
+            }
+        } catch (Exception e) {
+            System.err.println("Notification broadcast resume failed: " + e.getMessage());
+        }
+    }
+}
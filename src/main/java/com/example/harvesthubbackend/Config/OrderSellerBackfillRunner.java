@@ -0,0 +1,29 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.OrderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class OrderSellerBackfillRunner {
+
+    @Autowired
+    private OrderService orderService;
+
+    // Đơn hàng cũ chưa có items.sellerId sẽ không xuất hiện trong danh sách đơn của seller,
+    // nên backfill một lần sau khi khởi động (thread riêng, không chặn startup)
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                orderService.backfillItemSellers();
+            } catch (Exception e) {
+                System.err.println("Order seller backfill failed: " + e.getMessage());
+            }
+        }, "order-seller-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.OrderSideEffectService;
+import com.example.harvesthubbackend.Service.OutboxService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class OutboxPoller {
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private OrderSideEffectService orderSideEffectService;
+
+    // Nhận sự kiện đến hạn retry, sự kiện chưa được xử lý ngay khi publish và sự kiện hết lease
+    @Scheduled(fixedDelay = 1000, initialDelay = 10000)
+    public void dispatch() {
+        try {
+            outboxService.dispatchDue();
+        } catch (Exception e) {
+            System.err.println("Outbox dispatch failed: " + e.getMessage());
+        }
+    }
+
+    // Sự kiện đã lưu trên đơn nhưng chưa chuyển được sang outbox (lỗi ghi hoặc instance chết sau khi lưu đơn)
+    @Scheduled(fixedDelay = 30000, initialDelay = 15000)
+    public void relayStalledOrderEvents() {
+        try {
+            int relayed = orderSideEffectService.relayStalled();
+            if (relayed > 0) {
+                System.out.println("Relayed pending outbox events of " + relayed + " orders");
+            }
+        } catch (Exception e) {
+            System.err.println("Order event relay failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Service.ProductSearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Giữ chỉ mục tìm kiếm sản phẩm đồng bộ: dựng khi khởi động, cập nhật từng sản phẩm khi lưu/xóa,
+ * và dựng lại định kỳ để nhận các thay đổi ghi thẳng vào database.
+ */
+@Component
+public class ProductSearchIndexListener extends AbstractMongoEventListener<Product> {
+
+    @Autowired
+    @Lazy
+    private ProductSearchService productSearchService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        Thread thread = new Thread(this::rebuild, "product-search-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Scheduled(cron = "0 15 * * * ?") // Every hour at minute 15
+    public void rebuild() {
+        try {
+            productSearchService.rebuild();
+        } catch (Exception e) {
+            System.err.println("Product search index rebuild failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Product> event) {
+        productSearchService.index(event.getSource());
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Product> event) {
+        Object id = event.getSource().get("_id");
+        if (id instanceof String || id instanceof org.bson.types.ObjectId) {
+            productSearchService.remove(id.toString());
+        } else {
+            // Xóa hàng loạt theo điều kiện khác _id: dựng lại toàn bộ
+            buildOnStartup();
+        }
+    }
+}
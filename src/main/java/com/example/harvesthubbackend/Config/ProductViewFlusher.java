@@ -0,0 +1,23 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.ProductViewService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProductViewFlusher {
+
+    @Autowired
+    private ProductViewService productViewService;
+
+    // Ghi lượt xem sản phẩm đã gom trong bộ nhớ xuống MongoDB
+    @Scheduled(fixedDelay = 10000, initialDelay = 10000)
+    public void flush() {
+        try {
+            productViewService.flush();
+        } catch (Exception e) {
+            System.err.println("Product view flush failed: " + e.getMessage());
+        }
+    }
+}
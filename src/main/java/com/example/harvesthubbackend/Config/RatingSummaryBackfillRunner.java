@@ -0,0 +1,32 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.RatingSummaryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RatingSummaryBackfillRunner {
+
+    @Autowired
+    private RatingSummaryService ratingSummaryService;
+
+    // Tạo RatingSummary cho sản phẩm/seller có review từ trước khi có summary
+    // (thread riêng, không chặn startup; summary do $inc tạo trước khi seed được tính lại)
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                int products = ratingSummaryService.seedMissingSummaries();
+                if (products > 0) {
+                    System.out.println("Rating summaries checked for " + products + " products");
+                }
+            } catch (Exception e) {
+                System.err.println("Rating summary backfill failed: " + e.getMessage());
+            }
+        }, "rating-summary-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.SellerSettlementService;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component
+public class SellerFinancialMigrationRunner {
+
+    @Autowired
+    private SellerSettlementService sellerSettlementService;
+
+    // Quyết toán cần đúng một SellerFinancial cho mỗi seller (unique seller_idx). Chạy trong lúc khởi tạo context,
+    // trước khi web server, outbox poller và scheduler nhận việc; lỗi thì ứng dụng dừng khởi động
+    @PostConstruct
+    public void migrateBeforeTraffic() {
+        int merged = sellerSettlementService.migrateFinancials();
+        if (merged > 0) {
+            System.out.println("Merged " + merged + " duplicate seller financials");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.SellerSettlementService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class SellerSettlementScheduler {
+
+    @Autowired
+    private SellerSettlementService sellerSettlementService;
+
+    // Chuyển số dư đã qua withdrawalDays sang khả dụng
+    @Scheduled(fixedDelay = 600000, initialDelay = 60000) // Every 10 minutes
+    public void releaseMaturedBalances() {
+        try {
+            sellerSettlementService.releaseMaturedBalances();
+        } catch (Exception e) {
+            System.err.println("Seller settlement release failed: " + e.getMessage());
+        }
+    }
+}
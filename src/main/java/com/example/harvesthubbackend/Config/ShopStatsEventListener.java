@@ -0,0 +1,55 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.Review;
+import com.example.harvesthubbackend.Service.ShopStatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Đánh dấu stats của shop cần tính lại khi đơn hàng, đánh giá hoặc sản phẩm của shop được lưu.
+ * Việc tính lại chạy nền trong ShopStatsService, không làm chậm request ghi.
+ */
+@Component
+public class ShopStatsEventListener extends AbstractMongoEventListener<Object> {
+
+    @Autowired
+    @Lazy
+    private ShopStatsService shopStatsService;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object entity = event.getSource();
+        try {
+            if (entity instanceof Order order) {
+                if (order.getItems() == null) {
+                    return;
+                }
+                Set<String> shopIds = new HashSet<>();
+                Set<String> sellerIds = new HashSet<>();
+                for (Order.OrderItem item : order.getItems()) {
+                    if (item.getShopId() != null) {
+                        shopIds.add(item.getShopId());
+                    } else if (item.getSellerId() != null) {
+                        sellerIds.add(item.getSellerId());
+                    }
+                }
+                shopIds.forEach(shopStatsService::requestRefresh);
+                sellerIds.forEach(shopStatsService::requestRefreshForOwner);
+            } else if (entity instanceof Review review) {
+                shopStatsService.requestRefreshForProduct(review.getProductId());
+            } else if (entity instanceof Product product) {
+                shopStatsService.requestRefreshForOwner(product.getSellerId());
+            }
+        } catch (Exception e) {
+            System.err.println("ShopStatsEventListener: failed to schedule shop stats refresh: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.SpendLedgerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class SpendLedgerReconcileScheduler {
+
+    @Autowired
+    private SpendLedgerService spendLedgerService;
+
+    // Lần đầu chạy (chưa có ledger) thì dựng từ lịch sử đơn hàng ngay sau khi khởi động
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                if (spendLedgerService.isEmpty()) {
+                    System.out.println("Spend ledgers are empty, rebuilding from order history...");
+                    spendLedgerService.reconcile();
+                }
+            } catch (Exception e) {
+                System.err.println("Spend ledger initialization failed: " + e.getMessage());
+            }
+        }, "spend-ledger-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Run daily to correct drift of the incremental spend ledgers
+    @Scheduled(cron = "0 0 3 * * ?") // Every day at 3:00 AM
+    public void reconcileLedgers() {
+        System.out.println("Reconciling spend ledgers...");
+        try {
+            spendLedgerService.reconcile();
+        } catch (Exception e) {
+            System.err.println("Spend ledger reconciliation failed: " + e.getMessage());
+        }
+    }
+}
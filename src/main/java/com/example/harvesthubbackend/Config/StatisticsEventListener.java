@@ -0,0 +1,111 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.StatisticsStoreService;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Cập nhật kho thống kê dashboard mỗi khi Order/User/Product/Seller được lưu hoặc xóa qua
+ * repository/MongoTemplate. Trạng thái cũ được đọc (chỉ vài field) trước khi ghi để tính delta.
+ */
+@Component
+public class StatisticsEventListener extends AbstractMongoEventListener<Object> {
+
+    @Autowired
+    @Lazy
+    private StatisticsStoreService statisticsStore;
+
+    @Autowired
+    @Lazy
+    private MongoTemplate mongoTemplate;
+
+    // Trạng thái trước khi ghi, theo instance entity (model không override equals nên khóa theo identity)
+    private final Map<Object, StatisticsStoreService.Contribution> pendingSaves =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Document, StatisticsStoreService.Contribution> pendingDeletes =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Object> event) {
+        Object entity = event.getSource();
+        String[] fields = statisticsStore.snapshotFields(entity.getClass());
+        if (fields == null) {
+            return;
+        }
+        try {
+            Object id = mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(entity.getClass())
+                .getIdentifierAccessor(entity).getIdentifier();
+            Object previous = id != null ? loadSnapshot(Criteria.where("_id").is(id), entity.getClass(), fields) : null;
+            pendingSaves.put(entity, previous != null ? statisticsStore.contributionOf(previous) : null);
+        } catch (Exception e) {
+            System.err.println("StatisticsEventListener: failed to snapshot " + entity.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object entity = event.getSource();
+        if (statisticsStore.snapshotFields(entity.getClass()) == null || !pendingSaves.containsKey(entity)) {
+            return;
+        }
+        try {
+            statisticsStore.applyChange(pendingSaves.remove(entity), statisticsStore.contributionOf(entity));
+        } catch (Exception e) {
+            // Sai lệch sẽ được sửa ở lần đối chiếu định kỳ
+            System.err.println("StatisticsEventListener: failed to update statistics: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onBeforeDelete(BeforeDeleteEvent<Object> event) {
+        Class<?> type = event.getType();
+        String[] fields = type != null ? statisticsStore.snapshotFields(type) : null;
+        Document query = event.getDocument();
+        // Chỉ theo dõi xóa theo _id; xóa hàng loạt để đối chiếu định kỳ xử lý
+        if (fields == null || query == null || !query.containsKey("_id")) {
+            return;
+        }
+        try {
+            Object previous = loadSnapshot(Criteria.where("_id").is(query.get("_id")), type, fields);
+            if (previous != null) {
+                pendingDeletes.put(query, statisticsStore.contributionOf(previous));
+            }
+        } catch (Exception e) {
+            System.err.println("StatisticsEventListener: failed to snapshot deleted " + type.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        StatisticsStoreService.Contribution previous = event.getDocument() != null ? pendingDeletes.remove(event.getDocument()) : null;
+        if (previous == null) {
+            return;
+        }
+        try {
+            statisticsStore.applyChange(previous, null);
+        } catch (Exception e) {
+            System.err.println("StatisticsEventListener: failed to update statistics: " + e.getMessage());
+        }
+    }
+
+    private Object loadSnapshot(Criteria criteria, Class<?> type, String[] fields) {
+        Query query = new Query(criteria);
+        query.fields().include(fields);
+        return mongoTemplate.findOne(query, type);
+    }
+}
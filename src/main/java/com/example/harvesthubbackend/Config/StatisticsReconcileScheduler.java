@@ -0,0 +1,43 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.StatisticsStoreService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class StatisticsReconcileScheduler {
+
+    @Autowired
+    private StatisticsStoreService statisticsStore;
+
+    // Lần đầu chạy (kho thống kê còn trống) thì dựng lại toàn bộ ngay sau khi khởi động
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                if (statisticsStore.isEmpty()) {
+                    System.out.println("Statistics store is empty, rebuilding...");
+                    statisticsStore.reconcile();
+                }
+            } catch (Exception e) {
+                System.err.println("Statistics store initialization failed: " + e.getMessage());
+            }
+        }, "statistics-store-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Run every hour to correct drift of incremental counters
+    @Scheduled(cron = "0 30 * * * ?") // Every hour at minute 30
+    public void reconcileStatistics() {
+        System.out.println("Reconciling dashboard statistics...");
+        try {
+            statisticsStore.reconcile();
+        } catch (Exception e) {
+            System.err.println("Statistics reconciliation failed: " + e.getMessage());
+        }
+    }
+}
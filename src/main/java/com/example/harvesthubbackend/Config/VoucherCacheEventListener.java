@@ -0,0 +1,38 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Models.Voucher;
+import com.example.harvesthubbackend.Service.VoucherEngine;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Xóa voucher khỏi cache của VoucherEngine khi voucher được lưu hoặc xóa qua repository/MongoTemplate.
+ */
+@Component
+public class VoucherCacheEventListener extends AbstractMongoEventListener<Voucher> {
+
+    @Autowired
+    @Lazy
+    private VoucherEngine voucherEngine;
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Voucher> event) {
+        Voucher voucher = event.getSource();
+        voucherEngine.invalidate(voucher.getCode());
+        // Code có thể đã đổi: xóa cả bản cache theo id
+        voucherEngine.invalidateById(voucher.getId());
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Voucher> event) {
+        Document query = event.getDocument();
+        if (query != null && query.get("_id") != null) {
+            voucherEngine.invalidateById(query.get("_id").toString());
+        }
+    }
+}
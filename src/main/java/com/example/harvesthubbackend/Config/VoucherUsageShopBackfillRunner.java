@@ -0,0 +1,32 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.VoucherStatisticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class VoucherUsageShopBackfillRunner {
+
+    @Autowired
+    private VoucherStatisticsService voucherStatisticsService;
+
+    // VoucherUsage cũ chưa có shopId sẽ không được tính vào thống kê của shop,
+    // nên backfill một lần sau khi khởi động (thread riêng, không chặn startup)
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                int updated = voucherStatisticsService.backfillUsageShopIds();
+                if (updated > 0) {
+                    System.out.println("Backfilled shopId on " + updated + " voucher usages");
+                }
+            } catch (Exception e) {
+                System.err.println("Voucher usage shop backfill failed: " + e.getMessage());
+            }
+        }, "voucher-usage-shop-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
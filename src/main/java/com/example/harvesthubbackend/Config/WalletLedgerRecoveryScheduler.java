@@ -0,0 +1,26 @@
+package com.example.harvesthubbackend.Config;
+
+import com.example.harvesthubbackend.Service.WalletService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class WalletLedgerRecoveryScheduler {
+
+    @Autowired
+    private WalletService walletService;
+
+    // Hoàn tất các giao dịch ví bị dừng giữa chừng (instance chết sau khi ghi ledger)
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void recoverStuckTransactions() {
+        try {
+            int recovered = walletService.recoverStuckTransactions();
+            if (recovered > 0) {
+                System.out.println("Recovered " + recovered + " stuck wallet transactions");
+            }
+        } catch (Exception e) {
+            System.err.println("Wallet ledger recovery failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.harvesthubbackend.Controller;
+
+import com.example.harvesthubbackend.Service.MongoIndexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/indexes")
+@CrossOrigin(origins = "*")
+public class AdminIndexController {
+
+    @Autowired
+    private MongoIndexService mongoIndexService;
+
+    // Danh sách index của mọi collection kèm số lần sử dụng ($indexStats) và kết quả đối chiếu gần nhất
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getIndexes() {
+        return ResponseEntity.ok(mongoIndexService.getIndexUsage());
+    }
+
+    // Chạy lại đối chiếu index thủ công
+    @PostMapping("/reconcile")
+    public ResponseEntity<Map<String, Object>> reconcile() {
+        boolean started = mongoIndexService.reconcile();
+        if (!started) {
+            return ResponseEntity.status(409).body(Map.of("message", "Index reconciliation is already running"));
+        }
+        return ResponseEntity.ok(mongoIndexService.getIndexUsage());
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.harvesthubbackend.Controller;
+
+import com.example.harvesthubbackend.DTO.OrderQueryDTO;
+import com.example.harvesthubbackend.Service.OrderQueryService;
+import com.example.harvesthubbackend.Service.OrderService;
+import com.example.harvesthubbackend.Service.SpendLedgerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/orders")
+@CrossOrigin(origins = "*")
+public class AdminOrderController {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderQueryService orderQueryService;
+
+    @Autowired
+    private SpendLedgerService spendLedgerService;
+
+    // Danh sách đơn hàng có lọc, phân trang keyset: truyền nextCursor của trang trước vào cursor
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getOrders(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String paymentStatus,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String sellerId,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        OrderQueryDTO filter = buildFilter(status, paymentStatus, userId, sellerId, from, to);
+        return ResponseEntity.ok(orderQueryService.findPage(filter, cursor, size));
+    }
+
+    @GetMapping("/count")
+    public ResponseEntity<Map<String, Object>> countOrders(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String paymentStatus,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String sellerId,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to) {
+        OrderQueryDTO filter = buildFilter(status, paymentStatus, userId, sellerId, from, to);
+        return ResponseEntity.ok(Map.of("count", orderQueryService.count(filter)));
+    }
+
+    // Export toàn bộ đơn khớp bộ lọc (format=ndjson hoặc csv), ghi thẳng từ cursor ra response
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String paymentStatus,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String sellerId,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "ndjson") String format) {
+        OrderQueryDTO filter = buildFilter(status, paymentStatus, userId, sellerId, from, to);
+        boolean csv = "csv".equalsIgnoreCase(format);
+        StreamingResponseBody body = out -> {
+            if (csv) {
+                orderQueryService.exportCsv(filter, out);
+            } else {
+                orderQueryService.exportNdjson(filter, out);
+            }
+        };
+        String fileName = "orders-" + System.currentTimeMillis() + (csv ? ".csv" : ".ndjson");
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+            .contentType(csv ? new MediaType("text", "csv", java.nio.charset.StandardCharsets.UTF_8)
+                             : MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
+    }
+
+    // Backfill sellerId/shopId cho item của các đơn hàng cũ
+    @PostMapping("/backfill-sellers")
+    public ResponseEntity<Map<String, Object>> backfillItemSellers() {
+        int updated = orderService.backfillItemSellers();
+        return ResponseEntity.ok(Map.of("updatedOrders", updated));
+    }
+
+    // Dựng lại sổ chi tiêu (hạng VIP) của user từ lịch sử đơn hàng
+    @PostMapping("/reconcile-spend-ledgers")
+    public ResponseEntity<Map<String, Object>> reconcileSpendLedgers() {
+        if (!spendLedgerService.reconcile()) {
+            return ResponseEntity.status(409).body(Map.of("message", "Spend ledger reconciliation is already running"));
+        }
+        return ResponseEntity.ok(Map.of("message", "Spend ledgers reconciled"));
+    }
+
+    private static OrderQueryDTO buildFilter(String status, String paymentStatus, String userId, String sellerId,
+                                             Long from, Long to) {
+        OrderQueryDTO filter = new OrderQueryDTO();
+        filter.setStatus(status);
+        filter.setPaymentStatus(paymentStatus);
+        filter.setUserId(userId);
+        filter.setSellerId(sellerId);
+        filter.setFrom(from);
+        filter.setTo(to);
+        return filter;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.harvesthubbackend.Controller;
+
+import com.example.harvesthubbackend.Models.OutboxEvent;
+import com.example.harvesthubbackend.Service.OutboxService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/outbox")
+@CrossOrigin(origins = "*")
+public class AdminOutboxController {
+
+    @Autowired
+    private OutboxService outboxService;
+
+    // Sự kiện mới nhất, lọc theo trạng thái (PENDING, PROCESSING, DONE, FAILED)
+    @GetMapping
+    public ResponseEntity<List<OutboxEvent>> getEvents(
+            @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(outboxService.getEvents(status, limit));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Long>> getStats() {
+        return ResponseEntity.ok(outboxService.countByStatus());
+    }
+
+    @PostMapping("/{id}/retry")
+    public ResponseEntity<OutboxEvent> retry(@PathVariable String id) {
+        return ResponseEntity.ok(outboxService.retry(id));
+    }
+}
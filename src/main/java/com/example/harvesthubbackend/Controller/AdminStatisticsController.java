@@ -42,5 +42,14 @@ public class AdminStatisticsController {
             @RequestParam(defaultValue = "10") int limit) {
         return ResponseEntity.ok(statisticsService.getTopSellers(limit));
     }
+    
+    // Tính lại kho thống kê (bộ đếm + bucket theo ngày) từ dữ liệu gốc
+    @PostMapping("/reconcile")
+    public ResponseEntity<Map<String, Object>> reconcile() {
+        boolean started = statisticsService.reconcileStatistics();
+        if (!started) {
+            return ResponseEntity.status(409).body(Map.of("message", "Statistics reconciliation is already running"));
+        }
+        return ResponseEntity.ok(statisticsService.getDashboardStatistics());
+    }
 }
-
@@ -128,22 +128,20 @@ public class BannerController {
         return ResponseEntity.notFound().build();
     }
     
-    // Increment click count
+    // Increment click count (ghi nhận ngay, số liệu được ghi xuống DB sau vài giây)
     @PostMapping("/{id}/click")
-    public ResponseEntity<Banner> incrementClickCount(@PathVariable String id) {
-        Banner updatedBanner = bannerService.incrementClickCount(id);
-        if (updatedBanner != null) {
-            return ResponseEntity.ok(updatedBanner);
+    public ResponseEntity<Void> incrementClickCount(@PathVariable String id) {
+        if (bannerService.incrementClickCount(id)) {
+            return ResponseEntity.accepted().build();
         }
         return ResponseEntity.notFound().build();
     }
     
-    // Increment view count
+    // Increment view count (ghi nhận ngay, số liệu được ghi xuống DB sau vài giây)
     @PostMapping("/{id}/view")
-    public ResponseEntity<Banner> incrementViewCount(@PathVariable String id) {
-        Banner updatedBanner = bannerService.incrementViewCount(id);
-        if (updatedBanner != null) {
-            return ResponseEntity.ok(updatedBanner);
+    public ResponseEntity<Void> incrementViewCount(@PathVariable String id) {
+        if (bannerService.incrementViewCount(id)) {
+            return ResponseEntity.accepted().build();
         }
         return ResponseEntity.notFound().build();
     }
@@ -205,15 +203,15 @@ public class BannerController {
     
     // Get banners sorted by click count
     @GetMapping("/sorted/clicks")
-    public ResponseEntity<List<Banner>> getBannersOrderByClickCount() {
-        List<Banner> banners = bannerService.getBannersOrderByClickCount();
+    public ResponseEntity<List<Banner>> getBannersOrderByClickCount(@RequestParam(defaultValue = "0") int statHours) {
+        List<Banner> banners = bannerService.getBannersOrderByClickCount(statHours);
         return ResponseEntity.ok(banners);
     }
     
     // Get banners sorted by view count
     @GetMapping("/sorted/views")
-    public ResponseEntity<List<Banner>> getBannersOrderByViewCount() {
-        List<Banner> banners = bannerService.getBannersOrderByViewCount();
+    public ResponseEntity<List<Banner>> getBannersOrderByViewCount(@RequestParam(defaultValue = "0") int statHours) {
+        List<Banner> banners = bannerService.getBannersOrderByViewCount(statHours);
         return ResponseEntity.ok(banners);
     }
     
@@ -2,14 +2,17 @@ package com.example.harvesthubbackend.Controller;
 
 import com.example.harvesthubbackend.Models.Conversation;
 import com.example.harvesthubbackend.Models.Conversation.Message;
+import com.example.harvesthubbackend.Models.ConversationMessage;
 import com.example.harvesthubbackend.Service.ConversationService;
 import java.util.List;
+import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -33,13 +36,25 @@ public class ConversationController {
     }
     @GetMapping("/{conversationId}")
     public Conversation getConversation(@PathVariable String conversationId) {
-        return conversationService.getById(conversationId)
+        return conversationService.getWithLatestMessages(conversationId)
             .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Conversation not found"));
     }
+    // Phân trang tin nhắn: before = cursor để lấy tin cũ hơn, after = cursor để lấy tin mới hơn
+    @GetMapping("/{conversationId}/messages")
+    public Map<String, Object> getMessages(@PathVariable String conversationId,
+                                           @RequestParam(required = false) String before,
+                                           @RequestParam(required = false) String after,
+                                           @RequestParam(defaultValue = "50") int limit) {
+        return conversationService.getMessages(conversationId, before, after, limit);
+    }
     @PostMapping("/{conversationId}/send")
-    public Conversation sendMessage(@PathVariable String conversationId, @RequestBody Message message) {
+    public ConversationMessage sendMessage(@PathVariable String conversationId, @RequestBody Message message) {
         return conversationService.sendMessage(conversationId, message);
     }
+    @PutMapping("/{conversationId}/read")
+    public Conversation markAsRead(@PathVariable String conversationId, @RequestParam String role) {
+        return conversationService.markAsRead(conversationId, role);
+    }
     @PostMapping("/create")
     public Conversation createConversation(@RequestParam String sellerId, @RequestParam String customerId, @RequestParam String orderId) {
         return conversationService.createConversation(sellerId, customerId, orderId);
@@ -1,16 +1,20 @@
 package com.example.harvesthubbackend.Controller;
 
 import com.example.harvesthubbackend.Models.Notification;
+import com.example.harvesthubbackend.Models.NotificationBroadcast;
 import com.example.harvesthubbackend.Models.User;
 import com.example.harvesthubbackend.Repository.NotificationRepository;
+import com.example.harvesthubbackend.Service.NotificationBroadcastService;
 import com.example.harvesthubbackend.Service.NotificationService;
 import com.example.harvesthubbackend.Service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping({"/api/notifications", "/api/v1/notifications"})
@@ -21,6 +25,8 @@ public class NotificationController {
     @Autowired
     private NotificationService notificationService;
     @Autowired
+    private NotificationBroadcastService broadcastService;
+    @Autowired
     private UserService userService;
 
     @GetMapping
@@ -31,64 +37,104 @@ public class NotificationController {
 
     @GetMapping("/user/{userId}")
     public List<Notification> getNotifications(@PathVariable String userId) {
-        return notificationRepository.findByUserIdOrderByCreatedAtDesc(userId);
+        return broadcastService.mergeWithShared(notificationRepository.findByUserIdOrderByCreatedAtDesc(userId), userId, false);
     }
 
     @GetMapping("/user/{userId}/unread")
     public List<Notification> getNotificationsUnread(@PathVariable String userId) {
-        return notificationRepository.findByUserIdAndReadIsFalseOrderByCreatedAtDesc(userId);
+        return broadcastService.mergeWithShared(notificationRepository.findByUserIdAndReadIsFalseOrderByCreatedAtDesc(userId), userId, true);
+    }
+
+    // Số thông báo chưa đọc, đọc từ bộ đếm (không load danh sách)
+    @GetMapping("/user/{userId}/unread-count")
+    public Map<String, Object> getUnreadCount(@PathVariable String userId) {
+        return Map.of("userId", userId, "unreadCount", notificationService.getUnreadCount(userId));
+    }
+
+    // Thông báo mới hơn cursor (nextCursor của lần gọi trước), dùng thay cho polling toàn bộ danh sách
+    @GetMapping("/user/{userId}/since")
+    public Map<String, Object> getNotificationsSince(@PathVariable String userId,
+                                                     @RequestParam(required = false) String cursor,
+                                                     @RequestParam(defaultValue = "50") int limit) {
+        return notificationService.getSince(userId, cursor, limit);
+    }
+
+    @PutMapping("/user/{userId}/read-all")
+    public Map<String, Object> markAllAsRead(@PathVariable String userId) {
+        long updated = notificationService.markAllAsRead(userId);
+        return Map.of("updated", updated, "unreadCount", notificationService.getUnreadCount(userId));
     }
 
     @PutMapping("/{id}/read")
     public ResponseEntity<Notification> markAsRead(@PathVariable String id) {
-        return notificationRepository.findById(id)
-            .map(notification -> {
-                notification.setRead(true);
-                return ResponseEntity.ok(notificationRepository.save(notification));
-            })
-            .orElse(ResponseEntity.notFound().build());
+        Notification notification = notificationService.markAsRead(id);
+        if (notification != null) {
+            return ResponseEntity.ok(notification);
+        }
+        // Broadcast SHARED: ghi marker đã đọc cho user hiện tại
+        User user = currentUser();
+        if (user == null || !broadcastService.isSharedBroadcast(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        broadcastService.markSharedRead(id, user.getId());
+        return ResponseEntity.ok(broadcastService.getSharedNotifications(user.getId(), false).stream()
+            .filter(shared -> id.equals(shared.getId()))
+            .findFirst()
+            .orElse(null));
     }
 
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteNotification(@PathVariable String id) {
-        if (!notificationRepository.existsById(id)) {
-            return ResponseEntity.notFound().build();
+        if (!notificationService.deleteNotification(id)) {
+            // Broadcast SHARED: chỉ ẩn khỏi danh sách của user hiện tại
+            User user = currentUser();
+            if (user == null || !broadcastService.isSharedBroadcast(id)) {
+                return ResponseEntity.notFound().build();
+            }
+            broadcastService.dismissShared(id, user.getId());
+            return ResponseEntity.noContent().build();
         }
-        notificationRepository.deleteById(id);
         return ResponseEntity.noContent().build();
     }
 
+    // Tạo job gửi thông báo hàng loạt, trả về job id ngay (202); theo dõi tiến độ qua /broadcasts/{jobId}
     @PostMapping("/send-to-all")
-    public Map<String, Object> broadcast(@RequestBody BroadcastNotificationRequest request) {
-        List<User> users = userService.getAll();
-        List<User> targets = users.stream()
-            .filter(user -> shouldSendToTarget(user, request.getTarget()))
-            .collect(Collectors.toList());
-        targets.forEach(user ->
-            notificationService.pushNotification(
-                user.getId(),
-                request.getTitle(),
-                request.getMessage(),
-                request.getType()
-            )
-        );
-        return Map.of(
-            "targetCount", targets.size(),
-            "target", request.getTarget()
+    public ResponseEntity<Map<String, Object>> broadcast(@RequestBody BroadcastNotificationRequest request) {
+        User user = currentUser();
+        NotificationBroadcast job = broadcastService.startBroadcast(
+            request.getTitle(),
+            request.getMessage(),
+            request.getType(),
+            request.getTarget(),
+            request.getMode(),
+            user != null ? user.getId() : null
         );
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jobId", job.getId());
+        response.put("status", job.getStatus());
+        response.put("mode", job.getMode());
+        response.put("targetCount", job.getTargetCount());
+        response.put("target", job.getTarget());
+        return ResponseEntity.accepted().body(response);
     }
 
-    private boolean shouldSendToTarget(User user, String target) {
-        if (user == null) return false;
-        if (target == null || target.equalsIgnoreCase("ALL")) return true;
-        String role = user.getRole() != null ? user.getRole().toUpperCase() : "";
-        if (target.equalsIgnoreCase("CUSTOMERS")) {
-            return !"SELLER".equals(role) && !"ADMIN".equals(role);
-        }
-        if (target.equalsIgnoreCase("SELLERS")) {
-            return "SELLER".equals(role);
+    @GetMapping("/broadcasts")
+    public List<NotificationBroadcast> getBroadcasts(@RequestParam(defaultValue = "50") int limit) {
+        return broadcastService.getRecentBroadcasts(limit);
+    }
+
+    // Tiến độ của một job broadcast
+    @GetMapping("/broadcasts/{jobId}")
+    public NotificationBroadcast getBroadcast(@PathVariable String jobId) {
+        return broadcastService.getBroadcast(jobId);
+    }
+
+    private User currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication.getName() == null || "anonymousUser".equals(authentication.getName())) {
+            return null;
         }
-        return true;
+        return userService.getByUsername(authentication.getName());
     }
 
     public static class BroadcastNotificationRequest {
@@ -96,6 +142,7 @@ public class NotificationController {
         private String message;
         private String type;
         private String target;
+        private String mode; // FANOUT (mặc định) hoặc SHARED
 
         public String getTitle() {
             return title;
@@ -128,7 +175,13 @@ public class NotificationController {
         public void setTarget(String target) {
             this.target = target;
         }
-    }
-}
 
+        public String getMode() {
+            return mode;
+        }
 
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+    }
+}
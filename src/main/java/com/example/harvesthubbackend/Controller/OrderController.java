@@ -1,6 +1,7 @@
 package com.example.harvesthubbackend.Controller;
 
 import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Service.OrderQueryService;
 import com.example.harvesthubbackend.Service.OrderService;
 import com.example.harvesthubbackend.Utils.PageResponse;
 import com.example.harvesthubbackend.Utils.PaginationUtils;
@@ -21,6 +22,8 @@ import java.util.List;
 public class OrderController {
     @Autowired
     private OrderService orderService;
+    @Autowired
+    private OrderQueryService orderQueryService;
 
 
     @Operation(summary = "Get all orders", description = "Retrieve all orders with pagination (Admin only)")
@@ -32,17 +35,16 @@ public class OrderController {
         @Parameter(description = "Page number (0-based)", example = "0") @RequestParam(defaultValue = "0") String page,
         @Parameter(description = "Page size", example = "20") @RequestParam(defaultValue = "20") String size,
         @Parameter(description = "Return as array (no pagination)", example = "false") @RequestParam(defaultValue = "false") boolean asArray) {
-        List<Order> allOrders = orderService.getAll();
-        
         // Nếu frontend yêu cầu array trực tiếp (cho admin dashboard)
+        // Dashboard mới nên dùng /api/admin/orders (lọc + keyset) hoặc /api/admin/orders/export
         if (asArray) {
-            return ResponseEntity.ok(allOrders);
+            return ResponseEntity.ok(orderService.getAll());
         }
         
-        // Mặc định trả về PageResponse (có pagination)
+        // Mặc định trả về PageResponse (có pagination), phân trang trên MongoDB
         int pageNum = PaginationUtils.parsePage(page);
         int pageSize = PaginationUtils.parseSize(size);
-        return PaginationUtils.paginate(allOrders, pageNum, pageSize);
+        return orderQueryService.findOffsetPage(pageNum, pageSize);
     }
 
     // Endpoint trả về array trực tiếp (không pagination) cho admin dashboard
@@ -85,10 +87,9 @@ public class OrderController {
         @Parameter(description = "Seller ID") @PathVariable String sellerId,
         @Parameter(description = "Page number (0-based)", example = "0") @RequestParam(defaultValue = "0") String page,
         @Parameter(description = "Page size", example = "20") @RequestParam(defaultValue = "20") String size) {
-        List<Order> sellerOrders = orderService.getBySellerId(sellerId);
         int pageNum = PaginationUtils.parsePage(page);
         int pageSize = PaginationUtils.parseSize(size);
-        return PaginationUtils.paginate(sellerOrders, pageNum, pageSize);
+        return orderService.getBySellerId(sellerId, pageNum, pageSize);
     }
 
     @PostMapping
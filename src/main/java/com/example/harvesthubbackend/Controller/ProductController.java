@@ -7,6 +7,10 @@ import org.springframework.web.multipart.MultipartFile;
 
 import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Service.ProductService;
+import com.example.harvesthubbackend.Service.ProductQueryService;
+import com.example.harvesthubbackend.Service.ProductSearchService;
+import com.example.harvesthubbackend.Service.ProductViewService;
+import com.example.harvesthubbackend.DTO.ProductQueryDTO;
 
 import java.util.List;
 import java.util.Map;
@@ -35,6 +39,15 @@ public class ProductController {
     @Autowired
     private ProductService productService;
     
+    @Autowired
+    private ProductQueryService productQueryService;
+    
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private ProductViewService productViewService;
+    
     @Autowired
     private SellerService sellerService;
     
@@ -44,7 +57,7 @@ public class ProductController {
     // Giới hạn tối đa số ảnh cho mỗi request
     private static final int MAX_IMAGES = 10;
 
-    @Operation(summary = "Get all products", description = "Retrieve all products with pagination")
+    @Operation(summary = "Get all products", description = "Retrieve products with server-side filtering, sorting and pagination")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Products retrieved successfully")
     })
@@ -53,37 +66,45 @@ public class ProductController {
         @Parameter(description = "Page number (0-based)", example = "0") @RequestParam(defaultValue = "0") String page,
         @Parameter(description = "Page size", example = "20") @RequestParam(defaultValue = "20") String size,
         @Parameter(description = "Return as array (no pagination)", example = "false") @RequestParam(defaultValue = "false") boolean asArray,
-        @Parameter(description = "Filter by category", example = "Trái cây") @RequestParam(required = false) String category) {
-        List<Product> allProducts;
-        if (category != null && !category.trim().isEmpty()) {
-            allProducts = productService.getByCategory(category.trim());
-            System.out.println("=== ProductController.getAll() with category filter ===");
-            System.out.println("Category filter: " + category);
-            System.out.println("Filtered products found: " + (allProducts != null ? allProducts.size() : 0));
-        } else {
-            allProducts = productService.getAll();
-        }
-        
-        System.out.println("=== ProductController.getAll() ===");
-        System.out.println("Total products found: " + (allProducts != null ? allProducts.size() : 0));
-        if (allProducts != null && !allProducts.isEmpty()) {
-            System.out.println("First product: " + allProducts.get(0).getName() + " (ID: " + allProducts.get(0).getId() + ", Status: " + allProducts.get(0).getStatus() + ")");
-        }
-        
-        // Normalize URL ảnh để hoạt động với mọi IP/hostname
-        ImageUrlUtils.normalizeProducts(allProducts);
-        
+        @Parameter(description = "Filter by category", example = "Trái cây") @RequestParam(required = false) String category,
+        @Parameter(description = "Filter by status", example = "active") @RequestParam(required = false) String status,
+        @Parameter(description = "Filter by approval status", example = "approved") @RequestParam(required = false) String approvalStatus,
+        @Parameter(description = "Minimum price") @RequestParam(required = false) Double minPrice,
+        @Parameter(description = "Maximum price") @RequestParam(required = false) Double maxPrice,
+        @Parameter(description = "Sort: newest, oldest, price_asc, price_desc, rating, best_selling, name") @RequestParam(required = false) String sort,
+        @Parameter(description = "Total count mode: exact or estimated", example = "exact") @RequestParam(defaultValue = "exact") String countMode) {
+        ProductQueryDTO filter = new ProductQueryDTO();
+        filter.setCategory(category);
+        filter.setStatus(status);
+        filter.setApprovalStatus(approvalStatus);
+        filter.setMinPrice(minPrice);
+        filter.setMaxPrice(maxPrice);
+        filter.setSort(sort);
+        filter.setCountMode(countMode);
+
         // Nếu frontend yêu cầu array trực tiếp (cho admin dashboard)
         if (asArray) {
-            return ResponseEntity.ok(allProducts);
+            return ResponseEntity.ok(productQueryService.findAll(filter));
         }
         
-        // Mặc định trả về PageResponse (có pagination)
+        // Mặc định trả về PageResponse (có pagination), lọc và phân trang ngay trong MongoDB
         int pageNum = PaginationUtils.parsePage(page);
         int pageSize = PaginationUtils.parseSize(size);
-        Object result = PaginationUtils.paginate(allProducts, pageNum, pageSize);
-        System.out.println("Returning paginated result with " + (allProducts != null ? allProducts.size() : 0) + " total products");
-        return result;
+        return productQueryService.findPage(filter, pageNum, pageSize);
+    }
+
+    @Operation(summary = "Search products", description = "Full-text search over product name, category and tags (accent-insensitive, prefix and fuzzy matching), ranked and paginated")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Search results retrieved successfully")
+    })
+    @GetMapping("/search")
+    public PageResponse<Product> search(
+        @Parameter(description = "Search keyword", example = "ca chua") @RequestParam(name = "q", defaultValue = "") String keyword,
+        @Parameter(description = "Page number (0-based)", example = "0") @RequestParam(defaultValue = "0") String page,
+        @Parameter(description = "Page size", example = "20") @RequestParam(defaultValue = "20") String size) {
+        int pageNum = PaginationUtils.parsePage(page);
+        int pageSize = PaginationUtils.parseSize(size);
+        return productSearchService.search(keyword, pageNum, pageSize);
     }
 
     // Endpoint trả về array trực tiếp (không pagination) cho admin dashboard
@@ -510,13 +531,57 @@ public class ProductController {
         @ApiResponse(responseCode = "404", description = "Product not found")
     })
     @GetMapping("/{id}")
-    public Product getById(@Parameter(description = "Product ID") @PathVariable String id) {
+    public Product getById(@Parameter(description = "Product ID") @PathVariable String id,
+                           jakarta.servlet.http.HttpServletRequest request) {
         Product product = productService.getById(id);
+        if (product != null) {
+            // Chỉ cộng vào bộ đếm trong bộ nhớ, ProductViewFlusher ghi xuống DB sau
+            productViewService.recordView(id, resolveViewerKey(request));
+        }
         // Normalize URL ảnh để hoạt động với mọi IP/hostname
         ImageUrlUtils.normalizeProduct(product);
         return product;
     }
 
+    // Định danh người xem: username nếu đã đăng nhập, nếu không thì IP + user agent.
+    // Không đọc X-Forwarded-For (client tự đặt được); sau proxy tin cậy thì bật server.forward-headers-strategy
+    // để getRemoteAddr trả về IP thật
+    private String resolveViewerKey(jakarta.servlet.http.HttpServletRequest request) {
+        org.springframework.security.core.Authentication authentication =
+            org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getName() != null && !"anonymousUser".equals(authentication.getName())) {
+            return "user:" + authentication.getName();
+        }
+        return "anon:" + request.getRemoteAddr() + "|" + request.getHeader("User-Agent");
+    }
+
+    // Sản phẩm được xem nhiều nhất trong N ngày gần nhất (public, không cần auth)
+    @Operation(summary = "Get trending products", description = "Retrieve active products with the most views in recent days")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Trending products retrieved successfully")
+    })
+    @GetMapping("/trending")
+    public ResponseEntity<List<Product>> getTrendingProducts(
+        @Parameter(description = "Number of recent days", example = "7")
+        @RequestParam(defaultValue = "7") int days,
+        @Parameter(description = "Number of products to return", example = "10")
+        @RequestParam(defaultValue = "10") int limit) {
+        List<Product> trending = productViewService.getTrendingProducts(days, Math.max(1, Math.min(limit, 100)));
+        // Normalize URL ảnh để hoạt động với mọi IP/hostname
+        ImageUrlUtils.normalizeProducts(trending);
+        return ResponseEntity.ok(trending);
+    }
+
+    // Lượt xem và số người xem theo ngày của một sản phẩm
+    @Operation(summary = "Get product view statistics", description = "Daily views and approximate unique viewers of a product")
+    @GetMapping("/{id}/views")
+    public ResponseEntity<Map<String, Object>> getProductViewStats(
+        @Parameter(description = "Product ID") @PathVariable String id,
+        @Parameter(description = "Number of recent days", example = "30")
+        @RequestParam(defaultValue = "30") int days) {
+        return ResponseEntity.ok(productViewService.getProductViewStats(id, days));
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteProduct(@PathVariable String id) {
         try {
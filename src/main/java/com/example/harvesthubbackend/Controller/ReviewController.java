@@ -8,9 +8,7 @@ import com.example.harvesthubbackend.Exception.ErrorCode;
 import com.example.harvesthubbackend.Models.Order;
 import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Models.Review;
-import com.example.harvesthubbackend.Models.Seller;
 import com.example.harvesthubbackend.Models.User;
-import com.example.harvesthubbackend.Repository.SellerRepository;
 import com.example.harvesthubbackend.Service.OrderService;
 import com.example.harvesthubbackend.Service.ProductService;
 import com.example.harvesthubbackend.Service.ReviewService;
@@ -21,7 +19,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -43,9 +40,6 @@ public class ReviewController {
     @Autowired
     private ProductService productService;
     
-    @Autowired
-    private SellerRepository sellerRepository;
-    
     // Create a new review
     @PostMapping
     public ResponseEntity<Review> createReview(@RequestBody Review review) {
@@ -130,8 +124,7 @@ public class ReviewController {
         targetItem.setReviewedAt(System.currentTimeMillis());
         orderService.update(orderId, order);
         
-        updateProductAggregations(product, savedReview.getRating());
-        updateSellerAggregations(product, savedReview.getRating());
+        // rating/reviewCount của sản phẩm và seller được RatingSummaryService cập nhật trong createReview
         
         ImageUrlUtils.normalizeReview(savedReview);
         ApiResponse<Review> response = ApiResponse.success(savedReview, "Đã ghi nhận đánh giá của bạn");
@@ -400,43 +393,4 @@ public class ReviewController {
         }
         return result;
     }
-    
-    private void updateProductAggregations(Product product, int rating) {
-        if (product == null) {
-            return;
-        }
-        int currentCount = Math.max(product.getReviewCount(), 0);
-        double totalScore = product.getRating() * currentCount;
-        int newCount = currentCount + 1;
-        double newAverage = (totalScore + rating) / newCount;
-        product.setReviewCount(newCount);
-        product.setRating(Math.round(newAverage * 10.0) / 10.0);
-        product.setUpdatedAt(LocalDateTime.now());
-        productService.update(product.getId(), product);
-    }
-    
-    private void updateSellerAggregations(Product product, int rating) {
-        if (product == null) {
-            return;
-        }
-        String sellerId = product.getSellerId();
-        if (sellerId == null) {
-            return;
-        }
-        Seller seller = sellerRepository.findById(sellerId).orElse(null);
-        if (seller == null) {
-            seller = sellerRepository.findByUserId(sellerId).orElse(null);
-        }
-        if (seller == null) {
-            return;
-        }
-        int currentCount = Math.max(seller.getReviewCount(), 0);
-        double totalScore = seller.getAverageRating() * currentCount;
-        int newCount = currentCount + 1;
-        double newAverage = (totalScore + rating) / newCount;
-        seller.setReviewCount(newCount);
-        seller.setAverageRating(Math.round(newAverage * 10.0) / 10.0);
-        seller.setUpdatedAt(LocalDateTime.now());
-        sellerRepository.save(seller);
-    }
 }
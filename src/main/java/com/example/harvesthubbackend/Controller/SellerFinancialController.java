@@ -1,6 +1,7 @@
 package com.example.harvesthubbackend.Controller;
 
 import com.example.harvesthubbackend.Models.SellerFinancial;
+import com.example.harvesthubbackend.Models.SellerSettlement;
 import com.example.harvesthubbackend.Models.WithdrawalRequest;
 import com.example.harvesthubbackend.Service.SellerFinancialService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -82,6 +83,15 @@ public class SellerFinancialController {
         return ResponseEntity.ok(financialService.getWithdrawalRequestsBySeller(sellerId));
     }
     
+    // Lấy các entry quyết toán theo đơn của seller (status: PENDING, AVAILABLE, REVERSED)
+    @GetMapping("/{sellerId}/settlements")
+    public ResponseEntity<List<SellerSettlement>> getSettlements(
+            @PathVariable String sellerId,
+            @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(financialService.getSettlements(sellerId, status, limit));
+    }
+    
     // Xử lý yêu cầu rút tiền (Admin)
     @PutMapping("/withdrawals/{requestId}/process")
     public ResponseEntity<?> processWithdrawal(
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Controller;
 
 import com.example.harvesthubbackend.Models.Voucher;
 import com.example.harvesthubbackend.Models.UserVoucher;
+import com.example.harvesthubbackend.Service.VoucherEngine;
 import com.example.harvesthubbackend.Service.VoucherService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -231,51 +232,46 @@ public class VoucherController {
             @RequestParam(required = false) String shopId,
             @RequestParam(required = false) List<String> productIds,
             @RequestParam(required = false) List<String> categoryIds) {
-        List<UserVoucher> userVouchers = voucherService.getUserActiveVouchers(userId);
+        // Voucher, hạng thành viên và số lần đã dùng được nạp theo lô cho cả danh sách
+        List<VoucherEngine.Evaluation> evaluations = voucherService.evaluateUserVouchersForCart(
+            userId, subtotal, shopId, productIds, categoryIds, 0);
         List<VoucherEligibilityResponse> responses = new ArrayList<>();
-        
-        for (UserVoucher userVoucher : userVouchers) {
-            VoucherEligibilityResponse response = new VoucherEligibilityResponse();
-            response.setUserVoucher(userVoucher);
-            
-            // Get voucher details
-            Optional<Voucher> voucherOpt = voucherService.getVoucherByCode(userVoucher.getVoucherCode());
-            if (voucherOpt.isPresent()) {
-                Voucher voucher = voucherOpt.get();
-                response.setVoucher(voucher);
-                
-                // Check eligibility
-                List<String> productIdList = productIds != null ? productIds : new ArrayList<>();
-                List<String> categoryIdList = categoryIds != null ? categoryIds : new ArrayList<>();
-                
-                boolean isEligible = voucherService.validateVoucherForOrder(
-                    userVoucher.getVoucherCode(), userId, subtotal, shopId, productIdList, categoryIdList);
-                response.setEligible(isEligible);
-                
-                // Calculate potential discount
-                if (isEligible) {
-                    double discount = voucherService.calculateDiscount(userVoucher.getVoucherCode(), subtotal);
-                    response.setDiscountAmount(discount);
-                } else {
-                    response.setDiscountAmount(0);
-                    // Set reason if not eligible
-                    if (subtotal < voucher.getMinOrderAmount()) {
-                        response.setReason("Đơn hàng tối thiểu: " + String.format("%.0f", voucher.getMinOrderAmount()) + "đ");
-                    } else {
-                        response.setReason("Voucher không thể áp dụng cho đơn hàng này");
-                    }
-                }
-            } else {
-                response.setEligible(false);
-                response.setReason("Voucher không tồn tại");
-            }
-            
-            responses.add(response);
+        for (VoucherEngine.Evaluation evaluation : evaluations) {
+            responses.add(toEligibilityResponse(evaluation));
         }
         
         return ResponseEntity.ok(responses);
     }
     
+    // Best voucher for the cart among the user's unused vouchers (204 if none applies)
+    @GetMapping("/my-vouchers/{userId}/best")
+    public ResponseEntity<VoucherEligibilityResponse> getBestVoucherForCart(
+            @PathVariable String userId,
+            @RequestParam(required = false, defaultValue = "0") double subtotal,
+            @RequestParam(required = false, defaultValue = "0") double shippingFee,
+            @RequestParam(required = false) String shopId,
+            @RequestParam(required = false) List<String> productIds,
+            @RequestParam(required = false) List<String> categoryIds) {
+        VoucherEngine.Evaluation best = voucherService.bestVoucherForCart(
+            userId, subtotal, shopId, productIds, categoryIds, shippingFee);
+        if (best == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(toEligibilityResponse(best));
+    }
+    
+    private static VoucherEligibilityResponse toEligibilityResponse(VoucherEngine.Evaluation evaluation) {
+        VoucherEligibilityResponse response = new VoucherEligibilityResponse();
+        response.setUserVoucher(evaluation.getUserVoucher());
+        response.setVoucher(evaluation.getVoucher());
+        response.setEligible(evaluation.isEligible());
+        response.setDiscountAmount(evaluation.isEligible() ? evaluation.getDiscountAmount() : 0);
+        if (!evaluation.isEligible()) {
+            response.setReason(evaluation.getReason());
+        }
+        return response;
+    }
+    
     // Get eligible vouchers for order
     @GetMapping("/eligible")
     public ResponseEntity<List<Voucher>> getEligibleVouchers(
@@ -43,6 +43,7 @@ public class WalletController {
     @PostMapping("/{userId}/deposit")
     public ResponseEntity<?> deposit(
             @PathVariable String userId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             @RequestBody Map<String, Object> request) {
         try {
             Double amount = ((Number) request.get("amount")).doubleValue();
@@ -54,7 +55,8 @@ public class WalletController {
                     .body(Map.of("success", false, "message", "Số tiền nạp phải lớn hơn 0"));
             }
             
-            WalletTransaction transaction = walletService.deposit(userId, amount, paymentMethod, description);
+            WalletTransaction transaction = walletService.deposit(userId, amount, paymentMethod, description,
+                idempotencyKey(idempotencyKey, request));
             
             // If payment method is online (vnpay, banking, bank_card), create payment
             if (!"wallet".equals(paymentMethod) && transaction.getStatus().equals("pending")) {
@@ -84,7 +86,7 @@ public class WalletController {
             }
             
             return ResponseEntity.ok(Map.of("success", true, "transaction", transaction));
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | IllegalStateException e) {
             return ResponseEntity.badRequest()
                 .body(Map.of("success", false, "message", e.getMessage()));
         } catch (Exception e) {
@@ -99,6 +101,7 @@ public class WalletController {
     @PostMapping("/{userId}/withdraw")
     public ResponseEntity<?> withdraw(
             @PathVariable String userId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             @RequestBody Map<String, Object> request) {
         try {
             Double amount = ((Number) request.get("amount")).doubleValue();
@@ -109,7 +112,8 @@ public class WalletController {
                     .body(Map.of("success", false, "message", "Số tiền rút phải lớn hơn 0"));
             }
             
-            WalletTransaction transaction = walletService.withdraw(userId, amount, description);
+            WalletTransaction transaction = walletService.withdraw(userId, amount, description,
+                idempotencyKey(idempotencyKey, request));
             return ResponseEntity.ok(Map.of("success", true, "transaction", transaction));
         } catch (IllegalArgumentException | IllegalStateException e) {
             return ResponseEntity.badRequest()
@@ -159,11 +163,13 @@ public class WalletController {
     @GetMapping("/{userId}/transactions")
     public ResponseEntity<?> getTransactions(
             @PathVariable String userId,
-            @RequestParam(defaultValue = "0") int limit) {
+            @RequestParam(defaultValue = "0") int limit,
+            @RequestParam(required = false) String before) {
         try {
             List<WalletTransaction> transactions;
             if (limit > 0) {
-                transactions = walletService.getTransactionHistory(userId, limit);
+                // Trang tiếp theo: before = id giao dịch cuối của trang trước
+                transactions = walletService.getTransactionHistory(userId, limit, before);
             } else {
                 transactions = walletService.getAllTransactions(userId);
             }
@@ -190,5 +196,13 @@ public class WalletController {
                 .body(Map.of("success", false, "message", "Lỗi khi hoàn tất giao dịch: " + e.getMessage()));
         }
     }
-}
 
+    // Khóa chống trùng từ header Idempotency-Key hoặc field idempotencyKey trong body
+    private static String idempotencyKey(String header, Map<String, Object> request) {
+        if (header != null && !header.isBlank()) {
+            return header.trim();
+        }
+        Object key = request.get("idempotencyKey");
+        return key != null && !key.toString().isBlank() ? key.toString().trim() : null;
+    }
+}
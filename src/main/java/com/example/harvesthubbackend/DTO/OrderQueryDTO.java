@@ -0,0 +1,35 @@
+package com.example.harvesthubbackend.DTO;
+
+/**
+ * Bộ lọc cho truy vấn đơn hàng phía admin (/api/admin/orders).
+ * Mọi trường đều tùy chọn; trường null nghĩa là không lọc theo trường đó.
+ */
+public class OrderQueryDTO {
+    private String status;
+    private String paymentStatus;
+    private String userId;
+    private String sellerId;
+
+    // Khoảng thời gian theo createdAt (epoch millis), from bao gồm, to không bao gồm
+    private Long from;
+    private Long to;
+
+    // Getters and setters
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getPaymentStatus() { return paymentStatus; }
+    public void setPaymentStatus(String paymentStatus) { this.paymentStatus = paymentStatus; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getSellerId() { return sellerId; }
+    public void setSellerId(String sellerId) { this.sellerId = sellerId; }
+
+    public Long getFrom() { return from; }
+    public void setFrom(Long from) { this.from = from; }
+
+    public Long getTo() { return to; }
+    public void setTo(Long to) { this.to = to; }
+}
@@ -0,0 +1,58 @@
+package com.example.harvesthubbackend.DTO;
+
+/**
+ * Bộ lọc cho truy vấn danh sách sản phẩm (/api/products).
+ * Mọi trường đều tùy chọn; trường null nghĩa là không lọc theo trường đó.
+ */
+public class ProductQueryDTO {
+    private String category;
+    private String status;
+    private String approvalStatus;
+    private String sellerId;
+    private Double minPrice;
+    private Double maxPrice;
+
+    // newest, oldest, price_asc, price_desc, rating, best_selling, name
+    private String sort;
+
+    // exact (mặc định) hoặc estimated
+    private String countMode;
+
+    public boolean hasFilters() {
+        return notBlank(category) || notBlank(status) || notBlank(approvalStatus)
+            || notBlank(sellerId) || minPrice != null || maxPrice != null;
+    }
+
+    public boolean isEstimatedCount() {
+        return "estimated".equalsIgnoreCase(countMode);
+    }
+
+    private static boolean notBlank(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    // Getters and setters
+    public String getCategory() { return category; }
+    public void setCategory(String category) { this.category = category; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getApprovalStatus() { return approvalStatus; }
+    public void setApprovalStatus(String approvalStatus) { this.approvalStatus = approvalStatus; }
+
+    public String getSellerId() { return sellerId; }
+    public void setSellerId(String sellerId) { this.sellerId = sellerId; }
+
+    public Double getMinPrice() { return minPrice; }
+    public void setMinPrice(Double minPrice) { this.minPrice = minPrice; }
+
+    public Double getMaxPrice() { return maxPrice; }
+    public void setMaxPrice(Double maxPrice) { this.maxPrice = maxPrice; }
+
+    public String getSort() { return sort; }
+    public void setSort(String sort) { this.sort = sort; }
+
+    public String getCountMode() { return countMode; }
+    public void setCountMode(String countMode) { this.countMode = countMode; }
+}
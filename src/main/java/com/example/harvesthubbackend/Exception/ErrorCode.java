@@ -50,6 +50,11 @@ public enum ErrorCode {
     CART_ITEM_NOT_FOUND(6001, "Không tìm thấy sản phẩm trong giỏ hàng"),
     CART_INVALID_QUANTITY(6002, "Số lượng sản phẩm không hợp lệ"),
     
+    // Voucher errors (6100-6199)
+    VOUCHER_NOT_FOUND(6100, "Không tìm thấy voucher"),
+    VOUCHER_USAGE_LIMIT_REACHED(6101, "Voucher đã hết lượt sử dụng"),
+    VOUCHER_USER_LIMIT_REACHED(6102, "Bạn đã dùng hết lượt của voucher này"),
+    
     // Payment errors (7000-7099)
     PAYMENT_NOT_FOUND(7000, "Không tìm thấy giao dịch thanh toán"),
     PAYMENT_ALREADY_PROCESSED(7001, "Giao dịch đã được xử lý"),
@@ -3,6 +3,7 @@ package com.example.harvesthubbackend.Models;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
@@ -12,6 +13,7 @@ public class BankCard {
     @Id
     private String id;
     
+    @Indexed(name = "user_idx")
     @Field("userId")
     private String userId;
     
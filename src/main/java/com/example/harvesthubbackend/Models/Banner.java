@@ -1,11 +1,15 @@
 package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Document(collection = "banners")
+@CompoundIndex(name = "position_status_idx", def = "{'position': 1, 'status': 1}")
 public class Banner {
     @Id
     private String id;
@@ -55,6 +59,10 @@ public class Banner {
     @Field("updatedAt")
     private LocalDateTime updatedAt;
     
+    // Số liệu theo giờ gần đây, chỉ điền khi trả về client (API sắp xếp theo lượt xem/click)
+    @Transient
+    private List<BannerStatBucket> recentStats;
+    
     // Constructor
     public Banner() {
         this.createdAt = LocalDateTime.now();
@@ -122,6 +130,14 @@ public class Banner {
                now.isBefore(endDate);
     }
     
+    // Tỉ lệ click (%) trên tổng lượt xem, làm tròn 2 chữ số thập phân
+    public double getCtr() {
+        return viewCount > 0 ? Math.round(clickCount * 10000.0 / viewCount) / 100.0 : 0.0;
+    }
+    
+    public List<BannerStatBucket> getRecentStats() { return recentStats; }
+    public void setRecentStats(List<BannerStatBucket> recentStats) { this.recentStats = recentStats; }
+    
     public void incrementClickCount() {
         this.clickCount++;
         this.updatedAt = LocalDateTime.now();
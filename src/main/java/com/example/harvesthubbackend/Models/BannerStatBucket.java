@@ -0,0 +1,52 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lượt xem/click của một banner trong một giờ, ghi bằng $inc khi flush bộ đếm trong bộ nhớ.
+ * _id = "{bannerId}:{yyyyMMddHH}"; tự xóa sau 90 ngày.
+ */
+@Document(collection = "banner_stat_buckets")
+@CompoundIndex(name = "banner_bucket_idx", def = "{'bannerId': 1, 'bucketStart': 1}")
+public class BannerStatBucket {
+    @Id
+    private String id;
+    private String bannerId;
+    @Indexed(name = "bucket_ttl_idx", expireAfter = "90d")
+    private LocalDateTime bucketStart;
+    private long views;
+    private long clicks;
+
+    public BannerStatBucket() {}
+
+    public BannerStatBucket(String bannerId, LocalDateTime bucketStart) {
+        this.bannerId = bannerId;
+        this.bucketStart = bucketStart;
+    }
+
+    // Tỉ lệ click (%) làm tròn 2 chữ số thập phân
+    public double getCtr() {
+        return views > 0 ? Math.round(clicks * 10000.0 / views) / 100.0 : 0.0;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getBannerId() { return bannerId; }
+    public void setBannerId(String bannerId) { this.bannerId = bannerId; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public long getViews() { return views; }
+    public void setViews(long views) { this.views = views; }
+
+    public long getClicks() { return clicks; }
+    public void setClicks(long clicks) { this.clicks = clicks; }
+}
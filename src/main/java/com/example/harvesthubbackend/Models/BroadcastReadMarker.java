@@ -0,0 +1,68 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Trạng thái của một user đối với một broadcast SHARED (đã đọc / đã xóa khỏi danh sách)
+@Document(collection = "broadcast_read_markers")
+@CompoundIndex(name = "user_broadcast_uidx", def = "{'userId': 1, 'broadcastId': 1}", unique = true)
+public class BroadcastReadMarker {
+    @Id
+    private String id;
+    private String userId;
+    private String broadcastId;
+    private boolean read;
+    private boolean dismissed;
+    private long updatedAt;
+
+    public BroadcastReadMarker() {}
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getBroadcastId() {
+        return broadcastId;
+    }
+
+    public void setBroadcastId(String broadcastId) {
+        this.broadcastId = broadcastId;
+    }
+
+    public boolean isRead() {
+        return read;
+    }
+
+    public void setRead(boolean read) {
+        this.read = read;
+    }
+
+    public boolean isDismissed() {
+        return dismissed;
+    }
+
+    public void setDismissed(boolean dismissed) {
+        this.dismissed = dismissed;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.List;
 public class Cart {
     @Id
     private String id;
+    @Indexed(name = "user_idx")
     private String userId;
     private List<CartItem> items = new ArrayList<>();
     private double totalPrice;
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -10,13 +11,16 @@ public class Category {
     @Id
     private String id;
     
+    @Indexed(name = "name_idx")
     private String name;
     private String description;
     private String icon;
     private String image;
     private String color;
+    @Indexed(name = "slug_idx")
     private String slug;
     
+    @Indexed(name = "parent_idx")
     private String parentId; // For subcategories
     private List<String> subcategoryIds;
     private int level; // 0: main category, 1: subcategory, 2: sub-subcategory
@@ -1,17 +1,32 @@
 package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import java.util.List;
 
 @Document(collection = "conversations")
+@CompoundIndexes({
+    @CompoundIndex(name = "seller_updated_idx", def = "{'sellerId': 1, 'updatedAt': -1}"),
+    @CompoundIndex(name = "customer_updated_idx", def = "{'customerId': 1, 'updatedAt': -1}")
+})
 public class Conversation {
     @Id
     private String id;
     private String sellerId;
     private String customerId;
+    @Indexed(name = "order_idx")
     private String orderId;
+    // Tin nhắn lưu trong collection conversation_messages; field này chỉ chứa trang mới nhất khi trả về client
+    @Transient
     private List<Message> messages;
+    private Message lastMessage;
+    private long messageCount;
+    private long unreadBySeller;
+    private long unreadByCustomer;
     private long createdAt;
     private long updatedAt;
 
@@ -53,6 +68,14 @@ public class Conversation {
     public void setOrderId(String orderId) { this.orderId = orderId; }
     public List<Message> getMessages() { return messages; }
     public void setMessages(List<Message> messages) { this.messages = messages; }
+    public Message getLastMessage() { return lastMessage; }
+    public void setLastMessage(Message lastMessage) { this.lastMessage = lastMessage; }
+    public long getMessageCount() { return messageCount; }
+    public void setMessageCount(long messageCount) { this.messageCount = messageCount; }
+    public long getUnreadBySeller() { return unreadBySeller; }
+    public void setUnreadBySeller(long unreadBySeller) { this.unreadBySeller = unreadBySeller; }
+    public long getUnreadByCustomer() { return unreadByCustomer; }
+    public void setUnreadByCustomer(long unreadByCustomer) { this.unreadByCustomer = unreadByCustomer; }
     public long getCreatedAt() { return createdAt; }
     public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
     public long getUpdatedAt() { return updatedAt; }
@@ -0,0 +1,49 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Một tin nhắn trong cuộc hội thoại; chỉ insert, phân trang theo (timestamp, _id)
+@Document(collection = "conversation_messages")
+@CompoundIndex(name = "conversation_timestamp_idx", def = "{'conversationId': 1, 'timestamp': 1, '_id': 1}")
+public class ConversationMessage {
+    @Id
+    private String id;
+    private String conversationId;
+    private String senderId;
+    private String senderName;
+    private String role; // "customer" hoặc "seller"
+    private String content;
+    private long timestamp;
+
+    public ConversationMessage() {}
+
+    public ConversationMessage(String conversationId, Conversation.Message message) {
+        this.conversationId = conversationId;
+        this.senderId = message.getSenderId();
+        this.senderName = message.getSenderName();
+        this.role = message.getRole();
+        this.content = message.getContent();
+        this.timestamp = message.getTimestamp();
+    }
+
+    public Conversation.Message toMessage() {
+        return new Conversation.Message(senderId, senderName, role, content, timestamp);
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+    public String getSenderId() { return senderId; }
+    public void setSenderId(String senderId) { this.senderId = senderId; }
+    public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
+    public String getRole() { return role; }
+    public void setRole(String role) { this.role = role; }
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+}
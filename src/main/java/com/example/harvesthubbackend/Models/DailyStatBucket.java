@@ -0,0 +1,38 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+// Số liệu thống kê theo ngày (theo múi giờ hệ thống), id dạng yyyy-MM-dd nên sắp xếp theo id là theo ngày
+@Document(collection = "stat_daily_buckets")
+public class DailyStatBucket {
+    @Id
+    private String id;
+    private long orders; // Số đơn tạo trong ngày
+    private long deliveredOrders; // Số đơn tạo trong ngày hiện đang ở trạng thái delivered
+    private double revenue; // Doanh thu từ các đơn delivered đó
+    private long newUsers; // Số người dùng đăng ký trong ngày
+    private LocalDateTime updatedAt;
+
+    public DailyStatBucket() {}
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public long getOrders() { return orders; }
+    public void setOrders(long orders) { this.orders = orders; }
+
+    public long getDeliveredOrders() { return deliveredOrders; }
+    public void setDeliveredOrders(long deliveredOrders) { this.deliveredOrders = deliveredOrders; }
+
+    public double getRevenue() { return revenue; }
+    public void setRevenue(double revenue) { this.revenue = revenue; }
+
+    public long getNewUsers() { return newUsers; }
+    public void setNewUsers(long newUsers) { this.newUsers = newUsers; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -2,12 +2,18 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "flashsales")
+@CompoundIndexes({
+    @CompoundIndex(name = "status_time_idx", def = "{'status': 1, 'startTime': 1, 'endTime': 1}"),
+    @CompoundIndex(name = "product_idx", def = "{'products.productId': 1}")
+})
 public class FlashSale {
     @Id
     private String id;
@@ -0,0 +1,77 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Một đơn đã được ghi nhận vào soldCount của một sản phẩm flash sale (chống cộng trùng khi outbox retry).
+// quantity là số lượng thực sự được cộng; 0 nếu flash sale đã hết suất.
+@Document(collection = "flash_sale_order_records")
+@CompoundIndex(name = "flash_sale_product_order_uidx", def = "{'flashSaleId': 1, 'productId': 1, 'orderId': 1}", unique = true)
+public class FlashSaleOrderRecord {
+    @Id
+    private String id;
+    private String flashSaleId;
+    private String productId;
+    private String orderId;
+    private int quantity;
+    private long recordedAt;
+
+    public FlashSaleOrderRecord() {}
+
+    public FlashSaleOrderRecord(String flashSaleId, String productId, String orderId, int quantity) {
+        this.flashSaleId = flashSaleId;
+        this.productId = productId;
+        this.orderId = orderId;
+        this.quantity = quantity;
+        this.recordedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFlashSaleId() {
+        return flashSaleId;
+    }
+
+    public void setFlashSaleId(String flashSaleId) {
+        this.flashSaleId = flashSaleId;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(String orderId) {
+        this.orderId = orderId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getRecordedAt() {
+        return recordedAt;
+    }
+
+    public void setRecordedAt(long recordedAt) {
+        this.recordedAt = recordedAt;
+    }
+}
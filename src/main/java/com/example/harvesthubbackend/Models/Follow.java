@@ -2,10 +2,13 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 
 @Document(collection = "follows")
+@CompoundIndex(name = "user_shop_uidx", def = "{'userId': 1, 'shopId': 1}", unique = true)
 public class Follow {
     @Id
     private String id;
@@ -13,6 +16,7 @@ public class Follow {
     @Field("userId")
     private String userId; // Người theo dõi
     
+    @Indexed(name = "shop_idx")
     @Field("shopId")
     private String shopId; // Shop được theo dõi
     
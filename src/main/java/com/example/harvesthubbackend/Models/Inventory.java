@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 
 @Document(collection = "inventories")
@@ -10,7 +11,9 @@ public class Inventory {
     private String id;
     
     // Thông tin sản phẩm
+    @Indexed(name = "product_uidx", unique = true)
     private String productId;
+    @Indexed(name = "seller_idx")
     private String sellerId;
     
     // Tồn kho
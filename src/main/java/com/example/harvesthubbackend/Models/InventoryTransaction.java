@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 
 @Document(collection = "inventory_transactions")
@@ -10,7 +11,9 @@ public class InventoryTransaction {
     private String id;
     
     // Thông tin kho hàng
+    @Indexed(name = "inventory_idx")
     private String inventoryId;
+    @Indexed(name = "product_idx")
     private String productId;
     private String sellerId;
     
@@ -24,6 +27,7 @@ public class InventoryTransaction {
     private int quantityAfter; // Số lượng sau giao dịch
     
     // Thông tin liên quan
+    @Indexed(name = "order_idx")
     private String orderId; // Nếu liên quan đến đơn hàng
     private String referenceNumber; // Số tham chiếu (hóa đơn, phiếu nhập/xuất)
     
@@ -2,8 +2,17 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 
 @Document(collection = "notifications")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "user_read_idx", def = "{'userId': 1, 'read': 1}"),
+    // Mỗi user nhận tối đa một bản của một broadcast FANOUT (chạy tiếp job không ghi trùng)
+    @CompoundIndex(name = "broadcast_user_uidx", def = "{'broadcastId': 1, 'userId': 1}", unique = true,
+        partialFilter = "{'broadcastId': {$exists: true}}")
+})
 public class Notification {
     @Id
     private String id;
@@ -13,6 +22,7 @@ public class Notification {
     private String type; // INFO, ORDER, PROMO, SYSTEM
     private boolean read;
     private long createdAt;
+    private String broadcastId; // Broadcast sinh ra thông báo này (nếu có)
 
     public Notification() {}
 
@@ -81,6 +91,12 @@ public class Notification {
     public void setCreatedAt(long createdAt) {
         this.createdAt = createdAt;
     }
-}
 
+    public String getBroadcastId() {
+        return broadcastId;
+    }
 
+    public void setBroadcastId(String broadcastId) {
+        this.broadcastId = broadcastId;
+    }
+}
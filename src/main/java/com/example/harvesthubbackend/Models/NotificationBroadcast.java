@@ -0,0 +1,175 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Một lần gửi thông báo hàng loạt (job broadcast).
+ * - FANOUT: mỗi user nhận một bản Notification riêng, document này theo dõi tiến độ ghi
+ *   (lastUserId là cursor để chạy tiếp job bị dừng, lockedUntil là lease của instance đang chạy).
+ * - SHARED: chỉ lưu một document này; trạng thái đã đọc/đã xóa của từng user nằm trong BroadcastReadMarker.
+ */
+@Document(collection = "notification_broadcasts")
+@CompoundIndex(name = "mode_target_created_idx", def = "{'mode': 1, 'target': 1, 'createdAt': -1}")
+public class NotificationBroadcast {
+    public static final String MODE_FANOUT = "FANOUT";
+    public static final String MODE_SHARED = "SHARED";
+
+    @Id
+    private String id;
+    private String title;
+    private String message;
+    private String type;
+    private String target; // ALL, CUSTOMERS, SELLERS
+    private String mode;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED
+    private long targetCount;
+    private long processedCount;
+    private String error;
+    private String createdBy;
+    private long createdAt;
+    private Long startedAt;
+    private Long completedAt;
+    private String lastUserId;
+    private Long lockedUntil;
+    private int attempts;
+
+    public NotificationBroadcast() {}
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public long getTargetCount() {
+        return targetCount;
+    }
+
+    public void setTargetCount(long targetCount) {
+        this.targetCount = targetCount;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(long processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getCreatedBy() {
+        return createdBy;
+    }
+
+    public void setCreatedBy(String createdBy) {
+        this.createdBy = createdBy;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Long getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Long completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public String getLastUserId() {
+        return lastUserId;
+    }
+
+    public void setLastUserId(String lastUserId) {
+        this.lastUserId = lastUserId;
+    }
+
+    public Long getLockedUntil() {
+        return lockedUntil;
+    }
+
+    public void setLockedUntil(Long lockedUntil) {
+        this.lockedUntil = lockedUntil;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Số thông báo chưa đọc của một user, cập nhật bằng $inc khi tạo/đọc/xóa thông báo
+@Document(collection = "notification_counters")
+public class NotificationCounter {
+    @Id
+    private String id; // userId
+    private long unread;
+    private long updatedAt;
+
+    public NotificationCounter() {}
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public long getUnread() { return unread; }
+    public void setUnread(long unread) { this.unread = unread; }
+
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -1,9 +1,20 @@
 package com.example.harvesthubbackend.Models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 
 @Document(collection = "orders")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "status_created_idx", def = "{'status': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "item_seller_created_idx", def = "{'items.sellerId': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "created_id_idx", def = "{'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "payment_status_created_idx", def = "{'paymentStatus': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "pending_events_idx", def = "{'pendingEvents.createdAt': 1}", sparse = true)
+})
 public class Order {
     @Id
     private String id;
@@ -35,6 +46,9 @@ public class Order {
     // Snapshot items
     private java.util.List<OrderItem> items;
 
+    // Sự kiện outbox ghi cùng lần lưu đơn; OrderSideEffectService chuyển sang outbox_events rồi $pull
+    private java.util.List<PendingEvent> pendingEvents;
+
     // Constructors
     public Order() {
         this.status = "processing";
@@ -108,8 +122,21 @@ public class Order {
     public double getSubtotal() { return subtotal; }
     public void setSubtotal(double subtotal) { this.subtotal = subtotal; }
 
+    @JsonIgnore
+    public java.util.List<PendingEvent> getPendingEvents() { return pendingEvents; }
+    public void setPendingEvents(java.util.List<PendingEvent> pendingEvents) { this.pendingEvents = pendingEvents; }
+
+    public void addPendingEvent(PendingEvent event) {
+        if (pendingEvents == null) {
+            pendingEvents = new java.util.ArrayList<>();
+        }
+        pendingEvents.add(event);
+    }
+
     public static class OrderItem {
         private String productId;
+        private String sellerId; // Product.sellerId tại thời điểm đặt hàng
+        private String shopId; // Shop của seller tại thời điểm đặt hàng
         private String nameSnapshot;
         private String imageSnapshot;
         private int quantity;
@@ -122,6 +149,10 @@ public class Order {
 
         public String getProductId() { return productId; }
         public void setProductId(String productId) { this.productId = productId; }
+        public String getSellerId() { return sellerId; }
+        public void setSellerId(String sellerId) { this.sellerId = sellerId; }
+        public String getShopId() { return shopId; }
+        public void setShopId(String shopId) { this.shopId = shopId; }
         public String getNameSnapshot() { return nameSnapshot; }
         public void setNameSnapshot(String nameSnapshot) { this.nameSnapshot = nameSnapshot; }
         public String getImageSnapshot() { return imageSnapshot; }
@@ -137,4 +168,29 @@ public class Order {
         public Long getReviewedAt() { return reviewedAt; }
         public void setReviewedAt(Long reviewedAt) { this.reviewedAt = reviewedAt; }
     }
-}
\ No newline at end of file
+
+    public static class PendingEvent {
+        private String type;
+        private String idempotencyKey;
+        private java.util.Map<String, Object> payload;
+        private long createdAt;
+
+        public PendingEvent() {}
+
+        public PendingEvent(String type, String idempotencyKey, java.util.Map<String, Object> payload) {
+            this.type = type;
+            this.idempotencyKey = idempotencyKey;
+            this.payload = payload;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        public String getType() { return type; }
+        public void setType(String type) { this.type = type; }
+        public String getIdempotencyKey() { return idempotencyKey; }
+        public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+        public java.util.Map<String, Object> getPayload() { return payload; }
+        public void setPayload(java.util.Map<String, Object> payload) { this.payload = payload; }
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+    }
+}
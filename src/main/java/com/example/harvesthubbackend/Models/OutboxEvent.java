@@ -0,0 +1,87 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sự kiện domain chờ xử lý (outbox). Được ghi ngay sau khi thay đổi chính (ví dụ đơn hàng) được lưu,
+ * sau đó worker nền chạy các handler đăng ký cho type, có retry và ghi nhận handler đã chạy xong.
+ */
+@Document(collection = "outbox_events")
+@CompoundIndexes({
+    @CompoundIndex(name = "status_next_attempt_idx", def = "{'status': 1, 'nextAttemptAt': 1}"),
+    @CompoundIndex(name = "aggregate_status_idx", def = "{'aggregateId': 1, 'status': 1}")
+})
+public class OutboxEvent {
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    private String id;
+    private String type; // ORDER_CREATED, ORDER_STATUS_CHANGED, ...
+    private String aggregateId; // Ví dụ orderId; các sự kiện cùng aggregate được xử lý theo thứ tự
+    @Indexed(name = "idempotency_key_uidx", unique = true)
+    private String idempotencyKey;
+    private Map<String, Object> payload;
+    private String status;
+    private int attempts;
+    private long nextAttemptAt;
+    private long lockedUntil;
+    private List<String> completedHandlers = new ArrayList<>();
+    private String lastError;
+    private long createdAt;
+    @Indexed(name = "processed_ttl_idx", expireAfter = "7d")
+    private LocalDateTime processedAt; // Chỉ set khi DONE; sự kiện DONE tự xóa sau 7 ngày
+
+    public OutboxEvent() {}
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getAggregateId() { return aggregateId; }
+    public void setAggregateId(String aggregateId) { this.aggregateId = aggregateId; }
+
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+
+    public Map<String, Object> getPayload() { return payload; }
+    public void setPayload(Map<String, Object> payload) { this.payload = payload; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public long getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(long nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public long getLockedUntil() { return lockedUntil; }
+    public void setLockedUntil(long lockedUntil) { this.lockedUntil = lockedUntil; }
+
+    public List<String> getCompletedHandlers() { return completedHandlers; }
+    public void setCompletedHandlers(List<String> completedHandlers) { this.completedHandlers = completedHandlers; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public long getCreatedAt() { return createdAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getProcessedAt() { return processedAt; }
+    public void setProcessedAt(LocalDateTime processedAt) { this.processedAt = processedAt; }
+}
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.time.LocalDateTime;
 
@@ -9,7 +10,9 @@ import java.time.LocalDateTime;
 public class PasswordResetToken {
     @Id
     private String id;
+    @Indexed(name = "user_idx")
     private String userId;
+    @Indexed(name = "token_idx")
     private String token;
     private LocalDateTime expiresAt;
     private boolean used;
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -11,9 +12,11 @@ public class Payment {
     @Id
     private String id;
     
+    @Indexed(name = "order_idx")
     @Field("orderId")
     private String orderId;
     
+    @Indexed(name = "user_idx")
     @Field("userId")
     private String userId;
     
@@ -32,6 +35,7 @@ public class Payment {
     @Field("gateway")
     private String gateway; // vnpay, zalopay, banking
     
+    @Indexed(name = "transaction_idx")
     @Field("transactionId")
     private String transactionId; // ID từ gateway
     
@@ -2,12 +2,19 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
 @Document(collection = "products")
+@CompoundIndexes({
+    @CompoundIndex(name = "category_status_idx", def = "{'category': 1, 'status': 1}"),
+    @CompoundIndex(name = "approval_created_idx", def = "{'approvalStatus': 1, 'createdAt': -1}")
+})
 public class Product {
     @Id
     private String id;
@@ -56,6 +63,7 @@ public class Product {
     private String thumbnail;
     
     // Thông tin người bán
+    @Indexed(name = "seller_idx")
     @Field("sellerId")
     private String sellerId;
     
@@ -112,6 +120,9 @@ public class Product {
     @Field("reviewCount")
     private int reviewCount;
     
+    @Field("ratingVersion")
+    private long ratingVersion; // version của RatingSummary đã đồng bộ vào rating/reviewCount
+    
     @Field("reviews")
     private List<Review> reviews;
     
@@ -159,6 +170,7 @@ public class Product {
     @Field("rejectedAt")
     private LocalDateTime rejectedAt; // Thời điểm từ chối
     
+    @Indexed(name = "created_idx")
     @Field("createdAt")
     private LocalDateTime createdAt;
     
@@ -463,6 +475,14 @@ public class Product {
         this.reviewCount = reviewCount;
     }
 
+    public long getRatingVersion() {
+        return ratingVersion;
+    }
+
+    public void setRatingVersion(long ratingVersion) {
+        this.ratingVersion = ratingVersion;
+    }
+
     public List<Review> getReviews() {
         return reviews;
     }
@@ -0,0 +1,59 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Lượt xem sản phẩm trong một ngày (theo múi giờ hệ thống): tổng lượt xem ($inc khi flush) và sketch
+ * HyperLogLog của người xem để ước lượng số người xem phân biệt. _id = "{productId}:{yyyy-MM-dd}"; tự xóa sau 180 ngày.
+ */
+@Document(collection = "product_view_daily")
+@CompoundIndex(name = "product_date_idx", def = "{'productId': 1, 'date': 1}")
+public class ProductViewDaily {
+    @Id
+    private String id;
+    private String productId;
+    private String day; // yyyy-MM-dd
+    @Indexed(name = "date_ttl_idx", expireAfter = "180d")
+    private LocalDateTime date; // Đầu ngày
+    private long views;
+    private long uniqueViewers; // Ước lượng từ sketch
+    private byte[] sketch;
+    private long sketchVersion; // Tăng mỗi lần ghi sketch (gộp có điều kiện giữa các instance)
+
+    public ProductViewDaily() {}
+
+    public static String idOf(String productId, LocalDate day) {
+        return productId + ":" + day;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getProductId() { return productId; }
+    public void setProductId(String productId) { this.productId = productId; }
+
+    public String getDay() { return day; }
+    public void setDay(String day) { this.day = day; }
+
+    public LocalDateTime getDate() { return date; }
+    public void setDate(LocalDateTime date) { this.date = date; }
+
+    public long getViews() { return views; }
+    public void setViews(long views) { this.views = views; }
+
+    public long getUniqueViewers() { return uniqueViewers; }
+    public void setUniqueViewers(long uniqueViewers) { this.uniqueViewers = uniqueViewers; }
+
+    public byte[] getSketch() { return sketch; }
+    public void setSketch(byte[] sketch) { this.sketch = sketch; }
+
+    public long getSketchVersion() { return sketchVersion; }
+    public void setSketchVersion(long sketchVersion) { this.sketchVersion = sketchVersion; }
+}
@@ -0,0 +1,94 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tổng hợp đánh giá đã duyệt của một sản phẩm hoặc một seller: histogram số sao và các bộ đếm,
+ * cập nhật bằng $inc mỗi khi review được tạo/sửa/đổi trạng thái/xóa.
+ * _id = "{scope}:{targetId}"; version tăng mỗi lần cập nhật. seeded = true khi giá trị đã được tính từ toàn bộ
+ * review (summary do $inc tạo trước đó chưa có seeded và được RatingSummaryService tính lại).
+ */
+@Document(collection = "rating_summaries")
+public class RatingSummary {
+    public static final String PRODUCT = "product";
+    public static final String SELLER = "seller";
+
+    @Id
+    private String id;
+    private String scope;
+    private String targetId;
+    private long totalReviews;
+    private long ratingSum;
+    private Map<String, Long> stars = new HashMap<>(); // "1".."5" -> số review
+    private long verifiedReviews;
+    private long reviewsWithImages;
+    private long reviewsWithVideos;
+    private long reviewsWithReplies;
+    private long helpfulReviews;
+    private long version;
+    private boolean seeded;
+    private LocalDateTime updatedAt;
+
+    public RatingSummary() {}
+
+    public static String idOf(String scope, String targetId) {
+        return scope + ":" + targetId;
+    }
+
+    // Điểm trung bình làm tròn 1 chữ số thập phân
+    public double getAverageRating() {
+        return totalReviews > 0 ? Math.round((double) ratingSum / totalReviews * 10.0) / 10.0 : 0.0;
+    }
+
+    public long getStarCount(int star) {
+        return stars != null ? stars.getOrDefault(String.valueOf(star), 0L) : 0L;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getScope() { return scope; }
+    public void setScope(String scope) { this.scope = scope; }
+
+    public String getTargetId() { return targetId; }
+    public void setTargetId(String targetId) { this.targetId = targetId; }
+
+    public long getTotalReviews() { return totalReviews; }
+    public void setTotalReviews(long totalReviews) { this.totalReviews = totalReviews; }
+
+    public long getRatingSum() { return ratingSum; }
+    public void setRatingSum(long ratingSum) { this.ratingSum = ratingSum; }
+
+    public Map<String, Long> getStars() { return stars; }
+    public void setStars(Map<String, Long> stars) { this.stars = stars; }
+
+    public long getVerifiedReviews() { return verifiedReviews; }
+    public void setVerifiedReviews(long verifiedReviews) { this.verifiedReviews = verifiedReviews; }
+
+    public long getReviewsWithImages() { return reviewsWithImages; }
+    public void setReviewsWithImages(long reviewsWithImages) { this.reviewsWithImages = reviewsWithImages; }
+
+    public long getReviewsWithVideos() { return reviewsWithVideos; }
+    public void setReviewsWithVideos(long reviewsWithVideos) { this.reviewsWithVideos = reviewsWithVideos; }
+
+    public long getReviewsWithReplies() { return reviewsWithReplies; }
+    public void setReviewsWithReplies(long reviewsWithReplies) { this.reviewsWithReplies = reviewsWithReplies; }
+
+    public long getHelpfulReviews() { return helpfulReviews; }
+    public void setHelpfulReviews(long helpfulReviews) { this.helpfulReviews = helpfulReviews; }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public boolean isSeeded() { return seeded; }
+    public void setSeeded(boolean seeded) { this.seeded = seeded; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
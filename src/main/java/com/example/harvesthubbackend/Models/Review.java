@@ -2,11 +2,18 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "reviews")
+@CompoundIndexes({
+    @CompoundIndex(name = "product_status_idx", def = "{'productId': 1, 'status': 1}"),
+    @CompoundIndex(name = "user_product_idx", def = "{'userId': 1, 'productId': 1}")
+})
 public class Review {
     @Id
     private String id;
@@ -14,6 +21,7 @@ public class Review {
     @Field("productId")
     private String productId;
     
+    @Indexed(name = "order_idx")
     @Field("orderId")
     private String orderId;
     
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -11,6 +12,7 @@ public class Seller {
     private String id;
     
     // Thông tin cơ bản
+    @Indexed(name = "user_idx")
     private String userId; // Reference to User model
     private String businessName;
     private String businessType; // individual, company, cooperative
@@ -54,8 +56,10 @@ public class Seller {
     private double totalRevenue;
     private double averageRating;
     private int reviewCount;
+    private long ratingVersion; // version của RatingSummary đã đồng bộ vào averageRating/reviewCount
     
     // Trạng thái và xác minh
+    @Indexed(name = "status_idx")
     private String status; // pending, active, suspended, banned
     private boolean isVerified;
     private boolean isFeatured;
@@ -373,6 +377,14 @@ public class Seller {
         this.reviewCount = reviewCount;
     }
 
+    public long getRatingVersion() {
+        return ratingVersion;
+    }
+
+    public void setRatingVersion(long ratingVersion) {
+        this.ratingVersion = ratingVersion;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -1,16 +1,22 @@
 package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 
+// Document chỉ lưu thiết lập của seller; số dư và thống kê (@Transient) được SellerSettlementService tổng hợp
+// từ SellerSettlement và WithdrawalRequest khi đọc. Field withdrawalLockUntil (khóa rút tiền) không map vào model.
 @Document(collection = "seller_financials")
 public class SellerFinancial {
     @Id
     private String id;
     
     // Thông tin seller
+    @Indexed(name = "seller_idx", unique = true)
     private String sellerId;
+    @Indexed(name = "user_idx")
     private String userId;
     
     // Tài khoản ngân hàng
@@ -20,11 +26,16 @@ public class SellerFinancial {
     private String bankBranch;
     
     // Tài chính
+    @Transient
     private double totalRevenue; // Tổng doanh thu
+    @Transient
     private double availableBalance; // Số dư khả dụng (có thể rút)
+    @Transient
     private double pendingBalance; // Số dư đang chờ (đơn hàng chưa hoàn thành)
+    @Transient
     private double withdrawnAmount; // Tổng số tiền đã rút
     private double commissionRate; // Tỷ lệ hoa hồng (%)
+    @Transient
     private double totalCommission; // Tổng hoa hồng đã trừ
     
     // Rút tiền
@@ -32,14 +43,21 @@ public class SellerFinancial {
     private int withdrawalDays; // Số ngày chờ để rút (sau khi đơn hàng hoàn thành)
     
     // Thống kê
+    @Transient
     private int totalOrders;
+    @Transient
     private int completedOrders;
+    @Transient
     private int pendingOrders;
-    private double averageOrderValue;
+    @Transient
+    private double completedRevenue; // Tổng tiền hàng của các đơn đã giao
+    @Transient
+    private double averageOrderValue; // completedRevenue / completedOrders, tính khi đọc
     
     // Thời gian
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    @Transient
     private LocalDateTime lastWithdrawalAt;
     
     public SellerFinancial() {
@@ -56,6 +74,7 @@ public class SellerFinancial {
         this.totalOrders = 0;
         this.completedOrders = 0;
         this.pendingOrders = 0;
+        this.completedRevenue = 0.0;
         this.averageOrderValue = 0.0;
     }
     
@@ -126,6 +145,9 @@ public class SellerFinancial {
     public int getPendingOrders() { return pendingOrders; }
     public void setPendingOrders(int pendingOrders) { this.pendingOrders = pendingOrders; }
     
+    public double getCompletedRevenue() { return completedRevenue; }
+    public void setCompletedRevenue(double completedRevenue) { this.completedRevenue = completedRevenue; }
+    
     public double getAverageOrderValue() { return averageOrderValue; }
     public void setAverageOrderValue(double averageOrderValue) { this.averageOrderValue = averageOrderValue; }
     
@@ -0,0 +1,85 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Phần doanh thu của một seller trong một đơn hàng (_id = "{orderId}:{sellerId}", nên mỗi đơn chỉ được ghi
+ * một lần cho mỗi seller). PENDING nằm trong pendingBalance; khi đơn được giao thì có releaseAt và job định kỳ
+ * chuyển sang AVAILABLE; đơn hủy/trả/hoàn tiền thì REVERSED. Số dư/thống kê của seller được tổng hợp từ các entry.
+ */
+@Document(collection = "seller_settlements")
+@CompoundIndexes({
+    @CompoundIndex(name = "status_release_idx", def = "{'status': 1, 'releaseAt': 1}"),
+    @CompoundIndex(name = "seller_created_idx", def = "{'sellerId': 1, 'createdAt': -1}")
+})
+public class SellerSettlement {
+    public static final String PENDING = "PENDING";
+    public static final String AVAILABLE = "AVAILABLE";
+    public static final String REVERSED = "REVERSED";
+
+    @Id
+    private String id;
+    private String orderId;
+    private String sellerId;
+    private double grossAmount; // Tổng tiền hàng của seller trong đơn
+    private double commission; // Hoa hồng theo commissionRate lúc ghi
+    private double netAmount; // grossAmount - commission, số tiền vào số dư của seller
+    private String status;
+    private LocalDateTime deliveredAt;
+    private LocalDateTime releaseAt; // deliveredAt + withdrawalDays
+    private LocalDateTime releasedAt;
+    private LocalDateTime reversedAt;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    public SellerSettlement() {}
+
+    public static String idOf(String orderId, String sellerId) {
+        return orderId + ":" + sellerId;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getOrderId() { return orderId; }
+    public void setOrderId(String orderId) { this.orderId = orderId; }
+
+    public String getSellerId() { return sellerId; }
+    public void setSellerId(String sellerId) { this.sellerId = sellerId; }
+
+    public double getGrossAmount() { return grossAmount; }
+    public void setGrossAmount(double grossAmount) { this.grossAmount = grossAmount; }
+
+    public double getCommission() { return commission; }
+    public void setCommission(double commission) { this.commission = commission; }
+
+    public double getNetAmount() { return netAmount; }
+    public void setNetAmount(double netAmount) { this.netAmount = netAmount; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public LocalDateTime getDeliveredAt() { return deliveredAt; }
+    public void setDeliveredAt(LocalDateTime deliveredAt) { this.deliveredAt = deliveredAt; }
+
+    public LocalDateTime getReleaseAt() { return releaseAt; }
+    public void setReleaseAt(LocalDateTime releaseAt) { this.releaseAt = releaseAt; }
+
+    public LocalDateTime getReleasedAt() { return releasedAt; }
+    public void setReleasedAt(LocalDateTime releasedAt) { this.releasedAt = releasedAt; }
+
+    public LocalDateTime getReversedAt() { return reversedAt; }
+    public void setReversedAt(LocalDateTime reversedAt) { this.reversedAt = reversedAt; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
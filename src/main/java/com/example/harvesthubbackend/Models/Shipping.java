@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -11,13 +12,17 @@ public class Shipping {
     private String id;
     
     // Thông tin đơn hàng
+    @Indexed(name = "order_idx")
     private String orderId;
+    @Indexed(name = "user_idx")
     private String userId;
+    @Indexed(name = "seller_idx")
     private String sellerId;
     
     // Thông tin vận chuyển
     private String shippingMethod; // standard, express, same_day
     private String shippingProvider; // GHN, GHTK, ViettelPost, custom
+    @Indexed(name = "tracking_idx")
     private String trackingNumber;
     private String trackingUrl;
     
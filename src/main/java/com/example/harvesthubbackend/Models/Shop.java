@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -23,6 +24,7 @@ public class Shop {
     @Field("banner")
     private String banner;
     
+    @Indexed(name = "owner_idx")
     @Field("ownerId")
     private String ownerId;
     
@@ -44,6 +46,7 @@ public class Shop {
     @Field("settings")
     private ShopSettings settings;
     
+    @Indexed(name = "status_idx")
     @Field("status")
     private String status; // active, inactive, suspended
     
@@ -53,6 +56,9 @@ public class Shop {
     @Field("updatedAt")
     private LocalDateTime updatedAt;
     
+    @Field("statsUpdatedAt")
+    private LocalDateTime statsUpdatedAt; // Lần tính stats gần nhất (null: chưa tính)
+    
     // Constructor
     public Shop() {
         this.createdAt = LocalDateTime.now();
@@ -269,4 +275,7 @@ public class Shop {
     
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    public LocalDateTime getStatsUpdatedAt() { return statsUpdatedAt; }
+    public void setStatsUpdatedAt(LocalDateTime statsUpdatedAt) { this.statsUpdatedAt = statsUpdatedAt; }
 }
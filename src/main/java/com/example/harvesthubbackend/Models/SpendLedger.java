@@ -0,0 +1,34 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+// Tổng chi tiêu (đơn delivered/completed) của một user, dùng để xếp hạng VIP mà không phải quét lại đơn hàng
+@Document(collection = "spend_ledgers")
+public class SpendLedger {
+    @Id
+    private String id; // userId
+    private double totalSpent;
+    private long orderCount;
+    private String tier; // Hạng đã áp dụng cho user theo totalSpent
+    private LocalDateTime updatedAt;
+
+    public SpendLedger() {}
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public double getTotalSpent() { return totalSpent; }
+    public void setTotalSpent(double totalSpent) { this.totalSpent = totalSpent; }
+
+    public long getOrderCount() { return orderCount; }
+    public void setOrderCount(long orderCount) { this.orderCount = orderCount; }
+
+    public String getTier() { return tier; }
+    public void setTier(String tier) { this.tier = tier; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,39 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+// Một đơn hàng đang được tính vào SpendLedger; _id là orderId nên mỗi đơn chỉ được cộng một lần
+@Document(collection = "spend_ledger_entries")
+public class SpendLedgerEntry {
+    @Id
+    private String id; // orderId
+    @Indexed(name = "user_idx")
+    private String userId;
+    private double amount; // Số tiền đã cộng vào ledger (totalPrice lúc đơn được tính)
+    private LocalDateTime createdAt;
+
+    public SpendLedgerEntry() {}
+
+    public SpendLedgerEntry(String orderId, String userId, double amount) {
+        this.id = orderId;
+        this.userId = userId;
+        this.amount = amount;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public double getAmount() { return amount; }
+    public void setAmount(double amount) { this.amount = amount; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,30 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+// Bộ đếm thống kê dạng key-value, ví dụ "orders.status.delivered" hoặc "revenue.delivered"
+@Document(collection = "stat_counters")
+public class StatCounter {
+    @Id
+    private String id; // Tên bộ đếm
+    private long count;
+    private double amount; // Tổng giá trị tiền (chỉ dùng cho bộ đếm doanh thu)
+    private LocalDateTime updatedAt;
+
+    public StatCounter() {}
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+
+    public double getAmount() { return amount; }
+    public void setAmount(double amount) { this.amount = amount; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -2,6 +2,8 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -12,12 +14,16 @@ import java.util.List;
 import java.util.ArrayList;
 
 @Document(collection = "users")
+@CompoundIndex(name = "provider_idx", def = "{'provider': 1, 'providerId': 1}")
 public class User implements UserDetails {
     @Id
     private String id;
+    @Indexed(name = "username_uidx", unique = true)
     private String username;
     private String password;
+    @Indexed(name = "email_idx")
     private String email;
+    @Indexed(name = "role_idx")
     private String role;
     
     // Thông tin cá nhân hiển thị
@@ -44,6 +50,7 @@ public class User implements UserDetails {
     // Chính sách mật khẩu
     private LocalDateTime passwordChangedAt; // Thời điểm thay đổi mật khẩu gần nhất
     private List<String> passwordHistory; // Danh sách hash các mật khẩu trước đây để chặn tái sử dụng
+    private long credentialsVersion; // Tăng khi đổi mật khẩu hoặc bị khóa; JWT mang version cũ bị từ chối
     
     // Account lockout
     private int failedLoginAttempts = 0; // Số lần đăng nhập sai
@@ -169,6 +176,9 @@ public class User implements UserDetails {
     }
     
     // Getters/Setters cho account lockout
+    public long getCredentialsVersion() { return credentialsVersion; }
+    public void setCredentialsVersion(long credentialsVersion) { this.credentialsVersion = credentialsVersion; }
+
     public int getFailedLoginAttempts() { return failedLoginAttempts; }
     public void setFailedLoginAttempts(int failedLoginAttempts) { this.failedLoginAttempts = failedLoginAttempts; }
     
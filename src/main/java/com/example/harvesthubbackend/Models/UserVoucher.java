@@ -2,10 +2,17 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 
 @Document(collection = "user_vouchers")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_voucher_idx", def = "{'userId': 1, 'voucherId': 1}"),
+    @CompoundIndex(name = "user_used_expires_idx", def = "{'userId': 1, 'isUsed': 1, 'expiresAt': 1}")
+})
 public class UserVoucher {
     @Id
     private String id;
@@ -31,6 +38,7 @@ public class UserVoucher {
     @Field("usedAt")
     private LocalDateTime usedAt;
     
+    @Indexed(name = "order_idx")
     @Field("orderId")
     private String orderId; // Order đã sử dụng voucher này
     
@@ -2,10 +2,12 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 
 import java.time.LocalDateTime;
 
 @Document(collection = "verification_codes")
+@CompoundIndex(name = "email_code_idx", def = "{'email': 1, 'code': 1}")
 public class VerificationCode {
     @Id
     private String id;
@@ -2,15 +2,19 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "vouchers")
+@CompoundIndex(name = "status_end_idx", def = "{'status': 1, 'endDate': 1}")
 public class Voucher {
     @Id
     private String id;
     
+    @Indexed(name = "code_uidx", unique = true)
     @Field("code")
     private String code;
     
@@ -32,6 +36,7 @@ public class Voucher {
     @Field("maxDiscountAmount")
     private double maxDiscountAmount;
     
+    @Indexed(name = "shop_idx")
     @Field("shopId")
     private String shopId; // null for platform-wide vouchers
     
@@ -2,14 +2,22 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import java.time.LocalDateTime;
 
 @Document(collection = "voucher_usages")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_voucher_idx", def = "{'userId': 1, 'voucherId': 1}"),
+    @CompoundIndex(name = "shop_status_idx", def = "{'shopId': 1, 'status': 1}")
+})
 public class VoucherUsage {
     @Id
     private String id;
     
+    @Indexed(name = "voucher_idx")
     @Field("voucherId")
     private String voucherId;
     
@@ -19,6 +27,7 @@ public class VoucherUsage {
     @Field("userId")
     private String userId;
     
+    @Indexed(name = "order_idx")
     @Field("orderId")
     private String orderId;
     
@@ -28,6 +37,7 @@ public class VoucherUsage {
     @Field("orderAmount")
     private double orderAmount;
     
+    @Indexed(name = "used_at_idx")
     @Field("usedAt")
     private LocalDateTime usedAt;
     
@@ -37,6 +47,9 @@ public class VoucherUsage {
     @Field("refundedAt")
     private LocalDateTime refundedAt;
     
+    @Field("shopId")
+    private String shopId; // Shop của voucher (null = voucher toàn sàn), lưu sẵn để thống kê theo shop
+    
     // Constructor
     public VoucherUsage() {
         this.usedAt = LocalDateTime.now();
@@ -73,5 +86,8 @@ public class VoucherUsage {
     
     public LocalDateTime getRefundedAt() { return refundedAt; }
     public void setRefundedAt(LocalDateTime refundedAt) { this.refundedAt = refundedAt; }
+    
+    public String getShopId() { return shopId; }
+    public void setShopId(String shopId) { this.shopId = shopId; }
 }
 
@@ -0,0 +1,50 @@
+package com.example.harvesthubbackend.Models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Số lượt user đã dùng một voucher (chưa hoàn), dùng để giới hạn maxUsagePerUser bằng $inc có điều kiện.
+ * _id = "{voucherId}:{userId}".
+ */
+@Document(collection = "voucher_user_counters")
+public class VoucherUserCounter {
+    @Id
+    private String id;
+    private String voucherId;
+    private String userId;
+    private long count;
+    private LocalDateTime updatedAt;
+
+    public VoucherUserCounter() {}
+
+    public VoucherUserCounter(String voucherId, String userId, long count) {
+        this.id = idOf(voucherId, userId);
+        this.voucherId = voucherId;
+        this.userId = userId;
+        this.count = count;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public static String idOf(String voucherId, String userId) {
+        return voucherId + ":" + userId;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getVoucherId() { return voucherId; }
+    public void setVoucherId(String voucherId) { this.voucherId = voucherId; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
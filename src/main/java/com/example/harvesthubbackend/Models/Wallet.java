@@ -2,15 +2,20 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
 
+// Số dư chỉ được đổi bằng $inc có điều kiện trong WalletService (không save cả document).
+// Document còn field appliedTransactions (id các giao dịch đã ghi vào số dư gần đây) và rejectedTransactions
+// (id các giao dịch đã bị từ chối vì không đủ số dư), không map vào model.
 @Document(collection = "wallets")
 public class Wallet {
     @Id
     private String id;
     
+    @Indexed(name = "user_uidx", unique = true)
     @Field("userId")
     private String userId;
     
@@ -2,15 +2,25 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
 
 @Document(collection = "wallet_transactions")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1}"),
+    @CompoundIndex(name = "reference_idx", def = "{'referenceId': 1, 'referenceType': 1}"),
+    @CompoundIndex(name = "user_id_idx", def = "{'userId': 1, '_id': -1}"),
+    @CompoundIndex(name = "status_updated_idx", def = "{'status': 1, 'updatedAt': 1}")
+})
 public class WalletTransaction {
     @Id
     private String id;
     
+    @Indexed(name = "wallet_idx")
     @Field("walletId")
     private String walletId;
     
@@ -30,7 +40,19 @@ public class WalletTransaction {
     private double balanceAfter;
     
     @Field("status")
-    private String status; // pending, completed, failed, cancelled
+    private String status; // pending (chờ cổng thanh toán), processing (đang ghi sổ), completed, failed, cancelled
+    
+    // Khóa chống ghi trùng (theo orderId, callback thanh toán hoặc do client gửi), unique
+    @Indexed(name = "idempotency_key_uidx", unique = true, sparse = true)
+    @Field("idempotencyKey")
+    private String idempotencyKey;
+    
+    // Bút toán kép: amount chuyển từ fromAccount sang toAccount (wallet:{id}, order:{id}, external:{method})
+    @Field("fromAccount")
+    private String fromAccount;
+    
+    @Field("toAccount")
+    private String toAccount;
     
     @Field("description")
     private String description;
@@ -170,6 +192,30 @@ public class WalletTransaction {
         this.updatedAt = updatedAt;
     }
     
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public String getFromAccount() {
+        return fromAccount;
+    }
+    
+    public void setFromAccount(String fromAccount) {
+        this.fromAccount = fromAccount;
+    }
+    
+    public String getToAccount() {
+        return toAccount;
+    }
+    
+    public void setToAccount(String toAccount) {
+        this.toAccount = toAccount;
+    }
+    
     // Helper methods
     public boolean isCompleted() {
         return "completed".equals(status);
@@ -2,6 +2,7 @@ package com.example.harvesthubbackend.Models;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
 import java.time.LocalDateTime;
 
 @Document(collection = "withdrawal_requests")
@@ -10,12 +11,14 @@ public class WithdrawalRequest {
     private String id;
     
     // Thông tin seller
+    @Indexed(name = "seller_idx")
     private String sellerId;
     private String sellerFinancialId;
     
     // Thông tin rút tiền
     private double amount;
     private String currency;
+    @Indexed(name = "status_idx")
     private String status; // pending, processing, completed, rejected, cancelled
     
     // Thông tin ngân hàng
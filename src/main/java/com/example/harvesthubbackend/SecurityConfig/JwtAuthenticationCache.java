@@ -0,0 +1,132 @@
+package com.example.harvesthubbackend.SecurityConfig;
+
+import com.example.harvesthubbackend.Models.User;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache token đã xác thực -> UserDetails, có thời hạn (TTL) và giới hạn số lượng, để request
+ * có JWT không phải parse lại token và đọc user từ MongoDB mỗi lần.
+ * Mọi lần lưu/xóa User (khóa, vô hiệu hóa, đổi mật khẩu, đổi role...) đều xóa cache của user đó.
+ */
+@Component
+public class JwtAuthenticationCache extends AbstractMongoEventListener<User> {
+
+    private static final long TTL_MILLIS = 5 * 60 * 1000; // 5 phút
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> tokensByUsername = new ConcurrentHashMap<>();
+    // Thời điểm xóa cache gần nhất của từng user, để không nạp lại dữ liệu đã đọc trước khi user thay đổi
+    private final Map<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+    public UserDetails get(String token) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            remove(token, entry);
+            return null;
+        }
+        return entry.userDetails;
+    }
+
+    // loadedAt: thời điểm bắt đầu đọc userDetails từ database
+    public void put(String token, UserDetails userDetails, Date tokenExpiration, long loadedAt) {
+        Long invalidated = invalidatedAt.get(userDetails.getUsername());
+        if (invalidated != null && invalidated >= loadedAt) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (entries.size() >= MAX_ENTRIES) {
+            evictExpired(now);
+            if (entries.size() >= MAX_ENTRIES) {
+                // Vẫn đầy: xóa hết, cache sẽ tự đầy lại từ các request tiếp theo
+                clear();
+            }
+        }
+        long expiresAt = now + TTL_MILLIS;
+        if (tokenExpiration != null) {
+            expiresAt = Math.min(expiresAt, tokenExpiration.getTime());
+        }
+        entries.put(token, new Entry(userDetails, expiresAt));
+        tokensByUsername.computeIfAbsent(userDetails.getUsername(), k -> ConcurrentHashMap.newKeySet()).add(token);
+    }
+
+    // Xóa mọi token đã cache của một user
+    public void invalidateUser(String username) {
+        if (username == null) {
+            return;
+        }
+        invalidatedAt.put(username, System.currentTimeMillis());
+        Set<String> tokens = tokensByUsername.remove(username);
+        if (tokens != null) {
+            tokens.forEach(entries::remove);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        tokensByUsername.clear();
+        // Mốc xóa cũ hơn TTL không còn tác dụng
+        long cutoff = System.currentTimeMillis() - TTL_MILLIS;
+        invalidatedAt.values().removeIf(time -> time < cutoff);
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<User> event) {
+        invalidateUser(event.getSource().getUsername());
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<User> event) {
+        // Sự kiện xóa chỉ có điều kiện xóa (thường là _id), không có username: tìm theo id trong cache
+        Object id = event.getSource().get("_id");
+        if (id == null) {
+            clear();
+            return;
+        }
+        String userId = id.toString();
+        entries.forEach((token, entry) -> {
+            if (entry.userDetails instanceof User user && userId.equals(user.getId())) {
+                invalidateUser(user.getUsername());
+            }
+        });
+    }
+
+    private void evictExpired(long now) {
+        entries.forEach((token, entry) -> {
+            if (entry.expiresAt <= now) {
+                remove(token, entry);
+            }
+        });
+    }
+
+    private void remove(String token, Entry entry) {
+        if (entries.remove(token, entry)) {
+            Set<String> tokens = tokensByUsername.get(entry.userDetails.getUsername());
+            if (tokens != null) {
+                tokens.remove(token);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final UserDetails userDetails;
+        private final long expiresAt;
+
+        private Entry(UserDetails userDetails, long expiresAt) {
+            this.userDetails = userDetails;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
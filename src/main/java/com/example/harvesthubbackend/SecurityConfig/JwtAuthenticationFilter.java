@@ -1,5 +1,7 @@
 package com.example.harvesthubbackend.SecurityConfig;
 
+import com.example.harvesthubbackend.Models.User;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -20,10 +22,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final JwtAuthenticationCache authenticationCache;
 
-    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService,
+                                   JwtAuthenticationCache authenticationCache) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
+        this.authenticationCache = authenticationCache;
     }
 
     @Override
@@ -40,31 +45,21 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
         
         final String authHeader = request.getHeader("Authorization");
-        final String jwt;
-        final String username;
-        
-        System.out.println("JWT Filter - Request URI: " + requestURI);
-        System.out.println("JWT Filter - Auth Header: " + (authHeader != null ? authHeader.substring(0, Math.min(20, authHeader.length())) + "..." : "null"));
-        
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            System.out.println("JWT Filter - No valid auth header, continuing...");
             filterChain.doFilter(request, response);
             return;
         }
         
-        jwt = authHeader.substring(7);
-        System.out.println("JWT Filter - JWT Token: " + jwt.substring(0, Math.min(20, jwt.length())) + "...");
+        final String jwt = authHeader.substring(7);
         
         try {
-            username = jwtService.extractUsername(jwt);
-            System.out.println("JWT Filter - Extracted username: " + username);
-            
-            if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-                System.out.println("JWT Filter - User details loaded: " + userDetails.getUsername());
+            if (SecurityContextHolder.getContext().getAuthentication() == null) {
+                UserDetails userDetails = authenticationCache.get(jwt);
+                if (userDetails == null) {
+                    userDetails = loadUser(jwt);
+                }
                 
-                if (jwtService.isTokenValid(jwt, userDetails)) {
-                    System.out.println("JWT Filter - Token is valid, setting authentication");
+                if (userDetails != null) {
                     UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                             userDetails,
                             null,
@@ -74,11 +69,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                             new WebAuthenticationDetailsSource().buildDetails(request)
                     );
                     SecurityContextHolder.getContext().setAuthentication(authToken);
-                } else {
-                    System.out.println("JWT Filter - Token is invalid");
                 }
-            } else {
-                System.out.println("JWT Filter - Username is null or authentication already exists");
             }
         } catch (Exception e) {
             System.err.println("JWT Filter - Error processing token: " + e.getMessage());
@@ -88,4 +79,35 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         filterChain.doFilter(request, response);
     }
+    
+    // Parse token một lần, đọc user từ database và cache kết quả; null nếu token không khớp user hợp lệ
+    // (user bị khóa, hoặc token được cấp trước lần đổi mật khẩu/khóa gần nhất)
+    private UserDetails loadUser(String jwt) {
+        long loadedAt = System.currentTimeMillis();
+        Claims claims = jwtService.extractAllClaims(jwt);
+        String username = claims.getSubject();
+        if (username == null) {
+            return null;
+        }
+        UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+        if (!username.equals(userDetails.getUsername()) || !userDetails.isEnabled() || isLocked(userDetails)) {
+            return null;
+        }
+        if (userDetails instanceof User user) {
+            Number version = claims.get(JwtService.CREDENTIALS_VERSION_CLAIM, Number.class);
+            if ((version != null ? version.longValue() : 0L) != user.getCredentialsVersion()) {
+                return null;
+            }
+        }
+        authenticationCache.put(jwt, userDetails, claims.getExpiration(), loadedAt);
+        return userDetails;
+    }
+
+    // Khóa tạm (lockedUntil) hết hạn thì coi như đã mở, dù cờ accountNonLocked chỉ được đặt lại khi đăng nhập
+    private static boolean isLocked(UserDetails userDetails) {
+        if (userDetails instanceof User user && user.getLockedUntil() != null) {
+            return user.isAccountLocked();
+        }
+        return !userDetails.isAccountNonLocked();
+    }
 }
@@ -1,6 +1,8 @@
 package com.example.harvesthubbackend.SecurityConfig;
 
+import com.example.harvesthubbackend.Models.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
@@ -16,8 +18,13 @@ import java.util.function.Function;
 
 @Service
 public class JwtService {
+    public static final String CREDENTIALS_VERSION_CLAIM = "cv";
     private static final String SECRET_KEY = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
     
+    // Key và parser được tạo một lần (thread-safe), không giải mã Base64 lại mỗi lần parse token
+    private final Key signInKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET_KEY));
+    private final JwtParser parser = Jwts.parserBuilder().setSigningKey(signInKey).build();
+    
     public String extractUsername(String token) {
         return extractClaim(token, Claims::getSubject);
     }
@@ -37,9 +44,15 @@ public class JwtService {
         // Thực tế token sẽ không bao giờ hết hạn trong thời gian sử dụng bình thường
         long hundredYearsInMs = 100L * 365 * 24 * 60 * 60 * 1000; // ~3,155,760,000,000 ms
         
+        // Version thông tin đăng nhập: đổi mật khẩu/khóa tài khoản làm token cũ hết hiệu lực
+        Map<String, Object> claims = new HashMap<>(extraClaims);
+        if (userDetails instanceof User user) {
+            claims.put(CREDENTIALS_VERSION_CLAIM, user.getCredentialsVersion());
+        }
+        
         return Jwts
                 .builder()
-                .setClaims(extraClaims)
+                .setClaims(claims)
                 .setSubject(userDetails.getUsername())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + hundredYearsInMs)) // ~100 năm (vĩnh viễn)
@@ -60,17 +73,12 @@ public class JwtService {
         }
     }
     
-    private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    // Parse và kiểm tra chữ ký một lần; ném exception nếu token không hợp lệ
+    public Claims extractAllClaims(String token) {
+        return parser.parseClaimsJws(token).getBody();
     }
     
     private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET_KEY);
-        return Keys.hmacShaKeyFor(keyBytes);
+        return signInKey;
     }
 }
@@ -74,8 +74,9 @@ public class SecurityConfig {
     }
 
     @Bean
-    public JwtAuthenticationFilter jwtAuthenticationFilter(JwtService jwtService, org.springframework.security.core.userdetails.UserDetailsService userDetailsService) {
-        return new JwtAuthenticationFilter(jwtService, userDetailsService);
+    public JwtAuthenticationFilter jwtAuthenticationFilter(JwtService jwtService, org.springframework.security.core.userdetails.UserDetailsService userDetailsService,
+                                                           JwtAuthenticationCache authenticationCache) {
+        return new JwtAuthenticationFilter(jwtService, userDetailsService, authenticationCache);
     }
     
     // CustomOAuth2UserService đã được đánh dấu @Service, Spring sẽ tự động inject vào SecurityFilterChain
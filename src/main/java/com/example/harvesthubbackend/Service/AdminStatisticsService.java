@@ -2,8 +2,13 @@ package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -12,118 +17,60 @@ import java.util.*;
 public class AdminStatisticsService {
     
     @Autowired
-    private UserService userService;
+    private StatisticsStoreService statisticsStore;
     
     @Autowired
-    private ProductService productService;
+    private MongoTemplate mongoTemplate;
     
-    @Autowired
-    private OrderService orderService;
-    
-    @Autowired
-    private SellerService sellerService;
-    
-    // Lấy thống kê tổng quan
+    // Lấy thống kê tổng quan (đọc từ kho thống kê tổng hợp sẵn, không quét toàn bộ collection)
     public Map<String, Object> getDashboardStatistics() {
         Map<String, Object> stats = new HashMap<>();
+        Map<String, StatCounter> counters = statisticsStore.getCounters();
         
-        // Thống kê user
-        List<User> allUsers = userService.getAll();
-        long totalUsers = allUsers.size();
-        long activeUsers = allUsers.stream().filter(User::isEnabled).count();
-        long adminUsers = allUsers.stream().filter(u -> "ADMIN".equals(u.getRole())).count();
-        long sellerUsers = allUsers.stream().filter(u -> "SELLER".equals(u.getRole())).count();
-        long buyerUsers = allUsers.stream().filter(u -> "USER".equals(u.getRole()) || u.getRole() == null).count();
-        
-        // Thống kê sản phẩm
-        List<Product> allProducts = productService.getAll();
-        long totalProducts = allProducts.size();
-        long activeProducts = allProducts.stream().filter(p -> "active".equals(p.getStatus())).count();
-        long pendingProducts = allProducts.stream().filter(p -> "pending".equals(p.getStatus())).count();
-        long outOfStockProducts = allProducts.stream().filter(p -> p.getStock() != null && p.getStock() == 0).count();
-        
-        // Thống kê đơn hàng
-        List<Order> allOrders = orderService.getAll();
-        long totalOrders = allOrders.size();
-        long pendingOrders = allOrders.stream().filter(o -> "pending".equals(o.getStatus())).count();
-        long processingOrders = allOrders.stream().filter(o -> "processing".equals(o.getStatus())).count();
-        long shippingOrders = allOrders.stream().filter(o -> "shipping".equals(o.getStatus())).count();
-        long deliveredOrders = allOrders.stream().filter(o -> "delivered".equals(o.getStatus())).count();
-        long cancelledOrders = allOrders.stream().filter(o -> "cancelled".equals(o.getStatus())).count();
-        
-        // Tính tổng doanh thu
-        double totalRevenue = allOrders.stream()
-            .filter(o -> "delivered".equals(o.getStatus()))
-            .mapToDouble(Order::getTotalPrice)
-            .sum();
-        
-        // Thống kê seller
-        List<Seller> allSellers = sellerService.getAllSellers();
-        long totalSellers = allSellers.size();
-        long activeSellers = allSellers.stream().filter(s -> "active".equals(s.getStatus())).count();
-        long pendingSellers = allSellers.stream().filter(s -> "pending".equals(s.getStatus())).count();
-        
-        // Thống kê theo thời gian (7 ngày qua)
-        LocalDateTime sevenDaysAgo = LocalDateTime.now().minus(7, ChronoUnit.DAYS);
-        long newUsersLast7Days = allUsers.stream()
-            .filter(u -> u.getPasswordChangedAt() != null && u.getPasswordChangedAt().isAfter(sevenDaysAgo))
-            .count();
-        
-        long newOrdersLast7Days = allOrders.stream()
-            .filter(o -> {
-                long createdAt = o.getCreatedAt();
-                LocalDateTime orderDate = new java.util.Date(createdAt).toInstant()
-                    .atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
-                return orderDate.isAfter(sevenDaysAgo);
-            })
-            .count();
-        
-        double revenueLast7Days = allOrders.stream()
-            .filter(o -> {
-                long createdAt = o.getCreatedAt();
-                LocalDateTime orderDate = new java.util.Date(createdAt).toInstant()
-                    .atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
-                return orderDate.isAfter(sevenDaysAgo) && "delivered".equals(o.getStatus());
-            })
-            .mapToDouble(Order::getTotalPrice)
-            .sum();
+        // Thống kê theo thời gian (7 ngày qua, làm tròn theo ngày)
+        LocalDate today = LocalDate.now();
+        List<DailyStatBucket> last7Days = statisticsStore.getBuckets(today.minusDays(6), today);
+        long newUsersLast7Days = last7Days.stream().mapToLong(DailyStatBucket::getNewUsers).sum();
+        long newOrdersLast7Days = last7Days.stream().mapToLong(DailyStatBucket::getOrders).sum();
+        double revenueLast7Days = last7Days.stream().mapToDouble(DailyStatBucket::getRevenue).sum();
         
         // Tổng hợp
         stats.put("users", Map.of(
-            "total", totalUsers,
-            "active", activeUsers,
-            "admins", adminUsers,
-            "sellers", sellerUsers,
-            "buyers", buyerUsers,
+            "total", count(counters, "users.total"),
+            "active", count(counters, "users.enabled"),
+            "admins", count(counters, "users.role.ADMIN"),
+            "sellers", count(counters, "users.role.SELLER"),
+            "buyers", count(counters, "users.role.USER"),
             "newLast7Days", newUsersLast7Days
         ));
         
         stats.put("products", Map.of(
-            "total", totalProducts,
-            "active", activeProducts,
-            "pending", pendingProducts,
-            "outOfStock", outOfStockProducts
+            "total", count(counters, "products.total"),
+            "active", count(counters, "products.status.active"),
+            "pending", count(counters, "products.status.pending"),
+            "outOfStock", count(counters, "products.outOfStock")
         ));
         
         stats.put("orders", Map.of(
-            "total", totalOrders,
-            "pending", pendingOrders,
-            "processing", processingOrders,
-            "shipping", shippingOrders,
-            "delivered", deliveredOrders,
-            "cancelled", cancelledOrders,
+            "total", count(counters, "orders.total"),
+            "pending", count(counters, "orders.status.pending"),
+            "processing", count(counters, "orders.status.processing"),
+            "shipping", count(counters, "orders.status.shipping"),
+            "delivered", count(counters, "orders.status.delivered"),
+            "cancelled", count(counters, "orders.status.cancelled"),
             "newLast7Days", newOrdersLast7Days
         ));
         
+        StatCounter revenue = counters.get("revenue.delivered");
         stats.put("revenue", Map.of(
-            "total", totalRevenue,
+            "total", revenue != null ? revenue.getAmount() : 0.0,
             "last7Days", revenueLast7Days
         ));
         
         stats.put("sellers", Map.of(
-            "total", totalSellers,
-            "active", activeSellers,
-            "pending", pendingSellers
+            "total", count(counters, "sellers.total"),
+            "active", count(counters, "sellers.status.active"),
+            "pending", count(counters, "sellers.status.pending")
         ));
         
         stats.put("timestamp", LocalDateTime.now().toString());
@@ -131,10 +78,9 @@ public class AdminStatisticsService {
         return stats;
     }
     
-    // Lấy thống kê doanh thu theo thời gian
+    // Lấy thống kê doanh thu theo thời gian (cộng các bucket theo ngày trong khoảng)
     public Map<String, Object> getRevenueStatistics(String period) {
         Map<String, Object> stats = new HashMap<>();
-        List<Order> allOrders = orderService.getAll();
         
         LocalDateTime startDate;
         switch (period != null ? period.toLowerCase() : "month") {
@@ -154,24 +100,9 @@ public class AdminStatisticsService {
                 startDate = LocalDateTime.now().minus(30, ChronoUnit.DAYS);
         }
         
-        double revenue = allOrders.stream()
-            .filter(o -> {
-                long createdAt = o.getCreatedAt();
-                LocalDateTime orderDate = new java.util.Date(createdAt).toInstant()
-                    .atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
-                return orderDate.isAfter(startDate) && "delivered".equals(o.getStatus());
-            })
-            .mapToDouble(Order::getTotalPrice)
-            .sum();
-        
-        long orderCount = allOrders.stream()
-            .filter(o -> {
-                long createdAt = o.getCreatedAt();
-                LocalDateTime orderDate = new java.util.Date(createdAt).toInstant()
-                    .atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
-                return orderDate.isAfter(startDate);
-            })
-            .count();
+        List<DailyStatBucket> buckets = statisticsStore.getBuckets(startDate.toLocalDate().plusDays(1), LocalDate.now());
+        double revenue = buckets.stream().mapToDouble(DailyStatBucket::getRevenue).sum();
+        long orderCount = buckets.stream().mapToLong(DailyStatBucket::getOrders).sum();
         
         stats.put("period", period);
         stats.put("revenue", revenue);
@@ -183,14 +114,24 @@ public class AdminStatisticsService {
         return stats;
     }
     
+    // Tính lại kho thống kê từ dữ liệu gốc
+    public boolean reconcileStatistics() {
+        return statisticsStore.reconcile();
+    }
+    
+    private static long count(Map<String, StatCounter> counters, String key) {
+        StatCounter counter = counters.get(key);
+        return counter != null ? counter.getCount() : 0L;
+    }
+    
     // Lấy top sản phẩm bán chạy
     public List<Map<String, Object>> getTopSellingProducts(int limit) {
-        List<Product> products = productService.getAll();
+        Query query = new Query(Criteria.where("soldCount").gt(0))
+            .with(Sort.by(Sort.Direction.DESC, "soldCount"))
+            .limit(limit);
+        List<Product> products = mongoTemplate.find(query, Product.class);
         
         return products.stream()
-            .filter(p -> p.getSoldCount() > 0)
-            .sorted((p1, p2) -> Integer.compare(p2.getSoldCount(), p1.getSoldCount()))
-            .limit(limit)
             .map(p -> {
                 Map<String, Object> productStats = new HashMap<>();
                 productStats.put("productId", p.getId());
@@ -205,12 +146,12 @@ public class AdminStatisticsService {
     
     // Lấy top seller
     public List<Map<String, Object>> getTopSellers(int limit) {
-        List<Seller> sellers = sellerService.getAllSellers();
+        Query query = new Query(Criteria.where("totalRevenue").gt(0))
+            .with(Sort.by(Sort.Direction.DESC, "totalRevenue"))
+            .limit(limit);
+        List<Seller> sellers = mongoTemplate.find(query, Seller.class);
         
         return sellers.stream()
-            .filter(s -> s.getTotalRevenue() > 0)
-            .sorted((s1, s2) -> Double.compare(s2.getTotalRevenue(), s1.getTotalRevenue()))
-            .limit(limit)
             .map(s -> {
                 Map<String, Object> sellerStats = new HashMap<>();
                 sellerStats.put("sellerId", s.getId());
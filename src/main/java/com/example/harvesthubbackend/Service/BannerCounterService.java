@@ -0,0 +1,193 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Banner;
+import com.example.harvesthubbackend.Models.BannerStatBucket;
+import jakarta.annotation.PreDestroy;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bộ đếm lượt xem/click banner ghi sau (write-behind): mỗi lượt chỉ cộng vào LongAdder trong bộ nhớ,
+ * BannerCounterFlusher định kỳ gom lại và ghi một lệnh bulk ($inc viewCount/clickCount trên Banner và
+ * $inc vào BannerStatBucket của giờ hiện tại). Phần chưa flush được cộng thêm khi đọc danh sách sắp xếp,
+ * và được flush khi tắt ứng dụng.
+ */
+@Service
+public class BannerCounterService {
+
+    private static final long KNOWN_BANNER_TTL_MILLIS = 5 * 60_000;
+    private static final int MAX_STAT_HOURS = 24 * 90;
+    private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private static final class Counters {
+        final LongAdder views = new LongAdder();
+        final LongAdder clicks = new LongAdder();
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    // Banner đã biết là tồn tại -> thời điểm hết hạn, để không phải đọc DB cho mỗi lượt xem
+    private final Map<String, Long> knownBanners = new ConcurrentHashMap<>();
+
+    // Ghi nhận một lượt xem; false nếu banner không tồn tại
+    public boolean recordView(String bannerId) {
+        if (!exists(bannerId)) {
+            return false;
+        }
+        counters.computeIfAbsent(bannerId, key -> new Counters()).views.increment();
+        return true;
+    }
+
+    // Ghi nhận một lượt click; false nếu banner không tồn tại
+    public boolean recordClick(String bannerId) {
+        if (!exists(bannerId)) {
+            return false;
+        }
+        counters.computeIfAbsent(bannerId, key -> new Counters()).clicks.increment();
+        return true;
+    }
+
+    // Bỏ bộ đếm của banner đã xóa
+    public void forget(String bannerId) {
+        knownBanners.remove(bannerId);
+        counters.remove(bannerId);
+    }
+
+    private boolean exists(String bannerId) {
+        long now = System.currentTimeMillis();
+        Long expiresAt = knownBanners.get(bannerId);
+        if (expiresAt != null && expiresAt > now) {
+            return true;
+        }
+        if (mongoTemplate.exists(new Query(Criteria.where("_id").is(bannerId)), Banner.class)) {
+            knownBanners.put(bannerId, now + KNOWN_BANNER_TTL_MILLIS);
+            return true;
+        }
+        knownBanners.remove(bannerId);
+        return false;
+    }
+
+    /**
+     * Ghi các lượt đã gom xuống DB. Lệnh ghi Banner nào lỗi thì số lượt của banner đó được cộng trả lại để lần
+     * flush sau ghi tiếp (các banner đã ghi thành công không bị cộng lại).
+     * Lượt được tính vào bucket của giờ lúc flush.
+     */
+    public synchronized int flush() {
+        Map<String, long[]> deltas = new HashMap<>();
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            long views = entry.getValue().views.sumThenReset();
+            long clicks = entry.getValue().clicks.sumThenReset();
+            if (views != 0 || clicks != 0) {
+                deltas.put(entry.getKey(), new long[] {views, clicks});
+            }
+        }
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        // Thứ tự lệnh trong bulk, để biết lệnh lỗi ứng với banner nào
+        List<String> bannerIds = new ArrayList<>(deltas.keySet());
+        try {
+            BulkOperations banners = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Banner.class);
+            for (String bannerId : bannerIds) {
+                long[] delta = deltas.get(bannerId);
+                banners.updateOne(
+                    new Query(Criteria.where("_id").is(bannerId)),
+                    new Update().inc("viewCount", (int) delta[0]).inc("clickCount", (int) delta[1]).set("updatedAt", now));
+            }
+            banners.execute();
+        } catch (BulkOperationException e) {
+            // UNORDERED: các lệnh khác đã ghi, chỉ trả lại phần của lệnh lỗi
+            System.err.println("Error flushing " + e.getErrors().size() + " banner counters, will retry: " + e.getMessage());
+            for (BulkWriteError error : e.getErrors()) {
+                String bannerId = bannerIds.get(error.getIndex());
+                requeue(bannerId, deltas.remove(bannerId));
+            }
+            if (deltas.isEmpty()) {
+                return 0;
+            }
+        } catch (Exception e) {
+            System.err.println("Error flushing banner counters, will retry: " + e.getMessage());
+            deltas.forEach(this::requeue);
+            return 0;
+        }
+
+        LocalDateTime bucketStart = now.truncatedTo(ChronoUnit.HOURS);
+        try {
+            BulkOperations buckets = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BannerStatBucket.class);
+            deltas.forEach((bannerId, delta) -> buckets.upsert(
+                new Query(Criteria.where("_id").is(bannerId + ":" + bucketStart.format(BUCKET_FORMAT))),
+                new Update()
+                    .setOnInsert("bannerId", bannerId)
+                    .setOnInsert("bucketStart", bucketStart)
+                    .inc("views", delta[0])
+                    .inc("clicks", delta[1])));
+            buckets.execute();
+        } catch (Exception e) {
+            // Tổng trên Banner đã ghi; chỉ mất số liệu theo giờ của lần flush này
+            System.err.println("Error writing banner stat buckets: " + e.getMessage());
+        }
+        return deltas.size();
+    }
+
+    private void requeue(String bannerId, long[] delta) {
+        Counters pending = counters.computeIfAbsent(bannerId, key -> new Counters());
+        pending.views.add(delta[0]);
+        pending.clicks.add(delta[1]);
+    }
+
+    // Cộng phần chưa flush vào viewCount/clickCount của các banner (chỉ trên object trả về)
+    public void applyPending(Collection<Banner> banners) {
+        for (Banner banner : banners) {
+            Counters pending = counters.get(banner.getId());
+            if (pending != null) {
+                banner.setViewCount(banner.getViewCount() + (int) pending.views.sum());
+                banner.setClickCount(banner.getClickCount() + (int) pending.clicks.sum());
+            }
+        }
+    }
+
+    /**
+     * Số liệu theo giờ (views, clicks, ctr) của các banner trong `hours` giờ gần nhất, một query cho cả danh sách.
+     */
+    public Map<String, List<BannerStatBucket>> getRecentStats(Collection<String> bannerIds, int hours) {
+        Map<String, List<BannerStatBucket>> result = new HashMap<>();
+        if (bannerIds.isEmpty() || hours <= 0) {
+            return result;
+        }
+        LocalDateTime since = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(Math.min(hours, MAX_STAT_HOURS) - 1L);
+        Query query = new Query(Criteria.where("bannerId").in(bannerIds).and("bucketStart").gte(since))
+            .with(Sort.by(Sort.Direction.ASC, "bucketStart"));
+        for (BannerStatBucket bucket : mongoTemplate.find(query, BannerStatBucket.class)) {
+            result.computeIfAbsent(bucket.getBannerId(), key -> new ArrayList<>()).add(bucket);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
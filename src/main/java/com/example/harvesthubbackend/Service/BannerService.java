@@ -1,12 +1,21 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.Banner;
+import com.example.harvesthubbackend.Models.BannerStatBucket;
 import com.example.harvesthubbackend.Repository.BannerRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Service
 public class BannerService {
@@ -14,6 +23,12 @@ public class BannerService {
     @Autowired
     private BannerRepository bannerRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private BannerCounterService bannerCounterService;
+    
     // Create a new banner
     public Banner createBanner(Banner banner) {
         banner.setCreatedAt(LocalDateTime.now());
@@ -85,72 +100,46 @@ public class BannerService {
         return bannerRepository.findByMinPriority(minPriority);
     }
     
-    // Update banner
+    // Update banner (chỉ ghi các field được sửa, không ghi đè viewCount/clickCount đang được flush)
     public Banner updateBanner(String id, Banner bannerDetails) {
-        Optional<Banner> optionalBanner = bannerRepository.findById(id);
-        if (optionalBanner.isPresent()) {
-            Banner banner = optionalBanner.get();
-            banner.setTitle(bannerDetails.getTitle());
-            banner.setDescription(bannerDetails.getDescription());
-            banner.setImage(bannerDetails.getImage());
-            banner.setLink(bannerDetails.getLink());
-            banner.setLinkType(bannerDetails.getLinkType());
-            banner.setTargetId(bannerDetails.getTargetId());
-            banner.setPosition(bannerDetails.getPosition());
-            banner.setPriority(bannerDetails.getPriority());
-            banner.setStartDate(bannerDetails.getStartDate());
-            banner.setEndDate(bannerDetails.getEndDate());
-            banner.setStatus(bannerDetails.getStatus());
-            banner.setUpdatedAt(LocalDateTime.now());
-            return bannerRepository.save(banner);
-        }
-        return null;
+        return modify(id, new Update()
+            .set("title", bannerDetails.getTitle())
+            .set("description", bannerDetails.getDescription())
+            .set("image", bannerDetails.getImage())
+            .set("link", bannerDetails.getLink())
+            .set("linkType", bannerDetails.getLinkType())
+            .set("targetId", bannerDetails.getTargetId())
+            .set("position", bannerDetails.getPosition())
+            .set("priority", bannerDetails.getPriority())
+            .set("startDate", bannerDetails.getStartDate())
+            .set("endDate", bannerDetails.getEndDate())
+            .set("status", bannerDetails.getStatus())
+            .set("updatedAt", LocalDateTime.now()));
     }
     
     // Update banner status
     public Banner updateBannerStatus(String id, String status) {
-        Optional<Banner> optionalBanner = bannerRepository.findById(id);
-        if (optionalBanner.isPresent()) {
-            Banner banner = optionalBanner.get();
-            banner.setStatus(status);
-            banner.setUpdatedAt(LocalDateTime.now());
-            return bannerRepository.save(banner);
-        }
-        return null;
+        return modify(id, new Update().set("status", status).set("updatedAt", LocalDateTime.now()));
     }
     
-    // Increment click count
-    public Banner incrementClickCount(String id) {
-        Optional<Banner> optionalBanner = bannerRepository.findById(id);
-        if (optionalBanner.isPresent()) {
-            Banner banner = optionalBanner.get();
-            banner.incrementClickCount();
-            return bannerRepository.save(banner);
-        }
-        return null;
+    // Increment click count (gom trong bộ nhớ, BannerCounterFlusher ghi xuống DB); false nếu banner không tồn tại
+    public boolean incrementClickCount(String id) {
+        return bannerCounterService.recordClick(id);
     }
     
-    // Increment view count
-    public Banner incrementViewCount(String id) {
-        Optional<Banner> optionalBanner = bannerRepository.findById(id);
-        if (optionalBanner.isPresent()) {
-            Banner banner = optionalBanner.get();
-            banner.incrementViewCount();
-            return bannerRepository.save(banner);
-        }
-        return null;
+    // Increment view count (gom trong bộ nhớ, BannerCounterFlusher ghi xuống DB); false nếu banner không tồn tại
+    public boolean incrementViewCount(String id) {
+        return bannerCounterService.recordView(id);
     }
     
     // Update banner priority
     public Banner updateBannerPriority(String id, int priority) {
-        Optional<Banner> optionalBanner = bannerRepository.findById(id);
-        if (optionalBanner.isPresent()) {
-            Banner banner = optionalBanner.get();
-            banner.setPriority(priority);
-            banner.setUpdatedAt(LocalDateTime.now());
-            return bannerRepository.save(banner);
-        }
-        return null;
+        return modify(id, new Update().set("priority", priority).set("updatedAt", LocalDateTime.now()));
+    }
+    
+    private Banner modify(String id, Update update) {
+        return mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(id)), update,
+            FindAndModifyOptions.options().returnNew(true), Banner.class);
     }
     
     // Check if banner is valid
@@ -166,6 +155,7 @@ public class BannerService {
     public boolean deleteBanner(String id) {
         if (bannerRepository.existsById(id)) {
             bannerRepository.deleteById(id);
+            bannerCounterService.forget(id);
             return true;
         }
         return false;
@@ -191,14 +181,33 @@ public class BannerService {
         return bannerRepository.findAllOrderByPriorityAndCreatedAtDesc();
     }
     
-    // Get banners sorted by click count
-    public List<Banner> getBannersOrderByClickCount() {
-        return bannerRepository.findAllOrderByClickCountDesc();
+    // Get banners sorted by click count (kèm lượt chưa flush và số liệu theo giờ trong `statHours` giờ gần nhất)
+    public List<Banner> getBannersOrderByClickCount(int statHours) {
+        List<Banner> banners = bannerRepository.findAllOrderByClickCountDesc();
+        bannerCounterService.applyPending(banners);
+        banners.sort(Comparator.comparingInt(Banner::getClickCount).reversed());
+        attachRecentStats(banners, statHours);
+        return banners;
+    }
+    
+    // Get banners sorted by view count (kèm lượt chưa flush và số liệu theo giờ trong `statHours` giờ gần nhất)
+    public List<Banner> getBannersOrderByViewCount(int statHours) {
+        List<Banner> banners = bannerRepository.findAllOrderByViewCountDesc();
+        bannerCounterService.applyPending(banners);
+        banners.sort(Comparator.comparingInt(Banner::getViewCount).reversed());
+        attachRecentStats(banners, statHours);
+        return banners;
     }
     
-    // Get banners sorted by view count
-    public List<Banner> getBannersOrderByViewCount() {
-        return bannerRepository.findAllOrderByViewCountDesc();
+    private void attachRecentStats(List<Banner> banners, int statHours) {
+        if (statHours <= 0 || banners.isEmpty()) {
+            return;
+        }
+        Map<String, List<BannerStatBucket>> stats = bannerCounterService.getRecentStats(
+            banners.stream().map(Banner::getId).collect(Collectors.toList()), statHours);
+        for (Banner banner : banners) {
+            banner.setRecentStats(stats.getOrDefault(banner.getId(), List.of()));
+        }
     }
     
     // Get banners sorted by creation date
@@ -1,6 +1,7 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.Cart;
+import com.example.harvesthubbackend.Models.Inventory;
 import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Exception.ApiException;
 import com.example.harvesthubbackend.Exception.ErrorCode;
@@ -26,9 +27,6 @@ public class CartService {
     @Autowired
     private CartRepository cartRepository;
 
-    @Autowired
-    private ProductService productService;
-    
     @Autowired
     private VoucherService voucherService;
     
@@ -36,7 +34,7 @@ public class CartService {
     private FlashSaleService flashSaleService;
     
     @Autowired
-    private InventoryService inventoryService;
+    private ProductBatchLoader productBatchLoader;
 
     public List<Cart> getAll() {
         return cartRepository.findAll();
@@ -64,22 +62,35 @@ public class CartService {
     }
     
     // Refresh flash sale prices for all items in cart
+    // Sản phẩm được nạp một lần cho cả giỏ; chỉ ghi lại giỏ khi giá hoặc tổng tiền thay đổi
     private void refreshFlashSalePrices(Cart cart) {
         if (cart.getItems() != null) {
+            ProductBatchLoader.Batch catalog = productBatchLoader.load(
+                cart.getItems().stream().map(Cart.CartItem::getProductId).collect(Collectors.toList()));
+            boolean changed = false;
             for (Cart.CartItem item : cart.getItems()) {
-                Double flashSalePrice = flashSaleService.getFlashSalePriceForProduct(item.getProductId());
-                if (flashSalePrice != null) {
-                    item.setPrice(flashSalePrice);
-                } else {
+                Double price = flashSaleService.getFlashSalePriceForProduct(item.getProductId());
+                if (price == null) {
                     // If no flash sale, use product price
-                    Product product = productService.getById(item.getProductId());
-                    if (product != null && product.getPrice() != null) {
-                        item.setPrice(product.getPrice());
-                    }
+                    Product product = catalog.product(item.getProductId());
+                    price = product != null ? product.getPrice() : null;
+                }
+                if (price != null && price != item.getPrice()) {
+                    item.setPrice(price);
+                    changed = true;
                 }
             }
+            double subtotal = cart.getSubtotal();
+            double total = cart.getTotalPrice();
+            String voucherCode = cart.getVoucherCode();
+            long updatedAt = cart.getUpdatedAt();
             recomputeTotals(cart);
-            cartRepository.save(cart);
+            if (changed || subtotal != cart.getSubtotal() || total != cart.getTotalPrice()
+                    || !java.util.Objects.equals(voucherCode, cart.getVoucherCode())) {
+                cartRepository.save(cart);
+            } else {
+                cart.setUpdatedAt(updatedAt);
+            }
         }
     }
 
@@ -134,10 +145,11 @@ public class CartService {
                 List<String> categoryIds = new ArrayList<>();
                 
                 // Validate and calculate discount
-                if (voucherService.validateVoucherForOrder(
+                VoucherEngine.Evaluation evaluation = voucherService.evaluateForOrder(
                     cart.getVoucherCode(), cart.getUserId(), subtotal, 
-                    null, productIds, categoryIds)) {
-                    discountAmount = voucherService.calculateDiscount(cart.getVoucherCode(), subtotal);
+                    null, productIds, categoryIds, 0);
+                if (evaluation.isEligible()) {
+                    discountAmount = evaluation.getDiscountAmount();
                 } else {
                     // Voucher invalid, remove it
                     cart.setVoucherCode(null);
@@ -178,13 +190,12 @@ public class CartService {
         List<String> categoryIds = new ArrayList<>(); // Simplified
         
         // Validate voucher
-        if (!voucherService.validateVoucherForOrder(
-            voucherCode, userId, subtotal, null, productIds, categoryIds)) {
-            // Get voucher details for better error message
-            java.util.Optional<com.example.harvesthubbackend.Models.Voucher> voucherOpt = 
-                voucherService.getVoucherByCode(voucherCode);
-            if (voucherOpt.isPresent()) {
-                com.example.harvesthubbackend.Models.Voucher voucher = voucherOpt.get();
+        VoucherEngine.Evaluation evaluation = voucherService.evaluateForOrder(
+            voucherCode, userId, subtotal, null, productIds, categoryIds, 0);
+        if (!evaluation.isEligible()) {
+            // Voucher details for better error message
+            if (evaluation.getVoucher() != null) {
+                com.example.harvesthubbackend.Models.Voucher voucher = evaluation.getVoucher();
                 if (subtotal < voucher.getMinOrderAmount()) {
                     throw new RuntimeException("Voucher yêu cầu đơn hàng tối thiểu " + 
                         String.format("%.0f", voucher.getMinOrderAmount()) + "đ. Đơn hàng hiện tại: " + 
@@ -195,7 +206,7 @@ public class CartService {
         }
         
         // Calculate discount to verify it's > 0
-        double discountAmount = voucherService.calculateDiscount(voucherCode, subtotal);
+        double discountAmount = evaluation.getDiscountAmount();
         if (discountAmount <= 0) {
             throw new RuntimeException("Voucher không thể áp dụng. Giảm giá tính được: 0đ");
         }
@@ -225,8 +236,9 @@ public class CartService {
         if (quantity <= 0) quantity = 1;
         Cart cart = getOrCreateCartForUser(userId);
 
-        // Find price from product
-        Product product = productService.getById(productId);
+        // Find price from product (sản phẩm và tồn kho nạp cùng lúc)
+        ProductBatchLoader.Batch catalog = productBatchLoader.load(List.of(productId));
+        Product product = catalog.product(productId);
         if (product == null) {
             throw new ApiException(ErrorCode.PRODUCT_NOT_FOUND, "Sản phẩm không tồn tại");
         }
@@ -255,25 +267,7 @@ public class CartService {
         }
         
         // Also check Inventory if available
-        try {
-            Optional<com.example.harvesthubbackend.Models.Inventory> inventoryOpt = 
-                inventoryService.getByProductId(productId);
-            if (inventoryOpt.isPresent()) {
-                com.example.harvesthubbackend.Models.Inventory inventory = inventoryOpt.get();
-                if (inventory.getAvailableStock() < totalQuantity) {
-                    throw new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK, 
-                        String.format("Sản phẩm '%s' không đủ tồn kho. Có thể bán: %d, yêu cầu: %d", 
-                            product.getName() != null ? product.getName() : productId,
-                            inventory.getAvailableStock(),
-                            totalQuantity));
-                }
-            }
-        } catch (ApiException e) {
-            throw e; // Re-throw ApiException
-        } catch (Exception e) {
-            // If inventory check fails, continue with product stock check
-            // This allows backward compatibility if inventory is not set up
-        }
+        checkAvailableStock(product, catalog.inventory(productId), totalQuantity);
         
         double price = (product.getPrice() != null) ? product.getPrice() : 0.0;
         
@@ -312,7 +306,8 @@ public class CartService {
         }
         
         // Check stock availability before updating quantity
-        Product product = productService.getById(productId);
+        ProductBatchLoader.Batch catalog = productBatchLoader.load(List.of(productId));
+        Product product = catalog.product(productId);
         if (product == null) {
             throw new ApiException(ErrorCode.PRODUCT_NOT_FOUND, "Sản phẩm không tồn tại");
         }
@@ -327,24 +322,7 @@ public class CartService {
         }
         
         // Also check Inventory if available
-        try {
-            Optional<com.example.harvesthubbackend.Models.Inventory> inventoryOpt = 
-                inventoryService.getByProductId(productId);
-            if (inventoryOpt.isPresent()) {
-                com.example.harvesthubbackend.Models.Inventory inventory = inventoryOpt.get();
-                if (inventory.getAvailableStock() < quantity) {
-                    throw new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK, 
-                        String.format("Sản phẩm '%s' không đủ tồn kho. Có thể bán: %d, yêu cầu: %d", 
-                            product.getName() != null ? product.getName() : productId,
-                            inventory.getAvailableStock(),
-                            quantity));
-                }
-            }
-        } catch (ApiException e) {
-            throw e; // Re-throw ApiException
-        } catch (Exception e) {
-            // If inventory check fails, continue with product stock check
-        }
+        checkAvailableStock(product, catalog.inventory(productId), quantity);
         
         for (Cart.CartItem item : cart.getItems()) {
             if (productId.equals(item.getProductId())) {
@@ -366,6 +344,17 @@ public class CartService {
         return cartRepository.save(cart);
     }
 
+    // Sản phẩm chưa có Inventory thì chỉ dựa vào Product.stock (đã kiểm tra ở trên)
+    private void checkAvailableStock(Product product, Inventory inventory, int requested) {
+        if (inventory != null && inventory.getAvailableStock() < requested) {
+            throw new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK, 
+                String.format("Sản phẩm '%s' không đủ tồn kho. Có thể bán: %d, yêu cầu: %d", 
+                    product.getName() != null ? product.getName() : product.getId(),
+                    inventory.getAvailableStock(),
+                    requested));
+        }
+    }
+
     public Cart removeItem(String userId, String productId) {
         Cart cart = getOrCreateCartForUser(userId);
         cart.getItems().removeIf(i -> productId.equals(i.getProductId()));
@@ -3,13 +3,21 @@ package com.example.harvesthubbackend.Service;
 import com.example.harvesthubbackend.Models.Category;
 import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Repository.CategoryRepository;
-import com.example.harvesthubbackend.Repository.ProductRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class CategoryService {
@@ -18,7 +26,7 @@ public class CategoryService {
     private CategoryRepository categoryRepository;
 
     @Autowired
-    private ProductRepository productRepository;
+    private MongoTemplate mongoTemplate;
 
     // Get all categories
     public List<Category> getAllCategories() {
@@ -31,38 +39,58 @@ public class CategoryService {
     }
     
     // Helper method to calculate product counts for categories
+    // Đếm bằng một aggregation $group trên category (dùng index), không tải danh sách sản phẩm
     private void calculateProductCounts(List<Category> categories) {
-        if (productRepository != null && categories != null) {
-            for (Category category : categories) {
-                int count = 0;
-                try {
-                    String categoryName = category.getName();
-                    String categoryId = category.getId();
-                    
-                    // Count products by category name
-                    if (categoryName != null && !categoryName.trim().isEmpty()) {
-                        List<Product> productsByName = productRepository.findByCategory(categoryName);
-                        if (productsByName != null && !productsByName.isEmpty()) {
-                            count = productsByName.size();
-                        }
-                    }
-                    
-                    // If no products found by name, try by ID
-                    if (count == 0 && categoryId != null && !categoryId.trim().isEmpty()) {
-                        List<Product> productsById = productRepository.findByCategory(categoryId);
-                        if (productsById != null && !productsById.isEmpty()) {
-                            count = productsById.size();
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error calculating productCount for category " + category.getId() + ": " + e.getMessage());
-                    // Continue with count = 0 if there's an error
-                }
-                
-                category.setProductCount(count);
+        if (categories == null || categories.isEmpty()) {
+            return;
+        }
+        
+        Set<String> keys = new HashSet<>();
+        for (Category category : categories) {
+            if (category.getName() != null && !category.getName().trim().isEmpty()) {
+                keys.add(category.getName());
+            }
+            if (category.getId() != null && !category.getId().trim().isEmpty()) {
+                keys.add(category.getId());
+            }
+        }
+        
+        Map<String, Integer> counts = new HashMap<>();
+        try {
+            counts = countProductsByCategory(keys);
+        } catch (Exception e) {
+            System.err.println("Error calculating productCount for categories: " + e.getMessage());
+            // Continue with count = 0 if there's an error
+        }
+        
+        for (Category category : categories) {
+            // Count products by category name; if none, try by ID
+            int count = category.getName() != null ? counts.getOrDefault(category.getName(), 0) : 0;
+            if (count == 0 && category.getId() != null) {
+                count = counts.getOrDefault(category.getId(), 0);
             }
+            category.setProductCount(count);
         }
     }
+    
+    // Số sản phẩm theo giá trị field category (tên hoặc id danh mục)
+    private Map<String, Integer> countProductsByCategory(Set<String> keys) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (keys.isEmpty()) {
+            return counts;
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("category").in(keys)),
+            Aggregation.group("category").count().as("count")
+        );
+        for (Document row : mongoTemplate.aggregate(aggregation, Product.class, Document.class)) {
+            Object category = row.get("_id");
+            if (category != null) {
+                counts.put(category.toString(), ((Number) row.get("count")).intValue());
+            }
+        }
+        return counts;
+    }
 
     // Get active categories only
     public List<Category> getActiveCategories() {
@@ -191,31 +219,22 @@ public class CategoryService {
         }
 
         // Check if any products are using this category
-        if (productRepository != null) {
+        if (mongoTemplate != null) {
             try {
                 String categoryName = category.getName();
                 String categoryId = category.getId();
                 
-                // Check by category name
-                if (categoryName != null && !categoryName.trim().isEmpty()) {
-                    List<Product> productsByName = productRepository.findByCategory(categoryName);
-                    if (productsByName != null && !productsByName.isEmpty()) {
-                        int productCount = productsByName.size();
-                        System.err.println("ERROR: " + productCount + " product(s) are using category name: " + categoryName);
-                        throw new IllegalStateException("Không thể xóa danh mục này vì có " + productCount + " sản phẩm đang sử dụng. Vui lòng xóa hoặc cập nhật các sản phẩm đó trước.");
+                // Check by category name / category ID (count only, không tải sản phẩm)
+                for (String key : new String[] { categoryName, categoryId }) {
+                    if (key == null || key.trim().isEmpty()) {
+                        continue;
                     }
-                    System.out.println("No products found with category name: " + categoryName);
-                }
-                
-                // Check by category ID
-                if (categoryId != null && !categoryId.trim().isEmpty()) {
-                    List<Product> productsById = productRepository.findByCategory(categoryId);
-                    if (productsById != null && !productsById.isEmpty()) {
-                        int productCount = productsById.size();
-                        System.err.println("ERROR: " + productCount + " product(s) are using category ID: " + categoryId);
+                    long productCount = mongoTemplate.count(new Query(Criteria.where("category").is(key)), Product.class);
+                    if (productCount > 0) {
+                        System.err.println("ERROR: " + productCount + " product(s) are using category: " + key);
                         throw new IllegalStateException("Không thể xóa danh mục này vì có " + productCount + " sản phẩm đang sử dụng. Vui lòng xóa hoặc cập nhật các sản phẩm đó trước.");
                     }
-                    System.out.println("No products found with category ID: " + categoryId);
+                    System.out.println("No products found with category: " + key);
                 }
             } catch (IllegalStateException e) {
                 throw e;
@@ -225,7 +244,7 @@ public class CategoryService {
                 // Continue with deletion attempt
             }
         } else {
-            System.err.println("WARNING: ProductRepository is null, skipping product check");
+            System.err.println("WARNING: MongoTemplate is null, skipping product check");
         }
 
         // Delete the category
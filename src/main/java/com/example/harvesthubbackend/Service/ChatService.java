@@ -1,7 +1,7 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.Product;
-import com.example.harvesthubbackend.Repository.ProductRepository;
+import com.example.harvesthubbackend.Utils.PageResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.*;
@@ -9,8 +9,10 @@ import java.util.*;
 @Service
 public class ChatService {
     
+    private static final int MAX_SUGGESTIONS = 5; // Số sản phẩm tối đa kèm trong câu trả lời
+    
     @Autowired
-    private ProductRepository productRepository;
+    private ProductSearchService productSearchService;
     
     /**
      * Kết quả xử lý tin nhắn
@@ -177,26 +179,18 @@ public class ChatService {
      */
     private ChatResponse searchAndRespondAboutProductWithData(String productName) {
         try {
-            if (productRepository == null) {
+            if (productSearchService == null) {
                 return new ChatResponse(
                     "Hiện tại tôi chưa thể tìm kiếm sản phẩm trong hệ thống. Bạn có thể tìm kiếm sản phẩm \"" + productName + "\" trên trang chủ hoặc trong danh mục sản phẩm.",
                     null
                 );
             }
             
-            // Tìm kiếm sản phẩm theo tên (không phân biệt hoa thường)
-            List<Product> products = productRepository.findAll();
-            List<Product> matchedProducts = new ArrayList<>();
-            
-            String lowerProductName = productName.toLowerCase();
-            for (Product product : products) {
-                if (product.getName() != null && product.getName().toLowerCase().contains(lowerProductName)) {
-                    // Chỉ lấy sản phẩm đang active và còn hàng
-                    if ("active".equals(product.getStatus()) && product.getStock() != null && product.getStock() > 0) {
-                        matchedProducts.add(product);
-                    }
-                }
-            }
+            // Tìm kiếm sản phẩm theo tên qua chỉ mục tìm kiếm (không dấu, khớp tiền tố/gần đúng),
+            // chỉ lấy sản phẩm đang active và còn hàng
+            PageResponse<Product> matches = productSearchService.searchAvailable(productName, MAX_SUGGESTIONS);
+            List<Product> matchedProducts = matches.getContent();
+            long total = matches.getTotalElements();
             
             if (matchedProducts.isEmpty()) {
                 return new ChatResponse(
@@ -208,12 +202,7 @@ public class ChatService {
                 );
             }
             
-            // Giới hạn số lượng sản phẩm trả về
-            List<Product> productsToReturn = matchedProducts.size() > 5 
-                ? matchedProducts.subList(0, 5) 
-                : matchedProducts;
-            
-            if (matchedProducts.size() == 1) {
+            if (total == 1) {
                 Product product = matchedProducts.get(0);
                 String responseText = "Có! Chúng tôi có sản phẩm \"" + product.getName() + "\".\n\n" +
                        "Thông tin sản phẩm:\n" +
@@ -221,25 +210,23 @@ public class ChatService {
                        "- Số lượng còn lại: " + product.getStock() + " " + (product.getUnit() != null ? product.getUnit() : "sản phẩm") + "\n" +
                        "- Danh mục: " + (product.getCategory() != null ? product.getCategory() : "Nông sản") + "\n\n" +
                        "Bạn có thể xem chi tiết và đặt mua sản phẩm này bên dưới.";
-                return new ChatResponse(responseText, productsToReturn);
+                return new ChatResponse(responseText, matchedProducts);
             } else {
                 StringBuilder response = new StringBuilder();
-                response.append("Có! Chúng tôi có ").append(matchedProducts.size()).append(" sản phẩm liên quan đến \"").append(productName).append("\":\n\n");
+                response.append("Có! Chúng tôi có ").append(total).append(" sản phẩm liên quan đến \"").append(productName).append("\":\n\n");
                 
-                int count = 0;
-                for (Product product : productsToReturn) {
+                for (Product product : matchedProducts) {
                     response.append("- ").append(product.getName())
                            .append(" - ").append(formatPrice(product.getPrice()))
                            .append(" (Còn ").append(product.getStock()).append(" ").append(product.getUnit() != null ? product.getUnit() : "sản phẩm").append(")\n");
-                    count++;
                 }
                 
-                if (matchedProducts.size() > 5) {
-                    response.append("\n... và ").append(matchedProducts.size() - 5).append(" sản phẩm khác.\n");
+                if (total > MAX_SUGGESTIONS) {
+                    response.append("\n... và ").append(total - MAX_SUGGESTIONS).append(" sản phẩm khác.\n");
                 }
                 
                 response.append("\nBạn có thể xem chi tiết và đặt mua các sản phẩm này bên dưới.");
-                return new ChatResponse(response.toString(), productsToReturn);
+                return new ChatResponse(response.toString(), matchedProducts);
             }
         } catch (Exception e) {
             System.err.println("Lỗi khi tìm kiếm sản phẩm: " + e.getMessage());
@@ -255,23 +242,15 @@ public class ChatService {
      */
     private String searchAndRespondAboutProduct(String productName) {
         try {
-            if (productRepository == null) {
+            if (productSearchService == null) {
                 return "Hiện tại tôi chưa thể tìm kiếm sản phẩm trong hệ thống. Bạn có thể tìm kiếm sản phẩm \"" + productName + "\" trên trang chủ hoặc trong danh mục sản phẩm.";
             }
             
-            // Tìm kiếm sản phẩm theo tên (không phân biệt hoa thường)
-            List<Product> products = productRepository.findAll();
-            List<Product> matchedProducts = new ArrayList<>();
-            
-            String lowerProductName = productName.toLowerCase();
-            for (Product product : products) {
-                if (product.getName() != null && product.getName().toLowerCase().contains(lowerProductName)) {
-                    // Chỉ lấy sản phẩm đang active và còn hàng
-                    if ("active".equals(product.getStatus()) && product.getStock() != null && product.getStock() > 0) {
-                        matchedProducts.add(product);
-                    }
-                }
-            }
+            // Tìm kiếm sản phẩm theo tên qua chỉ mục tìm kiếm (không dấu, khớp tiền tố/gần đúng),
+            // chỉ lấy sản phẩm đang active và còn hàng
+            PageResponse<Product> matches = productSearchService.searchAvailable(productName, MAX_SUGGESTIONS);
+            List<Product> matchedProducts = matches.getContent();
+            long total = matches.getTotalElements();
             
             if (matchedProducts.isEmpty()) {
                 return "Xin lỗi, hiện tại chúng tôi chưa có sản phẩm \"" + productName + "\" trong kho. Bạn có thể:\n" +
@@ -280,7 +259,7 @@ public class ChatService {
                        "- Liên hệ hotline: 1900-xxxx để được tư vấn thêm";
             }
             
-            if (matchedProducts.size() == 1) {
+            if (total == 1) {
                 Product product = matchedProducts.get(0);
                 return "Có! Chúng tôi có sản phẩm \"" + product.getName() + "\".\n\n" +
                        "Thông tin sản phẩm:\n" +
@@ -290,19 +269,16 @@ public class ChatService {
                        "Bạn có thể xem chi tiết và đặt mua sản phẩm này trên trang chủ của chúng tôi.";
             } else {
                 StringBuilder response = new StringBuilder();
-                response.append("Có! Chúng tôi có ").append(matchedProducts.size()).append(" sản phẩm liên quan đến \"").append(productName).append("\":\n\n");
+                response.append("Có! Chúng tôi có ").append(total).append(" sản phẩm liên quan đến \"").append(productName).append("\":\n\n");
                 
-                int count = 0;
                 for (Product product : matchedProducts) {
-                    if (count >= 5) break; // Chỉ hiển thị tối đa 5 sản phẩm
                     response.append("- ").append(product.getName())
                            .append(" - ").append(formatPrice(product.getPrice()))
                            .append(" (Còn ").append(product.getStock()).append(" ").append(product.getUnit() != null ? product.getUnit() : "sản phẩm").append(")\n");
-                    count++;
                 }
                 
-                if (matchedProducts.size() > 5) {
-                    response.append("\n... và ").append(matchedProducts.size() - 5).append(" sản phẩm khác.\n");
+                if (total > MAX_SUGGESTIONS) {
+                    response.append("\n... và ").append(total - MAX_SUGGESTIONS).append(" sản phẩm khác.\n");
                 }
                 
                 response.append("\nBạn có thể xem chi tiết và đặt mua các sản phẩm này trên trang chủ.");
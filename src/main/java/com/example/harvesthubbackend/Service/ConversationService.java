@@ -1,21 +1,49 @@
 package com.example.harvesthubbackend.Service;
 
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
 import com.example.harvesthubbackend.Models.Conversation;
 import com.example.harvesthubbackend.Models.Conversation.Message;
+import com.example.harvesthubbackend.Models.ConversationMessage;
 import com.example.harvesthubbackend.Repository.ConversationRepository;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+/**
+ * Hội thoại seller - customer.
+ * Tin nhắn nằm trong collection conversation_messages (chỉ insert, phân trang bằng cursor "{timestamp}_{id}");
+ * document conversation chỉ giữ tin nhắn cuối và số chưa đọc của mỗi bên. STOMP chỉ đẩy tin nhắn mới.
+ */
 @Service
 public class ConversationService {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
     @Autowired
     private ConversationRepository conversationRepository;
     @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
     public List<Conversation> getConversationsBySeller(String sellerId) {
@@ -30,25 +58,106 @@ public class ConversationService {
     public Optional<Conversation> getById(String id) {
         return conversationRepository.findById(id);
     }
+
+    // Hội thoại kèm trang tin nhắn mới nhất (tương thích với client cũ đọc field messages)
+    public Optional<Conversation> getWithLatestMessages(String id) {
+        Optional<Conversation> conversation = conversationRepository.findById(id);
+        conversation.ifPresent(conv -> {
+            List<Message> latest = new ArrayList<>();
+            for (ConversationMessage message : findPage(id, null, false, DEFAULT_PAGE_SIZE)) {
+                latest.add(message.toMessage());
+            }
+            conv.setMessages(latest);
+        });
+        return conversation;
+    }
+
     public Conversation save(Conversation conv) {
         conv.setUpdatedAt(Instant.now().toEpochMilli());
         Conversation saved = conversationRepository.save(conv);
         publishConversationUpdate(saved);
         return saved;
     }
-    public Conversation sendMessage(String conversationId, Message message) {
-        Conversation conv = conversationRepository.findById(conversationId).orElse(null);
-        if (conv == null) throw new RuntimeException("Conversation not found");
-        if (conv.getMessages() == null) conv.setMessages(new ArrayList<>());
+
+    /**
+     * Thêm tin nhắn: insert vào conversation_messages rồi cập nhật tóm tắt hội thoại bằng một lệnh atomic
+     * ($set tin nhắn cuối, $inc số tin và số chưa đọc của bên nhận), nên gửi đồng thời không ghi đè lẫn nhau.
+     */
+    public ConversationMessage sendMessage(String conversationId, Message message) {
+        if (!conversationRepository.existsById(conversationId)) throw new RuntimeException("Conversation not found");
         if (message.getTimestamp() <= 0) {
             message.setTimestamp(Instant.now().toEpochMilli());
         }
-        conv.getMessages().add(message);
-        conv.setUpdatedAt(message.getTimestamp());
-        Conversation saved = conversationRepository.save(conv);
-        publishConversationUpdate(saved);
+        ConversationMessage saved = mongoTemplate.insert(new ConversationMessage(conversationId, message));
+
+        Update update = new Update()
+            .inc("messageCount", 1)
+            .max("updatedAt", message.getTimestamp());
+        if ("seller".equalsIgnoreCase(message.getRole())) {
+            update.inc("unreadByCustomer", 1);
+        } else {
+            update.inc("unreadBySeller", 1);
+        }
+        Conversation conv = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(conversationId)),
+            update,
+            FindAndModifyOptions.options().returnNew(true),
+            Conversation.class);
+        // Chỉ thay tin nhắn cuối nếu tin này không cũ hơn
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(conversationId)
+                .orOperator(Criteria.where("lastMessage").is(null),
+                    Criteria.where("lastMessage.timestamp").lte(message.getTimestamp()))),
+            new Update().set("lastMessage", message),
+            Conversation.class);
+
+        if (conv != null) {
+            conv.setLastMessage(message);
+            publishMessage(conv, saved);
+        }
         return saved;
     }
+
+    /**
+     * Một trang tin nhắn theo thứ tự thời gian tăng dần.
+     * before: lấy các tin cũ hơn cursor (mặc định, để trống = trang mới nhất); after: các tin mới hơn cursor.
+     */
+    public Map<String, Object> getMessages(String conversationId, String before, String after, int limit) {
+        if (!conversationRepository.existsById(conversationId)) {
+            throw new ApiException(ErrorCode.RESOURCE_NOT_FOUND, "Conversation not found");
+        }
+        int pageSize = limit > 0 ? Math.min(limit, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+        boolean forward = after != null && !after.isBlank();
+        List<ConversationMessage> items = findPage(conversationId, forward ? after : before, forward, pageSize + 1);
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            // Bỏ phần tử thừa ở phía xa cursor
+            items = forward ? items.subList(0, pageSize) : items.subList(1, items.size());
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("items", items);
+        response.put("hasMore", hasMore);
+        response.put("prevCursor", items.isEmpty() ? before : cursorOf(items.get(0)));
+        response.put("nextCursor", items.isEmpty() ? after : cursorOf(items.get(items.size() - 1)));
+        return response;
+    }
+
+    // Đánh dấu đã đọc toàn bộ tin nhắn của phía role ("seller" hoặc "customer")
+    public Conversation markAsRead(String conversationId, String role) {
+        String field = "seller".equalsIgnoreCase(role) ? "unreadBySeller" : "unreadByCustomer";
+        Conversation conv = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(conversationId)),
+            new Update().set(field, 0L),
+            FindAndModifyOptions.options().returnNew(true),
+            Conversation.class);
+        if (conv == null) {
+            throw new ApiException(ErrorCode.RESOURCE_NOT_FOUND, "Conversation not found");
+        }
+        publishConversationUpdate(conv);
+        return conv;
+    }
+
     // Tạo mới conversation nếu chưa có (theo orderId)
     public Conversation createConversation(String sellerId, String customerId, String orderId) {
         Conversation conv = new Conversation();
@@ -64,6 +173,136 @@ public class ConversationService {
         return saved;
     }
 
+    /**
+     * Chuyển tin nhắn đang nhúng trong document conversation (dữ liệu cũ) sang conversation_messages.
+     * Mỗi hội thoại được xử lý độc lập: upsert tin nhắn, $unset messages cùng $inc messageCount, rồi đặt
+     * tin nhắn cuối nếu không cũ hơn tin hiện có (an toàn khi sendMessage chạy song song).
+     * _id của tin nhắn được suy ra từ conversationId và vị trí trong mảng, nên chạy lại sau khi upsert
+     * thành công nhưng $unset lỗi không tạo bản trùng.
+     */
+    public int migrateEmbeddedMessages() {
+        String collection = mongoTemplate.getCollectionName(Conversation.class);
+        int migrated = 0;
+        for (Document doc : mongoTemplate.getCollection(collection)
+                .find(new Document("messages", new Document("$exists", true)))) {
+            Object id = doc.get("_id");
+            String conversationId = id.toString();
+            List<?> embedded = doc.getList("messages", Object.class, Collections.emptyList());
+            List<ConversationMessage> messages = new ArrayList<>();
+            for (Object item : embedded) {
+                if (item instanceof Document raw) {
+                    Message message = mongoTemplate.getConverter().read(Message.class, raw);
+                    ConversationMessage migratedMessage = new ConversationMessage(conversationId, message);
+                    migratedMessage.setId(legacyMessageId(conversationId, messages.size(), message.getTimestamp()).toHexString());
+                    messages.add(migratedMessage);
+                }
+            }
+            try {
+                if (!messages.isEmpty()) {
+                    BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ConversationMessage.class);
+                    for (ConversationMessage message : messages) {
+                        Document fields = new Document();
+                        mongoTemplate.getConverter().write(message, fields);
+                        fields.remove("_id");
+                        bulk.upsert(new Query(Criteria.where("_id").is(new ObjectId(message.getId()))),
+                            Update.fromDocument(new Document("$setOnInsert", fields)));
+                    }
+                    bulk.execute();
+                }
+                // sendMessage vẫn $inc messageCount trong lúc migration chạy, nên cộng thêm thay vì ghi đè.
+                // Điều kiện messages còn tồn tại giúp hai lần chạy đồng thời không cộng trùng
+                Update update = new Update().unset("messages").inc("messageCount", (long) messages.size());
+                if (mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and("messages").exists(true)),
+                        update, Conversation.class).getModifiedCount() == 0) {
+                    continue;
+                }
+                if (!messages.isEmpty()) {
+                    Message last = messages.get(messages.size() - 1).toMessage();
+                    // Cùng điều kiện với sendMessage: không thay tin nhắn cuối mới hơn bằng tin cũ
+                    mongoTemplate.updateFirst(
+                        new Query(Criteria.where("_id").is(id)
+                            .orOperator(Criteria.where("lastMessage").is(null),
+                                Criteria.where("lastMessage.timestamp").lte(last.getTimestamp()))),
+                        new Update().set("lastMessage", last),
+                        Conversation.class);
+                }
+                migrated++;
+            } catch (Exception e) {
+                System.err.println("Failed to migrate messages of conversation " + conversationId + ": " + e.getMessage());
+            }
+        }
+        return migrated;
+    }
+
+    // ObjectId cố định cho tin nhắn thứ index của hội thoại cũ: giây của timestamp (giữ thứ tự theo thời gian),
+    // 5 byte băm conversationId, 3 byte vị trí (cùng giây thì giữ thứ tự trong mảng)
+    private static ObjectId legacyMessageId(String conversationId, int index, long timestamp) {
+        long hash = UUID.nameUUIDFromBytes(conversationId.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+        ByteBuffer bytes = ByteBuffer.allocate(12);
+        bytes.putInt((int) (timestamp / 1000));
+        for (int shift = 32; shift >= 0; shift -= 8) {
+            bytes.put((byte) (hash >>> shift));
+        }
+        bytes.put((byte) (index >>> 16)).put((byte) (index >>> 8)).put((byte) index);
+        return new ObjectId(bytes.array());
+    }
+
+    private List<ConversationMessage> findPage(String conversationId, String cursor, boolean forward, int limit) {
+        Criteria criteria = Criteria.where("conversationId").is(conversationId);
+        if (cursor != null && !cursor.isBlank()) {
+            int separator = cursor.indexOf('_');
+            long time;
+            try {
+                time = Long.parseLong(separator >= 0 ? cursor.substring(0, separator) : cursor);
+            } catch (NumberFormatException e) {
+                throw new ApiException(ErrorCode.INVALID_REQUEST, "Cursor không hợp lệ");
+            }
+            String id = separator >= 0 ? cursor.substring(separator + 1) : null;
+            Criteria beyondTime = forward ? Criteria.where("timestamp").gt(time) : Criteria.where("timestamp").lt(time);
+            if (id != null && ObjectId.isValid(id)) {
+                // Cùng timestamp thì so sánh tiếp theo _id
+                ObjectId objectId = new ObjectId(id);
+                criteria.orOperator(beyondTime,
+                    forward ? Criteria.where("timestamp").is(time).and("_id").gt(objectId)
+                            : Criteria.where("timestamp").is(time).and("_id").lt(objectId));
+            } else {
+                criteria.andOperator(beyondTime);
+            }
+        }
+        Sort.Direction direction = forward ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Query query = new Query(criteria)
+            .with(Sort.by(new Sort.Order(direction, "timestamp"), new Sort.Order(direction, "_id")))
+            .limit(limit);
+        List<ConversationMessage> page = new ArrayList<>(mongoTemplate.find(query, ConversationMessage.class));
+        if (!forward) {
+            Collections.reverse(page);
+        }
+        return page;
+    }
+
+    private static String cursorOf(ConversationMessage message) {
+        return message.getTimestamp() + "_" + message.getId();
+    }
+
+    // Đẩy tin nhắn mới (không kèm lịch sử) tới seller, customer và topic của hội thoại
+    private void publishMessage(Conversation conversation, ConversationMessage message) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("conversationId", conversation.getId());
+        payload.put("message", message);
+        payload.put("lastMessage", conversation.getLastMessage());
+        payload.put("messageCount", conversation.getMessageCount());
+        payload.put("unreadBySeller", conversation.getUnreadBySeller());
+        payload.put("unreadByCustomer", conversation.getUnreadByCustomer());
+        payload.put("updatedAt", conversation.getUpdatedAt());
+        messagingTemplate.convertAndSend("/topic/conversations/" + conversation.getId() + "/messages", message);
+        if (conversation.getSellerId() != null) {
+            messagingTemplate.convertAndSend("/topic/seller/" + conversation.getSellerId() + "/conversations", payload);
+        }
+        if (conversation.getCustomerId() != null) {
+            messagingTemplate.convertAndSend("/topic/customer/" + conversation.getCustomerId() + "/conversations", payload);
+        }
+    }
+
     private void publishConversationUpdate(Conversation conversation) {
         if (conversation == null) {
             return;
@@ -1,24 +1,51 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.FlashSale;
+import com.example.harvesthubbackend.Models.FlashSaleOrderRecord;
 import com.example.harvesthubbackend.Repository.FlashSaleRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Flash sale.
+ * Giá flash sale được tra từ một index trong bộ nhớ (productId -> sản phẩm trong flash sale đang
+ * chạy) thay vì truy vấn và duyệt mọi flash sale mỗi lần thêm vào giỏ. Index được dựng lại khi
+ * flash sale được tạo/sửa/xóa, khi tới thời điểm bắt đầu/kết thúc gần nhất và định kỳ mỗi phút.
+ */
 @Service
 public class FlashSaleService {
     
     @Autowired
     private FlashSaleRepository flashSaleRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Ảnh chụp index hiện tại, thay thế nguyên khối khi dựng lại
+    private volatile ActiveIndex activeIndex;
+    
     // Create a new flash sale
     public FlashSale createFlashSale(FlashSale flashSale) {
         flashSale.setCreatedAt(LocalDateTime.now());
         flashSale.setUpdatedAt(LocalDateTime.now());
-        return flashSaleRepository.save(flashSale);
+        FlashSale saved = flashSaleRepository.save(flashSale);
+        refreshActiveIndex();
+        return saved;
     }
     
     // Get flash sale by ID
@@ -88,7 +115,9 @@ public class FlashSaleService {
             flashSale.setStatus(flashSaleDetails.getStatus());
             flashSale.setProducts(flashSaleDetails.getProducts());
             flashSale.setUpdatedAt(LocalDateTime.now());
-            return flashSaleRepository.save(flashSale);
+            FlashSale saved = flashSaleRepository.save(flashSale);
+            refreshActiveIndex();
+            return saved;
         }
         return null;
     }
@@ -100,7 +129,9 @@ public class FlashSaleService {
             FlashSale flashSale = optionalFlashSale.get();
             flashSale.setStatus(status);
             flashSale.setUpdatedAt(LocalDateTime.now());
-            return flashSaleRepository.save(flashSale);
+            FlashSale saved = flashSaleRepository.save(flashSale);
+            refreshActiveIndex();
+            return saved;
         }
         return null;
     }
@@ -112,28 +143,22 @@ public class FlashSaleService {
             FlashSale flashSale = optionalFlashSale.get();
             flashSale.setProducts(products);
             flashSale.setUpdatedAt(LocalDateTime.now());
-            return flashSaleRepository.save(flashSale);
+            FlashSale saved = flashSaleRepository.save(flashSale);
+            refreshActiveIndex();
+            return saved;
         }
         return null;
     }
     
-    // Update product sold count in flash sale
+    // Update product sold count in flash sale (chỉ ghi field soldCount của sản phẩm đó)
     public FlashSale updateProductSoldCount(String flashSaleId, String productId, int soldCount) {
-        Optional<FlashSale> optionalFlashSale = flashSaleRepository.findById(flashSaleId);
-        if (optionalFlashSale.isPresent()) {
-            FlashSale flashSale = optionalFlashSale.get();
-            if (flashSale.getProducts() != null) {
-                for (FlashSale.FlashSaleProduct product : flashSale.getProducts()) {
-                    if (product.getProductId().equals(productId)) {
-                        product.setSoldCount(soldCount);
-                        break;
-                    }
-                }
-            }
-            flashSale.setUpdatedAt(LocalDateTime.now());
-            return flashSaleRepository.save(flashSale);
-        }
-        return null;
+        Query query = new Query(Criteria.where("_id").is(flashSaleId).and("products.productId").is(productId));
+        Update update = new Update()
+            .set("products.$.soldCount", soldCount)
+            .set("updatedAt", LocalDateTime.now());
+        mongoTemplate.updateFirst(query, update, FlashSale.class);
+        refreshActiveIndex();
+        return flashSaleRepository.findById(flashSaleId).orElse(null);
     }
     
     // Check if flash sale is active
@@ -176,6 +201,7 @@ public class FlashSaleService {
     public boolean deleteFlashSale(String id) {
         if (flashSaleRepository.existsById(id)) {
             flashSaleRepository.deleteById(id);
+            refreshActiveIndex();
             return true;
         }
         return false;
@@ -208,19 +234,226 @@ public class FlashSaleService {
     
     // Get flash sale price for a product (if product is in an active flash sale)
     public Double getFlashSalePriceForProduct(String productId) {
-        List<FlashSale> activeFlashSales = getActiveFlashSales();
-        for (FlashSale flashSale : activeFlashSales) {
-            if (flashSale.getProducts() != null) {
-                for (FlashSale.FlashSaleProduct product : flashSale.getProducts()) {
-                    if (product.getProductId().equals(productId)) {
-                        // Check if there's remaining stock
-                        if (product.getRemainingStock() > 0) {
-                            return product.getFlashSalePrice();
-                        }
-                    }
+        ActiveFlashSaleProduct product = findActiveProduct(productId);
+        return product != null ? product.getFlashSalePrice() : null; // null: no active flash sale for this product
+    }
+    
+    // Sản phẩm đang trong flash sale còn suất (flash sale đầu tiên theo thứ tự trong index)
+    public ActiveFlashSaleProduct findActiveProduct(String productId) {
+        if (productId == null) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (ActiveFlashSaleProduct product : currentIndex(now).byProduct.getOrDefault(productId, Collections.emptyList())) {
+            if (product.isLive(now) && product.getRemainingStock() > 0) {
+                return product;
+            }
+        }
+        return null;
+    }
+    
+    // Flash sale đang chạy chứa sản phẩm với đúng giá đã bán (lệch dưới 100 VND do làm tròn)
+    public ActiveFlashSaleProduct findActiveProductByPrice(String productId, double unitPrice) {
+        if (productId == null) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (ActiveFlashSaleProduct product : currentIndex(now).byProduct.getOrDefault(productId, Collections.emptyList())) {
+            if (product.isLive(now)) {
+                // Chỉ xét flash sale đầu tiên chứa sản phẩm
+                return Math.abs(unitPrice - product.getFlashSalePrice()) < 100.0 ? product : null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Cộng số lượng đã bán của đơn orderId bằng $inc theo vị trí (products.$.soldCount), chỉ khi không vượt
+     * flashSaleStock. Trước khi cộng, đơn được ghi vào flash_sale_order_records (unique theo flash sale,
+     * sản phẩm và đơn); gọi lại khi retry gặp DuplicateKey và trả về số lượng đã ghi lần trước, không cộng trùng.
+     * Nếu không đủ suất cho toàn bộ quantity thì chỉ đặt soldCount = flashSaleStock (hết suất) và ghi nhận 0.
+     * Trả về số lượng được ghi nhận.
+     */
+    public int recordSale(String flashSaleId, String productId, String orderId, int quantity) {
+        if (flashSaleId == null || productId == null || orderId == null || quantity <= 0) {
+            return 0;
+        }
+        // Chỉ lấy phần tử của sản phẩm này
+        Query current = new Query(Criteria.where("_id").is(flashSaleId));
+        current.fields().elemMatch("products", Criteria.where("productId").is(productId));
+        FlashSale flashSale = mongoTemplate.findOne(current, FlashSale.class);
+        if (flashSale == null || flashSale.getProducts() == null || flashSale.getProducts().isEmpty()) {
+            return 0;
+        }
+        int stock = flashSale.getProducts().get(0).getFlashSaleStock();
+        
+        try {
+            mongoTemplate.insert(new FlashSaleOrderRecord(flashSaleId, productId, orderId, quantity));
+        } catch (DuplicateKeyException e) {
+            Query recorded = new Query(Criteria.where("flashSaleId").is(flashSaleId)
+                .and("productId").is(productId).and("orderId").is(orderId));
+            FlashSaleOrderRecord record = mongoTemplate.findOne(recorded, FlashSaleOrderRecord.class);
+            return record != null ? record.getQuantity() : 0;
+        }
+        
+        Criteria element = Criteria.where("productId").is(productId)
+            .and("flashSaleStock").is(stock)
+            .and("soldCount").lte(stock - quantity);
+        Query query = new Query(Criteria.where("_id").is(flashSaleId).and("products").elemMatch(element));
+        Update update = new Update()
+            .inc("products.$.soldCount", quantity)
+            .set("updatedAt", LocalDateTime.now());
+        if (mongoTemplate.updateFirst(query, update, FlashSale.class).getModifiedCount() > 0) {
+            for (ActiveFlashSaleProduct active : currentIndex(LocalDateTime.now()).byProduct.getOrDefault(productId, Collections.emptyList())) {
+                if (flashSaleId.equals(active.getFlashSaleId())) {
+                    active.addSold(quantity);
+                }
+            }
+            return quantity;
+        }
+        
+        // Không đủ suất: ghi nhận 0 cho đơn, chốt soldCount ở mức trần và dựng lại index (có thể flash sale đã bị sửa)
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("flashSaleId").is(flashSaleId).and("productId").is(productId).and("orderId").is(orderId)),
+            new Update().set("quantity", 0),
+            FlashSaleOrderRecord.class);
+        Criteria remaining = Criteria.where("productId").is(productId)
+            .and("flashSaleStock").is(stock);
+        Query capQuery = new Query(Criteria.where("_id").is(flashSaleId).and("products").elemMatch(remaining));
+        Update capUpdate = new Update()
+            .set("products.$.soldCount", stock)
+            .set("updatedAt", LocalDateTime.now());
+        mongoTemplate.updateFirst(capQuery, capUpdate, FlashSale.class);
+        refreshActiveIndex();
+        return 0;
+    }
+    
+    /**
+     * Chuyển danh sách recordedOrderIds cũ (nhúng trong products) sang flash_sale_order_records rồi xóa khỏi
+     * flash sale. Số lượng đã cộng của các đơn cũ không được lưu nên ghi nhận là 0. Chạy lại an toàn (upsert).
+     */
+    @SuppressWarnings("unchecked")
+    public int migrateRecordedOrderIds() {
+        Query legacy = new Query(Criteria.where("products.recordedOrderIds").exists(true));
+        legacy.fields().include("products.productId", "products.recordedOrderIds");
+        int migrated = 0;
+        for (Document flashSale : mongoTemplate.find(legacy, Document.class, mongoTemplate.getCollectionName(FlashSale.class))) {
+            String flashSaleId = String.valueOf(flashSale.get("_id"));
+            BulkOperations records = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FlashSaleOrderRecord.class);
+            int pending = 0;
+            for (Document product : (List<Document>) flashSale.get("products", List.class)) {
+                List<String> orderIds = (List<String>) product.get("recordedOrderIds", List.class);
+                if (orderIds == null) {
+                    continue;
+                }
+                for (String orderId : orderIds) {
+                    records.upsert(
+                        new Query(Criteria.where("flashSaleId").is(flashSaleId)
+                            .and("productId").is(product.getString("productId")).and("orderId").is(orderId)),
+                        new Update().setOnInsert("quantity", 0).setOnInsert("recordedAt", System.currentTimeMillis()));
+                    pending++;
+                }
+            }
+            if (pending > 0) {
+                records.execute();
+                migrated += pending;
+            }
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(flashSale.get("_id"))),
+                new Update().unset("products.$[].recordedOrderIds"), FlashSale.class);
+        }
+        return migrated;
+    }
+    
+    /**
+     * Dựng lại index flash sale đang chạy từ database.
+     * Gồm cả flash sale "active" chưa tới giờ bắt đầu để biết thời điểm cần dựng lại tiếp theo.
+     */
+    public void refreshActiveIndex() {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(Criteria.where("status").is("active").and("endTime").gte(now));
+        query.fields().include("startTime", "endTime", "products");
+        
+        Map<String, List<ActiveFlashSaleProduct>> byProduct = new HashMap<>();
+        LocalDateTime nextChange = now.plusMinutes(1);
+        for (FlashSale flashSale : mongoTemplate.find(query, FlashSale.class)) {
+            if (flashSale.getStartTime() == null || flashSale.getEndTime() == null) {
+                continue;
+            }
+            if (flashSale.getStartTime().isAfter(now)) {
+                if (flashSale.getStartTime().isBefore(nextChange)) {
+                    nextChange = flashSale.getStartTime();
+                }
+                continue;
+            }
+            if (flashSale.getEndTime().isBefore(nextChange)) {
+                nextChange = flashSale.getEndTime();
+            }
+            if (flashSale.getProducts() == null) {
+                continue;
+            }
+            for (FlashSale.FlashSaleProduct product : flashSale.getProducts()) {
+                if (product.getProductId() == null) {
+                    continue;
                 }
+                byProduct.computeIfAbsent(product.getProductId(), k -> new ArrayList<>())
+                    .add(new ActiveFlashSaleProduct(flashSale, product));
             }
         }
-        return null; // No active flash sale for this product
+        activeIndex = new ActiveIndex(byProduct, nextChange);
+    }
+    
+    private ActiveIndex currentIndex(LocalDateTime now) {
+        ActiveIndex index = activeIndex;
+        if (index == null || !now.isBefore(index.nextChange)) {
+            refreshActiveIndex();
+            index = activeIndex;
+        }
+        return index;
+    }
+    
+    private static class ActiveIndex {
+        private final Map<String, List<ActiveFlashSaleProduct>> byProduct;
+        // Thời điểm gần nhất có flash sale bắt đầu/kết thúc (tối đa 1 phút)
+        private final LocalDateTime nextChange;
+        
+        private ActiveIndex(Map<String, List<ActiveFlashSaleProduct>> byProduct, LocalDateTime nextChange) {
+            this.byProduct = byProduct;
+            this.nextChange = nextChange;
+        }
+    }
+    
+    // Sản phẩm trong một flash sale đang chạy; soldCount được cập nhật tại chỗ sau mỗi lần ghi nhận bán
+    public static class ActiveFlashSaleProduct {
+        private final String flashSaleId;
+        private final String productId;
+        private final double flashSalePrice;
+        private final int flashSaleStock;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private final AtomicInteger soldCount;
+        
+        private ActiveFlashSaleProduct(FlashSale flashSale, FlashSale.FlashSaleProduct product) {
+            this.flashSaleId = flashSale.getId();
+            this.productId = product.getProductId();
+            this.flashSalePrice = product.getFlashSalePrice();
+            this.flashSaleStock = product.getFlashSaleStock();
+            this.startTime = flashSale.getStartTime();
+            this.endTime = flashSale.getEndTime();
+            this.soldCount = new AtomicInteger(product.getSoldCount());
+        }
+        
+        public String getFlashSaleId() { return flashSaleId; }
+        public String getProductId() { return productId; }
+        public double getFlashSalePrice() { return flashSalePrice; }
+        public int getFlashSaleStock() { return flashSaleStock; }
+        public int getRemainingStock() { return flashSaleStock - soldCount.get(); }
+        
+        private void addSold(int quantity) {
+            soldCount.addAndGet(quantity);
+        }
+        
+        private boolean isLive(LocalDateTime now) {
+            return !now.isBefore(startTime) && !now.isAfter(endTime);
+        }
     }
 }
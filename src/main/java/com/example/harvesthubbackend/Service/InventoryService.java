@@ -1,18 +1,38 @@
 package com.example.harvesthubbackend.Service;
 
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
 import com.example.harvesthubbackend.Models.Inventory;
 import com.example.harvesthubbackend.Models.InventoryTransaction;
 import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Repository.InventoryRepository;
 import com.example.harvesthubbackend.Repository.InventoryTransactionRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Tồn kho sản phẩm.
+ * Mọi thay đổi số lượng đều là cập nhật nguyên tử trên một document (điều kiện + $inc hoặc
+ * pipeline update), không đọc-sửa-ghi, để tránh mất cập nhật và bán vượt tồn kho khi nhiều
+ * đơn hàng cùng lúc (flash sale). Product.stock được đồng bộ bằng cập nhật riêng field stock.
+ */
 @Service
 public class InventoryService {
     
@@ -25,6 +45,9 @@ public class InventoryService {
     @Autowired
     private ProductService productService;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     // Tạo inventory mới cho sản phẩm
     public Inventory createInventory(String productId, String sellerId, int initialStock) {
         // Kiểm tra xem đã có inventory chưa
@@ -49,114 +72,230 @@ public class InventoryService {
             saved.getCurrentStock() - initialStock, saved.getCurrentStock(), "Initial stock", "system");
         
         // Cập nhật stock trong Product
-        updateProductStock(productId, saved.getCurrentStock());
+        setProductStock(productId, saved.getCurrentStock());
         
         return saved;
     }
     
     // Nhập hàng (stock in)
-    @Transactional
     public Inventory stockIn(String productId, int quantity, String reason, String notes, String createdBy) {
-        Inventory inventory = inventoryRepository.findByProductId(productId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
-        
-        int quantityBefore = inventory.getCurrentStock();
-        inventory.setCurrentStock(quantityBefore + quantity);
-        inventory.setTotalIn(inventory.getTotalIn() + quantity);
-        inventory.setLastRestockedAt(LocalDateTime.now());
-        inventory.calculateAvailableStock();
-        
-        Inventory saved = inventoryRepository.save(inventory);
+        // availableStock = max(0, currentStock + quantity - reservedStock), tính trên giá trị cũ trong cùng một lệnh
+        Document set = new Document("currentStock", new Document("$add", List.of("$currentStock", quantity)))
+            .append("availableStock", new Document("$max", List.of(0,
+                new Document("$subtract", List.of(new Document("$add", List.of("$currentStock", quantity)), "$reservedStock")))))
+            .append("totalIn", new Document("$add", List.of("$totalIn", quantity)))
+            .append("lastRestockedAt", "$$NOW");
+        Inventory saved = updateInventory(Criteria.where("productId").is(productId), set);
+        if (saved == null) {
+            throw new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId);
+        }
         
         // Tạo transaction record
-        createTransaction(saved.getId(), productId, inventory.getSellerId(), "in", reason, quantity,
-            quantityBefore, saved.getCurrentStock(), notes, createdBy);
+        createTransaction(saved.getId(), productId, saved.getSellerId(), "in", reason, quantity,
+            saved.getCurrentStock() - quantity, saved.getCurrentStock(), notes, createdBy);
         
         // Cập nhật stock trong Product
-        updateProductStock(productId, saved.getCurrentStock());
+        adjustProductStock(productId, quantity);
         
         return saved;
     }
     
     // Xuất hàng (stock out) - khi bán
-    @Transactional
     public Inventory stockOut(String productId, int quantity, String orderId, String reason, String createdBy) {
-        Inventory inventory = inventoryRepository.findByProductId(productId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
-        
-        if (inventory.getAvailableStock() < quantity) {
+        Inventory saved = decrementInventory(productId, quantity);
+        if (saved == null) {
+            Inventory inventory = inventoryRepository.findByProductId(productId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
             throw new RuntimeException("Không đủ tồn kho. Có thể bán: " + inventory.getAvailableStock() + ", Yêu cầu: " + quantity);
         }
         
-        int quantityBefore = inventory.getCurrentStock();
-        inventory.setCurrentStock(quantityBefore - quantity);
-        inventory.setTotalOut(inventory.getTotalOut() + quantity);
-        inventory.setTotalSold(inventory.getTotalSold() + quantity);
-        inventory.setLastSoldAt(LocalDateTime.now());
-        inventory.calculateAvailableStock();
-        
-        Inventory saved = inventoryRepository.save(inventory);
-        
         // Tạo transaction record
-        createTransaction(saved.getId(), productId, inventory.getSellerId(), "out", reason, -quantity,
-            quantityBefore, saved.getCurrentStock(), "Order: " + orderId, createdBy);
+        createTransaction(saved.getId(), productId, saved.getSellerId(), "out", reason, -quantity,
+            saved.getCurrentStock() + quantity, saved.getCurrentStock(), "Order: " + orderId, createdBy);
         
         // Cập nhật stock trong Product
-        updateProductStock(productId, saved.getCurrentStock());
+        adjustProductStock(productId, -quantity);
         
         return saved;
     }
     
     // Reserve stock (khi thêm vào giỏ hàng hoặc đặt hàng)
-    @Transactional
     public Inventory reserveStock(String productId, int quantity) {
-        Inventory inventory = inventoryRepository.findByProductId(productId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
-        
-        if (inventory.getAvailableStock() < quantity) {
+        Query query = new Query(Criteria.where("productId").is(productId).and("availableStock").gte(quantity));
+        Update update = new Update()
+            .inc("reservedStock", quantity)
+            .inc("availableStock", -quantity)
+            .set("updatedAt", LocalDateTime.now());
+        Inventory saved = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Inventory.class);
+        if (saved == null) {
+            Inventory inventory = inventoryRepository.findByProductId(productId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
             throw new RuntimeException("Không đủ tồn kho khả dụng. Có thể bán: " + inventory.getAvailableStock() + ", Yêu cầu: " + quantity);
         }
-        
-        inventory.setReservedStock(inventory.getReservedStock() + quantity);
-        inventory.calculateAvailableStock();
-        
-        return inventoryRepository.save(inventory);
+        return refreshStatusIfChanged(saved);
     }
     
     // Release reserved stock (khi xóa khỏi giỏ hàng hoặc hủy đơn)
-    @Transactional
     public Inventory releaseReservedStock(String productId, int quantity) {
-        Inventory inventory = inventoryRepository.findByProductId(productId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
-        
-        inventory.setReservedStock(Math.max(0, inventory.getReservedStock() - quantity));
-        inventory.calculateAvailableStock();
-        
-        return inventoryRepository.save(inventory);
+        // reservedStock = max(0, reservedStock - quantity), availableStock tính lại theo reservedStock mới
+        Document reserved = new Document("$max", List.of(0, new Document("$subtract", List.of("$reservedStock", quantity))));
+        Document set = new Document("reservedStock", reserved)
+            .append("availableStock", new Document("$max", List.of(0,
+                new Document("$subtract", List.of("$currentStock", reserved)))));
+        Inventory saved = updateInventory(Criteria.where("productId").is(productId), set);
+        if (saved == null) {
+            throw new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId);
+        }
+        return saved;
     }
     
     // Điều chỉnh stock (adjustment)
-    @Transactional
     public Inventory adjustStock(String productId, int newQuantity, String reason, String notes, String createdBy) {
-        Inventory inventory = inventoryRepository.findByProductId(productId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId));
+        // Đọc giá trị cũ và ghi giá trị mới trong cùng một lệnh để difference luôn đúng
+        Document set = new Document("currentStock", newQuantity)
+            .append("availableStock", new Document("$max", List.of(0,
+                new Document("$subtract", List.of(newQuantity, "$reservedStock")))));
+        Inventory before = mongoTemplate.update(Inventory.class)
+            .matching(Criteria.where("productId").is(productId))
+            .apply(inventoryPipeline(set))
+            .withOptions(FindAndModifyOptions.options().returnNew(false))
+            .findAndModifyValue();
+        if (before == null) {
+            throw new RuntimeException("Không tìm thấy tồn kho cho sản phẩm: " + productId);
+        }
         
-        int quantityBefore = inventory.getCurrentStock();
+        int quantityBefore = before.getCurrentStock();
         int difference = newQuantity - quantityBefore;
         
-        inventory.setCurrentStock(newQuantity);
-        inventory.calculateAvailableStock();
-        
-        Inventory saved = inventoryRepository.save(inventory);
-        
         // Tạo transaction record
-        createTransaction(saved.getId(), productId, inventory.getSellerId(), "adjustment", reason, difference,
-            quantityBefore, saved.getCurrentStock(), notes, createdBy);
+        createTransaction(before.getId(), productId, before.getSellerId(), "adjustment", reason, difference,
+            quantityBefore, newQuantity, notes, createdBy);
         
         // Cập nhật stock trong Product
-        updateProductStock(productId, saved.getCurrentStock());
+        adjustProductStock(productId, difference);
         
-        return saved;
+        return inventoryRepository.findById(before.getId()).orElse(before);
+    }
+    
+    /**
+     * Trừ tồn kho cho tất cả sản phẩm của một đơn hàng.
+     * Mỗi sản phẩm được trừ bằng một cập nhật có điều kiện (đủ hàng mới trừ); nếu một sản phẩm
+     * không đủ hàng thì hoàn lại các sản phẩm đã trừ trước đó và ném PRODUCT_INSUFFICIENT_STOCK.
+     * Sản phẩm chưa có Inventory thì trừ trực tiếp Product.stock với cùng điều kiện.
+     */
+    public List<StockDeduction> deductForOrder(Map<String, Integer> quantities) {
+        return deductForOrder(quantities, null);
+    }
+    
+    /**
+     * Như trên, với tập productId đã biết là có Inventory (đã nạp sẵn theo lô): sản phẩm không nằm trong tập
+     * được trừ thẳng vào Product.stock, bỏ qua lệnh trừ Inventory chắc chắn thất bại và query kiểm tra tồn tại.
+     * trackedProductIds = null nghĩa là chưa biết, kiểm tra từng sản phẩm như bình thường.
+     */
+    public List<StockDeduction> deductForOrder(Map<String, Integer> quantities, Set<String> trackedProductIds) {
+        // Gộp dòng trùng sản phẩm và xử lý theo thứ tự productId cố định
+        Map<String, Integer> merged = new TreeMap<>();
+        quantities.forEach((productId, quantity) -> {
+            if (productId != null && quantity != null && quantity > 0) {
+                merged.merge(productId, quantity, Integer::sum);
+            }
+        });
+        
+        List<StockDeduction> deductions = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : merged.entrySet()) {
+            String productId = entry.getKey();
+            int quantity = entry.getValue();
+            
+            StockDeduction deduction = null;
+            boolean knownUntracked = trackedProductIds != null && !trackedProductIds.contains(productId);
+            Inventory inventory = knownUntracked ? null : decrementInventory(productId, quantity);
+            if (inventory != null) {
+                deduction = new StockDeduction(productId, quantity, inventory.getId(), inventory.getSellerId(), inventory.getCurrentStock());
+            } else if (knownUntracked
+                    || !mongoTemplate.exists(new Query(Criteria.where("productId").is(productId)), Inventory.class)) {
+                Integer stockAfter = decrementProductStock(productId, quantity);
+                if (stockAfter != null) {
+                    deduction = new StockDeduction(productId, quantity, null, null, stockAfter);
+                }
+            }
+            
+            if (deduction == null) {
+                // Product.stock của sản phẩm có Inventory chưa được đồng bộ (bước dưới chưa chạy)
+                restoreDeductions(deductions, false);
+                throw insufficientStock(productId, quantity);
+            }
+            deductions.add(deduction);
+        }
+        
+        // Đồng bộ Product.stock cho các sản phẩm có Inventory trong một lần ghi hàng loạt
+        List<StockDeduction> tracked = deductions.stream().filter(StockDeduction::isTracked).toList();
+        if (!tracked.isEmpty()) {
+            try {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+                for (StockDeduction deduction : tracked) {
+                    bulk.updateOne(new Query(Criteria.where("_id").is(deduction.getProductId())),
+                        productStockPipeline(-deduction.getQuantity()));
+                }
+                bulk.execute();
+            } catch (Exception e) {
+                // Log error but don't fail the order
+                System.err.println("Error updating product stock: " + e.getMessage());
+            }
+        }
+        return deductions;
+    }
+    
+    // Ghi lịch sử xuất kho cho các sản phẩm đã trừ của đơn hàng (một lần insert)
+    public void recordOrderDeductions(List<StockDeduction> deductions, String orderId, String createdBy) {
+        List<InventoryTransaction> transactions = new ArrayList<>();
+        for (StockDeduction deduction : deductions) {
+            if (!deduction.isTracked()) {
+                continue;
+            }
+            InventoryTransaction transaction = buildTransaction(deduction.getInventoryId(), deduction.getProductId(),
+                deduction.getSellerId(), "out", "Order created", -deduction.getQuantity(),
+                deduction.getStockAfter() + deduction.getQuantity(), deduction.getStockAfter(), "Order: " + orderId, createdBy);
+            transaction.setOrderId(orderId);
+            transactions.add(transaction);
+        }
+        if (!transactions.isEmpty()) {
+            transactionRepository.insert(transactions);
+        }
+    }
+    
+    // Hoàn lại tồn kho đã trừ (đơn hàng không tạo được)
+    public void restoreDeductions(List<StockDeduction> deductions) {
+        restoreDeductions(deductions, true);
+    }
+    
+    /**
+     * @param productStockSynced Product.stock của các sản phẩm có Inventory đã được trừ theo deduction hay chưa;
+     *                           nếu chưa thì chỉ hoàn Inventory, Product.stock chỉ được cộng lại cho sản phẩm không có Inventory
+     */
+    private void restoreDeductions(List<StockDeduction> deductions, boolean productStockSynced) {
+        for (StockDeduction deduction : deductions) {
+            try {
+                if (deduction.isTracked()) {
+                    Update update = new Update()
+                        .inc("currentStock", deduction.getQuantity())
+                        .inc("availableStock", deduction.getQuantity())
+                        .inc("totalOut", -deduction.getQuantity())
+                        .inc("totalSold", -deduction.getQuantity())
+                        .set("updatedAt", LocalDateTime.now());
+                    Inventory restored = mongoTemplate.findAndModify(
+                        new Query(Criteria.where("_id").is(deduction.getInventoryId())), update,
+                        FindAndModifyOptions.options().returnNew(true), Inventory.class);
+                    if (restored != null) {
+                        refreshStatusIfChanged(restored);
+                    }
+                }
+                if (!deduction.isTracked() || productStockSynced) {
+                    adjustProductStock(deduction.getProductId(), deduction.getQuantity());
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to restore stock for product " + deduction.getProductId() + ": " + e.getMessage());
+            }
+        }
     }
     
     // Lấy inventory theo product ID
@@ -216,6 +355,13 @@ public class InventoryService {
     private InventoryTransaction createTransaction(String inventoryId, String productId, String sellerId,
             String type, String reason, int quantity, int quantityBefore, int quantityAfter,
             String notes, String createdBy) {
+        return transactionRepository.save(buildTransaction(inventoryId, productId, sellerId, type, reason,
+            quantity, quantityBefore, quantityAfter, notes, createdBy));
+    }
+    
+    private InventoryTransaction buildTransaction(String inventoryId, String productId, String sellerId,
+            String type, String reason, int quantity, int quantityBefore, int quantityAfter,
+            String notes, String createdBy) {
         InventoryTransaction transaction = new InventoryTransaction();
         transaction.setInventoryId(inventoryId);
         transaction.setProductId(productId);
@@ -227,28 +373,147 @@ public class InventoryService {
         transaction.setQuantityAfter(quantityAfter);
         transaction.setNotes(notes);
         transaction.setCreatedBy(createdBy);
-        
-        return transactionRepository.save(transaction);
+        return transaction;
+    }
+    
+    // Trừ tồn kho khi còn đủ hàng (availableStock >= quantity); trả về null nếu không đủ hoặc không có inventory
+    private Inventory decrementInventory(String productId, int quantity) {
+        Query query = new Query(Criteria.where("productId").is(productId).and("availableStock").gte(quantity));
+        Update update = new Update()
+            .inc("currentStock", -quantity)
+            .inc("availableStock", -quantity)
+            .inc("totalOut", quantity)
+            .inc("totalSold", quantity)
+            .set("lastSoldAt", LocalDateTime.now())
+            .set("updatedAt", LocalDateTime.now());
+        Inventory saved = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Inventory.class);
+        return saved != null ? refreshStatusIfChanged(saved) : null;
+    }
+    
+    // Trừ Product.stock khi còn đủ hàng (sản phẩm chưa có Inventory); trả về stock mới hoặc null
+    private Integer decrementProductStock(String productId, int quantity) {
+        Product updated = mongoTemplate.update(Product.class)
+            .matching(Criteria.where("_id").is(productId).and("stock").gte(quantity))
+            .apply(productStockPipeline(-quantity))
+            .withOptions(FindAndModifyOptions.options().returnNew(true))
+            .findAndModifyValue();
+        return updated != null ? (updated.getStock() != null ? updated.getStock() : 0) : null;
+    }
+    
+    // Cập nhật status/lowStockAlert chỉ khi giá trị trả về cho thấy status đã đổi (tránh thêm một lần ghi cho mỗi đơn)
+    private Inventory refreshStatusIfChanged(Inventory saved) {
+        String status = saved.getStatus();
+        saved.calculateAvailableStock();
+        if (status != null && status.equals(saved.getStatus())) {
+            return saved;
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(saved.getId())),
+            inventoryPipeline(new Document()), Inventory.class);
+        return saved;
+    }
+    
+    // Lệnh $set tùy ý, sau đó tính lại status/lowStockAlert từ availableStock (giống Inventory.calculateAvailableStock)
+    private static AggregationUpdate inventoryPipeline(Document set) {
+        Document available = new Document("$ifNull", List.of("$availableStock", 0));
+        Document status = new Document("$switch", new Document("branches", List.of(
+                new Document("case", new Document("$lte", List.of(available, 0))).append("then", "out_of_stock"),
+                new Document("case", new Document("$lte", List.of(available, "$minStockLevel"))).append("then", "low_stock")))
+            .append("default", "in_stock"));
+        Document lowStockAlert = new Document("$cond", List.of(
+            new Document("$lte", List.of(available, 0)),
+            "$lowStockAlert",
+            new Document("$lte", List.of(available, "$minStockLevel"))));
+        List<AggregationOperation> stages = new ArrayList<>();
+        if (!set.isEmpty()) {
+            stages.add(context -> new Document("$set", set));
+        }
+        stages.add(context -> new Document("$set", new Document("status", status)
+            .append("lowStockAlert", lowStockAlert)
+            .append("updatedAt", "$$NOW")));
+        return AggregationUpdate.from(stages);
+    }
+    
+    // Cộng delta vào Product.stock và cập nhật inStock/status trong cùng một lệnh
+    private static AggregationUpdate productStockPipeline(int delta) {
+        return productStockPipeline(new Document("$max", List.of(0,
+            new Document("$add", List.of(new Document("$ifNull", List.of("$stock", 0)), delta)))));
     }
     
-    // Cập nhật stock trong Product model
-    private void updateProductStock(String productId, int stock) {
+    private static AggregationUpdate productStockPipeline(Object stock) {
+        Document status = new Document("$cond", List.of(
+            new Document("$lte", List.of("$stock", 0)),
+            "out_of_stock",
+            new Document("$cond", List.of(new Document("$eq", List.of("$status", "out_of_stock")), "active", "$status"))));
+        List<AggregationOperation> stages = List.of(
+            context -> new Document("$set", new Document("stock", stock)),
+            context -> new Document("$set", new Document("inStock", new Document("$gt", List.of("$stock", 0)))
+                .append("status", status)));
+        return AggregationUpdate.from(stages);
+    }
+    
+    // Cập nhật stock trong Product model (chỉ các field tồn kho, không ghi đè cả document)
+    private void adjustProductStock(String productId, int delta) {
         try {
-            Product product = productService.getById(productId);
-            if (product != null) {
-                product.setStock(stock);
-                product.setInStock(stock > 0);
-                if (stock == 0) {
-                    product.setStatus("out_of_stock");
-                } else if (product.getStatus().equals("out_of_stock")) {
-                    product.setStatus("active");
-                }
-                productService.update(productId, product);
-            }
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(productId)), productStockPipeline(delta), Product.class);
         } catch (Exception e) {
             // Log error but don't fail the transaction
             System.err.println("Error updating product stock: " + e.getMessage());
         }
     }
+    
+    private void setProductStock(String productId, int stock) {
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(productId)), productStockPipeline((Object) stock), Product.class);
+        } catch (Exception e) {
+            System.err.println("Error updating product stock: " + e.getMessage());
+        }
+    }
+    
+    private Inventory updateInventory(Criteria criteria, Document set) {
+        return mongoTemplate.update(Inventory.class)
+            .matching(criteria)
+            .apply(inventoryPipeline(set))
+            .withOptions(FindAndModifyOptions.options().returnNew(true))
+            .findAndModifyValue();
+    }
+    
+    private ApiException insufficientStock(String productId, int quantity) {
+        Product product = productService.getById(productId);
+        if (product == null) {
+            return new ApiException(ErrorCode.PRODUCT_NOT_FOUND, "Sản phẩm không tồn tại: " + productId);
+        }
+        int available = inventoryRepository.findByProductId(productId)
+            .map(Inventory::getAvailableStock)
+            .orElse(product.getStock() != null ? product.getStock() : 0);
+        return new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK,
+            String.format("Sản phẩm '%s' không đủ tồn kho. Có thể bán: %d, yêu cầu: %d",
+                product.getName() != null ? product.getName() : productId, available, quantity));
+    }
+    
+    /**
+     * Một dòng tồn kho đã trừ cho đơn hàng. inventoryId == null nghĩa là sản phẩm chưa có
+     * Inventory và Product.stock đã được trừ trực tiếp.
+     */
+    public static class StockDeduction {
+        private final String productId;
+        private final int quantity;
+        private final String inventoryId;
+        private final String sellerId;
+        private final int stockAfter;
+        
+        public StockDeduction(String productId, int quantity, String inventoryId, String sellerId, int stockAfter) {
+            this.productId = productId;
+            this.quantity = quantity;
+            this.inventoryId = inventoryId;
+            this.sellerId = sellerId;
+            this.stockAfter = stockAfter;
+        }
+        
+        public String getProductId() { return productId; }
+        public int getQuantity() { return quantity; }
+        public String getInventoryId() { return inventoryId; }
+        public String getSellerId() { return sellerId; }
+        public int getStockAfter() { return stockAfter; }
+        public boolean isTracked() { return inventoryId != null; }
+    }
 }
-
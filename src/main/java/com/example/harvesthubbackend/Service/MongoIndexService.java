@@ -0,0 +1,213 @@
+package com.example.harvesthubbackend.Service;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Danh mục index MongoDB.
+ * Index được khai báo bằng @Indexed / @CompoundIndex trên các model; service này đối chiếu
+ * danh sách khai báo với index thực tế trong database, tạo (background) những index còn thiếu
+ * và ghi lại độ lệch (drift) để admin kiểm tra.
+ */
+@Service
+public class MongoIndexService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mappingContext;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Kết quả đối chiếu gần nhất, theo tên collection
+    private volatile Map<String, Map<String, Object>> lastReport = new LinkedHashMap<>();
+    private volatile LocalDateTime lastReconciledAt;
+
+    /**
+     * Đối chiếu và tạo index còn thiếu cho tất cả collection có @Document.
+     * Trả về false nếu một lần đối chiếu khác đang chạy.
+     */
+    public boolean reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            IndexResolver resolver = IndexResolver.create(mappingContext);
+            Map<String, Map<String, Object>> report = new LinkedHashMap<>();
+
+            List<MongoPersistentEntity<?>> entities = new ArrayList<>(mappingContext.getPersistentEntities());
+            entities.sort(Comparator.comparing(MongoPersistentEntity::getCollection));
+
+            for (MongoPersistentEntity<?> entity : entities) {
+                if (!entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                    continue;
+                }
+                String collection = entity.getCollection();
+                try {
+                    report.put(collection, reconcileCollection(collection, resolver.resolveIndexFor(entity.getType())));
+                } catch (Exception e) {
+                    System.err.println("MongoIndexService: Failed to reconcile indexes for " + collection + ": " + e.getMessage());
+                    Map<String, Object> failed = new LinkedHashMap<>();
+                    failed.put("error", e.getMessage());
+                    report.put(collection, failed);
+                }
+            }
+
+            lastReport = report;
+            lastReconciledAt = LocalDateTime.now();
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Map<String, Object> reconcileCollection(String collection, Iterable<? extends IndexDefinition> declared) {
+        Map<String, Document> existingByKey = new HashMap<>();
+        for (Document index : mongoTemplate.getCollection(collection).listIndexes()) {
+            existingByKey.put(keySignature((Document) index.get("key")), index);
+        }
+
+        List<String> present = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        List<String> mismatched = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<String> declaredKeys = new ArrayList<>();
+
+        for (IndexDefinition definition : declared) {
+            Document keys = definition.getIndexKeys();
+            Document options = new Document(definition.getIndexOptions());
+            String name = options.getString("name");
+            String signature = keySignature(keys);
+            declaredKeys.add(signature);
+
+            Document existing = existingByKey.get(signature);
+            if (existing != null) {
+                boolean wantUnique = Boolean.TRUE.equals(options.get("unique"));
+                boolean isUnique = Boolean.TRUE.equals(existing.get("unique"));
+                if (wantUnique != isUnique) {
+                    // Không tự drop/rebuild: để admin xử lý thủ công
+                    mismatched.add(existing.getString("name") + " (unique: expected " + wantUnique + ", actual " + isUnique + ")");
+                } else {
+                    present.add(existing.getString("name"));
+                }
+                continue;
+            }
+
+            try {
+                options.put("background", true);
+                mongoTemplate.indexOps(collection).createIndex(new IndexDefinition() {
+                    @Override
+                    public Document getIndexKeys() {
+                        return keys;
+                    }
+
+                    @Override
+                    public Document getIndexOptions() {
+                        return options;
+                    }
+                });
+                created.add(name != null ? name : signature);
+                System.out.println("MongoIndexService: Created index " + collection + "." + (name != null ? name : signature));
+            } catch (Exception e) {
+                // Ví dụ: dữ liệu trùng lặp khiến unique index không thể tạo
+                failed.add((name != null ? name : signature) + ": " + e.getMessage());
+                System.err.println("MongoIndexService: Failed to create index " + collection + "." + name + ": " + e.getMessage());
+            }
+        }
+
+        // Index có trong database nhưng không được khai báo trong model
+        List<String> undeclared = new ArrayList<>();
+        existingByKey.forEach((signature, index) -> {
+            if (!"_id_".equals(index.getString("name")) && !declaredKeys.contains(signature)) {
+                undeclared.add(index.getString("name"));
+            }
+        });
+
+        if (!mismatched.isEmpty() || !failed.isEmpty() || !undeclared.isEmpty()) {
+            System.out.println("MongoIndexService: Index drift on " + collection
+                + " - mismatched=" + mismatched + ", failed=" + failed + ", undeclared=" + undeclared);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("present", present);
+        result.put("created", created);
+        result.put("mismatched", mismatched);
+        result.put("failed", failed);
+        result.put("undeclared", undeclared);
+        return result;
+    }
+
+    /**
+     * Liệt kê index của từng collection kèm số liệu sử dụng từ $indexStats.
+     */
+    public Map<String, Object> getIndexUsage() {
+        Map<String, Object> collections = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>(mongoTemplate.getCollectionNames());
+        names.sort(String::compareTo);
+
+        for (String collection : names) {
+            if (collection.startsWith("system.")) {
+                continue;
+            }
+            List<Map<String, Object>> indexes = new ArrayList<>();
+            try {
+                List<Document> pipeline = List.of(new Document("$indexStats", new Document()));
+                for (Document stat : mongoTemplate.getCollection(collection).aggregate(pipeline)) {
+                    Map<String, Object> index = new LinkedHashMap<>();
+                    index.put("name", stat.getString("name"));
+                    index.put("key", stat.get("key"));
+                    Document accesses = (Document) stat.get("accesses");
+                    if (accesses != null) {
+                        index.put("ops", accesses.get("ops"));
+                        index.put("since", accesses.get("since"));
+                    }
+                    Document spec = (Document) stat.get("spec");
+                    if (spec != null) {
+                        index.put("unique", Boolean.TRUE.equals(spec.get("unique")));
+                    }
+                    indexes.add(index);
+                }
+            } catch (Exception e) {
+                System.err.println("MongoIndexService: $indexStats failed for " + collection + ": " + e.getMessage());
+            }
+            collections.put(collection, indexes);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("collections", collections);
+        response.put("reconciliation", lastReport);
+        response.put("lastReconciledAt", lastReconciledAt);
+        response.put("reconciling", running.get());
+        return response;
+    }
+
+    // Chuẩn hóa key spec (giữ thứ tự field) để so sánh khai báo với index thực tế
+    private static String keySignature(Document keys) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : keys.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            Object value = entry.getValue();
+            sb.append(entry.getKey()).append(':')
+              .append(value instanceof Number ? String.valueOf(((Number) value).intValue()) : String.valueOf(value));
+        }
+        return sb.toString();
+    }
+}
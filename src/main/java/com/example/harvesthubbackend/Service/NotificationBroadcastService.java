@@ -0,0 +1,407 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
+import com.example.harvesthubbackend.Models.BroadcastReadMarker;
+import com.example.harvesthubbackend.Models.Notification;
+import com.example.harvesthubbackend.Models.NotificationBroadcast;
+import com.example.harvesthubbackend.Models.User;
+import jakarta.annotation.PreDestroy;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Gửi thông báo hàng loạt.
+ * User đích được đọc tuần tự theo _id (chỉ lấy _id), thông báo được ghi theo lô bằng BulkOperations trên
+ * thread nền; tiến độ và cursor lưu trong NotificationBroadcast để client theo dõi qua job id. Job dừng giữa
+ * chừng (instance chết, lỗi) được NotificationBroadcastResumer chạy tiếp từ cursor.
+ * Chế độ SHARED chỉ lưu một document broadcast, trạng thái đọc của từng user nằm trong BroadcastReadMarker.
+ */
+@Service
+public class NotificationBroadcastService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int SHARED_LOOKBACK = 100; // Số broadcast SHARED gần nhất hiển thị cho user
+
+    private static final long LEASE_MILLIS = 5 * 60_000L; // Gia hạn sau mỗi lô
+    private static final long RESUME_AFTER_MILLIS = 60_000L; // Job mới để executor của instance tạo ra chạy trước
+    private static final int MAX_ATTEMPTS = 5;
+    private static final List<String> UNFINISHED = List.of("QUEUED", "RUNNING", "FAILED");
+
+    private static final Pattern SELLER_ROLE = Pattern.compile("^seller$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ADMIN_OR_SELLER_ROLE = Pattern.compile("^(admin|seller)$", Pattern.CASE_INSENSITIVE);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notification-broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Job đang chờ/chạy trong executor của instance này (không xếp hàng trùng khi resume)
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tạo job broadcast và trả về ngay; việc ghi thông báo (FANOUT) chạy nền.
+     */
+    public NotificationBroadcast startBroadcast(String title, String message, String type, String target,
+                                                String mode, String createdBy) {
+        String normalizedTarget = normalizeTarget(target);
+        String normalizedMode = mode != null && mode.equalsIgnoreCase(NotificationBroadcast.MODE_SHARED)
+            ? NotificationBroadcast.MODE_SHARED : NotificationBroadcast.MODE_FANOUT;
+
+        NotificationBroadcast broadcast = new NotificationBroadcast();
+        broadcast.setTitle(title != null ? title : "Thông báo");
+        broadcast.setMessage(message != null ? message : "");
+        broadcast.setType(type != null ? type : "INFO");
+        broadcast.setTarget(normalizedTarget);
+        broadcast.setMode(normalizedMode);
+        broadcast.setCreatedBy(createdBy);
+        broadcast.setCreatedAt(Instant.now().toEpochMilli());
+        broadcast.setTargetCount(mongoTemplate.count(targetQuery(normalizedTarget), User.class));
+
+        if (NotificationBroadcast.MODE_SHARED.equals(normalizedMode)) {
+            // Không cần ghi từng bản: broadcast hiển thị ngay cho user khi đọc danh sách
+            broadcast.setStatus("COMPLETED");
+            broadcast.setProcessedCount(broadcast.getTargetCount());
+            broadcast.setStartedAt(broadcast.getCreatedAt());
+            broadcast.setCompletedAt(broadcast.getCreatedAt());
+            NotificationBroadcast saved = mongoTemplate.insert(broadcast);
+            notificationService.publishBroadcast(saved);
+            return saved;
+        }
+
+        broadcast.setStatus("QUEUED");
+        NotificationBroadcast saved = mongoTemplate.insert(broadcast);
+        enqueue(saved.getId());
+        return saved;
+    }
+
+    public NotificationBroadcast getBroadcast(String id) {
+        NotificationBroadcast broadcast = mongoTemplate.findById(id, NotificationBroadcast.class);
+        if (broadcast == null) {
+            throw new ApiException(ErrorCode.RESOURCE_NOT_FOUND);
+        }
+        return broadcast;
+    }
+
+    public List<NotificationBroadcast> getRecentBroadcasts(int limit) {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "createdAt")).limit(Math.max(1, Math.min(limit, 200)));
+        return mongoTemplate.find(query, NotificationBroadcast.class);
+    }
+
+    /**
+     * Đưa lại vào hàng đợi các job FANOUT chưa xong mà không instance nào giữ lease (QUEUED/RUNNING của instance
+     * đã chết, FAILED còn lượt thử). Job chạy tiếp từ lastUserId; trả về số job được đưa vào hàng đợi.
+     */
+    public int resumeUnfinished() {
+        long now = Instant.now().toEpochMilli();
+        Query query = new Query(resumable(now).and("createdAt").lt(now - RESUME_AFTER_MILLIS));
+        query.fields().include("_id");
+        List<NotificationBroadcast> jobs = mongoTemplate.find(query, NotificationBroadcast.class);
+        int resumed = 0;
+        for (NotificationBroadcast job : jobs) {
+            if (enqueue(job.getId())) {
+                resumed++;
+            }
+        }
+        return resumed;
+    }
+
+    private boolean enqueue(String id) {
+        if (!queued.add(id)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                runFanout(id);
+            } finally {
+                queued.remove(id);
+            }
+        });
+        return true;
+    }
+
+    // Job FANOUT chưa xong, còn lượt thử và không có lease còn hạn
+    private static Criteria resumable(long now) {
+        return Criteria.where("mode").is(NotificationBroadcast.MODE_FANOUT)
+            .and("status").in(UNFINISHED)
+            .and("attempts").not().gte(MAX_ATTEMPTS)
+            .orOperator(Criteria.where("lockedUntil").is(null), Criteria.where("lockedUntil").lt(now));
+    }
+
+    private void runFanout(String id) {
+        long now = Instant.now().toEpochMilli();
+        // Nhận job bằng lease: job đã xong hoặc instance khác đang chạy thì bỏ qua
+        NotificationBroadcast broadcast = mongoTemplate.findAndModify(
+            new Query(resumable(now).and("_id").is(id)),
+            new Update()
+                .set("status", "RUNNING")
+                .set("lockedUntil", now + LEASE_MILLIS)
+                .inc("attempts", 1)
+                .min("startedAt", now)
+                .unset("error"),
+            FindAndModifyOptions.options().returnNew(true),
+            NotificationBroadcast.class);
+        if (broadcast == null) {
+            return;
+        }
+
+        Query users = targetQuery(broadcast.getTarget());
+        String cursor = broadcast.getLastUserId();
+        if (cursor != null) {
+            users.addCriteria(Criteria.where("_id").gt(ObjectId.isValid(cursor) ? new ObjectId(cursor) : cursor));
+        }
+        users.fields().include("_id");
+        users.with(Sort.by(Sort.Direction.ASC, "_id"));
+        users.cursorBatchSize(BATCH_SIZE);
+
+        long processed = broadcast.getProcessedCount();
+        try (Stream<User> stream = mongoTemplate.stream(users, User.class)) {
+            List<Notification> batch = new ArrayList<>(BATCH_SIZE);
+            for (User user : (Iterable<User>) stream::iterator) {
+                batch.add(copyFor(broadcast, user.getId()));
+                if (batch.size() >= BATCH_SIZE) {
+                    processed += writeBatch(batch);
+                    updateJob(id, new Update()
+                        .set("processedCount", processed)
+                        .set("lastUserId", batch.get(batch.size() - 1).getUserId())
+                        .set("lockedUntil", Instant.now().toEpochMilli() + LEASE_MILLIS));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                processed += writeBatch(batch);
+            }
+            updateJob(id, new Update()
+                .set("status", "COMPLETED")
+                .set("processedCount", processed)
+                .set("completedAt", Instant.now().toEpochMilli())
+                .unset("lockedUntil"));
+            System.out.println("Broadcast " + id + " delivered to " + processed + " users");
+            notificationService.publishBroadcast(mongoTemplate.findById(id, NotificationBroadcast.class));
+        } catch (Exception e) {
+            System.err.println("Broadcast " + id + " failed after " + processed + " users: " + e.getMessage());
+            updateJob(id, new Update()
+                .set("status", "FAILED")
+                .set("processedCount", processed)
+                .set("error", e.getMessage())
+                .set("completedAt", Instant.now().toEpochMilli())
+                .unset("lockedUntil"));
+        }
+    }
+
+    // Ghi một lô; bản đã có từ lần chạy trước (trùng broadcast_user_uidx) được bỏ qua và không cộng bộ đếm
+    private int writeBatch(List<Notification> batch) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Notification.class);
+        bulk.insert(batch);
+        Set<Integer> skipped = new HashSet<>();
+        int inserted;
+        try {
+            inserted = bulk.execute().getInsertedCount();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+                skipped.add(error.getIndex());
+            }
+            inserted = e.getResult().getInsertedCount();
+        }
+        List<String> userIds = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (!skipped.contains(i)) {
+                userIds.add(batch.get(i).getUserId());
+            }
+        }
+        notificationService.incrementUnread(userIds);
+        return inserted;
+    }
+
+    private void updateJob(String id, Update update) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id)), update, NotificationBroadcast.class);
+    }
+
+    private static Notification copyFor(NotificationBroadcast broadcast, String userId) {
+        Notification notif = new Notification();
+        notif.setUserId(userId);
+        notif.setTitle(broadcast.getTitle());
+        notif.setMessage(broadcast.getMessage());
+        notif.setType(broadcast.getType());
+        notif.setRead(false);
+        notif.setCreatedAt(broadcast.getCreatedAt());
+        notif.setBroadcastId(broadcast.getId());
+        return notif;
+    }
+
+    // ========== SHARED mode ==========
+
+    /**
+     * Các broadcast SHARED mà user nhìn thấy, dưới dạng Notification (id = id broadcast).
+     */
+    public List<Notification> getSharedNotifications(String userId, boolean unreadOnly) {
+        if (userId == null) {
+            return List.of();
+        }
+        Query userQuery = new Query(Criteria.where("_id").is(userId));
+        userQuery.fields().include("role");
+        User user = mongoTemplate.findOne(userQuery, User.class);
+        if (user == null) {
+            return List.of();
+        }
+
+        Query query = new Query(Criteria.where("mode").is(NotificationBroadcast.MODE_SHARED)
+            .and("target").in(targetsFor(user.getRole())))
+            .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+            .limit(SHARED_LOOKBACK);
+        List<NotificationBroadcast> broadcasts = mongoTemplate.find(query, NotificationBroadcast.class);
+        if (broadcasts.isEmpty()) {
+            return List.of();
+        }
+
+        List<String> ids = broadcasts.stream().map(NotificationBroadcast::getId).collect(Collectors.toList());
+        Map<String, BroadcastReadMarker> markers = mongoTemplate.find(
+                new Query(Criteria.where("userId").is(userId).and("broadcastId").in(ids)), BroadcastReadMarker.class)
+            .stream()
+            .collect(Collectors.toMap(BroadcastReadMarker::getBroadcastId, Function.identity(), (a, b) -> a));
+
+        List<Notification> result = new ArrayList<>();
+        for (NotificationBroadcast broadcast : broadcasts) {
+            BroadcastReadMarker marker = markers.get(broadcast.getId());
+            boolean read = marker != null && marker.isRead();
+            if ((marker != null && marker.isDismissed()) || (unreadOnly && read)) {
+                continue;
+            }
+            Notification notif = copyFor(broadcast, userId);
+            notif.setId(broadcast.getId());
+            notif.setRead(read);
+            result.add(notif);
+        }
+        return result;
+    }
+
+    // Gộp thông báo riêng của user với broadcast SHARED, mới nhất trước
+    public List<Notification> mergeWithShared(List<Notification> personal, String userId, boolean unreadOnly) {
+        List<Notification> shared = getSharedNotifications(userId, unreadOnly);
+        if (shared.isEmpty()) {
+            return personal;
+        }
+        List<Notification> merged = new ArrayList<>(personal.size() + shared.size());
+        merged.addAll(personal);
+        merged.addAll(shared);
+        merged.sort(Comparator.comparingLong(Notification::getCreatedAt).reversed());
+        return merged;
+    }
+
+    public boolean isSharedBroadcast(String id) {
+        return mongoTemplate.exists(new Query(Criteria.where("_id").is(id)
+            .and("mode").is(NotificationBroadcast.MODE_SHARED)), NotificationBroadcast.class);
+    }
+
+    public void markSharedRead(String broadcastId, String userId) {
+        upsertMarker(broadcastId, userId, "read");
+        notificationService.publishUnreadCount(userId);
+    }
+
+    public void dismissShared(String broadcastId, String userId) {
+        upsertMarker(broadcastId, userId, "dismissed");
+        notificationService.publishUnreadCount(userId);
+    }
+
+    // Ghi marker đã đọc cho mọi broadcast SHARED chưa đọc mà user nhìn thấy; trả về số broadcast được đánh dấu
+    public int markAllSharedRead(String userId) {
+        List<Notification> unread = getSharedNotifications(userId, true);
+        if (unread.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BroadcastReadMarker.class);
+        long now = Instant.now().toEpochMilli();
+        for (Notification shared : unread) {
+            bulk.upsert(new Query(Criteria.where("userId").is(userId).and("broadcastId").is(shared.getId())),
+                new Update()
+                    .set("read", true)
+                    .set("updatedAt", now)
+                    .setOnInsert("userId", userId)
+                    .setOnInsert("broadcastId", shared.getId()));
+        }
+        bulk.execute();
+        return unread.size();
+    }
+
+    private void upsertMarker(String broadcastId, String userId, String flag) {
+        Query query = new Query(Criteria.where("userId").is(userId).and("broadcastId").is(broadcastId));
+        Update update = new Update()
+            .set(flag, true)
+            .set("updatedAt", Instant.now().toEpochMilli())
+            .setOnInsert("userId", userId)
+            .setOnInsert("broadcastId", broadcastId);
+        mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().upsert(true), BroadcastReadMarker.class);
+    }
+
+    // ========== Target ==========
+
+    private static String normalizeTarget(String target) {
+        if (target == null) return "ALL";
+        String upper = target.toUpperCase();
+        return upper.equals("CUSTOMERS") || upper.equals("SELLERS") ? upper : "ALL";
+    }
+
+    // Điều kiện trên role tương ứng với target; role được so khớp không phân biệt hoa thường
+    private static Query targetQuery(String target) {
+        if ("SELLERS".equals(target)) {
+            return new Query(Criteria.where("role").regex(SELLER_ROLE));
+        }
+        if ("CUSTOMERS".equals(target)) {
+            return new Query(Criteria.where("role").not().regex(ADMIN_OR_SELLER_ROLE));
+        }
+        return new Query();
+    }
+
+    // Các target mà một user với role này thuộc về
+    private static List<String> targetsFor(String role) {
+        String upper = role != null ? role.toUpperCase() : "";
+        if ("SELLER".equals(upper)) {
+            return List.of("ALL", "SELLERS");
+        }
+        if ("ADMIN".equals(upper)) {
+            return List.of("ALL");
+        }
+        return List.of("ALL", "CUSTOMERS");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
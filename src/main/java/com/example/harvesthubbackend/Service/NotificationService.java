@@ -1,16 +1,52 @@
 package com.example.harvesthubbackend.Service;
 
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
 import com.example.harvesthubbackend.Models.Notification;
+import com.example.harvesthubbackend.Models.NotificationCounter;
 import com.example.harvesthubbackend.Models.Order;
 import com.example.harvesthubbackend.Repository.NotificationRepository;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Tạo và cập nhật thông báo.
+ * Thông báo mới được đẩy qua STOMP tới /queue/user/{userId}/notifications; số chưa đọc được duy trì
+ * trong NotificationCounter (không phải load danh sách) và đẩy tới /queue/user/{userId}/notifications/unread-count.
+ */
 @Service
 public class NotificationService {
+    private static final int MAX_SINCE_LIMIT = 100;
+    private static final Comparator<Notification> CURSOR_ORDER = Comparator
+        .comparingLong(Notification::getCreatedAt)
+        .thenComparing(notification -> ObjectId.isValid(notification.getId()) ? new ObjectId(notification.getId()) : new ObjectId(0, 0));
+
     @Autowired
     private NotificationRepository notificationRepository;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    @Autowired
+    @Lazy
+    private NotificationBroadcastService broadcastService;
 
     public Notification pushNotification(String userId, String title, String message, String type) {
         if (userId == null) return null;
@@ -21,7 +57,209 @@ public class NotificationService {
         notif.setType(type != null ? type : "INFO");
         notif.setRead(false);
         notif.setCreatedAt(Instant.now().toEpochMilli());
-        return notificationRepository.save(notif);
+        Notification saved = notificationRepository.save(notif);
+        long unread = incrementUnread(userId, 1);
+        publishNotification(saved);
+        publishUnreadCount(userId, unread);
+        return saved;
+    }
+
+    // Đánh dấu đã đọc; chỉ giảm bộ đếm khi thông báo thực sự chuyển từ chưa đọc sang đã đọc
+    public Notification markAsRead(String id) {
+        Notification updated = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(id).and("read").is(false)),
+            new Update().set("read", true),
+            FindAndModifyOptions.options().returnNew(true),
+            Notification.class);
+        if (updated == null) {
+            return notificationRepository.findById(id).orElse(null);
+        }
+        publishUnreadCount(updated.getUserId(), incrementUnread(updated.getUserId(), -1));
+        return updated;
+    }
+
+    // Đánh dấu đã đọc cả thông báo riêng lẫn broadcast SHARED (ghi marker); bộ đếm gửi đi được tính sau cả hai lần ghi
+    public long markAllAsRead(String userId) {
+        long modified = mongoTemplate.updateMulti(
+            new Query(Criteria.where("userId").is(userId).and("read").is(false)),
+            new Update().set("read", true),
+            Notification.class).getModifiedCount();
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(userId)),
+            new Update().set("unread", 0L).set("updatedAt", Instant.now().toEpochMilli()),
+            NotificationCounter.class);
+        modified += broadcastService.markAllSharedRead(userId);
+        publishUnreadCount(userId);
+        return modified;
+    }
+
+    public boolean deleteNotification(String id) {
+        Notification removed = mongoTemplate.findAndRemove(new Query(Criteria.where("_id").is(id)), Notification.class);
+        if (removed == null) {
+            return false;
+        }
+        if (!removed.isRead()) {
+            publishUnreadCount(removed.getUserId(), incrementUnread(removed.getUserId(), -1));
+        }
+        return true;
+    }
+
+    /**
+     * Số thông báo chưa đọc (bộ đếm riêng + broadcast SHARED chưa đọc).
+     * Bộ đếm được khởi tạo bằng count trên index user_read_idx ở lần đọc đầu tiên.
+     */
+    public long getUnreadCount(String userId) {
+        if (userId == null) return 0;
+        NotificationCounter counter = mongoTemplate.findById(userId, NotificationCounter.class);
+        long personal;
+        if (counter != null) {
+            personal = Math.max(0, counter.getUnread());
+        } else {
+            personal = recountUnread(userId);
+        }
+        return personal + broadcastService.getSharedNotifications(userId, true).size();
+    }
+
+    // Đếm lại từ collection notifications (dùng khi chưa có bộ đếm hoặc cần sửa sai lệch)
+    public long recountUnread(String userId) {
+        long count = mongoTemplate.count(new Query(Criteria.where("userId").is(userId).and("read").is(false)), Notification.class);
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(userId)),
+            new Update().set("unread", count).set("updatedAt", Instant.now().toEpochMilli()),
+            NotificationCounter.class);
+        return count;
+    }
+
+    /**
+     * Thông báo mới hơn cursor, cũ nhất trước (dùng index user_created_idx).
+     * Cursor có dạng "{createdAt}_{id}" lấy từ nextCursor của lần gọi trước; để trống để lấy từ đầu.
+     */
+    public Map<String, Object> getSince(String userId, String cursor, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_SINCE_LIMIT));
+        long cursorTime = 0;
+        String cursorId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            int separator = cursor.indexOf('_');
+            try {
+                cursorTime = Long.parseLong(separator >= 0 ? cursor.substring(0, separator) : cursor);
+            } catch (NumberFormatException e) {
+                throw new ApiException(ErrorCode.INVALID_REQUEST, "Cursor không hợp lệ");
+            }
+            cursorId = separator >= 0 ? cursor.substring(separator + 1) : null;
+            if (cursorId != null && !cursorId.isEmpty() && !ObjectId.isValid(cursorId)) {
+                throw new ApiException(ErrorCode.INVALID_REQUEST, "Cursor không hợp lệ");
+            }
+        }
+
+        Criteria criteria = Criteria.where("userId").is(userId);
+        if (cursorId != null && !cursorId.isEmpty()) {
+            criteria.orOperator(
+                Criteria.where("createdAt").gt(cursorTime),
+                Criteria.where("createdAt").is(cursorTime).and("_id").gt(new ObjectId(cursorId)));
+        } else {
+            criteria.and("createdAt").gt(cursorTime);
+        }
+        Query query = new Query(criteria)
+            .with(Sort.by(Sort.Order.asc("createdAt"), Sort.Order.asc("_id")))
+            .limit(pageSize + 1);
+        List<Notification> items = new ArrayList<>(mongoTemplate.find(query, Notification.class));
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            items = new ArrayList<>(items.subList(0, pageSize));
+        }
+
+        // Broadcast SHARED mới hơn cursor, trong khoảng đã trả về (cùng thứ tự createdAt, id với thông báo riêng)
+        Notification lastPersonal = hasMore ? items.get(items.size() - 1) : null;
+        for (Notification shared : broadcastService.getSharedNotifications(userId, false)) {
+            if (isAfter(shared, cursorTime, cursorId)
+                    && (lastPersonal == null || !isAfter(shared, lastPersonal.getCreatedAt(), lastPersonal.getId()))) {
+                items.add(shared);
+            }
+        }
+        items.sort(CURSOR_ORDER);
+
+        // Cursor lấy từ mục mới nhất thực sự trả về (riêng hoặc SHARED) để broadcast không bị trả lại ở lần sau
+        String nextCursor = cursor;
+        if (!items.isEmpty()) {
+            Notification last = items.get(items.size() - 1);
+            nextCursor = last.getCreatedAt() + "_" + last.getId();
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("items", items);
+        response.put("nextCursor", nextCursor);
+        response.put("hasMore", hasMore);
+        response.put("unreadCount", getUnreadCount(userId));
+        return response;
+    }
+
+    // Thông báo đứng sau vị trí (createdAt, id) theo thứ tự của cursor
+    private static boolean isAfter(Notification notification, long time, String id) {
+        if (notification.getCreatedAt() != time) {
+            return notification.getCreatedAt() > time;
+        }
+        if (id == null || id.isEmpty()) {
+            return false;
+        }
+        return ObjectId.isValid(notification.getId()) && new ObjectId(notification.getId()).compareTo(new ObjectId(id)) > 0;
+    }
+
+    // Tăng bộ đếm cho nhiều user (sau khi ghi lô thông báo broadcast)
+    public void incrementUnread(Collection<String> userIds) {
+        if (userIds.isEmpty()) return;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, NotificationCounter.class);
+        long now = Instant.now().toEpochMilli();
+        for (String userId : userIds) {
+            bulk.updateOne(new Query(Criteria.where("_id").is(userId)), new Update().inc("unread", 1).set("updatedAt", now));
+        }
+        bulk.execute();
+    }
+
+    // Trả về giá trị bộ đếm sau khi cập nhật; chưa có bộ đếm thì khởi tạo bằng count
+    private long incrementUnread(String userId, int delta) {
+        NotificationCounter counter = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(userId)),
+            new Update().inc("unread", delta).set("updatedAt", Instant.now().toEpochMilli()),
+            FindAndModifyOptions.options().returnNew(true),
+            NotificationCounter.class);
+        if (counter == null) {
+            return recountUnread(userId);
+        }
+        if (counter.getUnread() < 0) {
+            return recountUnread(userId);
+        }
+        return counter.getUnread();
+    }
+
+    private void publishNotification(Notification notification) {
+        try {
+            messagingTemplate.convertAndSend("/queue/user/" + notification.getUserId() + "/notifications", notification);
+        } catch (Exception e) {
+            System.err.println("Failed to push notification " + notification.getId() + ": " + e.getMessage());
+        }
+    }
+
+    public void publishUnreadCount(String userId) {
+        publishUnreadCount(userId, -1);
+    }
+
+    private void publishUnreadCount(String userId, long personalUnread) {
+        try {
+            long total = personalUnread >= 0
+                ? personalUnread + broadcastService.getSharedNotifications(userId, true).size()
+                : getUnreadCount(userId);
+            messagingTemplate.convertAndSend("/queue/user/" + userId + "/notifications/unread-count",
+                Map.of("userId", userId, "unreadCount", total));
+        } catch (Exception e) {
+            System.err.println("Failed to push unread count for user " + userId + ": " + e.getMessage());
+        }
+    }
+
+    // Broadcast mới: client đăng ký /topic/notifications/broadcast sẽ tải lại danh sách/bộ đếm
+    public void publishBroadcast(Object broadcast) {
+        try {
+            messagingTemplate.convertAndSend("/topic/notifications/broadcast", broadcast);
+        } catch (Exception e) {
+            System.err.println("Failed to publish broadcast: " + e.getMessage());
+        }
     }
 
     public Notification pushOrderNotification(String userId, String message) {
@@ -0,0 +1,229 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.DTO.OrderQueryDTO;
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Utils.PageResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Truy vấn đơn hàng cho admin: lọc được đẩy xuống MongoDB, phân trang keyset theo (createdAt, _id)
+ * giảm dần nên trang sau không phải skip qua các trang trước, và export đọc trực tiếp từ cursor.
+ */
+@Service
+public class OrderQueryService {
+
+    private static final int DEFAULT_SIZE = 20;
+    private static final int MAX_SIZE = 200;
+    private static final int EXPORT_BATCH_SIZE = 500;
+
+    private static final Sort KEYSET_SORT = Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "_id"));
+
+    private static final String[] CSV_COLUMNS = {
+        "id", "createdAt", "userId", "status", "paymentStatus", "paymentMethod",
+        "subtotal", "discountAmount", "shippingFee", "totalPrice", "voucherCode", "itemCount", "sellerIds"
+    };
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Một trang đơn hàng mới nhất trước. cursor là nextCursor của trang trước ("{createdAt}_{id}"),
+     * để trống để lấy trang đầu.
+     */
+    public Map<String, Object> findPage(OrderQueryDTO filter, String cursor, int size) {
+        int pageSize = size > 0 ? Math.min(size, MAX_SIZE) : DEFAULT_SIZE;
+        List<Criteria> criteria = buildCriteria(filter);
+        if (cursor != null && !cursor.isBlank()) {
+            criteria.add(afterCursor(cursor));
+        }
+        Query query = toQuery(criteria).with(KEYSET_SORT).limit(pageSize + 1);
+        List<Order> orders = mongoTemplate.find(query, Order.class);
+
+        boolean hasMore = orders.size() > pageSize;
+        List<Order> content = hasMore ? orders.subList(0, pageSize) : orders;
+        Order last = content.isEmpty() ? null : content.get(content.size() - 1);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("content", content);
+        response.put("size", pageSize);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", hasMore && last != null ? last.getCreatedAt() + "_" + last.getId() : null);
+        return response;
+    }
+
+    /**
+     * Trang theo số trang (API cũ /api/orders), sort/skip/limit trên MongoDB thay vì cắt list trong bộ nhớ.
+     */
+    public PageResponse<Order> findOffsetPage(int page, int size) {
+        Query query = new Query();
+        long total = mongoTemplate.count(query, Order.class);
+        List<Order> content = List.of();
+        if ((long) page * size < total) {
+            content = mongoTemplate.find(new Query().with(PageRequest.of(page, size, KEYSET_SORT)), Order.class);
+        }
+        return new PageResponse<>(content, page, size, total);
+    }
+
+    public long count(OrderQueryDTO filter) {
+        return mongoTemplate.count(toQuery(buildCriteria(filter)), Order.class);
+    }
+
+    // Ghi từng đơn dưới dạng một dòng JSON, đọc tuần tự từ cursor
+    public long exportNdjson(OrderQueryDTO filter, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long written = 0;
+        try (Stream<Order> orders = streamOrders(filter)) {
+            for (Order order : (Iterable<Order>) orders::iterator) {
+                writer.write(objectMapper.writeValueAsString(order));
+                writer.write('\n');
+                written++;
+            }
+        }
+        writer.flush();
+        return written;
+    }
+
+    // CSV một dòng mỗi đơn (UTF-8 có BOM để Excel đọc đúng tiếng Việt)
+    public long exportCsv(OrderQueryDTO filter, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write('\uFEFF');
+        writer.write(String.join(",", CSV_COLUMNS));
+        writer.write("\r\n");
+        long written = 0;
+        try (Stream<Order> orders = streamOrders(filter)) {
+            for (Order order : (Iterable<Order>) orders::iterator) {
+                writeCsvRow(writer, order);
+                written++;
+            }
+        }
+        writer.flush();
+        return written;
+    }
+
+    private Stream<Order> streamOrders(OrderQueryDTO filter) {
+        Query query = toQuery(buildCriteria(filter)).with(KEYSET_SORT);
+        query.cursorBatchSize(EXPORT_BATCH_SIZE);
+        return mongoTemplate.stream(query, Order.class);
+    }
+
+    private void writeCsvRow(Writer writer, Order order) throws IOException {
+        Set<String> sellerIds = new LinkedHashSet<>();
+        int itemCount = 0;
+        if (order.getItems() != null) {
+            for (Order.OrderItem item : order.getItems()) {
+                itemCount += item.getQuantity();
+                if (item.getSellerId() != null) {
+                    sellerIds.add(item.getSellerId());
+                }
+            }
+        }
+        Object[] values = {
+            order.getId(), order.getCreatedAt(), order.getUserId(), order.getStatus(), order.getPaymentStatus(),
+            order.getPaymentMethod(), order.getSubtotal(), order.getDiscountAmount(), order.getShippingFee(),
+            order.getTotalPrice(), order.getVoucherCode(), itemCount, String.join(";", sellerIds)
+        };
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(csvValue(values[i]));
+        }
+        writer.write("\r\n");
+    }
+
+    private static String csvValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    private List<Criteria> buildCriteria(OrderQueryDTO filter) {
+        List<Criteria> criteria = new ArrayList<>();
+        if (hasText(filter.getStatus())) {
+            criteria.add(Criteria.where("status").is(filter.getStatus().trim().toLowerCase()));
+        }
+        if (hasText(filter.getPaymentStatus())) {
+            criteria.add(Criteria.where("paymentStatus").is(filter.getPaymentStatus().trim().toLowerCase()));
+        }
+        if (hasText(filter.getUserId())) {
+            criteria.add(Criteria.where("userId").is(filter.getUserId().trim()));
+        }
+        if (hasText(filter.getSellerId())) {
+            criteria.add(Criteria.where("items.sellerId").is(filter.getSellerId().trim()));
+        }
+        if (filter.getFrom() != null || filter.getTo() != null) {
+            Criteria createdAt = Criteria.where("createdAt");
+            if (filter.getFrom() != null) {
+                createdAt = createdAt.gte(filter.getFrom());
+            }
+            if (filter.getTo() != null) {
+                createdAt = createdAt.lt(filter.getTo());
+            }
+            criteria.add(createdAt);
+        }
+        return criteria;
+    }
+
+    // Các đơn nằm sau cursor theo thứ tự (createdAt desc, _id desc)
+    private static Criteria afterCursor(String cursor) {
+        int separator = cursor.indexOf('_');
+        if (separator <= 0 || separator == cursor.length() - 1) {
+            throw new ApiException(ErrorCode.INVALID_REQUEST, "Cursor không hợp lệ");
+        }
+        long createdAt;
+        try {
+            createdAt = Long.parseLong(cursor.substring(0, separator));
+        } catch (NumberFormatException e) {
+            throw new ApiException(ErrorCode.INVALID_REQUEST, "Cursor không hợp lệ");
+        }
+        String id = cursor.substring(separator + 1);
+        Object idValue = ObjectId.isValid(id) ? new ObjectId(id) : id;
+        return new Criteria().orOperator(
+            Criteria.where("createdAt").lt(createdAt),
+            Criteria.where("createdAt").is(createdAt).and("_id").lt(idValue));
+    }
+
+    private static Query toQuery(List<Criteria> criteria) {
+        Query query = new Query();
+        if (!criteria.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        }
+        return query;
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+}
@@ -3,24 +3,48 @@ package com.example.harvesthubbackend.Service;
 import com.example.harvesthubbackend.Models.Cart;
 import com.example.harvesthubbackend.Models.Order;
 import com.example.harvesthubbackend.Models.Product;
-import com.example.harvesthubbackend.Models.User;
+import com.example.harvesthubbackend.Models.Shop;
+import com.example.harvesthubbackend.Repository.ProductRepository;
+import com.example.harvesthubbackend.Repository.ShopRepository;
+import com.example.harvesthubbackend.Utils.PageResponse;
 import com.example.harvesthubbackend.Utils.OrderStatusValidator;
 import com.example.harvesthubbackend.Exception.ApiException;
 import com.example.harvesthubbackend.Exception.ErrorCode;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 // Repository
 @Repository
 interface OrderRepository extends MongoRepository<Order, String> {
     List<Order> findByUserId(String userId);
+
+    // Dùng index items.sellerId + createdAt
+    @org.springframework.data.mongodb.repository.Query(value = "{'items.sellerId': ?0}", sort = "{'createdAt': -1}")
+    List<Order> findBySellerId(String sellerId);
+
+    @org.springframework.data.mongodb.repository.Query("{'items.sellerId': ?0}")
+    Page<Order> findBySellerId(String sellerId, Pageable pageable);
 }
 
 // Service
@@ -36,22 +60,28 @@ public class OrderService {
     private ProductService productService;
 
     @Autowired
-    private NotificationService notificationService;
+    private VoucherService voucherService;
+    
+    @Autowired
+    private InventoryService inventoryService;
 
     @Autowired
-    private UserService userService;
-    
+    private ProductRepository productRepository;
+
     @Autowired
-    private VoucherService voucherService;
-    
+    private ShopRepository shopRepository;
+
     @Autowired
-    private com.example.harvesthubbackend.Service.VoucherAutomationService voucherAutomationService;
-    
+    private MongoTemplate mongoTemplate;
+
     @Autowired
-    private FlashSaleService flashSaleService;
-    
+    private ProductBatchLoader productBatchLoader;
+
     @Autowired
-    private InventoryService inventoryService;
+    private OrderSideEffectService orderSideEffectService;
+
+    // Số đơn xử lý mỗi lượt khi backfill sellerId cho đơn hàng cũ
+    private static final int SELLER_BACKFILL_BATCH_SIZE = 500;
 
     public List<Order> getAll() {
         return orderRepository.findAll();
@@ -79,6 +109,11 @@ public class OrderService {
             throw new ApiException(ErrorCode.INVALID_REQUEST, "Order không được để trống");
         }
         order.setId(id);
+        // Giữ sự kiện chưa chuyển sang outbox (request body không mang pendingEvents)
+        Order existing = getById(id);
+        if (existing != null) {
+            order.setPendingEvents(existing.getPendingEvents());
+        }
         return orderRepository.save(order);
     }
 
@@ -97,23 +132,86 @@ public class OrderService {
     }
 
     public List<Order> getBySellerId(String sellerId) {
-        List<Order> all = orderRepository.findAll();
-        List<Order> result = new ArrayList<>();
-        for (Order o : all) {
-            if (o.getItems() == null) continue;
-            boolean belongs = false;
-            for (Order.OrderItem item : o.getItems()) {
-                try {
-                    Product p = productService.getById(item.getProductId());
-                    if (p != null && sellerId.equals(p.getSellerId())) {
-                        belongs = true;
-                        break;
+        if (sellerId == null || sellerId.trim().isEmpty()) {
+            throw new ApiException(ErrorCode.INVALID_REQUEST, "Seller ID không được để trống");
+        }
+        return orderRepository.findBySellerId(sellerId);
+    }
+
+    // Một query theo index items.sellerId, không phụ thuộc tổng số đơn trên sàn
+    public PageResponse<Order> getBySellerId(String sellerId, int page, int size) {
+        if (sellerId == null || sellerId.trim().isEmpty()) {
+            throw new ApiException(ErrorCode.INVALID_REQUEST, "Seller ID không được để trống");
+        }
+        Page<Order> result = orderRepository.findBySellerId(sellerId,
+            PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt")));
+        return new PageResponse<>(result.getContent(), page, size, result.getTotalElements());
+    }
+
+    /**
+     * Backfill sellerId/shopId cho các item của đơn hàng cũ (tạo trước khi OrderItem lưu seller).
+     * Xử lý theo lô; item có sản phẩm đã bị xóa được ghi sellerId = null để không quét lại.
+     *
+     * @return số đơn hàng đã cập nhật
+     */
+    public int backfillItemSellers() {
+        Query pending = new Query(Criteria.where("items").elemMatch(Criteria.where("sellerId").exists(false)))
+            .limit(SELLER_BACKFILL_BATCH_SIZE);
+        pending.fields().include("items");
+
+        Map<String, String> shopIdByOwner = new HashMap<>();
+        int updated = 0;
+        while (true) {
+            List<Order> batch = mongoTemplate.find(pending, Order.class);
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            Set<String> productIds = new HashSet<>();
+            for (Order order : batch) {
+                for (Order.OrderItem item : order.getItems()) {
+                    if (item.getProductId() != null) {
+                        productIds.add(item.getProductId());
                     }
-                } catch (Exception ignored) {}
+                }
+            }
+            Map<String, String> sellerByProduct = new HashMap<>();
+            for (Product product : productRepository.findAllById(productIds)) {
+                sellerByProduct.put(product.getId(), product.getSellerId());
+            }
+
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Order.class);
+            for (Order order : batch) {
+                Update update = new Update();
+                List<Order.OrderItem> items = order.getItems();
+                for (int i = 0; i < items.size(); i++) {
+                    String sellerId = sellerByProduct.get(items.get(i).getProductId());
+                    update.set("items." + i + ".sellerId", sellerId);
+                    update.set("items." + i + ".shopId", resolveShopId(sellerId, shopIdByOwner));
+                }
+                bulk.updateOne(new Query(Criteria.where("_id").is(order.getId())), update);
+            }
+            int modified = bulk.execute().getModifiedCount();
+            updated += modified;
+
+            // Dừng nếu lô cuối hoặc không cập nhật được gì (tránh lặp vô hạn)
+            if (batch.size() < SELLER_BACKFILL_BATCH_SIZE || modified == 0) {
+                break;
             }
-            if (belongs) result.add(o);
         }
-        return result;
+        System.out.println("OrderService.backfillItemSellers() - updated " + updated + " orders");
+        return updated;
+    }
+
+    // Shop.ownerId chính là Product.sellerId; cache theo lượt để tránh query lặp cho cùng seller
+    private String resolveShopId(String sellerId, Map<String, String> cache) {
+        if (sellerId == null) {
+            return null;
+        }
+        return cache.computeIfAbsent(sellerId, id -> {
+            Optional<Shop> shop = shopRepository.findByOwnerId(id);
+            return shop.map(Shop::getId).orElse(null);
+        });
     }
 
     public Order updateStatus(String orderId, String newStatus) {
@@ -145,24 +243,8 @@ public class OrderService {
         
         order.setStatus(newStatus);
         order.setUpdatedAt(System.currentTimeMillis());
-        Order saved = orderRepository.save(order);
-        
-        if (saved != null) {
-            notificationService.pushOrderStatusNotification(saved, newStatus);
-            updateUserVipTier(saved);
-            
-            // Grant purchase reward voucher when order is delivered
-            if ("delivered".equalsIgnoreCase(newStatus) && saved.getUserId() != null) {
-                try {
-                    voucherAutomationService.grantPurchaseRewardVoucher(saved.getUserId(), saved.getId());
-                } catch (Exception e) {
-                    // Log but don't fail status update
-                    System.err.println("Failed to grant purchase reward voucher: " + e.getMessage());
-                }
-            }
-        }
-        
-        return saved;
+        // Thông báo, sổ chi tiêu, voucher cảm ơn khi delivered: xử lý qua outbox
+        return saveWithStatusChange(order, currentStatus, true);
     }
     
     /**
@@ -211,20 +293,8 @@ public class OrderService {
         order.setCancelledAt(System.currentTimeMillis());
         order.setUpdatedAt(System.currentTimeMillis());
         
-        Order saved = orderRepository.save(order);
-        
-        // Refund voucher if used
-        String voucherCode = order.getVoucherCode();
-        if (voucherCode != null && !voucherCode.isEmpty()) {
-            try {
-                voucherService.refundVoucher(orderId);
-            } catch (Exception e) {
-                // Log error but don't fail cancellation
-                System.err.println("Failed to refund voucher: " + e.getMessage());
-            }
-        }
-        
-        return saved;
+        // Sổ chi tiêu và hoàn voucher (nếu có) xử lý qua outbox
+        return saveWithStatusChange(order, currentStatus, false);
     }
 
     public Order confirm(String orderId) {
@@ -272,11 +342,12 @@ public class OrderService {
             throw new ApiException(ErrorCode.ORDER_STATUS_INVALID, validation.getErrorMessage());
         }
         
+        String previousStatus = order.getStatus();
         order.setStatus(OrderStatusValidator.RETURNED);
         order.setReturnReason(returnReason);
         order.setUpdatedAt(System.currentTimeMillis());
         
-        return orderRepository.save(order);
+        return saveWithStatusChange(order, previousStatus, false);
     }
     
     /**
@@ -304,12 +375,13 @@ public class OrderService {
             throw new ApiException(ErrorCode.ORDER_STATUS_INVALID, validation.getErrorMessage());
         }
         
+        String previousStatus = order.getStatus();
         order.setStatus(OrderStatusValidator.REFUNDED);
         order.setRefundReason(refundReason);
         order.setPaymentStatus("refunded");
         order.setUpdatedAt(System.currentTimeMillis());
         
-        return orderRepository.save(order);
+        return saveWithStatusChange(order, previousStatus, false);
     }
 
     public List<Order> checkout(String userId) {
@@ -320,7 +392,7 @@ public class OrderService {
         return checkout(userId, paymentMethod, shippingMethod, shippingAddress, null);
     }
     
-    @Transactional
+    // Không có transaction Mongo: lỗi giữa chừng được bù trừ tại chỗ (hoàn tồn kho, trả lượt voucher)
     public List<Order> checkout(String userId, String paymentMethod, String shippingMethod, 
                                java.util.Map<String, String> shippingAddress, String voucherCode) {
         Cart cart = cartService.getOrCreateCartForUser(userId);
@@ -328,42 +400,17 @@ public class OrderService {
             throw new ApiException(ErrorCode.ORDER_EMPTY_CART);
         }
 
-        // Validate stock availability before creating order
+        // Nạp toàn bộ sản phẩm/tồn kho/shop của giỏ hàng một lần, dùng chung cho các bước bên dưới
+        ProductBatchLoader.Batch catalog = productBatchLoader.load(
+            cart.getItems().stream().map(Cart.CartItem::getProductId).collect(Collectors.toList()), true);
+
+        // Validate products before creating order (stock is checked atomically when it is deducted)
         for (Cart.CartItem item : cart.getItems()) {
-            Product product = productService.getById(item.getProductId());
+            Product product = catalog.product(item.getProductId());
             if (product == null) {
                 throw new ApiException(ErrorCode.PRODUCT_NOT_FOUND, 
                     "Sản phẩm không tồn tại: " + item.getProductId());
             }
-            
-            // Check stock from Product model
-            Integer productStock = product.getStock();
-            if (productStock == null || productStock < item.getQuantity()) {
-                throw new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK, 
-                    String.format("Sản phẩm '%s' không đủ tồn kho. Còn lại: %d, yêu cầu: %d", 
-                        product.getName() != null ? product.getName() : item.getProductId(),
-                        productStock != null ? productStock : 0,
-                        item.getQuantity()));
-            }
-            
-            // Also check Inventory if available
-            try {
-                java.util.Optional<com.example.harvesthubbackend.Models.Inventory> inventoryOpt = 
-                    inventoryService.getByProductId(item.getProductId());
-                if (inventoryOpt.isPresent()) {
-                    com.example.harvesthubbackend.Models.Inventory inventory = inventoryOpt.get();
-                    if (inventory.getAvailableStock() < item.getQuantity()) {
-                        throw new ApiException(ErrorCode.PRODUCT_INSUFFICIENT_STOCK, 
-                            String.format("Sản phẩm '%s' không đủ tồn kho. Có thể bán: %d, yêu cầu: %d", 
-                                product.getName() != null ? product.getName() : item.getProductId(),
-                                inventory.getAvailableStock(),
-                                item.getQuantity()));
-                    }
-                }
-            } catch (Exception e) {
-                // If inventory check fails, continue with product stock check
-                // This allows backward compatibility if inventory is not set up
-            }
         }
 
         Order order = new Order();
@@ -395,8 +442,10 @@ public class OrderService {
 
             // Optionally hydrate snapshots
             try {
-                Product p = productService.getById(item.getProductId());
+                Product p = catalog.product(item.getProductId());
                 if (p != null) {
+                    oi.setSellerId(p.getSellerId());
+                    oi.setShopId(catalog.shopIdOf(p.getSellerId()));
                     oi.setNameSnapshot(p.getName());
                     if (p.getImages() != null && !p.getImages().isEmpty()) {
                         oi.setImageSnapshot(p.getImages().get(0));
@@ -424,36 +473,28 @@ public class OrderService {
             
             // Validate voucher with better error handling
             try {
-                if (voucherService.validateVoucherForOrder(
-                    voucherToUse, userId, subtotal, null, productIds, categoryIds)) {
+                // Calculate discount (including free shipping)
+                double shippingFee = 0;
+                if ("express".equals(shippingMethod)) {
+                    shippingFee = 60000;
+                } else {
+                    shippingFee = 30000;
+                }
+                
+                // Kiểm tra điều kiện và tính giảm giá trong một lần, voucher lấy từ cache
+                VoucherEngine.Evaluation evaluation = voucherService.evaluateForOrder(
+                    voucherToUse, userId, subtotal, null, productIds, categoryIds, shippingFee);
+                if (evaluation.isEligible()) {
+                    voucherId = evaluation.getVoucher().getId();
+                    discountAmount = evaluation.getDiscountAmount();
                     
-                    // Get voucher for ID
-                    java.util.Optional<com.example.harvesthubbackend.Models.Voucher> voucherOpt = 
-                        voucherService.getVoucherByCode(voucherToUse);
-                    if (voucherOpt.isPresent()) {
-                        voucherId = voucherOpt.get().getId();
-                        
-                        // Calculate discount (including free shipping)
-                        double shippingFee = 0;
-                        if ("express".equals(shippingMethod)) {
-                            shippingFee = 60000;
-                        } else {
-                            shippingFee = 30000;
-                        }
-                        
-                        discountAmount = voucherService.calculateDiscount(voucherToUse, subtotal, shippingFee);
-                        
-                        // If free shipping, set shipping fee to 0
-                        if (voucherOpt.get().getType().equals("free_shipping")) {
-                            shippingFee = 0;
-                        }
-                        order.setShippingFee(shippingFee);
-                    } else {
-                        // Voucher code not found, clear it
-                        voucherToUse = null;
+                    // If free shipping, set shipping fee to 0
+                    if (evaluation.isFreeShipping()) {
+                        shippingFee = 0;
                     }
+                    order.setShippingFee(shippingFee);
                 } else {
-                    // Voucher validation failed, clear it
+                    // Voucher not found or validation failed, clear it
                     voucherToUse = null;
                 }
             } catch (Exception e) {
@@ -530,136 +571,61 @@ public class OrderService {
         order.setTotalPrice(total);
         order.setUpdatedAt(System.currentTimeMillis());
 
-        Order saved = orderRepository.save(order);
-        
-        // Update inventory stock after order is created successfully
-        for (Order.OrderItem item : saved.getItems()) {
-            try {
-                // Try to update inventory first (if inventory system is set up)
-                inventoryService.stockOut(item.getProductId(), item.getQuantity(), 
-                    saved.getId(), "Order created", userId);
-            } catch (Exception e) {
-                // If inventory doesn't exist, update Product stock directly
-                try {
-                    Product product = productService.getById(item.getProductId());
-                    if (product != null) {
-                        Integer currentStock = product.getStock() != null ? product.getStock() : 0;
-                        int newStock = Math.max(0, currentStock - item.getQuantity());
-                        product.setStock(newStock);
-                        product.setInStock(newStock > 0);
-                        if (newStock == 0) {
-                            product.setStatus("out_of_stock");
-                        }
-                        productService.update(item.getProductId(), product);
-                    }
-                } catch (Exception ex) {
-                    // Log error but don't fail order creation
-                    System.err.println("Failed to update stock for product " + item.getProductId() + ": " + ex.getMessage());
-                }
+        // Trừ tồn kho nguyên tử cho cả đơn (không đủ hàng thì hoàn lại và báo lỗi, không bán vượt)
+        Map<String, Integer> quantities = new HashMap<>();
+        for (Order.OrderItem item : orderItems) {
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        Set<String> trackedProductIds = new HashSet<>();
+        for (String productId : quantities.keySet()) {
+            if (catalog.inventory(productId) != null) {
+                trackedProductIds.add(productId);
             }
         }
-        
-        // Apply voucher to order (create usage record)
-        if (voucherToUse != null && !voucherToUse.isEmpty() && discountAmount > 0) {
-            try {
-                voucherService.applyVoucherToOrder(userId, saved.getId(), voucherToUse, 
-                                                   subtotal, discountAmount);
-            } catch (Exception e) {
-                // Log error but don't fail order creation
-                System.err.println("Failed to apply voucher to order: " + e.getMessage());
+
+        // Giữ lượt dùng voucher nguyên tử (không vượt usageLimit/maxUsagePerUser khi nhiều đơn đặt cùng lúc)
+        boolean voucherRedeemed = voucherId != null && discountAmount > 0;
+        if (voucherRedeemed) {
+            voucherService.redeemVoucher(userId, voucherToUse);
+        }
+
+        List<InventoryService.StockDeduction> deductions;
+        try {
+            deductions = inventoryService.deductForOrder(quantities, trackedProductIds);
+        } catch (RuntimeException e) {
+            if (voucherRedeemed) {
+                voucherService.releaseRedemption(voucherId, userId);
             }
+            throw e;
         }
-        
-        // Update flash sale sold count for products in this order
+
+        // Sự kiện outbox được lưu cùng document đơn hàng (một lần ghi), nên không thể có đơn mà thiếu tác vụ phụ
+        order.setId(new ObjectId().toHexString());
+        orderSideEffectService.stageOrderCreated(order, deductions, voucherToUse, subtotal, discountAmount);
+
+        Order saved;
         try {
-            updateFlashSaleSoldCount(saved);
-        } catch (Exception e) {
-            // Log error but don't fail order creation
-            System.err.println("Failed to update flash sale sold count: " + e.getMessage());
+            saved = orderRepository.insert(order);
+        } catch (RuntimeException e) {
+            inventoryService.restoreDeductions(deductions);
+            if (voucherRedeemed) {
+                voucherService.releaseRedemption(voucherId, userId);
+            }
+            throw e;
         }
         
+        // Giao dịch kho, ghi nhận voucher và số lượng flash sale đã bán chạy nền qua outbox
+        orderSideEffectService.relay(saved);
+        
         cartService.clearCart(userId);
         return java.util.List.of(saved);
     }
 
-    private void updateUserVipTier(Order order) {
-        if (order == null || order.getUserId() == null) return;
-        List<Order> userOrders = orderRepository.findByUserId(order.getUserId());
-        double totalSpent = 0;
-        for (Order o : userOrders) {
-            if (o == null) continue;
-            String status = o.getStatus() != null ? o.getStatus().toLowerCase() : "";
-            if ("delivered".equals(status) || "completed".equals(status)) {
-                Double price = o.getTotalPrice();
-                totalSpent += price != null ? price : 0;
-            }
-        }
-        String tier = determineVipTier(totalSpent);
-        User existing = userService.getById(order.getUserId());
-        if (existing == null) return;
-        String current = existing.getMembershipType() != null ? existing.getMembershipType() : "STANDARD";
-        if (!current.equalsIgnoreCase(tier)) {
-            userService.updateMembershipType(order.getUserId(), tier);
-        }
-    }
-
-    private String determineVipTier(double totalSpent) {
-        if (totalSpent >= 5_000_000) return "VIP3";
-        if (totalSpent >= 3_000_000) return "VIP2";
-        if (totalSpent >= 1_000_000) return "VIP1";
-        return "STANDARD";
-    }
-    
-    // Update flash sale sold count when order is created
-    private void updateFlashSaleSoldCount(Order order) {
-        if (order == null || order.getItems() == null || order.getItems().isEmpty()) {
-            return;
-        }
-        
-        // Get all active flash sales
-        List<com.example.harvesthubbackend.Models.FlashSale> activeFlashSales = flashSaleService.getActiveFlashSales();
-        if (activeFlashSales == null || activeFlashSales.isEmpty()) {
-            return;
-        }
-        
-        // For each item in the order
-        for (Order.OrderItem item : order.getItems()) {
-            String productId = item.getProductId();
-            int quantity = item.getQuantity();
-            
-            // Check each active flash sale
-            for (com.example.harvesthubbackend.Models.FlashSale flashSale : activeFlashSales) {
-                if (flashSale.getProducts() == null) continue;
-                
-                // Find the product in flash sale
-                for (com.example.harvesthubbackend.Models.FlashSale.FlashSaleProduct flashSaleProduct : flashSale.getProducts()) {
-                    if (flashSaleProduct.getProductId().equals(productId)) {
-                        // Check if the order item price matches flash sale price
-                        // This ensures we only count items bought at flash sale price
-                        double unitPrice = item.getUnitPrice();
-                        double flashSalePrice = flashSaleProduct.getFlashSalePrice();
-                        // Use a more lenient comparison (within 100 VND) to account for rounding
-                        if (Math.abs(unitPrice - flashSalePrice) < 100.0) {
-                            // Update sold count
-                            int currentSoldCount = flashSaleProduct.getSoldCount();
-                            int newSoldCount = currentSoldCount + quantity;
-                            try {
-                                flashSaleService.updateProductSoldCount(
-                                    flashSale.getId(), 
-                                    productId, 
-                                    newSoldCount
-                                );
-                                // Flash sale sold count updated successfully
-                            } catch (Exception e) {
-                                // Log error but don't fail order creation
-                                System.err.println("Failed to update flash sale sold count: " + e.getMessage());
-                            }
-                        }
-                        // Price matches flash sale price, count updated
-                        break; // Found the product, no need to check other flash sales
-                    }
-                }
-            }
-        }
+    // Lưu đơn cùng sự kiện đổi trạng thái (một lần ghi) rồi chuyển sự kiện sang outbox
+    private Order saveWithStatusChange(Order order, String previousStatus, boolean notify) {
+        orderSideEffectService.stageStatusChanged(order, previousStatus, notify);
+        Order saved = orderRepository.save(order);
+        orderSideEffectService.relay(saved);
+        return saved;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.OutboxEvent;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tác vụ phụ của đơn hàng chạy qua outbox thay vì trong request:
+ * ORDER_CREATED (ghi giao dịch kho, ghi nhận voucher, cộng số lượng flash sale đã bán, quyết toán seller) và
+ * ORDER_STATUS_CHANGED (thông báo, sổ chi tiêu VIP, quyết toán seller, voucher cảm ơn, hoàn voucher khi hủy).
+ * Sự kiện được đính vào đơn (Order.pendingEvents) và ghi cùng lần lưu đơn, rồi relay chuyển sang outbox và $pull;
+ * relayStalled() nhận lại các sự kiện còn kẹt trên đơn nếu bước chuyển bị lỗi hoặc instance chết giữa chừng.
+ * Mỗi handler phải an toàn khi chạy lại vì sự kiện được xử lý ít nhất một lần.
+ */
+@Service
+public class OrderSideEffectService {
+
+    public static final String ORDER_CREATED = "ORDER_CREATED";
+    public static final String ORDER_STATUS_CHANGED = "ORDER_STATUS_CHANGED";
+
+    private static final long RELAY_AFTER_MILLIS = 10_000;
+    private static final int RELAY_BATCH_SIZE = 100;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private VoucherService voucherService;
+
+    @Autowired
+    private VoucherAutomationService voucherAutomationService;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private SpendLedgerService spendLedgerService;
+
+    @Autowired
+    private SellerSettlementService sellerSettlementService;
+
+    @PostConstruct
+    public void registerHandlers() {
+        outboxService.registerHandler(ORDER_CREATED, "inventory-transactions", this::recordInventoryTransactions);
+        outboxService.registerHandler(ORDER_CREATED, "voucher-usage", this::recordVoucherUsage);
+        outboxService.registerHandler(ORDER_CREATED, "flash-sale-sold", this::recordFlashSaleSold);
+        outboxService.registerHandler(ORDER_CREATED, "seller-settlement", this::updateSellerSettlement);
+
+        outboxService.registerHandler(ORDER_STATUS_CHANGED, "status-notification", this::notifyStatus);
+        outboxService.registerHandler(ORDER_STATUS_CHANGED, "spend-ledger", this::updateSpendLedger);
+        outboxService.registerHandler(ORDER_STATUS_CHANGED, "seller-settlement", this::updateSellerSettlement);
+        outboxService.registerHandler(ORDER_STATUS_CHANGED, "purchase-reward", this::grantPurchaseReward);
+        outboxService.registerHandler(ORDER_STATUS_CHANGED, "voucher-refund", this::refundVoucher);
+    }
+
+    // ========== Publish ==========
+
+    /**
+     * Đính sự kiện ORDER_CREATED vào đơn (chưa ghi); đơn cần có id trước khi lưu.
+     */
+    public void stageOrderCreated(Order order, List<InventoryService.StockDeduction> deductions,
+                                  String voucherCode, double subtotal, double discountAmount) {
+        List<Map<String, Object>> stock = new ArrayList<>();
+        for (InventoryService.StockDeduction deduction : deductions) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("productId", deduction.getProductId());
+            item.put("quantity", deduction.getQuantity());
+            item.put("inventoryId", deduction.getInventoryId());
+            item.put("sellerId", deduction.getSellerId());
+            item.put("stockAfter", deduction.getStockAfter());
+            stock.add(item);
+        }
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("userId", order.getUserId());
+        payload.put("deductions", stock);
+        payload.put("voucherCode", voucherCode);
+        payload.put("subtotal", subtotal);
+        payload.put("discountAmount", discountAmount);
+        payload.put("flashSaleItems", flashSaleItems(order));
+        order.addPendingEvent(new Order.PendingEvent(ORDER_CREATED, "order-created:" + order.getId(), payload));
+    }
+
+    // Flash sale áp dụng cho từng dòng hàng, xác định lúc đặt hàng (xử lý sự kiện muộn vẫn ghi đúng flash sale)
+    private List<Map<String, Object>> flashSaleItems(Order order) {
+        List<Map<String, Object>> items = new ArrayList<>();
+        if (order.getItems() == null) {
+            return items;
+        }
+        for (Order.OrderItem item : order.getItems()) {
+            // Only count items bought at the flash sale price
+            FlashSaleService.ActiveFlashSaleProduct flashSaleProduct =
+                flashSaleService.findActiveProductByPrice(item.getProductId(), item.getUnitPrice());
+            if (flashSaleProduct == null) {
+                continue;
+            }
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("flashSaleId", flashSaleProduct.getFlashSaleId());
+            entry.put("productId", item.getProductId());
+            entry.put("quantity", item.getQuantity());
+            items.add(entry);
+        }
+        return items;
+    }
+
+    /**
+     * Đính sự kiện ORDER_STATUS_CHANGED vào đơn (chưa ghi), gọi sau khi đã đổi status/updatedAt.
+     * @param notify gửi thông báo trạng thái cho user (chỉ với cập nhật trạng thái thông thường)
+     */
+    public void stageStatusChanged(Order order, String previousStatus, boolean notify) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("status", order.getStatus());
+        payload.put("previousStatus", previousStatus);
+        payload.put("notify", notify);
+        order.addPendingEvent(new Order.PendingEvent(ORDER_STATUS_CHANGED,
+            "order-status:" + order.getId() + ":" + order.getStatus() + ":" + order.getUpdatedAt(), payload));
+    }
+
+    /**
+     * Chuyển sự kiện đã lưu trên đơn sang outbox rồi gỡ khỏi đơn. Lỗi chỉ được log: sự kiện vẫn nằm trên đơn
+     * và relayStalled() sẽ chuyển lại (publish idempotent theo idempotencyKey).
+     */
+    public void relay(Order order) {
+        if (order == null || order.getPendingEvents() == null) {
+            return;
+        }
+        for (Order.PendingEvent event : List.copyOf(order.getPendingEvents())) {
+            try {
+                outboxService.publish(event.getType(), order.getId(), event.getIdempotencyKey(), event.getPayload());
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(order.getId())),
+                    new Update().pull("pendingEvents", new Document("idempotencyKey", event.getIdempotencyKey())),
+                    Order.class);
+            } catch (Exception e) {
+                System.err.println("Failed to relay " + event.getType() + " event for order " + order.getId() + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Đơn còn sự kiện chưa chuyển sang outbox sau RELAY_AFTER_MILLIS. Được gọi định kỳ bởi OutboxPoller.
+    public int relayStalled() {
+        Query query = new Query(Criteria.where("pendingEvents.createdAt").lt(System.currentTimeMillis() - RELAY_AFTER_MILLIS))
+            .limit(RELAY_BATCH_SIZE);
+        query.fields().include("pendingEvents");
+        List<Order> orders = mongoTemplate.find(query, Order.class);
+        for (Order order : orders) {
+            relay(order);
+        }
+        return orders.size();
+    }
+
+    // ========== ORDER_CREATED ==========
+
+    @SuppressWarnings("unchecked")
+    private void recordInventoryTransactions(OutboxEvent event) {
+        Object raw = event.getPayload().get("deductions");
+        if (!(raw instanceof List<?> items) || items.isEmpty()) {
+            return;
+        }
+        List<InventoryService.StockDeduction> deductions = new ArrayList<>();
+        for (Object entry : items) {
+            Map<String, Object> item = (Map<String, Object>) entry;
+            deductions.add(new InventoryService.StockDeduction(
+                (String) item.get("productId"),
+                ((Number) item.get("quantity")).intValue(),
+                (String) item.get("inventoryId"),
+                (String) item.get("sellerId"),
+                ((Number) item.get("stockAfter")).intValue()));
+        }
+        inventoryService.recordOrderDeductions(deductions, event.getAggregateId(), (String) event.getPayload().get("userId"));
+    }
+
+    private void recordVoucherUsage(OutboxEvent event) {
+        Map<String, Object> payload = event.getPayload();
+        String voucherCode = (String) payload.get("voucherCode");
+        double discountAmount = ((Number) payload.getOrDefault("discountAmount", 0)).doubleValue();
+        if (voucherCode == null || voucherCode.isEmpty() || discountAmount <= 0) {
+            return;
+        }
+        // Lượt dùng đã được giữ trong checkout; applyVoucherToOrder bỏ qua nếu đơn đã có usage
+        voucherService.applyVoucherToOrder((String) payload.get("userId"), event.getAggregateId(), voucherCode,
+            ((Number) payload.get("subtotal")).doubleValue(), discountAmount);
+    }
+
+    // Lỗi được ném ra để outbox thử lại; recordSale ghi đơn vào flash_sale_order_records trước nên retry không cộng trùng
+    @SuppressWarnings("unchecked")
+    private void recordFlashSaleSold(OutboxEvent event) {
+        Object raw = event.getPayload().get("flashSaleItems");
+        if (!(raw instanceof List<?> items)) {
+            return;
+        }
+        for (Object entry : items) {
+            Map<String, Object> item = (Map<String, Object>) entry;
+            String flashSaleId = (String) item.get("flashSaleId");
+            String productId = (String) item.get("productId");
+            int quantity = ((Number) item.get("quantity")).intValue();
+            int recorded = flashSaleService.recordSale(flashSaleId, productId, event.getAggregateId(), quantity);
+            if (recorded < quantity) {
+                System.err.println("Flash sale " + flashSaleId + " sold out for product " + productId
+                    + " (order " + event.getAggregateId() + ")");
+            }
+        }
+    }
+
+    // ========== ORDER_STATUS_CHANGED ==========
+
+    private void notifyStatus(OutboxEvent event) {
+        if (!Boolean.TRUE.equals(event.getPayload().get("notify"))) {
+            return;
+        }
+        Order order = loadOrder(event);
+        if (order != null) {
+            notificationService.pushOrderStatusNotification(order, (String) event.getPayload().get("status"));
+        }
+    }
+
+    // Đọc trạng thái hiện tại của đơn; ledger idempotent nên chạy lại không cộng trùng
+    private void updateSpendLedger(OutboxEvent event) {
+        Order order = loadOrder(event);
+        if (order != null) {
+            spendLedgerService.onOrderStatusChanged(order);
+        }
+    }
+
+    // Đọc trạng thái hiện tại của đơn; settlement idempotent nên chạy lại không cộng trùng
+    private void updateSellerSettlement(OutboxEvent event) {
+        Order order = loadOrder(event);
+        if (order != null) {
+            sellerSettlementService.onOrderChanged(order);
+        }
+    }
+
+    private void grantPurchaseReward(OutboxEvent event) {
+        if (!"delivered".equalsIgnoreCase((String) event.getPayload().get("status"))) {
+            return;
+        }
+        Order order = loadOrder(event);
+        if (order != null && order.getUserId() != null) {
+            voucherAutomationService.grantPurchaseRewardVoucher(order.getUserId(), order.getId());
+        }
+    }
+
+    private void refundVoucher(OutboxEvent event) {
+        if (!"cancelled".equalsIgnoreCase((String) event.getPayload().get("status"))) {
+            return;
+        }
+        Order order = loadOrder(event);
+        if (order != null && order.getVoucherCode() != null && !order.getVoucherCode().isEmpty()) {
+            voucherService.refundVoucher(order.getId());
+        }
+    }
+
+    private Order loadOrder(OutboxEvent event) {
+        return mongoTemplate.findById(event.getAggregateId(), Order.class);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
+import com.example.harvesthubbackend.Models.OutboxEvent;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Outbox cho các tác vụ phụ sau khi ghi dữ liệu chính (ghi giao dịch kho, voucher, thông báo, ...).
+ * publish() chỉ insert một OutboxEvent (idempotencyKey unique nên ghi lại cùng sự kiện là no-op);
+ * worker trên virtual thread, giới hạn bởi semaphore, nhận sự kiện bằng findAndModify có lease và chạy từng
+ * handler đăng ký cho type. Handler chạy xong được ghi vào completedHandlers nên lần retry chỉ chạy phần còn lại;
+ * lỗi thì lùi thời gian thử lại theo cấp số nhân, quá MAX_ATTEMPTS thì chuyển FAILED để admin xử lý.
+ * Các sự kiện cùng aggregateId được xử lý theo thứ tự tạo.
+ */
+@Service
+public class OutboxService {
+
+    private static final int MAX_CONCURRENCY = 8;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long LEASE_MILLIS = 60_000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+    private static final long ORDERING_DELAY_MILLIS = 500;
+    private static final List<String> OPEN_STATUSES = List.of(OutboxEvent.PENDING, OutboxEvent.PROCESSING);
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(OutboxEvent event) throws Exception;
+    }
+
+    private record NamedHandler(String name, Handler handler) {}
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, List<NamedHandler>> handlers = new ConcurrentHashMap<>();
+    private final Semaphore permits = new Semaphore(MAX_CONCURRENCY);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Đăng ký handler cho một type. Tên handler phải ổn định vì được lưu trong completedHandlers.
+     */
+    public void registerHandler(String type, String name, Handler handler) {
+        handlers.computeIfAbsent(type, key -> new CopyOnWriteArrayList<>()).add(new NamedHandler(name, handler));
+    }
+
+    /**
+     * Ghi sự kiện và kích hoạt xử lý ngay nếu còn worker rảnh (nếu không, poller sẽ nhận sau).
+     */
+    public OutboxEvent publish(String type, String aggregateId, String idempotencyKey, Map<String, Object> payload) {
+        long now = System.currentTimeMillis();
+        OutboxEvent event = new OutboxEvent();
+        event.setType(type);
+        event.setAggregateId(aggregateId);
+        event.setIdempotencyKey(idempotencyKey);
+        event.setPayload(payload);
+        event.setStatus(OutboxEvent.PENDING);
+        event.setNextAttemptAt(now);
+        event.setCreatedAt(now);
+        OutboxEvent saved;
+        try {
+            saved = mongoTemplate.insert(event);
+        } catch (DuplicateKeyException e) {
+            return mongoTemplate.findOne(new Query(Criteria.where("idempotencyKey").is(idempotencyKey)), OutboxEvent.class);
+        }
+        if (permits.tryAcquire()) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        OutboxEvent claimed = claim(Criteria.where("_id").is(new ObjectId(saved.getId())));
+                        if (claimed != null) {
+                            process(claimed);
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Outbox: failed to dispatch event " + saved.getId() + ": " + e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Nhận các sự kiện đến hạn (kể cả sự kiện PROCESSING đã hết lease do instance chết giữa chừng)
+     * cho tới khi hết worker rảnh. Được gọi định kỳ bởi OutboxPoller.
+     */
+    public int dispatchDue() {
+        int dispatched = 0;
+        while (permits.tryAcquire()) {
+            OutboxEvent event;
+            try {
+                long now = System.currentTimeMillis();
+                event = claim(new Criteria().orOperator(
+                    Criteria.where("status").is(OutboxEvent.PENDING).and("nextAttemptAt").lte(now),
+                    Criteria.where("status").is(OutboxEvent.PROCESSING).and("lockedUntil").lt(now)));
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+            if (event == null) {
+                permits.release();
+                break;
+            }
+            executor.execute(() -> {
+                try {
+                    process(event);
+                } catch (Exception e) {
+                    System.err.println("Outbox: failed to process event " + event.getId() + ": " + e.getMessage());
+                } finally {
+                    permits.release();
+                }
+            });
+            dispatched++;
+        }
+        return dispatched;
+    }
+
+    // Chuyển sang PROCESSING với lease; chỉ một worker nhận được mỗi sự kiện
+    private OutboxEvent claim(Criteria criteria) {
+        long now = System.currentTimeMillis();
+        Criteria claimable = new Criteria().andOperator(criteria, new Criteria().orOperator(
+            Criteria.where("status").is(OutboxEvent.PENDING),
+            Criteria.where("status").is(OutboxEvent.PROCESSING).and("lockedUntil").lt(now)));
+        Query query = new Query(claimable).with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+        return mongoTemplate.findAndModify(query,
+            new Update().set("status", OutboxEvent.PROCESSING).set("lockedUntil", now + LEASE_MILLIS).inc("attempts", 1),
+            FindAndModifyOptions.options().returnNew(true),
+            OutboxEvent.class);
+    }
+
+    private void process(OutboxEvent event) {
+        Query self = new Query(Criteria.where("_id").is(event.getId()));
+
+        // Sự kiện trước đó của cùng aggregate chưa xong: trả lại hàng đợi, không tính là một lần thử
+        if (event.getAggregateId() != null && mongoTemplate.exists(new Query(Criteria.where("aggregateId").is(event.getAggregateId())
+                .and("status").in(OPEN_STATUSES)
+                .and("_id").lt(new ObjectId(event.getId()))), OutboxEvent.class)) {
+            mongoTemplate.updateFirst(self, new Update()
+                .set("status", OutboxEvent.PENDING)
+                .set("nextAttemptAt", System.currentTimeMillis() + ORDERING_DELAY_MILLIS)
+                .inc("attempts", -1), OutboxEvent.class);
+            return;
+        }
+
+        List<String> completed = event.getCompletedHandlers() != null ? event.getCompletedHandlers() : List.of();
+        for (NamedHandler named : handlers.getOrDefault(event.getType(), List.of())) {
+            if (completed.contains(named.name())) {
+                continue;
+            }
+            try {
+                named.handler().handle(event);
+                mongoTemplate.updateFirst(self, new Update().addToSet("completedHandlers", named.name()), OutboxEvent.class);
+            } catch (Exception e) {
+                fail(event, named.name(), e);
+                return;
+            }
+        }
+        mongoTemplate.updateFirst(self, new Update()
+            .set("status", OutboxEvent.DONE)
+            .set("processedAt", LocalDateTime.now())
+            .unset("lockedUntil"), OutboxEvent.class);
+    }
+
+    private void fail(OutboxEvent event, String handlerName, Exception e) {
+        String error = handlerName + ": " + e.getMessage();
+        Update update = new Update().set("lastError", error);
+        if (event.getAttempts() >= MAX_ATTEMPTS) {
+            update.set("status", OutboxEvent.FAILED);
+            System.err.println("Outbox: event " + event.getId() + " (" + event.getType() + ") failed permanently - " + error);
+        } else {
+            // 2s, 4s, 8s, ... tối đa 5 phút
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(event.getAttempts(), 20));
+            update.set("status", OutboxEvent.PENDING).set("nextAttemptAt", System.currentTimeMillis() + backoff);
+            System.err.println("Outbox: event " + event.getId() + " (" + event.getType() + ") attempt "
+                + event.getAttempts() + " failed, retrying in " + backoff + "ms - " + error);
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())), update, OutboxEvent.class);
+    }
+
+    // ========== Admin ==========
+
+    public List<OutboxEvent> getEvents(String status, int limit) {
+        Query query = status != null && !status.isBlank()
+            ? new Query(Criteria.where("status").is(status.toUpperCase()))
+            : new Query();
+        query.with(Sort.by(Sort.Direction.DESC, "createdAt")).limit(Math.max(1, Math.min(limit, 500)));
+        return mongoTemplate.find(query, OutboxEvent.class);
+    }
+
+    // Số sự kiện theo trạng thái
+    public Map<String, Long> countByStatus() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String status : List.of(OutboxEvent.PENDING, OutboxEvent.PROCESSING, OutboxEvent.DONE, OutboxEvent.FAILED)) {
+            counts.put(status, 0L);
+        }
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$group", new Document("_id", "$status").append("count", new Document("$sum", 1))));
+        for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(OutboxEvent.class)).aggregate(pipeline)) {
+            Object status = doc.get("_id");
+            if (status != null) {
+                counts.put(status.toString(), ((Number) doc.get("count")).longValue());
+            }
+        }
+        return counts;
+    }
+
+    // Đưa sự kiện FAILED về hàng đợi; các handler đã chạy xong không chạy lại
+    public OutboxEvent retry(String id) {
+        OutboxEvent event = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(id).and("status").is(OutboxEvent.FAILED)),
+            new Update().set("status", OutboxEvent.PENDING).set("attempts", 0).set("nextAttemptAt", System.currentTimeMillis()),
+            FindAndModifyOptions.options().returnNew(true),
+            OutboxEvent.class);
+        if (event == null) {
+            if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(id)), OutboxEvent.class)) {
+                throw new ApiException(ErrorCode.RESOURCE_NOT_FOUND, "Outbox event not found");
+            }
+            throw new ApiException(ErrorCode.INVALID_REQUEST, "Chỉ có thể thử lại sự kiện FAILED");
+        }
+        return event;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Inventory;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.Shop;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Nạp một lần toàn bộ sản phẩm, tồn kho và shop được tham chiếu trong một luồng xử lý (giỏ hàng, checkout):
+ * mỗi loại là một query $in, kết quả dùng chung cho các bước sau thay vì getById theo từng item.
+ */
+@Service
+public class ProductBatchLoader {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Sản phẩm và tồn kho (không cần shop)
+    public Batch load(Collection<String> productIds) {
+        return load(productIds, false);
+    }
+
+    /**
+     * @param withShops nạp thêm shop của các seller (Shop.ownerId = Product.sellerId)
+     */
+    public Batch load(Collection<String> productIds, boolean withShops) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String id : productIds) {
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        Batch batch = new Batch();
+        if (ids.isEmpty()) {
+            return batch;
+        }
+
+        for (Product product : mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), Product.class)) {
+            batch.products.put(product.getId(), product);
+        }
+        for (Inventory inventory : mongoTemplate.find(new Query(Criteria.where("productId").in(ids)), Inventory.class)) {
+            batch.inventories.put(inventory.getProductId(), inventory);
+        }
+
+        if (withShops) {
+            Set<String> sellerIds = new LinkedHashSet<>();
+            batch.products.values().stream().map(Product::getSellerId).filter(Objects::nonNull).forEach(sellerIds::add);
+            if (!sellerIds.isEmpty()) {
+                Query shops = new Query(Criteria.where("ownerId").in(sellerIds));
+                shops.fields().include("_id").include("ownerId");
+                for (Shop shop : mongoTemplate.find(shops, Shop.class)) {
+                    batch.shopIdsByOwner.putIfAbsent(shop.getOwnerId(), shop.getId());
+                }
+            }
+        }
+        return batch;
+    }
+
+    // Kết quả nạp theo lô, chỉ dùng trong phạm vi một request
+    public static class Batch {
+        private final Map<String, Product> products = new HashMap<>();
+        private final Map<String, Inventory> inventories = new HashMap<>();
+        private final Map<String, String> shopIdsByOwner = new HashMap<>();
+
+        public Product product(String productId) {
+            return products.get(productId);
+        }
+
+        public Inventory inventory(String productId) {
+            return inventories.get(productId);
+        }
+
+        public String shopIdOf(String sellerId) {
+            return sellerId != null ? shopIdsByOwner.get(sellerId) : null;
+        }
+    }
+}
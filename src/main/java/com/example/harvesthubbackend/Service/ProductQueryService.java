@@ -0,0 +1,142 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.DTO.ProductQueryDTO;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Utils.ImageUrlUtils;
+import com.example.harvesthubbackend.Utils.PageResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Truy vấn danh mục sản phẩm phía MongoDB: lọc, sắp xếp và phân trang được đẩy xuống
+ * database thay vì findAll() rồi cắt trang trong bộ nhớ.
+ */
+@Service
+public class ProductQueryService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Lấy một trang sản phẩm theo bộ lọc. Chỉ normalize ảnh cho các sản phẩm của trang trả về.
+     */
+    public PageResponse<Product> findPage(ProductQueryDTO filter, int page, int size) {
+        Pageable pageable = PageRequest.of(page, size, resolveSort(filter.getSort()));
+        Query query = buildQuery(filter);
+
+        long total = countTotal(filter, query);
+        List<Product> content = List.of();
+        // Không cần query nếu trang nằm ngoài tổng số phần tử
+        if (pageable.getOffset() < total) {
+            content = mongoTemplate.find(Query.of(query).with(pageable), Product.class);
+            ImageUrlUtils.normalizeProducts(content);
+        }
+        return new PageResponse<>(content, page, size, total);
+    }
+
+    /**
+     * Lấy toàn bộ sản phẩm khớp bộ lọc (chế độ asArray cho admin dashboard).
+     */
+    public List<Product> findAll(ProductQueryDTO filter) {
+        Query query = buildQuery(filter).with(resolveSort(filter.getSort()));
+        List<Product> products = mongoTemplate.find(query, Product.class);
+        ImageUrlUtils.normalizeProducts(products);
+        return products;
+    }
+
+    private long countTotal(ProductQueryDTO filter, Query query) {
+        // estimatedCount đọc metadata của collection nên chỉ chính xác khi không có bộ lọc
+        if (filter.isEstimatedCount() && !filter.hasFilters()) {
+            return mongoTemplate.estimatedCount(Product.class);
+        }
+        return mongoTemplate.count(query, Product.class);
+    }
+
+    private Query buildQuery(ProductQueryDTO filter) {
+        List<Criteria> criteria = new ArrayList<>();
+
+        Criteria category = categoryCriteria(filter.getCategory());
+        if (category != null) {
+            criteria.add(category);
+        }
+        if (hasText(filter.getStatus())) {
+            criteria.add(Criteria.where("status").is(filter.getStatus().trim()));
+        }
+        if (hasText(filter.getApprovalStatus())) {
+            criteria.add(Criteria.where("approvalStatus").is(filter.getApprovalStatus().trim()));
+        }
+        if (hasText(filter.getSellerId())) {
+            criteria.add(Criteria.where("sellerId").is(filter.getSellerId().trim()));
+        }
+        if (filter.getMinPrice() != null || filter.getMaxPrice() != null) {
+            Criteria price = Criteria.where("price");
+            if (filter.getMinPrice() != null) {
+                price = price.gte(filter.getMinPrice());
+            }
+            if (filter.getMaxPrice() != null) {
+                price = price.lte(filter.getMaxPrice());
+            }
+            criteria.add(price);
+        }
+
+        Query query = new Query();
+        if (!criteria.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        }
+        return query;
+    }
+
+    // Giữ hành vi cũ của ProductService.getByCategory: khớp chính xác trước (dùng được index),
+    // chỉ khi không có kết quả mới rơi về so khớp không phân biệt hoa thường
+    private Criteria categoryCriteria(String category) {
+        if (!hasText(category)) {
+            return null;
+        }
+        String normalized = category.trim();
+        Criteria exact = Criteria.where("category").is(normalized);
+        if (mongoTemplate.exists(new Query(exact), Product.class)) {
+            return exact;
+        }
+        return Criteria.where("category")
+            .regex("^\\s*" + Pattern.quote(normalized) + "\\s*$", "i");
+    }
+
+    private Sort resolveSort(String sort) {
+        if (sort == null) {
+            // Thứ tự tự nhiên theo _id, ổn định giữa các trang
+            return Sort.by(Sort.Direction.ASC, "_id");
+        }
+        switch (sort.trim().toLowerCase()) {
+            case "newest":
+                return Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "_id"));
+            case "oldest":
+                return Sort.by(Sort.Direction.ASC, "createdAt").and(Sort.by(Sort.Direction.ASC, "_id"));
+            case "price_asc":
+                return Sort.by(Sort.Direction.ASC, "price").and(Sort.by(Sort.Direction.ASC, "_id"));
+            case "price_desc":
+                return Sort.by(Sort.Direction.DESC, "price").and(Sort.by(Sort.Direction.ASC, "_id"));
+            case "rating":
+                return Sort.by(Sort.Direction.DESC, "rating").and(Sort.by(Sort.Direction.ASC, "_id"));
+            case "best_selling":
+                return Sort.by(Sort.Direction.DESC, "soldCount").and(Sort.by(Sort.Direction.ASC, "_id"));
+            case "name":
+                return Sort.by(Sort.Direction.ASC, "name").and(Sort.by(Sort.Direction.ASC, "_id"));
+            default:
+                return Sort.by(Sort.Direction.ASC, "_id");
+        }
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+}
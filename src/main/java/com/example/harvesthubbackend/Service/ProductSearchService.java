@@ -0,0 +1,326 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Utils.ImageUrlUtils;
+import com.example.harvesthubbackend.Utils.PageResponse;
+import com.example.harvesthubbackend.Utils.VietnameseTextUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Chỉ mục tìm kiếm sản phẩm trong bộ nhớ (inverted index).
+ * Tên, danh mục và tag được bỏ dấu tiếng Việt và tách từ; truy vấn khớp theo từ đầy đủ, tiền tố
+ * ("dua" -> "dua hau") và gần đúng (sai 1-2 ký tự). Index được dựng khi khởi động và cập nhật
+ * từng sản phẩm khi lưu/xóa (ProductSearchIndexListener).
+ */
+@Service
+public class ProductSearchService {
+
+    private static final int NAME_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int TAG_WEIGHT = 2;
+    // Số kết quả xếp hạng tối đa được xét cho một truy vấn
+    private static final int MAX_CANDIDATES = 1000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // từ -> (productId -> trọng số cao nhất của từ trong sản phẩm)
+    private TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    private Map<String, Set<String>> termsByProduct = new HashMap<>();
+    private Map<String, String> foldedNames = new HashMap<>();
+    private volatile boolean ready = false;
+    // Sản phẩm thay đổi trong lúc đang dựng lại index, được cập nhật lại sau khi dựng xong
+    private final Set<String> changedDuringRebuild = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuilding = false;
+
+    // Dựng lại toàn bộ index từ collection products (chỉ đọc các field cần thiết)
+    public synchronized void rebuild() {
+        rebuilding = true;
+        changedDuringRebuild.clear();
+        TreeMap<String, Map<String, Integer>> newPostings = new TreeMap<>();
+        Map<String, Set<String>> newTerms = new HashMap<>();
+        Map<String, String> newNames = new HashMap<>();
+
+        Query query = new Query();
+        query.fields().include("name", "category", "tags");
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            products.forEach(product -> addDocument(product, newPostings, newTerms, newNames));
+        }
+
+        lock.writeLock().lock();
+        try {
+            postings = newPostings;
+            termsByProduct = newTerms;
+            foldedNames = newNames;
+            ready = true;
+            rebuilding = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        for (String productId : changedDuringRebuild) {
+            Product product = mongoTemplate.findById(productId, Product.class);
+            if (product != null) {
+                index(product);
+            } else {
+                remove(productId);
+            }
+        }
+        changedDuringRebuild.clear();
+        System.out.println("ProductSearchService: indexed " + newNames.size() + " products, " + newPostings.size() + " terms");
+    }
+
+    // Cập nhật index cho một sản phẩm (sau khi tạo/sửa)
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        if (rebuilding) {
+            changedDuringRebuild.add(product.getId());
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocument(product.getId());
+            addDocument(product, postings, termsByProduct, foldedNames);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Xóa sản phẩm khỏi index
+    public void remove(String productId) {
+        if (productId == null) {
+            return;
+        }
+        if (rebuilding) {
+            changedDuringRebuild.add(productId);
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tìm sản phẩm đang bán (status active), xếp hạng theo độ khớp, có phân trang.
+     */
+    public PageResponse<Product> search(String keyword, int page, int size) {
+        List<String> ranked = filterIds(rankedIds(keyword), Criteria.where("status").is("active"));
+        int from = Math.min(page * size, ranked.size());
+        int to = Math.min(from + size, ranked.size());
+        List<Product> content = loadInOrder(ranked.subList(from, to));
+        ImageUrlUtils.normalizeProducts(content);
+        return new PageResponse<>(content, page, size, ranked.size());
+    }
+
+    /**
+     * Tối đa limit sản phẩm đang bán và còn hàng khớp từ khóa, theo thứ tự xếp hạng, kèm tổng số khớp (dùng cho chat).
+     * Chỉ đọc _id để lọc, document đầy đủ chỉ được tải cho các sản phẩm trả về.
+     */
+    public PageResponse<Product> searchAvailable(String keyword, int limit) {
+        Criteria available = Criteria.where("status").is("active").and("stock").gt(0);
+        List<String> ranked = filterIds(rankedIds(keyword), available);
+        List<Product> content = loadInOrder(ranked.subList(0, Math.min(limit, ranked.size())));
+        return new PageResponse<>(content, 0, limit, ranked.size());
+    }
+
+    // Danh sách productId khớp từ khóa, đã xếp hạng
+    public List<String> rankedIds(String keyword) {
+        List<String> queryTokens = new ArrayList<>(new LinkedHashSet<>(VietnameseTextUtils.tokenize(keyword)));
+        if (queryTokens.isEmpty()) {
+            return List.of();
+        }
+        if (!ready) {
+            return fallbackIds(keyword);
+        }
+
+        String foldedQuery = String.join(" ", queryTokens);
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Integer> matchedTokens = new HashMap<>();
+        Map<String, String> names;
+
+        lock.readLock().lock();
+        try {
+            for (String token : queryTokens) {
+                for (Map.Entry<String, Double> match : matchToken(token).entrySet()) {
+                    scores.merge(match.getKey(), match.getValue(), Double::sum);
+                    matchedTokens.merge(match.getKey(), 1, Integer::sum);
+                }
+            }
+            names = new HashMap<>();
+            for (String productId : scores.keySet()) {
+                names.put(productId, foldedNames.getOrDefault(productId, ""));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Ưu tiên sản phẩm có tên chứa nguyên cụm từ khóa
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            if (entry.getValue().contains(foldedQuery)) {
+                scores.merge(entry.getKey(), 5.0, Double::sum);
+            }
+        }
+
+        // Khớp đủ mọi từ được xếp trước; nếu không sản phẩm nào khớp đủ thì trả về khớp một phần
+        int best = matchedTokens.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        boolean requireAll = best == queryTokens.size();
+        return scores.keySet().stream()
+            .filter(id -> !requireAll || matchedTokens.get(id) == queryTokens.size())
+            .sorted(Comparator.<String>comparingInt(id -> -matchedTokens.get(id))
+                .thenComparing(id -> -scores.get(id))
+                .thenComparingInt(id -> names.get(id).length())
+                .thenComparing(id -> id))
+            .limit(MAX_CANDIDATES)
+            .collect(Collectors.toList());
+    }
+
+    // Điểm của một từ truy vấn cho từng sản phẩm: khớp đủ > tiền tố > gần đúng
+    private Map<String, Double> matchToken(String token) {
+        Map<String, Double> result = new HashMap<>();
+        Map<String, Integer> exact = postings.get(token);
+        if (exact != null) {
+            exact.forEach((id, weight) -> result.merge(id, weight * 1.0, Math::max));
+        }
+        if (token.length() >= 2) {
+            for (Map.Entry<String, Map<String, Integer>> entry
+                    : postings.subMap(token, false, token + Character.MAX_VALUE, false).entrySet()) {
+                entry.getValue().forEach((id, weight) -> result.merge(id, weight * 0.7, Math::max));
+            }
+        }
+        if (result.isEmpty() && token.length() >= 4) {
+            int maxDistance = token.length() >= 8 ? 2 : 1;
+            for (Map.Entry<String, Map<String, Integer>> entry : postings.entrySet()) {
+                String term = entry.getKey();
+                if (Math.abs(term.length() - token.length()) <= maxDistance
+                        && editDistance(token, term, maxDistance) <= maxDistance) {
+                    entry.getValue().forEach((id, weight) -> result.merge(id, weight * 0.4, Math::max));
+                }
+            }
+        }
+        return result;
+    }
+
+    // Khi index chưa dựng xong: khớp tên bằng regex trong MongoDB
+    private List<String> fallbackIds(String keyword) {
+        Query query = new Query(Criteria.where("name").regex(Pattern.quote(keyword.trim()), "i")).limit(MAX_CANDIDATES);
+        query.fields().include("_id");
+        return mongoTemplate.find(query, Product.class).stream().map(Product::getId).collect(Collectors.toList());
+    }
+
+    // Giữ thứ tự xếp hạng, chỉ lấy các id thỏa điều kiện (đọc trạng thái mới nhất từ database)
+    private List<String> filterIds(List<String> ids, Criteria criteria) {
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        Query query = new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), criteria));
+        query.fields().include("_id");
+        Set<String> matching = mongoTemplate.find(query, Product.class).stream()
+            .map(Product::getId)
+            .collect(Collectors.toSet());
+        return ids.stream().filter(matching::contains).collect(Collectors.toList());
+    }
+
+    private List<Product> loadInOrder(List<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Product> byId = mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), Product.class).stream()
+            .collect(Collectors.toMap(Product::getId, p -> p));
+        List<Product> products = new ArrayList<>();
+        for (String id : ids) {
+            Product product = byId.get(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    private static void addDocument(Product product, TreeMap<String, Map<String, Integer>> postings,
+                                    Map<String, Set<String>> termsByProduct, Map<String, String> foldedNames) {
+        String id = product.getId();
+        Set<String> terms = new HashSet<>();
+        addTerms(id, VietnameseTextUtils.tokenize(product.getName()), NAME_WEIGHT, postings, terms);
+        addTerms(id, VietnameseTextUtils.tokenize(product.getCategory()), CATEGORY_WEIGHT, postings, terms);
+        if (product.getTags() != null) {
+            for (String tag : product.getTags()) {
+                addTerms(id, VietnameseTextUtils.tokenize(tag), TAG_WEIGHT, postings, terms);
+            }
+        }
+        termsByProduct.put(id, terms);
+        foldedNames.put(id, String.join(" ", VietnameseTextUtils.tokenize(product.getName())));
+    }
+
+    private static void addTerms(String id, List<String> tokens, int weight,
+                                 TreeMap<String, Map<String, Integer>> postings, Set<String> terms) {
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, k -> new HashMap<>()).merge(id, weight, Math::max);
+            terms.add(token);
+        }
+    }
+
+    private void removeDocument(String productId) {
+        Set<String> terms = termsByProduct.remove(productId);
+        foldedNames.remove(productId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Map<String, Integer> ids = postings.get(term);
+            if (ids != null) {
+                ids.remove(productId);
+                if (ids.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    // Khoảng cách Levenshtein, dừng sớm khi vượt maxDistance
+    private static int editDistance(String a, String b, int maxDistance) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
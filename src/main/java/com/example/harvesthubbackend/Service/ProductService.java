@@ -4,7 +4,16 @@ import com.example.harvesthubbackend.Models.Product;
 import com.example.harvesthubbackend.Repository.ProductRepository;
 import com.example.harvesthubbackend.Exception.ApiException;
 import com.example.harvesthubbackend.Exception.ErrorCode;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -14,13 +23,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.time.LocalDateTime;
+import java.util.regex.Pattern;
 
 // Service
 @Service
 public class ProductService {
+    private static final String VIEW_COUNT = "viewCount";
+
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     public List<Product> getAll() {
         // Trả về tất cả sản phẩm trong database
         List<Product> allProducts = productRepository.findAll();
@@ -58,18 +76,11 @@ public class ProductService {
         // Try exact match first
         List<Product> products = productRepository.findByCategory(normalizedCategory);
         
-        // If no exact match, try case-insensitive search
+        // If no exact match, try case-insensitive search (anchored regex in MongoDB, no full scan in memory)
         if (products == null || products.isEmpty()) {
-            List<Product> allProducts = productRepository.findAll();
-            products = allProducts.stream()
-                .filter(p -> {
-                    if (p.getCategory() == null) return false;
-                    // Normalize both for comparison (trim and case-insensitive)
-                    String dbCategory = p.getCategory().trim();
-                    String searchCategory = normalizedCategory;
-                    return dbCategory.equalsIgnoreCase(searchCategory);
-                })
-                .collect(java.util.stream.Collectors.toList());
+            Query query = new Query(Criteria.where("category")
+                .regex("^\\s*" + Pattern.quote(normalizedCategory) + "\\s*$", "i"));
+            products = mongoTemplate.find(query, Product.class);
         }
         
         System.out.println("ProductService.getByCategory() - found " + (products != null ? products.size() : 0) + " products");
@@ -159,7 +170,39 @@ public class ProductService {
 
     public Product update(String id, Product product) {
         product.setId(id);
-        return productRepository.save(product);
+        return saveFields(product);
+    }
+
+    /**
+     * Lưu sản phẩm đã có bằng $set/$unset từng field thay vì thay cả document, để không ghi đè viewCount
+     * (ProductViewService cộng dồn bằng $inc). Phát BeforeConvertEvent/AfterSaveEvent như repository.save
+     * để các listener (thống kê, chỉ mục tìm kiếm) vẫn nhận thay đổi.
+     */
+    private Product saveFields(Product product) {
+        if (product.getId() == null) {
+            return productRepository.save(product);
+        }
+        String collection = mongoTemplate.getCollectionName(Product.class);
+        eventPublisher.publishEvent(new BeforeConvertEvent<>(product, collection));
+
+        Document document = new Document();
+        mongoTemplate.getConverter().write(product, document);
+        document.remove("_id");
+        document.remove(VIEW_COUNT);
+        Update update = new Update();
+        document.forEach(update::set);
+        // Field null không được converter ghi ra: $unset để giống thay cả document
+        for (MongoPersistentProperty property : mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(Product.class)) {
+            String field = property.getFieldName();
+            if (!property.isIdProperty() && !VIEW_COUNT.equals(field) && !document.containsKey(field)) {
+                update.unset(field);
+            }
+        }
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(product.getId())), update, Product.class);
+
+        eventPublisher.publishEvent(new AfterSaveEvent<>(product, document, collection));
+        return product;
     }
 
     public void delete(String id) {
@@ -170,7 +213,7 @@ public class ProductService {
         Product product = getById(id);
         if (product != null) {
             product.setStatus(status);
-            return productRepository.save(product);
+            return saveFields(product);
         }
         return null;
     }
@@ -215,7 +258,7 @@ public class ProductService {
         product.setRejectedBy(null);
         product.setRejectedAt(null);
         
-        return productRepository.save(product);
+        return saveFields(product);
     }
 
     public Product rejectProduct(String id, String adminId, String reason) {
@@ -249,7 +292,7 @@ public class ProductService {
         product.setApprovedBy(null);
         product.setApprovedAt(null);
         
-        return productRepository.save(product);
+        return saveFields(product);
     }
     
     /**
@@ -277,7 +320,7 @@ public class ProductService {
         product.setRejectedBy(null);
         product.setRejectedAt(null);
         
-        return productRepository.save(product);
+        return saveFields(product);
     }
 
     public Map<String, Object> getProductApprovalStats() {
@@ -0,0 +1,252 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.ProductViewDaily;
+import com.example.harvesthubbackend.Utils.HyperLogLog;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Theo dõi lượt xem sản phẩm ngoài request path: GET /api/products/{id} chỉ cộng LongAdder và thêm người xem
+ * vào sketch HyperLogLog của ngày trong bộ nhớ. ProductViewFlusher định kỳ ghi bulk $inc vào Product.viewCount và
+ * ProductViewDaily, rồi gộp sketch (max từng register, có điều kiện theo sketchVersion nên an toàn giữa nhiều instance).
+ * Trending/thống kê đọc từ ProductViewDaily.
+ */
+@Service
+public class ProductViewService {
+
+    private static final int MAX_DAYS = 90;
+    private static final int MAX_SKETCH_RETRIES = 5;
+
+    private static final class DayViews {
+        final String productId;
+        final LocalDate day;
+        final LongAdder views = new LongAdder();
+        final HyperLogLog viewers = new HyperLogLog();
+        volatile boolean sketchDirty;
+
+        DayViews(String productId, LocalDate day) {
+            this.productId = productId;
+            this.day = day;
+        }
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Key = ProductViewDaily id
+    private final Map<String, DayViews> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Ghi nhận một lượt xem. viewerKey định danh người xem (user hoặc IP + user agent), null nếu không xác định.
+     */
+    public void recordView(String productId, String viewerKey) {
+        if (productId == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        DayViews views = pending.computeIfAbsent(ProductViewDaily.idOf(productId, today), key -> new DayViews(productId, today));
+        views.views.increment();
+        if (viewerKey != null && views.viewers.add(viewerKey)) {
+            views.sketchDirty = true;
+        }
+    }
+
+    /**
+     * Ghi lượt xem đã gom xuống DB. Nếu ghi Product lỗi, lượt xem được cộng trả lại cho lần flush sau.
+     */
+    public synchronized int flush() {
+        Map<String, Long> deltas = new HashMap<>();
+        for (Map.Entry<String, DayViews> entry : pending.entrySet()) {
+            long views = entry.getValue().views.sumThenReset();
+            if (views > 0) {
+                deltas.put(entry.getKey(), views);
+            }
+        }
+
+        if (!deltas.isEmpty()) {
+            Map<String, Long> byProduct = new HashMap<>();
+            deltas.forEach((id, views) -> byProduct.merge(pending.get(id).productId, views, Long::sum));
+            try {
+                BulkOperations products = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+                byProduct.forEach((productId, views) -> products.updateOne(
+                    new Query(Criteria.where("_id").is(productId)),
+                    new Update().inc("viewCount", views.intValue())));
+                products.execute();
+            } catch (Exception e) {
+                System.err.println("Error flushing product views, will retry: " + e.getMessage());
+                deltas.forEach((id, views) -> pending.get(id).views.add(views));
+                return 0;
+            }
+
+            try {
+                BulkOperations daily = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProductViewDaily.class);
+                deltas.forEach((id, views) -> {
+                    DayViews day = pending.get(id);
+                    daily.upsert(new Query(Criteria.where("_id").is(id)), dailyInsert(day).inc("views", views));
+                });
+                daily.execute();
+            } catch (Exception e) {
+                // viewCount đã ghi; chỉ mất số liệu theo ngày của lần flush này
+                System.err.println("Error writing daily product views: " + e.getMessage());
+            }
+        }
+
+        LocalDate today = LocalDate.now();
+        for (Map.Entry<String, DayViews> entry : pending.entrySet()) {
+            DayViews day = entry.getValue();
+            if (day.sketchDirty) {
+                day.sketchDirty = false;
+                if (!mergeSketch(entry.getKey(), day)) {
+                    day.sketchDirty = true;
+                }
+            }
+            // Ngày đã qua và không còn gì cần ghi thì bỏ khỏi bộ nhớ
+            if (day.day.isBefore(today) && !day.sketchDirty && day.views.sum() == 0) {
+                pending.remove(entry.getKey(), day);
+            }
+        }
+        return deltas.size();
+    }
+
+    // Gộp sketch trong bộ nhớ vào sketch đã lưu, chỉ ghi nếu sketchVersion chưa đổi kể từ lúc đọc
+    private boolean mergeSketch(String id, DayViews day) {
+        try {
+            for (int attempt = 0; attempt < MAX_SKETCH_RETRIES; attempt++) {
+                ProductViewDaily stored = mongoTemplate.findById(id, ProductViewDaily.class);
+                if (stored == null) {
+                    mongoTemplate.upsert(new Query(Criteria.where("_id").is(id)), dailyInsert(day), ProductViewDaily.class);
+                    continue;
+                }
+                HyperLogLog merged = HyperLogLog.fromBytes(stored.getSketch());
+                merged.merge(day.viewers);
+                long updated = mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(id).and("sketchVersion").is(stored.getSketchVersion())),
+                    new Update()
+                        .set("sketch", merged.toBytes())
+                        .set("uniqueViewers", merged.estimate())
+                        .inc("sketchVersion", 1),
+                    ProductViewDaily.class).getModifiedCount();
+                if (updated > 0) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error merging viewer sketch " + id + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static Update dailyInsert(DayViews day) {
+        return new Update()
+            .setOnInsert("productId", day.productId)
+            .setOnInsert("day", day.day.toString())
+            .setOnInsert("date", day.day.atStartOfDay())
+            .setOnInsert("sketchVersion", 0L);
+    }
+
+    /**
+     * Sản phẩm active có nhiều lượt xem nhất trong `days` ngày gần nhất (một aggregation + một query $in).
+     */
+    public List<Product> getTrendingProducts(int days, int limit) {
+        List<Document> pipeline = List.of(
+            new Document("$match", new Document("date", new Document("$gte", toDate(since(days))))),
+            new Document("$group", new Document("_id", "$productId").append("views", new Document("$sum", "$views"))),
+            new Document("$sort", new Document("views", -1)),
+            // Lấy dư để còn đủ sau khi lọc sản phẩm không active
+            new Document("$limit", Math.max(1, limit) * 2));
+        List<String> ranked = new ArrayList<>();
+        for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(ProductViewDaily.class)).aggregate(pipeline)) {
+            if (doc.get("_id") != null) {
+                ranked.add(doc.get("_id").toString());
+            }
+        }
+        if (ranked.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Product> products = new HashMap<>();
+        for (Product product : mongoTemplate.find(new Query(Criteria.where("_id").in(ranked)), Product.class)) {
+            String status = product.getStatus() != null ? product.getStatus().toLowerCase() : "";
+            if (status.equals("active") || status.equals("hoạt động")) {
+                products.put(product.getId(), product);
+            }
+        }
+        List<Product> trending = new ArrayList<>();
+        for (String productId : ranked) {
+            Product product = products.get(productId);
+            if (product != null && trending.size() < limit) {
+                trending.add(product);
+            }
+        }
+        return trending;
+    }
+
+    /**
+     * Lượt xem và số người xem (ước lượng) theo ngày trong `days` ngày gần nhất, kèm tổng của cả giai đoạn
+     * (người xem phân biệt của cả giai đoạn tính bằng cách gộp sketch các ngày).
+     */
+    public Map<String, Object> getProductViewStats(String productId, int days) {
+        LocalDate start = since(days).toLocalDate();
+        Query query = new Query(Criteria.where("productId").is(productId).and("date").gte(start.atStartOfDay()));
+        Map<String, ProductViewDaily> byDay = new HashMap<>();
+        HyperLogLog period = new HyperLogLog();
+        for (ProductViewDaily daily : mongoTemplate.find(query, ProductViewDaily.class)) {
+            byDay.put(daily.getDay(), daily);
+            if (daily.getSketch() != null) {
+                period.merge(HyperLogLog.fromBytes(daily.getSketch()));
+            }
+        }
+
+        List<Map<String, Object>> series = new ArrayList<>();
+        long totalViews = 0;
+        for (LocalDate day = start; !day.isAfter(LocalDate.now()); day = day.plusDays(1)) {
+            ProductViewDaily daily = byDay.get(day.toString());
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("day", day.toString());
+            point.put("views", daily != null ? daily.getViews() : 0L);
+            point.put("uniqueViewers", daily != null ? daily.getUniqueViewers() : 0L);
+            series.add(point);
+            totalViews += daily != null ? daily.getViews() : 0L;
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("productId", productId);
+        stats.put("days", series.size());
+        stats.put("totalViews", totalViews);
+        stats.put("uniqueViewers", period.estimate());
+        stats.put("daily", series);
+        return stats;
+    }
+
+    private static LocalDateTime since(int days) {
+        return LocalDate.now().minusDays(Math.max(1, Math.min(days, MAX_DAYS)) - 1L).atStartOfDay();
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
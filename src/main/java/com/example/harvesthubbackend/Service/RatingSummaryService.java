@@ -0,0 +1,322 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.RatingSummary;
+import com.example.harvesthubbackend.Models.Review;
+import com.example.harvesthubbackend.Models.Seller;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Duy trì RatingSummary theo sản phẩm và theo seller. Mỗi thay đổi review được quy về phần đóng góp
+ * trước/sau (chỉ review "approved" mới được tính) và cộng phần chênh lệch bằng $inc, nên các review
+ * ghi đồng thời không ghi đè nhau. rating/reviewCount của Product và averageRating/reviewCount của Seller
+ * được đồng bộ từ summary, chỉ khi version mới hơn bản đã ghi.
+ */
+@Service
+public class RatingSummaryService {
+
+    private static final String APPROVED = "approved";
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_SEED_ATTEMPTS = 3;
+    private static final List<String> COUNT_FIELDS = List.of("totalReviews", "ratingSum", "verifiedReviews",
+        "reviewsWithImages", "reviewsWithVideos", "reviewsWithReplies", "helpfulReviews");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ShopStatsService shopStatsService;
+
+    /**
+     * Phần đóng góp của một review vào summary (field -> giá trị cần $inc). Review chưa duyệt không đóng góp.
+     */
+    public static Map<String, Long> contribution(Review review) {
+        Map<String, Long> values = new HashMap<>();
+        if (review == null || !APPROVED.equals(review.getStatus())) {
+            return values;
+        }
+        values.put("totalReviews", 1L);
+        values.put("ratingSum", (long) review.getRating());
+        if (review.getRating() >= 1 && review.getRating() <= 5) {
+            values.put("stars." + review.getRating(), 1L);
+        }
+        if (review.isVerified()) {
+            values.put("verifiedReviews", 1L);
+        }
+        if (review.hasImages()) {
+            values.put("reviewsWithImages", 1L);
+        }
+        if (review.hasVideos()) {
+            values.put("reviewsWithVideos", 1L);
+        }
+        if (review.hasReply()) {
+            values.put("reviewsWithReplies", 1L);
+        }
+        if (review.isHelpful()) {
+            values.put("helpfulReviews", 1L);
+        }
+        return values;
+    }
+
+    /**
+     * Cập nhật summary của sản phẩm và seller theo chênh lệch đóng góp trước/sau của một review.
+     */
+    public void onReviewChanged(String productId, Map<String, Long> before, Map<String, Long> after) {
+        if (productId == null) {
+            return;
+        }
+        Map<String, Long> delta = new HashMap<>(after);
+        before.forEach((field, value) -> delta.merge(field, -value, Long::sum));
+        delta.values().removeIf(value -> value == 0);
+        if (delta.isEmpty()) {
+            return;
+        }
+        try {
+            RatingSummary productSummary = increment(RatingSummary.PRODUCT, productId, delta);
+            syncProduct(productId, productSummary);
+
+            Query productQuery = new Query(Criteria.where("_id").is(productId));
+            productQuery.fields().include("sellerId");
+            Product product = mongoTemplate.findOne(productQuery, Product.class);
+            if (product != null && product.getSellerId() != null) {
+                RatingSummary sellerSummary = increment(RatingSummary.SELLER, product.getSellerId(), delta);
+                syncSeller(product.getSellerId(), sellerSummary);
+                shopStatsService.requestRefreshForOwner(product.getSellerId());
+            }
+        } catch (Exception e) {
+            System.err.println("Error updating rating summary for product " + productId + ": " + e.getMessage());
+        }
+    }
+
+    public RatingSummary getProductSummary(String productId) {
+        return mongoTemplate.findById(RatingSummary.idOf(RatingSummary.PRODUCT, productId), RatingSummary.class);
+    }
+
+    public RatingSummary getSellerSummary(String sellerId) {
+        return mongoTemplate.findById(RatingSummary.idOf(RatingSummary.SELLER, sellerId), RatingSummary.class);
+    }
+
+    private RatingSummary increment(String scope, String targetId, Map<String, Long> delta) {
+        Update update = new Update()
+            .setOnInsert("scope", scope)
+            .setOnInsert("targetId", targetId)
+            .inc("version", 1)
+            .set("updatedAt", LocalDateTime.now());
+        delta.forEach(update::inc);
+        return mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(RatingSummary.idOf(scope, targetId))),
+            update,
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            RatingSummary.class);
+    }
+
+    // Ghi rating vào Product nếu chưa có bản mới hơn (các lần ghi đồng thời có thể đến không theo thứ tự)
+    private void syncProduct(String productId, RatingSummary summary) {
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(productId).and("ratingVersion").not().gte(summary.getVersion())),
+            new Update()
+                .set("rating", summary.getAverageRating())
+                .set("reviewCount", (int) summary.getTotalReviews())
+                .set("ratingVersion", summary.getVersion()),
+            Product.class);
+    }
+
+    // product.sellerId có thể là id của Seller hoặc userId của chủ shop
+    private void syncSeller(String sellerId, RatingSummary summary) {
+        mongoTemplate.updateFirst(
+            new Query(new Criteria().andOperator(
+                new Criteria().orOperator(Criteria.where("_id").is(sellerId), Criteria.where("userId").is(sellerId)),
+                Criteria.where("ratingVersion").not().gte(summary.getVersion()))),
+            new Update()
+                .set("averageRating", summary.getAverageRating())
+                .set("reviewCount", (int) summary.getTotalReviews())
+                .set("ratingVersion", summary.getVersion())
+                .set("updatedAt", LocalDateTime.now()),
+            Seller.class);
+    }
+
+    /**
+     * Tạo summary còn thiếu từ các review đã duyệt (một aggregation nhóm theo productId, seller được cộng dồn
+     * từ summary của sản phẩm). Summary chưa có seeded (tạo bởi $inc trước khi seed, nên có thể thiếu các review
+     * cũ) được tính lại và $set, chỉ khi version không đổi kể từ trước aggregation; summary tạo thêm trong lúc chạy
+     * được xử lý ở lượt sau. Rating của Product/Seller mới seed chỉ được ghi nếu chưa từng đồng bộ từ summary.
+     */
+    public int seedMissingSummaries() {
+        int products = 0;
+        for (int attempt = 0; attempt < MAX_SEED_ATTEMPTS; attempt++) {
+            products = seedOnce();
+            if (!mongoTemplate.exists(new Query(Criteria.where("seeded").ne(true)), RatingSummary.class)) {
+                return products;
+            }
+        }
+        System.err.println("Some rating summaries are still unseeded after " + MAX_SEED_ATTEMPTS + " attempts");
+        return products;
+    }
+
+    private int seedOnce() {
+        // Chụp version của summary chưa seed trước aggregation, để không ghi đè $inc đến sau đó
+        Query unseededQuery = new Query(Criteria.where("seeded").ne(true));
+        unseededQuery.fields().include("scope").include("targetId").include("version");
+        List<RatingSummary> unseeded = mongoTemplate.find(unseededQuery, RatingSummary.class);
+
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("status", APPROVED)));
+        Document group = new Document("_id", "$productId")
+            .append("totalReviews", new Document("$sum", 1))
+            .append("ratingSum", new Document("$sum", "$rating"))
+            .append("verifiedReviews", countIf(new Document("$eq", List.of("$isVerified", true))))
+            .append("reviewsWithImages", countIf(nonEmpty("$images")))
+            .append("reviewsWithVideos", countIf(nonEmpty("$videos")))
+            .append("reviewsWithReplies", countIf(new Document("$ne", List.of(new Document("$ifNull", List.of("$reply", null)), null))))
+            .append("helpfulReviews", countIf(new Document("$eq", List.of("$isHelpful", true))));
+        for (int star = 1; star <= 5; star++) {
+            group.append("star" + star, countIf(new Document("$eq", List.of("$rating", star))));
+        }
+        pipeline.add(new Document("$group", group));
+
+        Map<String, Map<String, Long>> productValues = new HashMap<>();
+        for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(Review.class)).aggregate(pipeline)) {
+            Object productId = doc.get("_id");
+            if (productId == null) {
+                continue;
+            }
+            Map<String, Long> values = new HashMap<>();
+            for (String field : COUNT_FIELDS) {
+                values.put(field, ((Number) doc.get(field)).longValue());
+            }
+            for (int star = 1; star <= 5; star++) {
+                values.put("stars." + star, ((Number) doc.get("star" + star)).longValue());
+            }
+            productValues.put(productId.toString(), values);
+        }
+        if (productValues.isEmpty() && unseeded.isEmpty()) {
+            return 0;
+        }
+
+        // Cộng dồn theo seller, nạp sellerId của sản phẩm theo lô
+        Map<String, Map<String, Long>> sellerValues = new HashMap<>();
+        List<String> productIds = new ArrayList<>(productValues.keySet());
+        for (int start = 0; start < productIds.size(); start += BATCH_SIZE) {
+            Query query = new Query(Criteria.where("_id").in(productIds.subList(start, Math.min(start + BATCH_SIZE, productIds.size()))));
+            query.fields().include("sellerId");
+            for (Product product : mongoTemplate.find(query, Product.class)) {
+                if (product.getSellerId() == null) {
+                    continue;
+                }
+                Map<String, Long> seller = sellerValues.computeIfAbsent(product.getSellerId(), key -> new HashMap<>());
+                productValues.get(product.getId()).forEach((field, value) -> seller.merge(field, value, Long::sum));
+            }
+        }
+
+        seed(RatingSummary.PRODUCT, productValues, unseeded);
+        seed(RatingSummary.SELLER, sellerValues, unseeded);
+        recompute(unseeded, productValues, sellerValues);
+        if (productValues.isEmpty()) {
+            return 0;
+        }
+
+        BulkOperations products = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        productValues.forEach((productId, values) -> products.updateOne(
+            new Query(Criteria.where("_id").is(productId).and("ratingVersion").not().gt(0)),
+            ratingUpdate("rating", values)));
+        products.execute();
+        if (!sellerValues.isEmpty()) {
+            BulkOperations sellers = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Seller.class);
+            sellerValues.forEach((sellerId, values) -> sellers.updateOne(
+                new Query(new Criteria().andOperator(
+                    new Criteria().orOperator(Criteria.where("_id").is(sellerId), Criteria.where("userId").is(sellerId)),
+                    Criteria.where("ratingVersion").not().gt(0))),
+                ratingUpdate("averageRating", values)));
+            sellers.execute();
+        }
+        return productValues.size();
+    }
+
+    // Tạo summary chưa tồn tại; summary đã có được recompute xử lý (nếu chưa seed) hoặc giữ nguyên
+    private void seed(String scope, Map<String, Map<String, Long>> valuesByTarget, List<RatingSummary> unseeded) {
+        Set<String> existing = unseeded.stream().map(RatingSummary::getId).collect(Collectors.toSet());
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RatingSummary.class);
+        LocalDateTime now = LocalDateTime.now();
+        int pending = 0;
+        for (Map.Entry<String, Map<String, Long>> entry : valuesByTarget.entrySet()) {
+            String id = RatingSummary.idOf(scope, entry.getKey());
+            if (existing.contains(id)) {
+                continue;
+            }
+            Update update = new Update()
+                .setOnInsert("scope", scope)
+                .setOnInsert("targetId", entry.getKey())
+                .setOnInsert("version", 0L)
+                .setOnInsert("seeded", true)
+                .setOnInsert("updatedAt", now);
+            entry.getValue().forEach(update::setOnInsert);
+            bulk.upsert(new Query(Criteria.where("_id").is(id)), update);
+            pending++;
+        }
+        if (pending > 0) {
+            bulk.execute();
+        }
+    }
+
+    // Ghi đè summary được tạo bởi $inc bằng giá trị tính từ toàn bộ review, rồi đồng bộ sang Product/Seller
+    private void recompute(List<RatingSummary> unseeded, Map<String, Map<String, Long>> productValues,
+                           Map<String, Map<String, Long>> sellerValues) {
+        for (RatingSummary summary : unseeded) {
+            boolean product = RatingSummary.PRODUCT.equals(summary.getScope());
+            Map<String, Long> values = (product ? productValues : sellerValues).getOrDefault(summary.getTargetId(), Map.of());
+            Update update = new Update()
+                .set("seeded", true)
+                .inc("version", 1)
+                .set("updatedAt", LocalDateTime.now());
+            for (String field : COUNT_FIELDS) {
+                update.set(field, values.getOrDefault(field, 0L));
+            }
+            for (int star = 1; star <= 5; star++) {
+                update.set("stars." + star, values.getOrDefault("stars." + star, 0L));
+            }
+            RatingSummary recomputed = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(summary.getId()).and("version").is(summary.getVersion()).and("seeded").ne(true)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                RatingSummary.class);
+            if (recomputed == null) {
+                continue; // Có $inc mới trong lúc tính, lượt sau tính lại
+            }
+            if (product) {
+                syncProduct(summary.getTargetId(), recomputed);
+            } else {
+                syncSeller(summary.getTargetId(), recomputed);
+            }
+        }
+    }
+
+    private static Update ratingUpdate(String averageField, Map<String, Long> values) {
+        long total = values.getOrDefault("totalReviews", 0L);
+        double average = total > 0 ? Math.round((double) values.getOrDefault("ratingSum", 0L) / total * 10.0) / 10.0 : 0.0;
+        return new Update().set(averageField, average).set("reviewCount", (int) total).set("ratingVersion", 0L);
+    }
+
+    private static Document countIf(Document condition) {
+        return new Document("$sum", new Document("$cond", List.of(condition, 1, 0)));
+    }
+
+    private static Document nonEmpty(String field) {
+        return new Document("$gt", List.of(new Document("$size", new Document("$ifNull", List.of(field, List.of()))), 0));
+    }
+}
@@ -1,8 +1,14 @@
 package com.example.harvesthubbackend.Service;
 
+import com.example.harvesthubbackend.Models.RatingSummary;
 import com.example.harvesthubbackend.Models.Review;
 import com.example.harvesthubbackend.Repository.ReviewRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -16,11 +22,19 @@ public class ReviewService {
     @Autowired
     private ReviewRepository reviewRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private RatingSummaryService ratingSummaryService;
+    
     // Create a new review
     public Review createReview(Review review) {
         review.setCreatedAt(LocalDateTime.now());
         review.setUpdatedAt(LocalDateTime.now());
-        return reviewRepository.save(review);
+        Review saved = reviewRepository.save(review);
+        ratingSummaryService.onReviewChanged(saved.getProductId(), Map.of(), RatingSummaryService.contribution(saved));
+        return saved;
     }
     
     // Get review by ID
@@ -93,139 +107,129 @@ public class ReviewService {
         return reviewRepository.findByProductIdAndIsHelpful(productId, true);
     }
     
+    // Các thay đổi dưới đây dùng findAndModify (trả về bản trước khi sửa) thay vì đọc rồi save cả document,
+    // nên thay đổi đồng thời trên cùng review không ghi đè nhau và RatingSummary nhận đúng chênh lệch.
+    
     // Update review
     public Review updateReview(String id, Review reviewDetails) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            review.setRating(reviewDetails.getRating());
-            review.setTitle(reviewDetails.getTitle());
-            review.setComment(reviewDetails.getComment());
-            review.setImages(reviewDetails.getImages());
-            review.setVideos(reviewDetails.getVideos());
-            review.setUpdatedAt(LocalDateTime.now());
-            return reviewRepository.save(review);
+        LocalDateTime now = LocalDateTime.now();
+        Review review = modify(id, new Update()
+            .set("rating", reviewDetails.getRating())
+            .set("title", reviewDetails.getTitle())
+            .set("comment", reviewDetails.getComment())
+            .set("images", reviewDetails.getImages())
+            .set("videos", reviewDetails.getVideos())
+            .set("updatedAt", now));
+        if (review == null) {
+            return null;
         }
-        return null;
+        Map<String, Long> before = RatingSummaryService.contribution(review);
+        review.setRating(reviewDetails.getRating());
+        review.setTitle(reviewDetails.getTitle());
+        review.setComment(reviewDetails.getComment());
+        review.setImages(reviewDetails.getImages());
+        review.setVideos(reviewDetails.getVideos());
+        review.setUpdatedAt(now);
+        ratingSummaryService.onReviewChanged(review.getProductId(), before, RatingSummaryService.contribution(review));
+        return review;
     }
     
     // Update review status
     public Review updateReviewStatus(String id, String status) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            review.setStatus(status);
-            review.setUpdatedAt(LocalDateTime.now());
-            return reviewRepository.save(review);
+        LocalDateTime now = LocalDateTime.now();
+        Review review = modify(id, new Update().set("status", status).set("updatedAt", now));
+        if (review == null) {
+            return null;
         }
-        return null;
+        Map<String, Long> before = RatingSummaryService.contribution(review);
+        review.setStatus(status);
+        review.setUpdatedAt(now);
+        ratingSummaryService.onReviewChanged(review.getProductId(), before, RatingSummaryService.contribution(review));
+        return review;
     }
     
     // Add reply to review
     public Review addReplyToReview(String id, Review.ReviewReply reply) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            review.setReply(reply);
-            review.setUpdatedAt(LocalDateTime.now());
-            return reviewRepository.save(review);
+        LocalDateTime now = LocalDateTime.now();
+        Review review = modify(id, new Update().set("reply", reply).set("updatedAt", now));
+        if (review == null) {
+            return null;
         }
-        return null;
+        Map<String, Long> before = RatingSummaryService.contribution(review);
+        review.setReply(reply);
+        review.setUpdatedAt(now);
+        ratingSummaryService.onReviewChanged(review.getProductId(), before, RatingSummaryService.contribution(review));
+        return review;
     }
     
     // Update reply status
     public Review updateReplyStatus(String id, String status) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            if (review.getReply() != null) {
-                review.getReply().setStatus(status);
-                review.setUpdatedAt(LocalDateTime.now());
-                return reviewRepository.save(review);
-            }
-        }
-        return null;
+        return mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(id).and("reply").ne(null)),
+            new Update().set("reply.status", status).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            Review.class);
     }
     
     // Mark review as helpful
     public Review markReviewAsHelpful(String id) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            review.setHelpful(true);
-            review.incrementHelpfulCount();
-            return reviewRepository.save(review);
+        Review review = modify(id, new Update().set("isHelpful", true).inc("helpfulCount", 1).set("updatedAt", LocalDateTime.now()));
+        if (review == null) {
+            return null;
         }
-        return null;
+        Map<String, Long> before = RatingSummaryService.contribution(review);
+        review.setHelpful(true);
+        review.incrementHelpfulCount();
+        ratingSummaryService.onReviewChanged(review.getProductId(), before, RatingSummaryService.contribution(review));
+        return review;
     }
     
     // Unmark review as helpful
     public Review unmarkReviewAsHelpful(String id) {
-        Optional<Review> optionalReview = reviewRepository.findById(id);
-        if (optionalReview.isPresent()) {
-            Review review = optionalReview.get();
-            review.setHelpful(false);
+        Review review = modify(id, new Update().set("isHelpful", false));
+        if (review == null) {
+            return null;
+        }
+        Map<String, Long> before = RatingSummaryService.contribution(review);
+        review.setHelpful(false);
+        if (review.getHelpfulCount() > 0) {
+            // helpfulCount không xuống dưới 0
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and("helpfulCount").gt(0)),
+                new Update().inc("helpfulCount", -1).set("updatedAt", LocalDateTime.now()), Review.class);
             review.decrementHelpfulCount();
-            return reviewRepository.save(review);
         }
-        return null;
+        ratingSummaryService.onReviewChanged(review.getProductId(), before, RatingSummaryService.contribution(review));
+        return review;
+    }
+    
+    // Áp dụng update và trả về review trước khi sửa (null nếu không tồn tại)
+    private Review modify(String id, Update update) {
+        return mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(id)), update,
+            FindAndModifyOptions.options().returnNew(false), Review.class);
     }
     
-    // Get review statistics by product ID
+    // Get review statistics by product ID (đọc từ RatingSummary, không quét review)
     public Map<String, Object> getReviewStatisticsByProductId(String productId) {
         Map<String, Object> stats = new HashMap<>();
         
-        List<Review> allReviews = reviewRepository.findByProductIdAndStatus(productId, "approved");
-        stats.put("totalReviews", allReviews.size());
+        RatingSummary summary = ratingSummaryService.getProductSummary(productId);
+        long total = summary != null ? summary.getTotalReviews() : 0;
+        stats.put("totalReviews", (int) total);
         
-        if (!allReviews.isEmpty()) {
-            double averageRating = allReviews.stream()
-                .mapToInt(Review::getRating)
-                .average()
-                .orElse(0.0);
-            stats.put("averageRating", Math.round(averageRating * 10.0) / 10.0);
+        if (total > 0) {
+            stats.put("averageRating", summary.getAverageRating());
             
             // Rating distribution
             Map<Integer, Long> ratingDistribution = new HashMap<>();
             for (int i = 1; i <= 5; i++) {
-                final int rating = i;
-                long count = allReviews.stream()
-                    .mapToInt(Review::getRating)
-                    .filter(r -> r == rating)
-                    .count();
-                ratingDistribution.put(i, count);
+                ratingDistribution.put(i, summary.getStarCount(i));
             }
             stats.put("ratingDistribution", ratingDistribution);
-            
-            // Verified reviews count
-            long verifiedCount = allReviews.stream()
-                .mapToInt(review -> review.isVerified() ? 1 : 0)
-                .sum();
-            stats.put("verifiedReviews", verifiedCount);
-            
-            // Reviews with images count
-            long imagesCount = allReviews.stream()
-                .mapToInt(review -> review.hasImages() ? 1 : 0)
-                .sum();
-            stats.put("reviewsWithImages", imagesCount);
-            
-            // Reviews with videos count
-            long videosCount = allReviews.stream()
-                .mapToInt(review -> review.hasVideos() ? 1 : 0)
-                .sum();
-            stats.put("reviewsWithVideos", videosCount);
-            
-            // Reviews with replies count
-            long repliesCount = allReviews.stream()
-                .mapToInt(review -> review.hasReply() ? 1 : 0)
-                .sum();
-            stats.put("reviewsWithReplies", repliesCount);
-            
-            // Helpful reviews count
-            long helpfulCount = allReviews.stream()
-                .mapToInt(review -> review.isHelpful() ? 1 : 0)
-                .sum();
-            stats.put("helpfulReviews", helpfulCount);
+            stats.put("verifiedReviews", summary.getVerifiedReviews());
+            stats.put("reviewsWithImages", summary.getReviewsWithImages());
+            stats.put("reviewsWithVideos", summary.getReviewsWithVideos());
+            stats.put("reviewsWithReplies", summary.getReviewsWithReplies());
+            stats.put("helpfulReviews", summary.getHelpfulReviews());
         } else {
             stats.put("averageRating", 0.0);
             stats.put("ratingDistribution", new HashMap<>());
@@ -287,11 +291,12 @@ public class ReviewService {
     
     // Delete review
     public boolean deleteReview(String id) {
-        if (reviewRepository.existsById(id)) {
-            reviewRepository.deleteById(id);
-            return true;
+        Review removed = mongoTemplate.findAndRemove(new Query(Criteria.where("_id").is(id)), Review.class);
+        if (removed == null) {
+            return false;
         }
-        return false;
+        ratingSummaryService.onReviewChanged(removed.getProductId(), RatingSummaryService.contribution(removed), Map.of());
+        return true;
     }
     
     // Check if review exists
@@ -1,18 +1,28 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.SellerFinancial;
+import com.example.harvesthubbackend.Models.SellerSettlement;
 import com.example.harvesthubbackend.Models.WithdrawalRequest;
 import com.example.harvesthubbackend.Models.Order;
 import com.example.harvesthubbackend.Repository.SellerFinancialRepository;
 import com.example.harvesthubbackend.Repository.WithdrawalRequestRepository;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Tài chính của seller. SellerFinancial chỉ lưu thiết lập; số dư và thống kê được SellerSettlementService
+ * tổng hợp từ các entry quyết toán và yêu cầu rút tiền.
+ */
 @Service
 public class SellerFinancialService {
     
@@ -22,74 +32,28 @@ public class SellerFinancialService {
     @Autowired
     private WithdrawalRequestRepository withdrawalRepository;
     
+    @Autowired
+    private SellerSettlementService settlementService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     // Tạo hoặc lấy financial record cho seller
     public SellerFinancial getOrCreateFinancial(String sellerId, String userId) {
-        Optional<SellerFinancial> existing = financialRepository.findBySellerId(sellerId);
-        if (existing.isPresent()) {
-            return existing.get();
-        }
-        
-        SellerFinancial financial = new SellerFinancial();
-        financial.setSellerId(sellerId);
-        financial.setUserId(userId);
-        financial.setCreatedAt(LocalDateTime.now());
-        financial.setUpdatedAt(LocalDateTime.now());
-        
-        return financialRepository.save(financial);
+        return settlementService.getOrCreateFinancial(sellerId);
     }
     
-    // Cập nhật doanh thu khi đơn hàng hoàn thành
-    @Transactional
+    // Cập nhật doanh thu theo trạng thái hiện tại của đơn hàng (ghi settlement của từng seller trong đơn)
     public void updateRevenueFromOrder(String sellerId, Order order) {
-        SellerFinancial financial = getOrCreateFinancial(sellerId, order.getUserId());
-        
-        // Tính doanh thu (trừ hoa hồng)
-        double orderTotal = order.getTotalPrice();
-        double commission = orderTotal * (financial.getCommissionRate() / 100.0);
-        double sellerRevenue = orderTotal - commission;
-        
-        financial.setTotalRevenue(financial.getTotalRevenue() + orderTotal);
-        financial.setTotalCommission(financial.getTotalCommission() + commission);
-        
-        // Cập nhật số dư
-        if ("delivered".equals(order.getStatus())) {
-            // Đơn hàng đã giao → chuyển từ pending sang available sau withdrawalDays
-            financial.setPendingBalance(financial.getPendingBalance() - sellerRevenue);
-            financial.setAvailableBalance(financial.getAvailableBalance() + sellerRevenue);
-        } else {
-            // Đơn hàng mới → thêm vào pending
-            financial.setPendingBalance(financial.getPendingBalance() + sellerRevenue);
-        }
-        
-        // Cập nhật thống kê
-        financial.setTotalOrders(financial.getTotalOrders() + 1);
-        if ("delivered".equals(order.getStatus())) {
-            financial.setCompletedOrders(financial.getCompletedOrders() + 1);
-        } else {
-            financial.setPendingOrders(financial.getPendingOrders() + 1);
-        }
-        
-        // Tính giá trị đơn hàng trung bình
-        if (financial.getCompletedOrders() > 0) {
-            financial.setAverageOrderValue(financial.getTotalRevenue() / financial.getCompletedOrders());
-        }
-        
-        financial.setUpdatedAt(LocalDateTime.now());
-        financialRepository.save(financial);
+        settlementService.onOrderChanged(order);
     }
     
     // Yêu cầu rút tiền
-    @Transactional
     public WithdrawalRequest requestWithdrawal(String sellerId, double amount, String bankName, 
                                                 String bankAccountNumber, String bankAccountName, String bankBranch) {
         SellerFinancial financial = financialRepository.findBySellerId(sellerId)
             .orElseThrow(() -> new RuntimeException("Không tìm thấy bản ghi tài chính"));
         
-        // Kiểm tra số dư khả dụng
-        if (financial.getAvailableBalance() < amount) {
-            throw new RuntimeException("Số dư không đủ. Số dư khả dụng: " + financial.getAvailableBalance());
-        }
-        
         // Kiểm tra số tiền tối thiểu
         if (amount < financial.getMinWithdrawalAmount()) {
             throw new RuntimeException("Số tiền rút tối thiểu là " + financial.getMinWithdrawalAmount());
@@ -97,6 +61,7 @@ public class SellerFinancialService {
         
         // Tạo yêu cầu rút tiền
         WithdrawalRequest request = new WithdrawalRequest();
+        request.setId(new ObjectId().toHexString());
         request.setSellerId(sellerId);
         request.setSellerFinancialId(financial.getId());
         request.setAmount(amount);
@@ -106,69 +71,80 @@ public class SellerFinancialService {
         request.setBankBranch(bankBranch);
         request.setStatus("pending");
         
-        // Trừ số dư khả dụng (tạm thời)
-        financial.setAvailableBalance(financial.getAvailableBalance() - amount);
-        financialRepository.save(financial);
-        
-        return withdrawalRepository.save(request);
+        // Yêu cầu đang chờ giữ tiền trong số dư khả dụng; chỉ lưu nếu số dư còn đủ
+        return settlementService.createWithdrawal(request);
     }
     
-    // Xử lý yêu cầu rút tiền (Admin)
-    @Transactional
+    // Xử lý yêu cầu rút tiền (Admin); mỗi yêu cầu chỉ được xử lý một lần
     public WithdrawalRequest processWithdrawal(String requestId, String status, String adminId, 
                                                 String transactionReference, String rejectionReason) {
-        WithdrawalRequest request = withdrawalRepository.findById(requestId)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy yêu cầu rút tiền"));
-        
-        SellerFinancial financial = financialRepository.findById(request.getSellerFinancialId())
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy bản ghi tài chính"));
+        if (!"completed".equals(status) && !"rejected".equals(status)) {
+            throw new RuntimeException("Trạng thái không hợp lệ: " + status);
+        }
         
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .set("status", status)
+            .set("processedBy", adminId)
+            .set("processedAt", now)
+            .set("updatedAt", now);
         if ("completed".equals(status)) {
-            request.setStatus("completed");
-            request.setProcessedBy(adminId);
-            request.setProcessedAt(LocalDateTime.now());
-            request.setTransactionReference(transactionReference);
-            
-            // Cập nhật số tiền đã rút
-            financial.setWithdrawnAmount(financial.getWithdrawnAmount() + request.getAmount());
-            financial.setLastWithdrawalAt(LocalDateTime.now());
-            
-        } else if ("rejected".equals(status)) {
-            request.setStatus("rejected");
-            request.setProcessedBy(adminId);
-            request.setProcessedAt(LocalDateTime.now());
-            request.setRejectionReason(rejectionReason);
-            
-            // Hoàn lại số dư
-            financial.setAvailableBalance(financial.getAvailableBalance() + request.getAmount());
+            update.set("transactionReference", transactionReference);
+        } else {
+            update.set("rejectionReason", rejectionReason);
         }
-        
-        financial.setUpdatedAt(LocalDateTime.now());
-        financialRepository.save(financial);
-        
-        return withdrawalRepository.save(request);
+        WithdrawalRequest request = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(requestId).and("status").in("pending", "processing")),
+            update,
+            FindAndModifyOptions.options().returnNew(true),
+            WithdrawalRequest.class);
+        if (request == null) {
+            WithdrawalRequest existing = withdrawalRepository.findById(requestId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy yêu cầu rút tiền"));
+            throw new RuntimeException("Yêu cầu rút tiền đã được xử lý (" + existing.getStatus() + ")");
+        }
+        return request;
     }
     
-    // Lấy financial theo seller ID
+    // Lấy financial theo seller ID (tổng hợp từ settlement)
     public Optional<SellerFinancial> getBySellerId(String sellerId) {
-        return financialRepository.findBySellerId(sellerId);
+        return financialRepository.findBySellerId(sellerId).map(settlementService::withTotals);
     }
     
     // Lấy financial theo user ID
     public Optional<SellerFinancial> getByUserId(String userId) {
-        return financialRepository.findByUserId(userId);
+        return financialRepository.findByUserId(userId).map(settlementService::withTotals);
     }
     
     // Lấy tất cả financial
     public List<SellerFinancial> getAll() {
-        return financialRepository.findAll();
+        return settlementService.withTotals(financialRepository.findAll());
     }
     
-    // Cập nhật financial
+    // Cập nhật financial: chỉ các thiết lập (ngân hàng, hoa hồng, rút tiền); số dư do settlement quản lý
     public SellerFinancial update(String id, SellerFinancial financial) {
-        financial.setId(id);
-        financial.setUpdatedAt(LocalDateTime.now());
-        return financialRepository.save(financial);
+        SellerFinancial updated = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(id)),
+            new Update()
+                .set("bankName", financial.getBankName())
+                .set("bankAccountNumber", financial.getBankAccountNumber())
+                .set("bankAccountName", financial.getBankAccountName())
+                .set("bankBranch", financial.getBankBranch())
+                .set("commissionRate", financial.getCommissionRate())
+                .set("minWithdrawalAmount", financial.getMinWithdrawalAmount())
+                .set("withdrawalDays", financial.getWithdrawalDays())
+                .set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            SellerFinancial.class);
+        if (updated == null) {
+            throw new RuntimeException("Không tìm thấy bản ghi tài chính");
+        }
+        return settlementService.withTotals(updated);
+    }
+    
+    // Các entry quyết toán của seller
+    public List<SellerSettlement> getSettlements(String sellerId, String status, int limit) {
+        return settlementService.getSettlements(sellerId, status, limit);
     }
     
     // Lấy yêu cầu rút tiền theo seller
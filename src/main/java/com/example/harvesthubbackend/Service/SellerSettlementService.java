@@ -0,0 +1,414 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.Seller;
+import com.example.harvesthubbackend.Models.SellerFinancial;
+import com.example.harvesthubbackend.Models.SellerSettlement;
+import com.example.harvesthubbackend.Models.WithdrawalRequest;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quyết toán doanh thu cho seller. Mỗi đơn hàng có một SellerSettlement cho mỗi seller trong đơn và các entry này
+ * (cùng WithdrawalRequest) là nguồn dữ liệu duy nhất: doanh thu, số dư chờ/khả dụng và thống kê đơn của
+ * SellerFinancial được tổng hợp khi đọc, không cộng dồn. Mỗi lần đổi trạng thái entry là một lệnh có điều kiện
+ * trên chính entry, nên chạy lại (outbox retry) không ghi trùng.
+ * releaseMaturedBalances chuyển các entry đã qua withdrawalDays từ PENDING sang AVAILABLE.
+ */
+@Service
+public class SellerSettlementService {
+
+    private static final String SELLER_INDEX = "seller_idx";
+    private static final String WITHDRAWAL_LOCK_FIELD = "withdrawalLockUntil";
+    private static final long WITHDRAWAL_LOCK_MILLIS = 30_000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final List<String> HELD_WITHDRAWAL_STATUSES = List.of("pending", "processing", "completed");
+    private static final List<String> MERGED_DETAILS = List.of("bankName", "bankAccountNumber", "bankAccountName", "bankBranch");
+    // Tổng cộng dồn của thiết kế cũ, nay tính từ settlement
+    private static final List<String> LEGACY_TOTALS = List.of("totalRevenue", "availableBalance", "pendingBalance",
+        "withdrawnAmount", "totalCommission", "totalOrders", "completedOrders", "pendingOrders", "completedRevenue",
+        "averageOrderValue", "lastWithdrawalAt", "appliedSettlements");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private static boolean isReversed(String status) {
+        if (status == null) return false;
+        String normalized = status.toLowerCase();
+        return "cancelled".equals(normalized) || "returned".equals(normalized) || "refunded".equals(normalized);
+    }
+
+    private static boolean isDelivered(String status) {
+        if (status == null) return false;
+        String normalized = status.toLowerCase();
+        return "delivered".equals(normalized) || "completed".equals(normalized);
+    }
+
+    /**
+     * Đồng bộ settlement của đơn với trạng thái hiện tại của đơn. Idempotent, gọi sau khi đơn được tạo
+     * hoặc đổi trạng thái.
+     */
+    public void onOrderChanged(Order order) {
+        if (order == null || order.getId() == null || order.getItems() == null) return;
+
+        // Tiền hàng của từng seller trong đơn
+        Map<String, Double> grossBySeller = new LinkedHashMap<>();
+        for (Order.OrderItem item : order.getItems()) {
+            if (item.getSellerId() != null) {
+                grossBySeller.merge(item.getSellerId(), item.getUnitPrice() * item.getQuantity(), Double::sum);
+            }
+        }
+
+        for (Map.Entry<String, Double> entry : grossBySeller.entrySet()) {
+            String settlementId = SellerSettlement.idOf(order.getId(), entry.getKey());
+            if (isReversed(order.getStatus())) {
+                reverse(settlementId);
+                continue;
+            }
+            SellerFinancial financial = getOrCreateFinancial(entry.getKey());
+            create(order.getId(), financial, entry.getValue());
+            if (isDelivered(order.getStatus())) {
+                markDelivered(settlementId, financial.getWithdrawalDays());
+            }
+        }
+    }
+
+    /**
+     * Lấy hoặc tạo SellerFinancial của seller (upsert, an toàn khi nhiều đơn của seller được xử lý đồng thời).
+     */
+    public SellerFinancial getOrCreateFinancial(String sellerId) {
+        Query query = new Query(Criteria.where("sellerId").is(sellerId));
+        SellerFinancial existing = mongoTemplate.findOne(query, SellerFinancial.class);
+        if (existing != null) {
+            return existing;
+        }
+
+        SellerFinancial defaults = new SellerFinancial();
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            return mongoTemplate.findAndModify(query,
+                new Update()
+                    .setOnInsert("userId", resolveUserId(sellerId))
+                    .setOnInsert("commissionRate", defaults.getCommissionRate())
+                    .setOnInsert("minWithdrawalAmount", defaults.getMinWithdrawalAmount())
+                    .setOnInsert("withdrawalDays", defaults.getWithdrawalDays())
+                    .setOnInsert("createdAt", now)
+                    .setOnInsert("updatedAt", now),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                SellerFinancial.class);
+        } catch (DuplicateKeyException e) {
+            return mongoTemplate.findOne(query, SellerFinancial.class);
+        }
+    }
+
+    // Product.sellerId có thể là id của Seller hoặc userId của chủ shop
+    private String resolveUserId(String sellerId) {
+        Query query = new Query(new Criteria().orOperator(
+            Criteria.where("_id").is(sellerId), Criteria.where("userId").is(sellerId)));
+        query.fields().include("userId");
+        Seller seller = mongoTemplate.findOne(query, Seller.class);
+        return seller != null && seller.getUserId() != null ? seller.getUserId() : sellerId;
+    }
+
+    // Đơn đã được ghi cho seller này thì giữ nguyên (commission theo lúc ghi lần đầu)
+    private void create(String orderId, SellerFinancial financial, double grossAmount) {
+        double commission = grossAmount * (financial.getCommissionRate() / 100.0);
+        LocalDateTime now = LocalDateTime.now();
+
+        SellerSettlement settlement = new SellerSettlement();
+        settlement.setId(SellerSettlement.idOf(orderId, financial.getSellerId()));
+        settlement.setOrderId(orderId);
+        settlement.setSellerId(financial.getSellerId());
+        settlement.setGrossAmount(grossAmount);
+        settlement.setCommission(commission);
+        settlement.setNetAmount(grossAmount - commission);
+        settlement.setStatus(SellerSettlement.PENDING);
+        settlement.setCreatedAt(now);
+        settlement.setUpdatedAt(now);
+        try {
+            mongoTemplate.insert(settlement);
+        } catch (DuplicateKeyException e) {
+            // Đã ghi ở lần xử lý trước
+        }
+    }
+
+    private void markDelivered(String settlementId, int withdrawalDays) {
+        LocalDateTime now = LocalDateTime.now();
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(settlementId)
+                .and("status").is(SellerSettlement.PENDING)
+                .and("deliveredAt").is(null)),
+            new Update()
+                .set("deliveredAt", now)
+                .set("releaseAt", now.plusDays(Math.max(0, withdrawalDays)))
+                .set("updatedAt", now),
+            SellerSettlement.class);
+    }
+
+    private void reverse(String settlementId) {
+        LocalDateTime now = LocalDateTime.now();
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(settlementId).and("status").ne(SellerSettlement.REVERSED)),
+            new Update()
+                .set("status", SellerSettlement.REVERSED)
+                .set("reversedAt", now)
+                .set("updatedAt", now),
+            SellerSettlement.class);
+    }
+
+    /**
+     * Chuyển các entry PENDING đã đến releaseAt sang AVAILABLE (một lệnh updateMulti). Trả về số entry đã chuyển.
+     */
+    public int releaseMaturedBalances() {
+        LocalDateTime now = LocalDateTime.now();
+        int released = (int) mongoTemplate.updateMulti(
+            new Query(Criteria.where("status").is(SellerSettlement.PENDING).and("releaseAt").lte(now)),
+            new Update()
+                .set("status", SellerSettlement.AVAILABLE)
+                .set("releasedAt", now)
+                .set("updatedAt", now),
+            SellerSettlement.class).getModifiedCount();
+        if (released > 0) {
+            System.out.println("SellerSettlementService: released " + released + " matured settlements");
+        }
+        return released;
+    }
+
+    // ========== Tổng hợp ==========
+
+    public SellerFinancial withTotals(SellerFinancial financial) {
+        if (financial != null) {
+            withTotals(List.of(financial));
+        }
+        return financial;
+    }
+
+    /**
+     * Điền doanh thu, số dư và thống kê từ settlement và yêu cầu rút tiền (hai aggregation cho cả danh sách).
+     * availableBalance = tổng entry AVAILABLE - các yêu cầu rút đang chờ hoặc đã chuyển.
+     */
+    public List<SellerFinancial> withTotals(List<SellerFinancial> financials) {
+        List<String> sellerIds = financials.stream().map(SellerFinancial::getSellerId).toList();
+        if (sellerIds.isEmpty()) {
+            return financials;
+        }
+
+        Document delivered = new Document("$ne", List.of(new Document("$ifNull", List.of("$deliveredAt", null)), null));
+        List<Document> settlementPipeline = List.of(
+            new Document("$match", new Document("sellerId", new Document("$in", sellerIds))
+                .append("status", new Document("$ne", SellerSettlement.REVERSED))),
+            new Document("$group", new Document("_id", "$sellerId")
+                .append("totalRevenue", new Document("$sum", "$grossAmount"))
+                .append("totalCommission", new Document("$sum", "$commission"))
+                .append("pendingBalance", sumIf(statusIs(SellerSettlement.PENDING), "$netAmount"))
+                .append("settledAmount", sumIf(statusIs(SellerSettlement.AVAILABLE), "$netAmount"))
+                .append("totalOrders", new Document("$sum", 1))
+                .append("completedOrders", sumIf(delivered, 1))
+                .append("completedRevenue", sumIf(delivered, "$grossAmount"))));
+        Map<String, Document> settlements = new HashMap<>();
+        for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(SellerSettlement.class))
+                .aggregate(settlementPipeline)) {
+            settlements.put(String.valueOf(doc.get("_id")), doc);
+        }
+
+        Document completed = statusIs("completed");
+        List<Document> withdrawalPipeline = List.of(
+            new Document("$match", new Document("sellerId", new Document("$in", sellerIds))
+                .append("status", new Document("$in", HELD_WITHDRAWAL_STATUSES))),
+            new Document("$group", new Document("_id", "$sellerId")
+                .append("held", new Document("$sum", "$amount"))
+                .append("withdrawn", sumIf(completed, "$amount"))
+                .append("lastWithdrawalAt", new Document("$max",
+                    new Document("$cond", List.of(completed, "$processedAt", null))))));
+        Map<String, Document> withdrawals = new HashMap<>();
+        for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(WithdrawalRequest.class))
+                .aggregate(withdrawalPipeline)) {
+            withdrawals.put(String.valueOf(doc.get("_id")), doc);
+        }
+
+        for (SellerFinancial financial : financials) {
+            Document settled = settlements.getOrDefault(financial.getSellerId(), new Document());
+            Document withdrawn = withdrawals.getOrDefault(financial.getSellerId(), new Document());
+            int totalOrders = number(settled, "totalOrders").intValue();
+            int completedOrders = number(settled, "completedOrders").intValue();
+            double completedRevenue = number(settled, "completedRevenue").doubleValue();
+            financial.setTotalRevenue(number(settled, "totalRevenue").doubleValue());
+            financial.setTotalCommission(number(settled, "totalCommission").doubleValue());
+            financial.setPendingBalance(number(settled, "pendingBalance").doubleValue());
+            financial.setAvailableBalance(number(settled, "settledAmount").doubleValue() - number(withdrawn, "held").doubleValue());
+            financial.setWithdrawnAmount(number(withdrawn, "withdrawn").doubleValue());
+            financial.setTotalOrders(totalOrders);
+            financial.setCompletedOrders(completedOrders);
+            financial.setPendingOrders(totalOrders - completedOrders);
+            financial.setCompletedRevenue(completedRevenue);
+            financial.setAverageOrderValue(completedOrders > 0 ? completedRevenue / completedOrders : 0.0);
+            if (withdrawn.get("lastWithdrawalAt") instanceof Date last) {
+                financial.setLastWithdrawalAt(LocalDateTime.ofInstant(last.toInstant(), ZoneId.systemDefault()));
+            }
+        }
+        return financials;
+    }
+
+    private static Document statusIs(String status) {
+        return new Document("$eq", List.of("$status", status));
+    }
+
+    private static Document sumIf(Document condition, Object value) {
+        return new Document("$sum", new Document("$cond", List.of(condition, value, 0)));
+    }
+
+    private static Number number(Document doc, String field) {
+        return doc.get(field) instanceof Number value ? value : 0;
+    }
+
+    // ========== Rút tiền ==========
+
+    /**
+     * Lưu yêu cầu rút tiền nếu số dư khả dụng còn đủ. Yêu cầu đã lưu chính là khoản giữ tiền; các yêu cầu của
+     * cùng seller được kiểm tra lần lượt nhờ khóa có thời hạn trên SellerFinancial.
+     */
+    public WithdrawalRequest createWithdrawal(WithdrawalRequest request) {
+        long lockUntil = System.currentTimeMillis() + WITHDRAWAL_LOCK_MILLIS;
+        boolean locked = mongoTemplate.updateFirst(
+            new Query(Criteria.where("sellerId").is(request.getSellerId())
+                .and(WITHDRAWAL_LOCK_FIELD).not().gt(System.currentTimeMillis())),
+            new Update().set(WITHDRAWAL_LOCK_FIELD, lockUntil),
+            SellerFinancial.class).getModifiedCount() > 0;
+        if (!locked) {
+            throw new RuntimeException("Đang xử lý một yêu cầu rút tiền khác, vui lòng thử lại");
+        }
+        try {
+            SellerFinancial financial = withTotals(mongoTemplate.findOne(
+                new Query(Criteria.where("sellerId").is(request.getSellerId())), SellerFinancial.class));
+            double available = financial != null ? financial.getAvailableBalance() : 0.0;
+            if (available < request.getAmount()) {
+                throw new RuntimeException("Số dư không đủ. Số dư khả dụng: " + available);
+            }
+            return mongoTemplate.insert(request);
+        } finally {
+            mongoTemplate.updateFirst(
+                new Query(Criteria.where("sellerId").is(request.getSellerId()).and(WITHDRAWAL_LOCK_FIELD).is(lockUntil)),
+                new Update().unset(WITHDRAWAL_LOCK_FIELD),
+                SellerFinancial.class);
+        }
+    }
+
+    // ========== Migration ==========
+
+    /**
+     * Chuẩn bị seller_financials: gộp các SellerFinancial trùng sellerId (database tạo trước khi có unique index)
+     * vào bản cũ nhất, tạo lại seller_idx thành unique và xóa các tổng cộng dồn cũ. Ném IllegalStateException
+     * nếu không tạo được unique index.
+     */
+    public int migrateFinancials() {
+        int merged = 0;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            merged += mergeDuplicateFinancials();
+            try {
+                ensureUniqueSellerIndex();
+                removeLegacyTotals();
+                return merged;
+            } catch (DataAccessException e) {
+                // Có bản trùng mới được tạo trong lúc gộp: gộp lại rồi thử tiếp
+                System.err.println("Creating unique " + SELLER_INDEX + " failed, retrying: " + e.getMessage());
+            }
+        }
+        throw new IllegalStateException("seller_financials still has duplicate sellerId; unique " + SELLER_INDEX + " not created");
+    }
+
+    // Bản trùng chỉ còn thiết lập (số dư tính từ settlement): giữ bản cũ nhất, bổ sung thông tin ngân hàng còn thiếu
+    private int mergeDuplicateFinancials() {
+        String collection = mongoTemplate.getCollectionName(SellerFinancial.class);
+        List<Document> pipeline = List.of(
+            new Document("$sort", new Document("createdAt", 1).append("_id", 1)),
+            new Document("$group", new Document("_id", "$sellerId")
+                .append("ids", new Document("$push", "$_id"))
+                .append("count", new Document("$sum", 1))),
+            new Document("$match", new Document("count", new Document("$gt", 1))));
+
+        int merged = 0;
+        for (Document group : mongoTemplate.getCollection(collection).aggregate(pipeline).allowDiskUse(true)) {
+            List<Object> ids = group.getList("ids", Object.class);
+            Object keeperId = ids.get(0);
+            for (Object duplicateId : ids.subList(1, ids.size())) {
+                Document duplicate = mongoTemplate.findAndRemove(new Query(Criteria.where("_id").is(duplicateId)), Document.class, collection);
+                if (duplicate == null) {
+                    continue;
+                }
+                for (String field : MERGED_DETAILS) {
+                    if (duplicate.get(field) != null) {
+                        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(keeperId).and(field).is(null)),
+                            new Update().set(field, duplicate.get(field)).set("updatedAt", LocalDateTime.now()), collection);
+                    }
+                }
+                mongoTemplate.updateMulti(
+                    new Query(Criteria.where("sellerFinancialId").is(duplicateId.toString())),
+                    new Update().set("sellerFinancialId", keeperId.toString()),
+                    WithdrawalRequest.class);
+                merged++;
+                System.out.println("Merged duplicate seller financial " + duplicateId + " into " + keeperId);
+            }
+        }
+        return merged;
+    }
+
+    // seller_idx được tạo trước đây không unique; MongoIndexService chỉ báo lệch chứ không tạo lại
+    private void ensureUniqueSellerIndex() {
+        String collection = mongoTemplate.getCollectionName(SellerFinancial.class);
+        for (Document index : mongoTemplate.getCollection(collection).listIndexes()) {
+            Document keys = (Document) index.get("key");
+            if (keys.size() == 1 && keys.containsKey("sellerId")) {
+                if (Boolean.TRUE.equals(index.get("unique"))) {
+                    return;
+                }
+                mongoTemplate.getCollection(collection).dropIndex(index.getString("name"));
+                System.out.println("Dropped non-unique index " + collection + "." + index.getString("name"));
+            }
+        }
+        mongoTemplate.indexOps(collection).createIndex(
+            new Index().on("sellerId", Sort.Direction.ASC).named(SELLER_INDEX).unique());
+        System.out.println("Created unique index " + collection + "." + SELLER_INDEX);
+    }
+
+    private void removeLegacyTotals() {
+        Update update = new Update();
+        LEGACY_TOTALS.forEach(update::unset);
+        mongoTemplate.updateMulti(
+            new Query(new Criteria().orOperator(LEGACY_TOTALS.stream()
+                .map(field -> Criteria.where(field).exists(true)).toArray(Criteria[]::new))),
+            update,
+            SellerFinancial.class);
+    }
+
+    /**
+     * Các entry quyết toán của seller, mới nhất trước.
+     */
+    public List<SellerSettlement> getSettlements(String sellerId, String status, int limit) {
+        Criteria criteria = Criteria.where("sellerId").is(sellerId);
+        if (status != null && !status.isEmpty()) {
+            criteria = criteria.and("status").is(status.toUpperCase());
+        }
+        Query query = new Query(criteria)
+            .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+            .limit(Math.max(1, Math.min(limit, 200)));
+        return mongoTemplate.find(query, SellerSettlement.class);
+    }
+}
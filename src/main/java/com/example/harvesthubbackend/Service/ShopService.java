@@ -1,21 +1,14 @@
 package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.Shop;
-import com.example.harvesthubbackend.Models.Product;
-import com.example.harvesthubbackend.Models.Review;
-import com.example.harvesthubbackend.Models.Order;
 import com.example.harvesthubbackend.Models.Follow;
 import com.example.harvesthubbackend.Repository.ShopRepository;
-import com.example.harvesthubbackend.Repository.ProductRepository;
-import com.example.harvesthubbackend.Repository.ReviewRepository;
 import com.example.harvesthubbackend.Repository.FollowRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 public class ShopService {
@@ -23,17 +16,11 @@ public class ShopService {
     @Autowired
     private ShopRepository shopRepository;
     
-    @Autowired
-    private ProductRepository productRepository;
-    
-    @Autowired
-    private ReviewRepository reviewRepository;
-    
     @Autowired
     private FollowRepository followRepository;
     
     @Autowired
-    private OrderService orderService;
+    private ShopStatsService shopStatsService;
     
     // Create a new shop
     public Shop createShop(Shop shop) {
@@ -47,7 +34,7 @@ public class ShopService {
         Optional<Shop> shopOpt = shopRepository.findById(id);
         if (shopOpt.isPresent()) {
             Shop shop = shopOpt.get();
-            calculateShopStats(shop);
+            shopStatsService.applyStats(shop);
             return Optional.of(shop);
         }
         return shopOpt;
@@ -58,7 +45,7 @@ public class ShopService {
         Optional<Shop> shopOpt = shopRepository.findByOwnerId(ownerId);
         if (shopOpt.isPresent()) {
             Shop shop = shopOpt.get();
-            calculateShopStats(shop);
+            shopStatsService.applyStats(shop);
             return Optional.of(shop);
         }
         return shopOpt;
@@ -191,193 +178,6 @@ public class ShopService {
         return shopRepository.findByOwnerIdAndStatus(ownerId, status);
     }
     
-    // Tính toán stats cho shop từ database
-    private void calculateShopStats(Shop shop) {
-        if (shop == null || shop.getId() == null) {
-            System.err.println("Shop is null or has no ID, cannot calculate stats");
-            return;
-        }
-        
-        String shopId = shop.getId();
-        String ownerId = shop.getOwnerId();
-        
-        System.out.println("=== Calculating stats for shop: " + shopId + ", ownerId: " + ownerId + " ===");
-        
-        // Khởi tạo stats nếu chưa có
-        if (shop.getStats() == null) {
-            shop.setStats(new Shop.ShopStats());
-        }
-        
-        Shop.ShopStats stats = shop.getStats();
-        
-        try {
-            // 1. Tính tổng số sản phẩm (theo sellerId)
-            int totalProducts = 0;
-            if (ownerId != null && productRepository != null) {
-                try {
-                    List<Product> products = productRepository.findBySellerId(ownerId);
-                    System.out.println("Found " + (products != null ? products.size() : 0) + " products for sellerId: " + ownerId);
-                    if (products != null) {
-                        // Chỉ đếm sản phẩm đã được duyệt và active
-                        totalProducts = (int) products.stream()
-                            .filter(p -> {
-                                boolean approved = "approved".equals(p.getApprovalStatus());
-                                boolean active = "active".equals(p.getStatus()) || p.getStatus() == null;
-                                return approved && active;
-                            })
-                            .count();
-                        System.out.println("Active approved products: " + totalProducts);
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error counting products: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            } else {
-                System.err.println("Cannot count products: ownerId=" + ownerId + ", productRepository=" + (productRepository != null ? "exists" : "null"));
-            }
-            stats.setTotalProducts(totalProducts);
-            System.out.println("Set totalProducts to: " + totalProducts);
-            
-            // 2. Tính tổng số đánh giá và rating trung bình
-            int totalReviews = 0;
-            double averageRating = 0.0;
-            if (ownerId != null && productRepository != null && reviewRepository != null) {
-                try {
-                    List<Product> products = productRepository.findBySellerId(ownerId);
-                    if (products != null && !products.isEmpty()) {
-                        List<String> productIds = products.stream()
-                            .map(Product::getId)
-                            .filter(id -> id != null)
-                            .collect(Collectors.toList());
-                        
-                        if (!productIds.isEmpty()) {
-                            // Lấy tất cả reviews của các sản phẩm này
-                            List<Review> allReviews = reviewRepository.findAll().stream()
-                                .filter(review -> review.getProductId() != null && productIds.contains(review.getProductId()))
-                                .filter(review -> "approved".equals(review.getStatus()) || review.getStatus() == null)
-                                .collect(Collectors.toList());
-                            
-                            totalReviews = allReviews.size();
-                            
-                            // Tính rating trung bình
-                            if (!allReviews.isEmpty()) {
-                                double totalRating = allReviews.stream()
-                                    .mapToInt(Review::getRating)
-                                    .sum();
-                                averageRating = totalRating / allReviews.size();
-                                // Làm tròn 1 chữ số thập phân
-                                averageRating = Math.round(averageRating * 10.0) / 10.0;
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error calculating reviews: " + e.getMessage());
-                }
-            }
-            stats.setTotalReviews(totalReviews);
-            stats.setAverageRating(averageRating);
-            
-            // 3. Tính số lượng followers
-            int followers = 0;
-            if (followRepository != null) {
-                try {
-                    long followersCount = followRepository.countByShopId(shopId);
-                    followers = (int) followersCount;
-                    System.out.println("Followers count: " + followers);
-                } catch (Exception e) {
-                    System.err.println("Error counting followers: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            } else {
-                System.err.println("FollowRepository is null, cannot count followers");
-            }
-            stats.setFollowers(followers);
-            
-            // 4. Tính tổng số đơn hàng và revenue
-            if (ownerId != null && orderService != null) {
-                try {
-                    List<Order> orders = orderService.getBySellerId(ownerId);
-                    if (orders != null) {
-                        stats.setTotalOrders(orders.size());
-                        
-                        // Tính revenue từ các đơn đã thanh toán
-                        double revenue = orders.stream()
-                            .filter(o -> "paid".equals(o.getPaymentStatus()))
-                            .mapToDouble(Order::getTotalPrice)
-                            .sum();
-                        stats.setTotalRevenue(revenue);
-                        
-                        // Tính số lượng khách hàng unique
-                        long uniqueCustomers = orders.stream()
-                            .map(Order::getUserId)
-                            .distinct()
-                            .count();
-                        stats.setTotalCustomers((int) uniqueCustomers);
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error calculating order stats: " + e.getMessage());
-                }
-            }
-            
-            // 5. Tính response rate và response time
-            // Response rate: tỉ lệ phản hồi dựa trên số đơn đã được xử lý
-            double responseRate = 0.0;
-            String responseTime = "Đang cập nhật";
-            
-            if (ownerId != null && orderService != null) {
-                try {
-                    List<Order> orders = orderService.getBySellerId(ownerId);
-                    if (orders != null && !orders.isEmpty()) {
-                        // Đếm số đơn đã được xử lý (không phải pending)
-                        long processedOrders = orders.stream()
-                            .filter(o -> o.getStatus() != null && !"pending".equals(o.getStatus()))
-                            .count();
-                        
-                        if (processedOrders > 0) {
-                            responseRate = (double) processedOrders / orders.size() * 100;
-                            responseRate = Math.round(responseRate * 10.0) / 10.0; // Làm tròn 1 chữ số thập phân
-                            
-                            // Response time: dựa trên số đơn đã xử lý
-                            // Nếu tỉ lệ phản hồi cao (>80%), hiển thị "Trong vài giờ"
-                            if (responseRate >= 80) {
-                                responseTime = "Trong vài giờ";
-                            } else if (responseRate >= 50) {
-                                responseTime = "Trong 24 giờ";
-                            } else {
-                                responseTime = "Trong vài ngày";
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error calculating response rate: " + e.getMessage());
-                }
-            }
-            
-            stats.setResponseRate(responseRate);
-            stats.setResponseTime(responseTime);
-            
-            // 6. Format thời gian tham gia (joinedAt)
-            if (shop.getCreatedAt() != null) {
-                stats.setJoinedAt(formatTimeAgo(shop.getCreatedAt()));
-            } else {
-                stats.setJoinedAt("Đang cập nhật");
-            }
-            
-            System.out.println("=== Stats calculated successfully ===");
-            System.out.println("  - Products: " + stats.getTotalProducts());
-            System.out.println("  - Reviews: " + stats.getTotalReviews());
-            System.out.println("  - Rating: " + stats.getAverageRating());
-            System.out.println("  - Followers: " + stats.getFollowers());
-            System.out.println("  - Response Rate: " + stats.getResponseRate() + "%");
-            System.out.println("  - Response Time: " + stats.getResponseTime());
-            System.out.println("  - Joined: " + stats.getJoinedAt());
-            
-        } catch (Exception e) {
-            System.err.println("Error calculating shop stats for shop " + shopId + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-    
     // Follow a shop
     public boolean followShop(String userId, String shopId) {
         try {
@@ -395,13 +195,8 @@ public class ShopService {
             Follow follow = new Follow(userId, shopId);
             followRepository.save(follow);
             
-            // Cập nhật stats của shop
-            Optional<Shop> shopOpt = shopRepository.findById(shopId);
-            if (shopOpt.isPresent()) {
-                Shop shop = shopOpt.get();
-                calculateShopStats(shop);
-                shopRepository.save(shop);
-            }
+            // Cập nhật stats của shop (bất đồng bộ)
+            shopStatsService.requestRefresh(shopId);
             
             return true;
         } catch (Exception e) {
@@ -422,13 +217,8 @@ public class ShopService {
             // Xóa follow
             followRepository.deleteByUserIdAndShopId(userId, shopId);
             
-            // Cập nhật stats của shop
-            Optional<Shop> shopOpt = shopRepository.findById(shopId);
-            if (shopOpt.isPresent()) {
-                Shop shop = shopOpt.get();
-                calculateShopStats(shop);
-                shopRepository.save(shop);
-            }
+            // Cập nhật stats của shop (bất đồng bộ)
+            shopStatsService.requestRefresh(shopId);
             
             return true;
         } catch (Exception e) {
@@ -447,39 +237,4 @@ public class ShopService {
             return false;
         }
     }
-    
-    // Format thời gian thành "X tuần trước", "X tháng trước", etc.
-    private String formatTimeAgo(LocalDateTime dateTime) {
-        if (dateTime == null) {
-            return "Đang cập nhật";
-        }
-        
-        LocalDateTime now = LocalDateTime.now();
-        long days = ChronoUnit.DAYS.between(dateTime, now);
-        long weeks = ChronoUnit.WEEKS.between(dateTime, now);
-        long months = ChronoUnit.MONTHS.between(dateTime, now);
-        long years = ChronoUnit.YEARS.between(dateTime, now);
-        
-        if (years > 0) {
-            return years + " năm trước";
-        } else if (months > 0) {
-            return months + " tháng trước";
-        } else if (weeks > 0) {
-            return weeks + " tuần trước";
-        } else if (days > 0) {
-            return days + " ngày trước";
-        } else {
-            long hours = ChronoUnit.HOURS.between(dateTime, now);
-            if (hours > 0) {
-                return hours + " giờ trước";
-            } else {
-                long minutes = ChronoUnit.MINUTES.between(dateTime, now);
-                if (minutes > 0) {
-                    return minutes + " phút trước";
-                } else {
-                    return "Vừa xong";
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,275 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Follow;
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.RatingSummary;
+import com.example.harvesthubbackend.Models.Shop;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thống kê shop (sản phẩm, đánh giá, follower, đơn hàng, doanh thu, tỉ lệ phản hồi).
+ * Mỗi chỉ số được tính bằng count/aggregation trên field có index của đúng shop đó, lưu vào
+ * Shop.stats và cache trong bộ nhớ. Khi đơn hàng/đánh giá/sản phẩm/follow thay đổi, shop liên quan
+ * được đánh dấu và tính lại bất đồng bộ (gom nhiều thay đổi liên tiếp thành một lần tính).
+ */
+@Service
+public class ShopStatsService {
+
+    private static final long CACHE_TTL_MILLIS = 10 * 60 * 1000; // 10 phút
+    private static final long REFRESH_DELAY_SECONDS = 5;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, CachedStats> cache = new ConcurrentHashMap<>();
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "shop-stats-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Gắn stats vào shop để trả về cho client. Dùng cache/stats đã lưu nếu có (và làm mới nền khi cũ),
+     * chỉ tính đồng bộ khi shop chưa từng được tính.
+     */
+    public void applyStats(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        CachedStats cached = cache.get(shop.getId());
+        if (cached != null) {
+            shop.setStats(copyOf(cached.stats));
+            if (cached.isStale()) {
+                requestRefresh(shop.getId());
+            }
+        } else if (shop.getStatsUpdatedAt() != null && shop.getStats() != null) {
+            cache.put(shop.getId(), new CachedStats(copyOf(shop.getStats()), shop.getStatsUpdatedAt()));
+            if (shop.getStatsUpdatedAt().isBefore(LocalDateTime.now().minusNanos(CACHE_TTL_MILLIS * 1_000_000))) {
+                requestRefresh(shop.getId());
+            }
+        } else {
+            shop.setStats(refresh(shop));
+        }
+        shop.getStats().setJoinedAt(formatTimeAgo(shop.getCreatedAt()));
+    }
+
+    // Đánh dấu shop cần tính lại; các yêu cầu trong vài giây được gom thành một lần tính
+    public void requestRefresh(String shopId) {
+        if (shopId == null || !pendingRefresh.add(shopId)) {
+            return;
+        }
+        executor.schedule(() -> {
+            pendingRefresh.remove(shopId);
+            try {
+                Shop shop = mongoTemplate.findById(shopId, Shop.class);
+                if (shop != null) {
+                    refresh(shop);
+                }
+            } catch (Exception e) {
+                System.err.println("Error refreshing shop stats for shop " + shopId + ": " + e.getMessage());
+            }
+        }, REFRESH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Tính lại stats của shop thuộc một seller (ownerId)
+    public void requestRefreshForOwner(String ownerId) {
+        if (ownerId == null) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Query query = new Query(Criteria.where("ownerId").is(ownerId));
+                query.fields().include("_id");
+                for (Shop shop : mongoTemplate.find(query, Shop.class)) {
+                    requestRefresh(shop.getId());
+                }
+            } catch (Exception e) {
+                System.err.println("Error resolving shop for owner " + ownerId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Tính lại stats của shop bán sản phẩm (ví dụ khi có đánh giá mới)
+    public void requestRefreshForProduct(String productId) {
+        if (productId == null) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Query query = new Query(Criteria.where("_id").is(productId));
+                query.fields().include("sellerId");
+                Product product = mongoTemplate.findOne(query, Product.class);
+                if (product != null) {
+                    requestRefreshForOwner(product.getSellerId());
+                }
+            } catch (Exception e) {
+                System.err.println("Error resolving shop for product " + productId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Tính stats, lưu vào document shop (chỉ field stats) và cache
+    public Shop.ShopStats refresh(Shop shop) {
+        Shop.ShopStats stats = computeStats(shop);
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(shop.getId())),
+                new Update().set("stats", stats).set("statsUpdatedAt", now), Shop.class);
+        } catch (Exception e) {
+            System.err.println("Error saving shop stats for shop " + shop.getId() + ": " + e.getMessage());
+        }
+        cache.put(shop.getId(), new CachedStats(copyOf(stats), now));
+        return stats;
+    }
+
+    private Shop.ShopStats computeStats(Shop shop) {
+        Shop.ShopStats stats = new Shop.ShopStats();
+        String ownerId = shop.getOwnerId();
+
+        if (ownerId != null) {
+            // 1. Sản phẩm đã duyệt và active (index seller_idx)
+            Query activeProducts = new Query(Criteria.where("sellerId").is(ownerId)
+                .and("approvalStatus").is("approved")
+                .orOperator(Criteria.where("status").is("active"), Criteria.where("status").is(null)));
+            stats.setTotalProducts((int) mongoTemplate.count(activeProducts, Product.class));
+
+            // 2. Đánh giá đã duyệt của các sản phẩm của seller (RatingSummary của seller, đọc O(1))
+            RatingSummary reviews = mongoTemplate.findById(RatingSummary.idOf(RatingSummary.SELLER, ownerId), RatingSummary.class);
+            if (reviews != null) {
+                stats.setTotalReviews((int) reviews.getTotalReviews());
+                stats.setAverageRating(reviews.getAverageRating());
+            }
+
+            // 4. Đơn hàng, doanh thu (đơn đã thanh toán), khách hàng unique, đơn đã xử lý (index item_seller_created_idx)
+            List<Document> pipeline = List.of(
+                new Document("$match", new Document("items.sellerId", ownerId)),
+                new Document("$group", new Document("_id", "$userId")
+                    .append("orders", new Document("$sum", 1))
+                    .append("revenue", new Document("$sum", new Document("$cond", List.of(
+                        new Document("$eq", List.of("$paymentStatus", "paid")), "$totalPrice", 0))))
+                    .append("processed", new Document("$sum", new Document("$cond", List.of(
+                        new Document("$ne", List.of(new Document("$ifNull", List.of("$status", "pending")), "pending")), 1, 0))))),
+                new Document("$group", new Document("_id", null)
+                    .append("orders", new Document("$sum", "$orders"))
+                    .append("revenue", new Document("$sum", "$revenue"))
+                    .append("processed", new Document("$sum", "$processed"))
+                    .append("customers", new Document("$sum", 1))));
+            Document orders = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Order.class))
+                .aggregate(pipeline).first();
+            if (orders != null) {
+                int totalOrders = ((Number) orders.get("orders")).intValue();
+                long processedOrders = ((Number) orders.get("processed")).longValue();
+                stats.setTotalOrders(totalOrders);
+                stats.setTotalRevenue(((Number) orders.get("revenue")).doubleValue());
+                stats.setTotalCustomers(((Number) orders.get("customers")).intValue());
+
+                // 5. Response rate: tỉ lệ đơn đã được xử lý (không phải pending)
+                if (processedOrders > 0 && totalOrders > 0) {
+                    double responseRate = (double) processedOrders / totalOrders * 100;
+                    responseRate = Math.round(responseRate * 10.0) / 10.0; // Làm tròn 1 chữ số thập phân
+                    stats.setResponseRate(responseRate);
+                    if (responseRate >= 80) {
+                        stats.setResponseTime("Trong vài giờ");
+                    } else if (responseRate >= 50) {
+                        stats.setResponseTime("Trong 24 giờ");
+                    } else {
+                        stats.setResponseTime("Trong vài ngày");
+                    }
+                }
+            }
+        }
+
+        // 3. Followers (index shop_idx)
+        stats.setFollowers((int) mongoTemplate.count(new Query(Criteria.where("shopId").is(shop.getId())), Follow.class));
+        stats.setJoinedAt(formatTimeAgo(shop.getCreatedAt()));
+        return stats;
+    }
+
+    private static Shop.ShopStats copyOf(Shop.ShopStats source) {
+        Shop.ShopStats copy = new Shop.ShopStats();
+        copy.setTotalProducts(source.getTotalProducts());
+        copy.setTotalOrders(source.getTotalOrders());
+        copy.setTotalCustomers(source.getTotalCustomers());
+        copy.setTotalRevenue(source.getTotalRevenue());
+        copy.setAverageRating(source.getAverageRating());
+        copy.setTotalReviews(source.getTotalReviews());
+        copy.setFollowers(source.getFollowers());
+        copy.setFollowing(source.getFollowing());
+        copy.setResponseRate(source.getResponseRate());
+        copy.setResponseTime(source.getResponseTime());
+        copy.setJoinedAt(source.getJoinedAt());
+        return copy;
+    }
+
+    // Format thời gian thành "X tuần trước", "X tháng trước", etc.
+    static String formatTimeAgo(LocalDateTime dateTime) {
+        if (dateTime == null) {
+            return "Đang cập nhật";
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        long days = java.time.temporal.ChronoUnit.DAYS.between(dateTime, now);
+        long weeks = java.time.temporal.ChronoUnit.WEEKS.between(dateTime, now);
+        long months = java.time.temporal.ChronoUnit.MONTHS.between(dateTime, now);
+        long years = java.time.temporal.ChronoUnit.YEARS.between(dateTime, now);
+        
+        if (years > 0) {
+            return years + " năm trước";
+        } else if (months > 0) {
+            return months + " tháng trước";
+        } else if (weeks > 0) {
+            return weeks + " tuần trước";
+        } else if (days > 0) {
+            return days + " ngày trước";
+        } else {
+            long hours = java.time.temporal.ChronoUnit.HOURS.between(dateTime, now);
+            if (hours > 0) {
+                return hours + " giờ trước";
+            } else {
+                long minutes = java.time.temporal.ChronoUnit.MINUTES.between(dateTime, now);
+                if (minutes > 0) {
+                    return minutes + " phút trước";
+                } else {
+                    return "Vừa xong";
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class CachedStats {
+        private final Shop.ShopStats stats;
+        private final LocalDateTime computedAt;
+
+        private CachedStats(Shop.ShopStats stats, LocalDateTime computedAt) {
+            this.stats = stats;
+            this.computedAt = computedAt;
+        }
+
+        private boolean isStale() {
+            return computedAt.isBefore(LocalDateTime.now().minusNanos(CACHE_TTL_MILLIS * 1_000_000));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.SpendLedger;
+import com.example.harvesthubbackend.Models.SpendLedgerEntry;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sổ chi tiêu theo user để xếp hạng VIP.
+ * Khi một đơn chuyển vào delivered/completed, một SpendLedgerEntry (_id = orderId) được insert và tổng của user
+ * được $inc; khi đơn rời trạng thái đó (trả hàng, hoàn tiền, ...) entry bị xóa và số tiền được trừ lại.
+ * Hạng VIP được suy ra trực tiếp từ tổng trong ledger, không phải quét lại đơn hàng của user.
+ */
+@Service
+public class SpendLedgerService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final List<String> COUNTED_STATUSES = List.of("delivered", "completed", "DELIVERED", "COMPLETED");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UserService userService;
+
+    private final AtomicBoolean reconciling = new AtomicBoolean(false);
+
+    public static String determineVipTier(double totalSpent) {
+        if (totalSpent >= 5_000_000) return "VIP3";
+        if (totalSpent >= 3_000_000) return "VIP2";
+        if (totalSpent >= 1_000_000) return "VIP1";
+        return "STANDARD";
+    }
+
+    private static boolean isCounted(String status) {
+        if (status == null) return false;
+        String normalized = status.toLowerCase();
+        return "delivered".equals(normalized) || "completed".equals(normalized);
+    }
+
+    /**
+     * Gọi sau khi trạng thái đơn được lưu. Idempotent: gọi lại với cùng trạng thái không cộng/trừ thêm.
+     */
+    public void onOrderStatusChanged(Order order) {
+        if (order == null || order.getId() == null || order.getUserId() == null) return;
+        SpendLedger ledger;
+        if (isCounted(order.getStatus())) {
+            try {
+                mongoTemplate.insert(new SpendLedgerEntry(order.getId(), order.getUserId(), order.getTotalPrice()));
+            } catch (DuplicateKeyException e) {
+                return; // Đơn đã được tính
+            }
+            ledger = increment(order.getUserId(), order.getTotalPrice(), 1);
+        } else {
+            SpendLedgerEntry removed = mongoTemplate.findAndRemove(
+                new Query(Criteria.where("_id").is(order.getId())), SpendLedgerEntry.class);
+            if (removed == null) {
+                return; // Đơn chưa từng được tính
+            }
+            ledger = increment(removed.getUserId(), -removed.getAmount(), -1);
+        }
+        applyTier(ledger);
+    }
+
+    public SpendLedger getLedger(String userId) {
+        return mongoTemplate.findById(userId, SpendLedger.class);
+    }
+
+    private SpendLedger increment(String userId, double amount, int orders) {
+        return mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(userId)),
+            new Update().inc("totalSpent", amount).inc("orderCount", orders).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            SpendLedger.class);
+    }
+
+    // Cập nhật hạng của user khi tổng chi tiêu vượt qua/xuống dưới một ngưỡng
+    private void applyTier(SpendLedger ledger) {
+        if (ledger == null) return;
+        String tier = determineVipTier(ledger.getTotalSpent());
+        if (tier.equals(ledger.getTier())) {
+            return;
+        }
+        // Chỉ một luồng thắng khi nhiều đơn của cùng user đổi trạng thái đồng thời
+        boolean changed = mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(ledger.getId()).and("tier").ne(tier)),
+            new Update().set("tier", tier),
+            SpendLedger.class).getModifiedCount() > 0;
+        if (changed) {
+            userService.updateMembershipType(ledger.getId(), tier);
+        }
+    }
+
+    /**
+     * Dựng lại entry và ledger từ lịch sử đơn hàng, sau đó đồng bộ hạng VIP.
+     * Trả về false nếu một lần đối chiếu khác đang chạy.
+     */
+    public boolean reconcile() {
+        if (!reconciling.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            long start = System.currentTimeMillis();
+
+            // 1. Mỗi đơn delivered/completed có một entry với số tiền hiện tại
+            Query counted = new Query(Criteria.where("status").in(COUNTED_STATUSES));
+            counted.fields().include("_id").include("userId").include("totalPrice");
+            counted.cursorBatchSize(BATCH_SIZE);
+            try (Stream<Order> orders = mongoTemplate.stream(counted, Order.class)) {
+                BulkOperations bulk = null;
+                int pending = 0;
+                for (Order order : (Iterable<Order>) orders::iterator) {
+                    if (order.getUserId() == null) continue;
+                    if (bulk == null) {
+                        bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SpendLedgerEntry.class);
+                    }
+                    bulk.upsert(new Query(Criteria.where("_id").is(order.getId())), new Update()
+                        .set("userId", order.getUserId())
+                        .set("amount", order.getTotalPrice())
+                        .setOnInsert("createdAt", LocalDateTime.now()));
+                    if (++pending >= BATCH_SIZE) {
+                        bulk.execute();
+                        bulk = null;
+                        pending = 0;
+                    }
+                }
+                if (bulk != null) {
+                    bulk.execute();
+                }
+            }
+
+            // 2. Xóa entry của đơn không còn ở trạng thái được tính (hoặc đã bị xóa)
+            Query allEntries = new Query();
+            allEntries.fields().include("_id");
+            allEntries.cursorBatchSize(BATCH_SIZE);
+            int removedEntries = 0;
+            try (Stream<SpendLedgerEntry> entries = mongoTemplate.stream(allEntries, SpendLedgerEntry.class)) {
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                for (SpendLedgerEntry entry : (Iterable<SpendLedgerEntry>) entries::iterator) {
+                    batch.add(entry.getId());
+                    if (batch.size() >= BATCH_SIZE) {
+                        removedEntries += removeStaleEntries(batch);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    removedEntries += removeStaleEntries(batch);
+                }
+            }
+
+            // 3. Tổng theo user từ entry
+            Map<String, double[]> totals = new HashMap<>();
+            List<Document> pipeline = List.of(new Document("$group", new Document("_id", "$userId")
+                .append("total", new Document("$sum", "$amount"))
+                .append("count", new Document("$sum", 1))));
+            for (Document doc : mongoTemplate.getCollection(mongoTemplate.getCollectionName(SpendLedgerEntry.class))
+                    .aggregate(pipeline).allowDiskUse(true)) {
+                Object userId = doc.get("_id");
+                if (userId != null) {
+                    totals.put(userId.toString(), new double[] {
+                        ((Number) doc.get("total")).doubleValue(), ((Number) doc.get("count")).doubleValue() });
+                }
+            }
+
+            // 4. Ghi ledger (user không còn đơn được tính về 0) và đồng bộ hạng
+            Set<String> seen = new HashSet<>();
+            List<SpendLedger> changed = new ArrayList<>();
+            try (Stream<SpendLedger> ledgers = mongoTemplate.stream(new Query(), SpendLedger.class)) {
+                for (SpendLedger ledger : (Iterable<SpendLedger>) ledgers::iterator) {
+                    seen.add(ledger.getId());
+                    double[] total = totals.getOrDefault(ledger.getId(), new double[] { 0, 0 });
+                    if (ledger.getTotalSpent() != total[0] || ledger.getOrderCount() != (long) total[1]
+                            || !determineVipTier(total[0]).equals(ledger.getTier())) {
+                        ledger.setTotalSpent(total[0]);
+                        ledger.setOrderCount((long) total[1]);
+                        changed.add(ledger);
+                    }
+                }
+            }
+            for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+                if (!seen.contains(entry.getKey())) {
+                    SpendLedger ledger = new SpendLedger();
+                    ledger.setId(entry.getKey());
+                    ledger.setTotalSpent(entry.getValue()[0]);
+                    ledger.setOrderCount((long) entry.getValue()[1]);
+                    changed.add(ledger);
+                }
+            }
+            for (SpendLedger ledger : changed) {
+                mongoTemplate.upsert(new Query(Criteria.where("_id").is(ledger.getId())), new Update()
+                    .set("totalSpent", ledger.getTotalSpent())
+                    .set("orderCount", ledger.getOrderCount())
+                    .set("updatedAt", LocalDateTime.now()), SpendLedger.class);
+                applyTier(ledger);
+            }
+
+            System.out.println("SpendLedgerService: reconciled " + totals.size() + " ledgers ("
+                + changed.size() + " corrected, " + removedEntries + " stale entries removed) in "
+                + (System.currentTimeMillis() - start) + "ms");
+            return true;
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mongoTemplate.estimatedCount(SpendLedger.class) == 0;
+    }
+
+    private int removeStaleEntries(List<String> entryIds) {
+        Query stillCounted = new Query(Criteria.where("_id").in(entryIds).and("status").in(COUNTED_STATUSES));
+        stillCounted.fields().include("_id");
+        Set<String> valid = mongoTemplate.find(stillCounted, Order.class).stream()
+            .map(Order::getId)
+            .collect(Collectors.toSet());
+        List<String> stale = entryIds.stream().filter(id -> !valid.contains(id)).collect(Collectors.toList());
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        return (int) mongoTemplate.remove(new Query(Criteria.where("_id").in(stale)), SpendLedgerEntry.class).getDeletedCount();
+    }
+}
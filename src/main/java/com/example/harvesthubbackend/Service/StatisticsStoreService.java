@@ -0,0 +1,335 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.DailyStatBucket;
+import com.example.harvesthubbackend.Models.Order;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Models.Seller;
+import com.example.harvesthubbackend.Models.StatCounter;
+import com.example.harvesthubbackend.Models.User;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Kho thống kê tổng hợp sẵn cho dashboard admin.
+ * Bộ đếm theo trạng thái (stat_counters) và bucket theo ngày (stat_daily_buckets) được cập nhật
+ * tăng dần bằng $inc mỗi khi Order/User/Product/Seller thay đổi (xem StatisticsEventListener);
+ * reconcile() tính lại toàn bộ bằng aggregation để sửa sai lệch.
+ */
+@Service
+public class StatisticsStoreService {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final AtomicBoolean reconciling = new AtomicBoolean(false);
+
+    /**
+     * Phần đóng góp của một document vào các bộ đếm và bucket.
+     * Delta của một lần ghi = đóng góp sau - đóng góp trước.
+     */
+    public static class Contribution {
+        // key -> {count, amount}
+        private final Map<String, double[]> counters = new HashMap<>();
+        // ngày -> (field -> giá trị)
+        private final Map<String, Map<String, Double>> buckets = new HashMap<>();
+
+        void counter(String key, double amount) {
+            double[] value = counters.computeIfAbsent(key, k -> new double[2]);
+            value[0] += 1;
+            value[1] += amount;
+        }
+
+        void bucket(LocalDate day, String field, double value) {
+            if (day == null) {
+                return;
+            }
+            buckets.computeIfAbsent(day.toString(), k -> new HashMap<>()).merge(field, value, Double::sum);
+        }
+    }
+
+    // ===== ĐÓNG GÓP CỦA TỪNG LOẠI DOCUMENT =====
+
+    public Contribution contributionOf(Object entity) {
+        Contribution c = new Contribution();
+        if (entity instanceof Order) {
+            Order order = (Order) entity;
+            boolean delivered = "delivered".equals(order.getStatus());
+            LocalDate day = order.getCreatedAt() > 0 ? toDay(order.getCreatedAt()) : null;
+            c.counter("orders.total", 0);
+            c.counter("orders.status." + order.getStatus(), 0);
+            c.bucket(day, "orders", 1);
+            if (delivered) {
+                c.counter("revenue.delivered", order.getTotalPrice());
+                c.bucket(day, "deliveredOrders", 1);
+                c.bucket(day, "revenue", order.getTotalPrice());
+            }
+        } else if (entity instanceof User) {
+            User user = (User) entity;
+            c.counter("users.total", 0);
+            c.counter("users.role." + (user.getRole() != null ? user.getRole() : "USER"), 0);
+            if (user.isEnabled()) {
+                c.counter("users.enabled", 0);
+            }
+            c.bucket(creationDay(user.getId()), "newUsers", 1);
+        } else if (entity instanceof Product) {
+            Product product = (Product) entity;
+            c.counter("products.total", 0);
+            c.counter("products.status." + product.getStatus(), 0);
+            if (product.getStock() != null && product.getStock() == 0) {
+                c.counter("products.outOfStock", 0);
+            }
+        } else if (entity instanceof Seller) {
+            Seller seller = (Seller) entity;
+            c.counter("sellers.total", 0);
+            c.counter("sellers.status." + seller.getStatus(), 0);
+        }
+        return c;
+    }
+
+    // Các field cần đọc khi chụp trạng thái cũ trước khi ghi đè
+    public String[] snapshotFields(Class<?> type) {
+        if (type == Order.class) return new String[] {"status", "createdAt", "totalPrice"};
+        if (type == User.class) return new String[] {"role", "enabled"};
+        if (type == Product.class) return new String[] {"status", "stock"};
+        if (type == Seller.class) return new String[] {"status"};
+        return null;
+    }
+
+    /**
+     * Áp dụng delta (after - before). before = null nghĩa là insert, after = null nghĩa là delete.
+     */
+    public void applyChange(Contribution before, Contribution after) {
+        Map<String, double[]> counterDelta = new HashMap<>();
+        Map<String, Map<String, Double>> bucketDelta = new HashMap<>();
+        accumulate(after, 1, counterDelta, bucketDelta);
+        accumulate(before, -1, counterDelta, bucketDelta);
+
+        LocalDateTime now = LocalDateTime.now();
+        counterDelta.forEach((key, delta) -> {
+            if (delta[0] == 0 && delta[1] == 0) {
+                return;
+            }
+            Update update = new Update().inc("count", (long) delta[0]).set("updatedAt", now);
+            if (delta[1] != 0) {
+                update.inc("amount", delta[1]);
+            }
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(key)), update, StatCounter.class);
+        });
+        bucketDelta.forEach((day, fields) -> {
+            Update update = new Update();
+            boolean changed = false;
+            for (Map.Entry<String, Double> field : fields.entrySet()) {
+                if (field.getValue() == 0) {
+                    continue;
+                }
+                changed = true;
+                if ("revenue".equals(field.getKey())) {
+                    update.inc(field.getKey(), field.getValue());
+                } else {
+                    update.inc(field.getKey(), field.getValue().longValue());
+                }
+            }
+            if (changed) {
+                update.set("updatedAt", now);
+                mongoTemplate.upsert(new Query(Criteria.where("_id").is(day)), update, DailyStatBucket.class);
+            }
+        });
+    }
+
+    private void accumulate(Contribution c, int sign, Map<String, double[]> counterDelta,
+                            Map<String, Map<String, Double>> bucketDelta) {
+        if (c == null) {
+            return;
+        }
+        c.counters.forEach((key, value) -> {
+            double[] delta = counterDelta.computeIfAbsent(key, k -> new double[2]);
+            delta[0] += sign * value[0];
+            delta[1] += sign * value[1];
+        });
+        c.buckets.forEach((day, fields) -> {
+            Map<String, Double> delta = bucketDelta.computeIfAbsent(day, k -> new HashMap<>());
+            fields.forEach((field, value) -> delta.merge(field, sign * value, Double::sum));
+        });
+    }
+
+    // ===== ĐỌC =====
+
+    public Map<String, StatCounter> getCounters() {
+        Map<String, StatCounter> counters = new HashMap<>();
+        for (StatCounter counter : mongoTemplate.findAll(StatCounter.class)) {
+            counters.put(counter.getId(), counter);
+        }
+        return counters;
+    }
+
+    public List<DailyStatBucket> getBuckets(LocalDate from, LocalDate to) {
+        Query query = new Query(Criteria.where("_id").gte(from.toString()).lte(to.toString()))
+            .with(Sort.by(Sort.Direction.ASC, "_id"));
+        return mongoTemplate.find(query, DailyStatBucket.class);
+    }
+
+    public boolean isEmpty() {
+        return !mongoTemplate.exists(new Query(), StatCounter.class);
+    }
+
+    // ===== ĐỐI CHIẾU =====
+
+    /**
+     * Tính lại toàn bộ bộ đếm và bucket bằng aggregation phía MongoDB rồi ghi đè kho thống kê.
+     * Trả về false nếu một lần đối chiếu khác đang chạy.
+     */
+    public boolean reconcile() {
+        if (!reconciling.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            Map<String, double[]> counters = new HashMap<>();
+            Map<String, Map<String, Double>> buckets = new HashMap<>();
+            String timezone = ZONE.getId();
+
+            // Đơn hàng theo trạng thái
+            for (Document row : aggregate("orders", List.of(
+                    new Document("$group", new Document("_id", "$status")
+                        .append("count", new Document("$sum", 1))
+                        .append("revenue", new Document("$sum", "$totalPrice")))))) {
+                long count = number(row.get("count")).longValue();
+                String status = row.getString("_id");
+                addCounter(counters, "orders.total", count, 0);
+                addCounter(counters, "orders.status." + status, count, 0);
+                if ("delivered".equals(status)) {
+                    addCounter(counters, "revenue.delivered", count, number(row.get("revenue")).doubleValue());
+                }
+            }
+
+            // Đơn hàng theo ngày tạo
+            Document isDelivered = new Document("$eq", List.of("$status", "delivered"));
+            for (Document row : aggregate("orders", List.of(
+                    new Document("$match", new Document("createdAt", new Document("$gt", 0))),
+                    new Document("$group", new Document("_id", new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                            .append("date", new Document("$toDate", "$createdAt"))
+                            .append("timezone", timezone)))
+                        .append("orders", new Document("$sum", 1))
+                        .append("deliveredOrders", new Document("$sum", new Document("$cond", List.of(isDelivered, 1, 0))))
+                        .append("revenue", new Document("$sum", new Document("$cond", List.of(isDelivered, "$totalPrice", 0)))))))) {
+                Map<String, Double> bucket = buckets.computeIfAbsent(row.getString("_id"), k -> new HashMap<>());
+                bucket.put("orders", number(row.get("orders")).doubleValue());
+                bucket.put("deliveredOrders", number(row.get("deliveredOrders")).doubleValue());
+                bucket.put("revenue", number(row.get("revenue")).doubleValue());
+            }
+
+            // Người dùng theo role; thiếu field enabled được coi là true (giá trị mặc định của model)
+            for (Document row : aggregate("users", List.of(
+                    new Document("$group", new Document("_id", new Document("$ifNull", List.of("$role", "USER")))
+                        .append("count", new Document("$sum", 1))
+                        .append("enabled", new Document("$sum", new Document("$cond",
+                            List.of(new Document("$ne", List.of("$enabled", false)), 1, 0)))))))) {
+                long count = number(row.get("count")).longValue();
+                addCounter(counters, "users.total", count, 0);
+                addCounter(counters, "users.role." + row.getString("_id"), count, 0);
+                addCounter(counters, "users.enabled", number(row.get("enabled")).longValue(), 0);
+            }
+
+            // Người dùng mới theo ngày, lấy thời điểm tạo từ ObjectId
+            for (Document row : aggregate("users", List.of(
+                    new Document("$project", new Document("created", new Document("$convert", new Document("input", "$_id")
+                        .append("to", "date").append("onError", null).append("onNull", null)))),
+                    new Document("$match", new Document("created", new Document("$ne", null))),
+                    new Document("$group", new Document("_id", new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                            .append("date", "$created").append("timezone", timezone)))
+                        .append("newUsers", new Document("$sum", 1)))))) {
+                buckets.computeIfAbsent(row.getString("_id"), k -> new HashMap<>())
+                    .put("newUsers", number(row.get("newUsers")).doubleValue());
+            }
+
+            // Sản phẩm theo trạng thái và hết hàng
+            for (Document row : aggregate("products", List.of(
+                    new Document("$group", new Document("_id", "$status")
+                        .append("count", new Document("$sum", 1))
+                        .append("outOfStock", new Document("$sum", new Document("$cond",
+                            List.of(new Document("$eq", List.of("$stock", 0)), 1, 0)))))))) {
+                long count = number(row.get("count")).longValue();
+                addCounter(counters, "products.total", count, 0);
+                addCounter(counters, "products.status." + row.getString("_id"), count, 0);
+                addCounter(counters, "products.outOfStock", number(row.get("outOfStock")).longValue(), 0);
+            }
+
+            // Seller theo trạng thái
+            for (Document row : aggregate("sellers", List.of(
+                    new Document("$group", new Document("_id", "$status").append("count", new Document("$sum", 1)))))) {
+                long count = number(row.get("count")).longValue();
+                addCounter(counters, "sellers.total", count, 0);
+                addCounter(counters, "sellers.status." + row.getString("_id"), count, 0);
+            }
+
+            replaceStore(counters, buckets);
+            System.out.println("StatisticsStoreService: reconciled " + counters.size() + " counters, " + buckets.size() + " daily buckets");
+            return true;
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    private void replaceStore(Map<String, double[]> counters, Map<String, Map<String, Double>> buckets) {
+        LocalDateTime now = LocalDateTime.now();
+        counters.forEach((key, value) -> mongoTemplate.upsert(new Query(Criteria.where("_id").is(key)),
+            new Update().set("count", (long) value[0]).set("amount", value[1]).set("updatedAt", now), StatCounter.class));
+        mongoTemplate.remove(new Query(Criteria.where("_id").nin(counters.keySet())), StatCounter.class);
+
+        Set<String> days = new HashSet<>(buckets.keySet());
+        buckets.forEach((day, fields) -> mongoTemplate.upsert(new Query(Criteria.where("_id").is(day)),
+            new Update()
+                .set("orders", fields.getOrDefault("orders", 0.0).longValue())
+                .set("deliveredOrders", fields.getOrDefault("deliveredOrders", 0.0).longValue())
+                .set("revenue", fields.getOrDefault("revenue", 0.0))
+                .set("newUsers", fields.getOrDefault("newUsers", 0.0).longValue())
+                .set("updatedAt", now),
+            DailyStatBucket.class));
+        mongoTemplate.remove(new Query(Criteria.where("_id").nin(days)), DailyStatBucket.class);
+    }
+
+    private List<Document> aggregate(String collection, List<Document> pipeline) {
+        return mongoTemplate.getCollection(collection).aggregate(pipeline).into(new ArrayList<>());
+    }
+
+    private static void addCounter(Map<String, double[]> counters, String key, long count, double amount) {
+        double[] value = counters.computeIfAbsent(key, k -> new double[2]);
+        value[0] += count;
+        value[1] += amount;
+    }
+
+    private static Number number(Object value) {
+        return value instanceof Number ? (Number) value : 0;
+    }
+
+    private static LocalDate toDay(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(ZONE).toLocalDate();
+    }
+
+    private static LocalDate creationDay(String id) {
+        if (id == null || !ObjectId.isValid(id)) {
+            return null;
+        }
+        return new ObjectId(id).getDate().toInstant().atZone(ZONE).toLocalDate();
+    }
+}
@@ -181,6 +181,10 @@ public class UserService implements UserDetailsService {
             existingUser.setLockedUntil(user.getLockedUntil());
         }
         if (user.isAccountNonLocked() != existingUser.isAccountNonLocked()) {
+            if (!user.isAccountNonLocked()) {
+                // Bị khóa: vô hiệu các token đã cấp
+                existingUser.setCredentialsVersion(existingUser.getCredentialsVersion() + 1);
+            }
             existingUser.setAccountNonLocked(user.isAccountNonLocked());
         }
         
@@ -207,6 +211,7 @@ public class UserService implements UserDetailsService {
                 existingUser.setPassword(newEncoded);
                 existingUser.addPasswordToHistory(newEncoded);
                 existingUser.setPasswordChangedAt(LocalDateTime.now());
+                existingUser.setCredentialsVersion(existingUser.getCredentialsVersion() + 1);
                 // Giới hạn kích thước lịch sử mật khẩu để tránh phình to (ví dụ: giữ 10 bản ghi gần nhất)
                 List<String> updatedHistory = existingUser.getPasswordHistory();
                 if (updatedHistory != null && updatedHistory.size() > 10) {
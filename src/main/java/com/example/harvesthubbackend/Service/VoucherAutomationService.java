@@ -3,6 +3,7 @@ package com.example.harvesthubbackend.Service;
 import com.example.harvesthubbackend.Models.*;
 import com.example.harvesthubbackend.Repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.Optional;
@@ -126,39 +127,41 @@ public class VoucherAutomationService {
     }
     
     // Purchase reward voucher (after order delivered)
+    // Idempotent theo đơn: UserVoucher thưởng có _id cố định theo orderId. Lỗi được ném ra để outbox thử lại.
     public void grantPurchaseRewardVoucher(String userId, String orderId) {
-        try {
-            // Find purchase reward voucher template
-            Optional<Voucher> rewardVoucherOpt = voucherRepository.findByCode("PURCHASE_REWARD");
-            if (!rewardVoucherOpt.isPresent()) {
+        // Find purchase reward voucher template
+        Voucher rewardVoucher = voucherRepository.findByCode("PURCHASE_REWARD").orElseGet(() -> {
+            try {
                 // Create default purchase reward voucher if not exists
-                Voucher rewardVoucher = createDefaultPurchaseRewardVoucher();
-                rewardVoucherOpt = Optional.of(rewardVoucher);
-            }
-            
-            Voucher rewardVoucher = rewardVoucherOpt.get();
-            
-            // Check if user already received reward for this order
-            Optional<UserVoucher> existing = userVoucherRepository.findByOrderId(orderId);
-            if (existing.isPresent()) {
-                return; // Already granted
+                return createDefaultPurchaseRewardVoucher();
+            } catch (DuplicateKeyException e) {
+                return voucherRepository.findByCode("PURCHASE_REWARD").orElseThrow(() -> e);
             }
-            
-            // Grant voucher
-            UserVoucher userVoucher = voucherService.grantVoucherToUser(userId, rewardVoucher.getId());
-            userVoucher.setOrderId(orderId);
-            userVoucherRepository.save(userVoucher);
-            
-            // Send notification
-            notificationService.pushNotification(
-                userId,
-                "Cảm ơn bạn đã mua hàng!",
-                "Bạn đã nhận được voucher cảm ơn: " + rewardVoucher.getCode() + ". Hãy sử dụng cho đơn hàng tiếp theo!",
-                "VOUCHER"
-            );
-        } catch (Exception e) {
-            System.err.println("Failed to grant purchase reward voucher: " + e.getMessage());
+        });
+        
+        // Grant voucher (một lần cho mỗi đơn hàng)
+        UserVoucher userVoucher = new UserVoucher();
+        userVoucher.setId("purchase-reward:" + orderId);
+        userVoucher.setUserId(userId);
+        userVoucher.setVoucherId(rewardVoucher.getId());
+        userVoucher.setVoucherCode(rewardVoucher.getCode());
+        userVoucher.setReceivedAt(LocalDateTime.now());
+        userVoucher.setExpiresAt(rewardVoucher.getEndDate());
+        userVoucher.setUsed(false);
+        userVoucher.setOrderId(orderId);
+        try {
+            userVoucherRepository.insert(userVoucher);
+        } catch (DuplicateKeyException e) {
+            return; // Already granted
         }
+        
+        // Send notification
+        notificationService.pushNotification(
+            userId,
+            "Cảm ơn bạn đã mua hàng!",
+            "Bạn đã nhận được voucher cảm ơn: " + rewardVoucher.getCode() + ". Hãy sử dụng cho đơn hàng tiếp theo!",
+            "VOUCHER"
+        );
     }
     
     // Referral voucher (when user refers someone)
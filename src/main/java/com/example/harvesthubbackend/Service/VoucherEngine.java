@@ -0,0 +1,382 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.User;
+import com.example.harvesthubbackend.Models.UserVoucher;
+import com.example.harvesthubbackend.Models.Voucher;
+import com.example.harvesthubbackend.Models.VoucherUsage;
+import com.example.harvesthubbackend.Models.VoucherUserCounter;
+import com.example.harvesthubbackend.Repository.UserVoucherRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Đánh giá voucher cho một đơn/giỏ hàng.
+ * Voucher được cache theo code cùng các danh sách giới hạn đã dựng sẵn thành HashSet; cache bị xóa khi voucher
+ * được lưu/xóa (VoucherCacheEventListener) và tự hết hạn sau CACHE_TTL_MILLIS cho các cập nhật không qua
+ * lifecycle event. Kiểm tra điều kiện và tính giảm giá chạy trong một lần duyệt; hạng thành viên và số lần dùng
+ * của user chỉ được đọc khi voucher thực sự cần.
+ */
+@Service
+public class VoucherEngine {
+
+    private static final long CACHE_TTL_MILLIS = 60_000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UserVoucherRepository userVoucherRepository;
+
+    private final Map<String, CompiledVoucher> byCode = new ConcurrentHashMap<>();
+
+    // ========== Cache ==========
+
+    public CompiledVoucher getCompiled(String code) {
+        if (code == null || code.isEmpty()) {
+            return null;
+        }
+        CompiledVoucher cached = byCode.get(code);
+        if (cached != null && !cached.isExpired()) {
+            return cached;
+        }
+        Voucher voucher = mongoTemplate.findOne(new Query(Criteria.where("code").is(code)), Voucher.class);
+        if (voucher == null) {
+            byCode.remove(code);
+            return null;
+        }
+        CompiledVoucher compiled = new CompiledVoucher(voucher);
+        byCode.put(code, compiled);
+        return compiled;
+    }
+
+    // Nạp các code chưa có trong cache bằng một query $in
+    public Map<String, CompiledVoucher> getCompiled(Collection<String> codes) {
+        Map<String, CompiledVoucher> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String code : codes) {
+            if (code == null) continue;
+            CompiledVoucher cached = byCode.get(code);
+            if (cached != null && !cached.isExpired()) {
+                result.put(code, cached);
+            } else {
+                missing.add(code);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Voucher voucher : mongoTemplate.find(new Query(Criteria.where("code").in(missing)), Voucher.class)) {
+                CompiledVoucher compiled = new CompiledVoucher(voucher);
+                byCode.put(voucher.getCode(), compiled);
+                result.put(voucher.getCode(), compiled);
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(String code) {
+        if (code != null) {
+            byCode.remove(code);
+        }
+    }
+
+    public void invalidateById(String voucherId) {
+        if (voucherId != null) {
+            byCode.values().removeIf(compiled -> voucherId.equals(compiled.getVoucher().getId()));
+        }
+    }
+
+    // ========== Evaluation ==========
+
+    /**
+     * Kiểm tra điều kiện và tính giảm giá của một voucher cho đơn hàng.
+     */
+    public Evaluation evaluate(String code, OrderContext context) {
+        CompiledVoucher compiled = getCompiled(code);
+        if (compiled == null) {
+            return Evaluation.rejected(null, "Voucher không tồn tại");
+        }
+        return evaluate(compiled, context, new UserState(context.userId));
+    }
+
+    /**
+     * Đánh giá toàn bộ voucher còn hạn, chưa dùng của user cho giỏ hàng, giảm nhiều nhất trước.
+     * Voucher, hạng thành viên và số lần đã dùng được nạp theo lô.
+     */
+    public List<Evaluation> evaluateUserVouchers(OrderContext context) {
+        List<UserVoucher> userVouchers = userVoucherRepository.findActiveVouchersByUserId(context.userId, LocalDateTime.now());
+        List<Evaluation> evaluations = new ArrayList<>();
+        if (userVouchers.isEmpty()) {
+            return evaluations;
+        }
+        Set<String> codes = new LinkedHashSet<>();
+        for (UserVoucher userVoucher : userVouchers) {
+            codes.add(userVoucher.getVoucherCode());
+        }
+        Map<String, CompiledVoucher> compiled = getCompiled(codes);
+        UserState user = userStateFor(context, compiled.values());
+
+        for (UserVoucher userVoucher : userVouchers) {
+            CompiledVoucher voucher = compiled.get(userVoucher.getVoucherCode());
+            Evaluation evaluation = voucher != null
+                ? evaluate(voucher, context, user)
+                : Evaluation.rejected(null, "Voucher không tồn tại");
+            evaluation.userVoucher = userVoucher;
+            evaluations.add(evaluation);
+        }
+        evaluations.sort(Comparator.comparing(Evaluation::isEligible).reversed()
+            .thenComparing(Comparator.comparingDouble(Evaluation::getDiscountAmount).reversed()));
+        return evaluations;
+    }
+
+    // Đánh giá nhiều voucher cho cùng một đơn, dùng chung dữ liệu user; chỉ trả về voucher áp dụng được
+    public List<Evaluation> evaluateEligible(Collection<String> codes, OrderContext context) {
+        Map<String, CompiledVoucher> compiled = getCompiled(codes);
+        UserState user = userStateFor(context, compiled.values());
+        List<Evaluation> eligible = new ArrayList<>();
+        for (String code : codes) {
+            CompiledVoucher voucher = compiled.get(code);
+            if (voucher != null) {
+                Evaluation evaluation = evaluate(voucher, context, user);
+                if (evaluation.isEligible()) {
+                    eligible.add(evaluation);
+                }
+            }
+        }
+        return eligible;
+    }
+
+    private UserState userStateFor(OrderContext context, Collection<CompiledVoucher> vouchers) {
+        UserState user = new UserState(context.userId);
+        Set<String> limitedIds = new HashSet<>();
+        for (CompiledVoucher voucher : vouchers) {
+            if (voucher.getVoucher().getMaxUsagePerUser() > 0) {
+                limitedIds.add(voucher.getVoucher().getId());
+            }
+        }
+        user.preloadUsage(limitedIds);
+        return user;
+    }
+
+    // Voucher của user cho giảm giá lớn nhất (null nếu không có voucher nào áp dụng được)
+    public Evaluation bestUserVoucher(OrderContext context) {
+        for (Evaluation evaluation : evaluateUserVouchers(context)) {
+            if (evaluation.isEligible() && evaluation.getDiscountAmount() > 0) {
+                return evaluation;
+            }
+        }
+        return null;
+    }
+
+    private Evaluation evaluate(CompiledVoucher compiled, OrderContext context, UserState user) {
+        Voucher voucher = compiled.getVoucher();
+        if (!voucher.isValid()) {
+            return Evaluation.rejected(voucher, "Voucher đã hết hạn hoặc hết lượt sử dụng");
+        }
+        if (context.orderAmount < voucher.getMinOrderAmount()) {
+            return Evaluation.rejected(voucher, "Đơn hàng tối thiểu: " + String.format("%.0f", voucher.getMinOrderAmount()) + "đ");
+        }
+        if (voucher.getShopId() != null && !voucher.getShopId().equals(context.shopId)) {
+            return Evaluation.rejected(voucher, "Voucher chỉ áp dụng cho shop khác");
+        }
+        if (compiled.userIds != null && !compiled.userIds.contains(context.userId)) {
+            return Evaluation.rejected(voucher, "Voucher không dành cho tài khoản này");
+        }
+        if (compiled.requiresMembership && user.tier() < compiled.requiredTier) {
+            return Evaluation.rejected(voucher, "Voucher yêu cầu hạng thành viên " + voucher.getMembershipType());
+        }
+        if (!compiled.productIds.isEmpty() && !containsAny(compiled.productIds, context.productIds)) {
+            return Evaluation.rejected(voucher, "Giỏ hàng không có sản phẩm áp dụng voucher");
+        }
+        if (containsAny(compiled.excludedProductIds, context.productIds)) {
+            return Evaluation.rejected(voucher, "Giỏ hàng có sản phẩm không áp dụng voucher");
+        }
+        if (!compiled.categoryIds.isEmpty() && !containsAny(compiled.categoryIds, context.categoryIds)) {
+            return Evaluation.rejected(voucher, "Giỏ hàng không có danh mục áp dụng voucher");
+        }
+        if (containsAny(compiled.excludedCategoryIds, context.categoryIds)) {
+            return Evaluation.rejected(voucher, "Giỏ hàng có danh mục không áp dụng voucher");
+        }
+        if (voucher.getMaxUsagePerUser() > 0 && user.usageCount(voucher.getId()) >= voucher.getMaxUsagePerUser()) {
+            return Evaluation.rejected(voucher, "Bạn đã dùng hết lượt của voucher này");
+        }
+
+        Evaluation evaluation = new Evaluation();
+        evaluation.voucher = voucher;
+        evaluation.eligible = true;
+        if ("free_shipping".equals(voucher.getType())) {
+            evaluation.freeShipping = true;
+            evaluation.discountAmount = context.shippingFee;
+        } else {
+            evaluation.discountAmount = voucher.calculateDiscount(context.orderAmount);
+        }
+        return evaluation;
+    }
+
+    private static boolean containsAny(Set<String> restriction, Collection<String> values) {
+        if (restriction.isEmpty() || values == null) {
+            return false;
+        }
+        for (String value : values) {
+            if (restriction.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int membershipTier(String membership) {
+        if (membership == null) return 0;
+        switch (membership.toUpperCase()) {
+            case "VIP3": return 3;
+            case "VIP2": return 2;
+            case "VIP1": return 1;
+            default: return 0;
+        }
+    }
+
+    private static Set<String> toSet(List<String> values) {
+        // HashSet (không dùng Set.of) vì contains(null) phải trả về false
+        return values != null ? new HashSet<>(values) : new HashSet<>();
+    }
+
+    // ========== Types ==========
+
+    /**
+     * Voucher kèm các giới hạn đã chuẩn bị sẵn. Voucher bên trong được dùng chung giữa các request, chỉ đọc.
+     */
+    public static class CompiledVoucher {
+        private final Voucher voucher;
+        private final Set<String> productIds;
+        private final Set<String> excludedProductIds;
+        private final Set<String> categoryIds;
+        private final Set<String> excludedCategoryIds;
+        private final Set<String> userIds; // null = mọi user
+        private final boolean requiresMembership;
+        private final int requiredTier;
+        private final long loadedAt = System.currentTimeMillis();
+
+        CompiledVoucher(Voucher voucher) {
+            this.voucher = voucher;
+            this.productIds = toSet(voucher.getProductIds());
+            this.excludedProductIds = toSet(voucher.getExcludedProductIds());
+            this.categoryIds = toSet(voucher.getCategoryIds());
+            this.excludedCategoryIds = toSet(voucher.getExcludedCategoryIds());
+            this.userIds = voucher.getUserIds() != null ? toSet(voucher.getUserIds()) : null;
+            this.requiresMembership = voucher.getMembershipType() != null && !voucher.getMembershipType().isEmpty();
+            this.requiredTier = membershipTier(voucher.getMembershipType());
+        }
+
+        public Voucher getVoucher() { return voucher; }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - loadedAt > CACHE_TTL_MILLIS;
+        }
+    }
+
+    // Thông tin đơn hàng dùng để đánh giá voucher
+    public static class OrderContext {
+        private final String userId;
+        private final double orderAmount;
+        private String shopId;
+        private Collection<String> productIds = List.of();
+        private Collection<String> categoryIds = List.of();
+        private double shippingFee;
+
+        public OrderContext(String userId, double orderAmount) {
+            this.userId = userId;
+            this.orderAmount = orderAmount;
+        }
+
+        public OrderContext shopId(String shopId) { this.shopId = shopId; return this; }
+        public OrderContext productIds(Collection<String> productIds) { this.productIds = productIds != null ? productIds : List.of(); return this; }
+        public OrderContext categoryIds(Collection<String> categoryIds) { this.categoryIds = categoryIds != null ? categoryIds : List.of(); return this; }
+        public OrderContext shippingFee(double shippingFee) { this.shippingFee = shippingFee; return this; }
+    }
+
+    public static class Evaluation {
+        private Voucher voucher;
+        private UserVoucher userVoucher;
+        private boolean eligible;
+        private double discountAmount;
+        private boolean freeShipping;
+        private String reason;
+
+        static Evaluation rejected(Voucher voucher, String reason) {
+            Evaluation evaluation = new Evaluation();
+            evaluation.voucher = voucher;
+            evaluation.reason = reason;
+            return evaluation;
+        }
+
+        public Voucher getVoucher() { return voucher; }
+        public UserVoucher getUserVoucher() { return userVoucher; }
+        public boolean isEligible() { return eligible; }
+        public double getDiscountAmount() { return discountAmount; }
+        public boolean isFreeShipping() { return freeShipping; }
+        public String getReason() { return reason; }
+    }
+
+    // Hạng thành viên và số lần dùng voucher của user, chỉ đọc khi cần và một lần cho mỗi lần đánh giá
+    private class UserState {
+        private final String userId;
+        private Integer tier;
+        private final Map<String, Long> usage = new HashMap<>();
+
+        UserState(String userId) {
+            this.userId = userId;
+        }
+
+        int tier() {
+            if (tier == null) {
+                User user = null;
+                if (userId != null) {
+                    Query query = new Query(Criteria.where("_id").is(userId));
+                    query.fields().include("membershipType");
+                    user = mongoTemplate.findOne(query, User.class);
+                }
+                // User không có hạng thì không dùng được voucher yêu cầu hạng nào
+                tier = user != null && user.getMembershipType() != null ? membershipTier(user.getMembershipType()) : -1;
+            }
+            return tier;
+        }
+
+        long usageCount(String voucherId) {
+            return usage.computeIfAbsent(voucherId, id -> {
+                VoucherUserCounter counter = mongoTemplate.findById(VoucherUserCounter.idOf(id, userId), VoucherUserCounter.class);
+                if (counter != null) {
+                    return counter.getCount();
+                }
+                return mongoTemplate.count(new Query(Criteria.where("userId").is(userId)
+                    .and("voucherId").is(id).and("status").is("used")), VoucherUsage.class);
+            });
+        }
+
+        // Đọc bộ đếm của tất cả voucher có giới hạn lượt dùng bằng một query; voucher chưa có bộ đếm đọc sau khi cần
+        void preloadUsage(Set<String> voucherIds) {
+            if (voucherIds.isEmpty() || userId == null) {
+                return;
+            }
+            List<String> ids = new ArrayList<>();
+            for (String id : voucherIds) {
+                ids.add(VoucherUserCounter.idOf(id, userId));
+            }
+            for (VoucherUserCounter counter : mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), VoucherUserCounter.class)) {
+                usage.put(counter.getVoucherId(), counter.getCount());
+            }
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.example.harvesthubbackend.Service;
 
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
 import com.example.harvesthubbackend.Models.*;
 import com.example.harvesthubbackend.Repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -22,7 +31,10 @@ public class VoucherService {
     private UserVoucherRepository userVoucherRepository;
     
     @Autowired
-    private UserService userService;
+    private VoucherEngine voucherEngine;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
     
     // Create a new voucher
     public Voucher createVoucher(Voucher voucher) {
@@ -140,16 +152,13 @@ public class VoucherService {
         return null;
     }
     
-    // Use voucher (increment used count)
+    // Use voucher (increment used count, only while under usageLimit)
     public Voucher useVoucher(String id) {
-        Optional<Voucher> optionalVoucher = voucherRepository.findById(id);
-        if (optionalVoucher.isPresent()) {
-            Voucher voucher = optionalVoucher.get();
-            voucher.setUsedCount(voucher.getUsedCount() + 1);
-            voucher.setUpdatedAt(LocalDateTime.now());
-            return voucherRepository.save(voucher);
+        Voucher voucher = incrementUsedCount(Criteria.where("_id").is(id));
+        if (voucher == null && voucherRepository.existsById(id)) {
+            throw new ApiException(ErrorCode.VOUCHER_USAGE_LIMIT_REACHED);
         }
-        return null;
+        return voucher;
     }
     
     // Validate voucher
@@ -196,23 +205,22 @@ public class VoucherService {
     
     // Calculate discount
     public double calculateDiscount(String code, double orderAmount) {
-        Optional<Voucher> optionalVoucher = voucherRepository.findByCode(code);
-        if (!optionalVoucher.isPresent()) {
+        VoucherEngine.CompiledVoucher compiled = voucherEngine.getCompiled(code);
+        if (compiled == null) {
             return 0;
         }
         
-        Voucher voucher = optionalVoucher.get();
-        return voucher.calculateDiscount(orderAmount);
+        return compiled.getVoucher().calculateDiscount(orderAmount);
     }
     
     // Calculate discount with shipping fee (for free shipping)
     public double calculateDiscount(String code, double orderAmount, double shippingFee) {
-        Optional<Voucher> optionalVoucher = voucherRepository.findByCode(code);
-        if (!optionalVoucher.isPresent()) {
+        VoucherEngine.CompiledVoucher compiled = voucherEngine.getCompiled(code);
+        if (compiled == null) {
             return 0;
         }
         
-        Voucher voucher = optionalVoucher.get();
+        Voucher voucher = compiled.getVoucher();
         
         if (voucher.getType().equals("free_shipping")) {
             return shippingFee;
@@ -225,148 +233,159 @@ public class VoucherService {
     public boolean validateVoucherForOrder(String code, String userId, double orderAmount, 
                                            String shopId, List<String> productIds, 
                                            List<String> categoryIds) {
-        Optional<Voucher> optionalVoucher = voucherRepository.findByCode(code);
-        if (!optionalVoucher.isPresent()) {
-            return false;
-        }
-        
-        Voucher voucher = optionalVoucher.get();
-        
-        // 1. Check voucher is valid
-        if (!voucher.isValid()) {
-            return false;
-        }
-        
-        // 2. Check minimum order amount
-        if (orderAmount < voucher.getMinOrderAmount()) {
-            return false;
-        }
-        
-        // 3. Check shop restriction
-        if (voucher.getShopId() != null && !voucher.getShopId().equals(shopId)) {
-            return false;
-        }
-        
-        // 4. Check user restriction
-        if (voucher.getUserIds() != null && !voucher.getUserIds().contains(userId)) {
-            return false;
-        }
-        
-        // 5. Check membership type
-        if (voucher.getMembershipType() != null && !voucher.getMembershipType().isEmpty()) {
-            User user = userService.getById(userId);
-            if (user == null || user.getMembershipType() == null) {
-                return false;
-            }
-            // Check if user's membership type matches or is higher
-            if (!isMembershipTypeEligible(user.getMembershipType(), voucher.getMembershipType())) {
-                return false;
-            }
-        }
-        
-        // 6. Check product restrictions
-        if (voucher.getProductIds() != null && !voucher.getProductIds().isEmpty()) {
-            if (productIds == null || productIds.isEmpty()) {
-                return false;
-            }
-            boolean hasMatchingProduct = productIds.stream()
-                .anyMatch(voucher.getProductIds()::contains);
-            if (!hasMatchingProduct) {
-                return false;
-            }
+        return evaluateForOrder(code, userId, orderAmount, shopId, productIds, categoryIds, 0).isEligible();
+    }
+    
+    /**
+     * Kiểm tra điều kiện và tính giảm giá trong một lần (voucher lấy từ cache của VoucherEngine).
+     * Với voucher free_shipping, số tiền giảm là shippingFee.
+     */
+    public VoucherEngine.Evaluation evaluateForOrder(String code, String userId, double orderAmount, String shopId,
+                                                     List<String> productIds, List<String> categoryIds,
+                                                     double shippingFee) {
+        return voucherEngine.evaluate(code, new VoucherEngine.OrderContext(userId, orderAmount)
+            .shopId(shopId)
+            .productIds(productIds)
+            .categoryIds(categoryIds)
+            .shippingFee(shippingFee));
+    }
+    
+    // Best of the user's unused vouchers for a cart (null if none applies)
+    public VoucherEngine.Evaluation bestVoucherForCart(String userId, double subtotal, String shopId,
+                                                       List<String> productIds, List<String> categoryIds,
+                                                       double shippingFee) {
+        return voucherEngine.bestUserVoucher(new VoucherEngine.OrderContext(userId, subtotal)
+            .shopId(shopId)
+            .productIds(productIds)
+            .categoryIds(categoryIds)
+            .shippingFee(shippingFee));
+    }
+    
+    // Evaluate all of the user's unused vouchers for a cart, best discount first
+    public List<VoucherEngine.Evaluation> evaluateUserVouchersForCart(String userId, double subtotal, String shopId,
+                                                                      List<String> productIds, List<String> categoryIds,
+                                                                      double shippingFee) {
+        return voucherEngine.evaluateUserVouchers(new VoucherEngine.OrderContext(userId, subtotal)
+            .shopId(shopId)
+            .productIds(productIds)
+            .categoryIds(categoryIds)
+            .shippingFee(shippingFee));
+    }
+    
+    // Apply voucher to cart
+    public double applyVoucherToCart(String userId, String voucherCode, double cartSubtotal) {
+        VoucherEngine.Evaluation evaluation = evaluateForOrder(voucherCode, userId, cartSubtotal, null, null, null, 0);
+        if (!evaluation.isEligible()) {
+            throw new RuntimeException("Voucher không hợp lệ");
         }
         
-        // 7. Check excluded products
-        if (voucher.getExcludedProductIds() != null && !voucher.getExcludedProductIds().isEmpty()) {
-            if (productIds != null && !productIds.isEmpty()) {
-                boolean hasExcludedProduct = productIds.stream()
-                    .anyMatch(voucher.getExcludedProductIds()::contains);
-                if (hasExcludedProduct) {
-                    return false;
-                }
+        return evaluation.getDiscountAmount();
+    }
+    
+    /**
+     * Giữ một lượt dùng voucher cho user, gọi trong checkout trước khi lưu đơn.
+     * usedCount được $inc có điều kiện usedCount < usageLimit, rồi bộ đếm của user được $inc có điều kiện
+     * count < maxUsagePerUser; bước sau thất bại thì hoàn lại bước trước. Checkout song song không thể dùng
+     * vượt giới hạn và không ghi đè document voucher.
+     */
+    public Voucher redeemVoucher(String userId, String voucherCode) {
+        Voucher voucher = incrementUsedCount(Criteria.where("code").is(voucherCode).and("status").is("active"));
+        if (voucher == null) {
+            if (!voucherRepository.findByCode(voucherCode).isPresent()) {
+                throw new ApiException(ErrorCode.VOUCHER_NOT_FOUND);
             }
+            throw new ApiException(ErrorCode.VOUCHER_USAGE_LIMIT_REACHED);
+        }
+        boolean counted;
+        try {
+            counted = incrementUserCounter(voucher, userId);
+        } catch (RuntimeException e) {
+            decrementUsedCount(voucher.getId());
+            throw e;
+        }
+        if (!counted) {
+            decrementUsedCount(voucher.getId());
+            throw new ApiException(ErrorCode.VOUCHER_USER_LIMIT_REACHED);
+        }
+        if (voucher.getUsageLimit() != -1 && voucher.getUsedCount() >= voucher.getUsageLimit()) {
+            // Vừa hết lượt: không để cache tiếp tục báo voucher hợp lệ
+            voucherEngine.invalidate(voucherCode);
+        }
+        return voucher;
+    }
+    
+    // Trả lại lượt đã giữ (đơn không tạo được hoặc đơn bị hủy)
+    public void releaseRedemption(String voucherId, String userId) {
+        decrementUsedCount(voucherId);
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(VoucherUserCounter.idOf(voucherId, userId)).and("count").gt(0)),
+            new Update().inc("count", -1).set("updatedAt", LocalDateTime.now()),
+            VoucherUserCounter.class);
+    }
+    
+    private Voucher incrementUsedCount(Criteria criteria) {
+        Criteria underLimit = new Criteria().orOperator(
+            Criteria.where("usageLimit").is(-1),
+            Criteria.expr(ComparisonOperators.valueOf("usedCount").lessThan("usageLimit")));
+        return mongoTemplate.findAndModify(
+            new Query(new Criteria().andOperator(criteria, underLimit)),
+            new Update().inc("usedCount", 1).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            Voucher.class);
+    }
+    
+    private void decrementUsedCount(String voucherId) {
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(voucherId).and("usedCount").gt(0)),
+            new Update().inc("usedCount", -1).set("updatedAt", LocalDateTime.now()),
+            Voucher.class);
+        voucherEngine.invalidateById(voucherId);
+    }
+    
+    // $inc bộ đếm của user; bộ đếm chưa có thì khởi tạo từ các VoucherUsage đang dùng rồi thử lại
+    private boolean incrementUserCounter(Voucher voucher, String userId) {
+        String id = VoucherUserCounter.idOf(voucher.getId(), userId);
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (voucher.getMaxUsagePerUser() > 0) {
+            criteria.and("count").lt(voucher.getMaxUsagePerUser());
         }
-        
-        // 8. Check category restrictions
-        if (voucher.getCategoryIds() != null && !voucher.getCategoryIds().isEmpty()) {
-            if (categoryIds == null || categoryIds.isEmpty()) {
-                return false;
+        Update update = new Update().inc("count", 1).set("updatedAt", LocalDateTime.now());
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (mongoTemplate.updateFirst(new Query(criteria), update, VoucherUserCounter.class).getModifiedCount() > 0) {
+                return true;
             }
-            boolean hasMatchingCategory = categoryIds.stream()
-                .anyMatch(voucher.getCategoryIds()::contains);
-            if (!hasMatchingCategory) {
+            if (mongoTemplate.exists(new Query(Criteria.where("_id").is(id)), VoucherUserCounter.class)) {
                 return false;
             }
-        }
-        
-        // 9. Check excluded categories
-        if (voucher.getExcludedCategoryIds() != null && !voucher.getExcludedCategoryIds().isEmpty()) {
-            if (categoryIds != null && !categoryIds.isEmpty()) {
-                boolean hasExcludedCategory = categoryIds.stream()
-                    .anyMatch(voucher.getExcludedCategoryIds()::contains);
-                if (hasExcludedCategory) {
-                    return false;
-                }
-            }
-        }
-        
-        // 10. Check max usage per user
-        if (voucher.getMaxUsagePerUser() > 0) {
-            long usageCount = voucherUsageRepository.countByUserIdAndVoucherId(userId, voucher.getId());
-            if (usageCount >= voucher.getMaxUsagePerUser()) {
-                return false;
+            long used = mongoTemplate.count(new Query(Criteria.where("userId").is(userId)
+                .and("voucherId").is(voucher.getId()).and("status").is("used")), VoucherUsage.class);
+            try {
+                mongoTemplate.insert(new VoucherUserCounter(voucher.getId(), userId, used));
+            } catch (DuplicateKeyException ignored) {
+                // Luồng khác vừa khởi tạo
             }
         }
-        
-        return true;
-    }
-    
-    // Check if user's membership type is eligible
-    private boolean isMembershipTypeEligible(String userMembership, String requiredMembership) {
-        if (userMembership == null || requiredMembership == null) {
-            return false;
-        }
-        
-        // VIP tier hierarchy: STANDARD < VIP1 < VIP2 < VIP3
-        int userTier = getMembershipTier(userMembership);
-        int requiredTier = getMembershipTier(requiredMembership);
-        
-        return userTier >= requiredTier;
-    }
-    
-    private int getMembershipTier(String membership) {
-        if (membership == null) return 0;
-        switch (membership.toUpperCase()) {
-            case "VIP3": return 3;
-            case "VIP2": return 2;
-            case "VIP1": return 1;
-            case "STANDARD":
-            default: return 0;
-        }
-    }
-    
-    // Apply voucher to cart
-    public double applyVoucherToCart(String userId, String voucherCode, double cartSubtotal) {
-        if (!validateVoucherForOrder(voucherCode, userId, cartSubtotal, null, null, null)) {
-            throw new RuntimeException("Voucher không hợp lệ");
-        }
-        
-        return calculateDiscount(voucherCode, cartSubtotal);
+        return false;
     }
     
-    // Apply voucher to order and create usage record
+    /**
+     * Ghi VoucherUsage cho đơn đã lưu (lượt dùng đã được giữ bởi redeemVoucher). Gọi lại cho cùng đơn không ghi thêm.
+     */
     public VoucherUsage applyVoucherToOrder(String userId, String orderId, String voucherCode, 
                                             double orderAmount, double discountAmount) {
-        Optional<Voucher> optionalVoucher = voucherRepository.findByCode(voucherCode);
-        if (!optionalVoucher.isPresent()) {
+        Optional<VoucherUsage> existing = voucherUsageRepository.findByOrderId(orderId);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        VoucherEngine.CompiledVoucher compiled = voucherEngine.getCompiled(voucherCode);
+        if (compiled == null) {
             throw new RuntimeException("Voucher không tồn tại");
         }
         
-        Voucher voucher = optionalVoucher.get();
-        
         // Create VoucherUsage record
         VoucherUsage usage = new VoucherUsage();
-        usage.setVoucherId(voucher.getId());
+        usage.setVoucherId(compiled.getVoucher().getId());
+        usage.setShopId(compiled.getVoucher().getShopId());
         usage.setVoucherCode(voucherCode);
         usage.setUserId(userId);
         usage.setOrderId(orderId);
@@ -376,62 +395,33 @@ public class VoucherService {
         
         VoucherUsage savedUsage = voucherUsageRepository.save(usage);
         
-        // Increment voucher used count
-        voucher.setUsedCount(voucher.getUsedCount() + 1);
-        voucher.setUpdatedAt(LocalDateTime.now());
-        voucherRepository.save(voucher);
-        
-        // Update UserVoucher if exists
-        Optional<UserVoucher> userVoucherOpt = userVoucherRepository.findByUserIdAndVoucherCode(userId, voucherCode);
-        if (userVoucherOpt.isPresent()) {
-            UserVoucher userVoucher = userVoucherOpt.get();
-            if (!userVoucher.isUsed()) {
-                userVoucher.setUsed(true);
-                userVoucher.setUsedAt(LocalDateTime.now());
-                userVoucher.setOrderId(orderId);
-                userVoucherRepository.save(userVoucher);
-            }
-        }
+        // Mark the user's copy of the voucher as used (if any)
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("userId").is(userId).and("voucherCode").is(voucherCode).and("isUsed").is(false)),
+            new Update().set("isUsed", true).set("usedAt", LocalDateTime.now()).set("orderId", orderId),
+            UserVoucher.class);
         
         return savedUsage;
     }
     
-    // Refund voucher when order is cancelled
+    // Refund voucher when order is cancelled: inverse of redeemVoucher, runs at most once per order
     public void refundVoucher(String orderId) {
-        Optional<VoucherUsage> usageOpt = voucherUsageRepository.findByOrderId(orderId);
-        if (!usageOpt.isPresent()) {
-            return; // No voucher used for this order
-        }
-        
-        VoucherUsage usage = usageOpt.get();
-        if ("refunded".equals(usage.getStatus())) {
-            return; // Already refunded
+        VoucherUsage usage = mongoTemplate.findAndModify(
+            new Query(Criteria.where("orderId").is(orderId).and("status").ne("refunded")),
+            new Update().set("status", "refunded").set("refundedAt", LocalDateTime.now()),
+            VoucherUsage.class);
+        if (usage == null) {
+            return; // No voucher used for this order, or already refunded
         }
         
-        // Update VoucherUsage status
-        usage.setStatus("refunded");
-        usage.setRefundedAt(LocalDateTime.now());
-        voucherUsageRepository.save(usage);
-        
-        // Decrement voucher used count
-        Optional<Voucher> voucherOpt = voucherRepository.findById(usage.getVoucherId());
-        if (voucherOpt.isPresent()) {
-            Voucher voucher = voucherOpt.get();
-            voucher.setUsedCount(Math.max(0, voucher.getUsedCount() - 1));
-            voucher.setUpdatedAt(LocalDateTime.now());
-            voucherRepository.save(voucher);
-        }
+        releaseRedemption(usage.getVoucherId(), usage.getUserId());
         
-        // Update UserVoucher if exists
-        Optional<UserVoucher> userVoucherOpt = userVoucherRepository.findByUserIdAndVoucherCode(
-            usage.getUserId(), usage.getVoucherCode());
-        if (userVoucherOpt.isPresent()) {
-            UserVoucher userVoucher = userVoucherOpt.get();
-            userVoucher.setUsed(false);
-            userVoucher.setUsedAt(null);
-            userVoucher.setOrderId(null);
-            userVoucherRepository.save(userVoucher);
-        }
+        // Give the user's copy of the voucher back
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("userId").is(usage.getUserId()).and("voucherCode").is(usage.getVoucherCode())
+                .and("orderId").is(orderId)),
+            new Update().set("isUsed", false).unset("usedAt").unset("orderId"),
+            UserVoucher.class);
     }
     
     // Grant voucher to user
@@ -474,14 +464,18 @@ public class VoucherService {
     // Get eligible vouchers for order
     public List<Voucher> getEligibleVouchers(String userId, double orderAmount, String shopId, 
                                              List<String> productIds, List<String> categoryIds) {
-        List<Voucher> allVouchers = getActiveVouchers();
-        List<Voucher> eligible = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
+        for (Voucher voucher : getActiveVouchers()) {
+            codes.add(voucher.getCode());
+        }
+        VoucherEngine.OrderContext context = new VoucherEngine.OrderContext(userId, orderAmount)
+            .shopId(shopId)
+            .productIds(productIds)
+            .categoryIds(categoryIds);
         
-        for (Voucher voucher : allVouchers) {
-            if (validateVoucherForOrder(voucher.getCode(), userId, orderAmount, shopId, 
-                                       productIds, categoryIds)) {
-                eligible.add(voucher);
-            }
+        List<Voucher> eligible = new ArrayList<>();
+        for (VoucherEngine.Evaluation evaluation : voucherEngine.evaluateEligible(codes, context)) {
+            eligible.add(evaluation.getVoucher());
         }
         
         return eligible;
@@ -2,172 +2,244 @@ package com.example.harvesthubbackend.Service;
 
 import com.example.harvesthubbackend.Models.Voucher;
 import com.example.harvesthubbackend.Models.VoucherUsage;
-import com.example.harvesthubbackend.Repository.VoucherRepository;
-import com.example.harvesthubbackend.Repository.VoucherUsageRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Thống kê voucher bằng aggregation trên MongoDB: một $facet trên vouchers (theo trạng thái, loại, top dùng nhiều)
+ * và một $facet trên voucher_usages (tổng giảm giá, số lượt theo tháng). Thống kê shop lọc usage theo shopId
+ * lưu sẵn trên VoucherUsage. Kết quả được cache ngắn hạn.
+ */
 @Service
 public class VoucherStatisticsService {
-    
-    @Autowired
-    private VoucherRepository voucherRepository;
-    
+
+    private static final long GLOBAL_TTL_MILLIS = 60_000;
+    private static final long SHOP_TTL_MILLIS = 30_000;
+    private static final int MONTHS = 6;
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    private static final List<String> TYPES = List.of("percentage", "fixed_amount", "free_shipping");
+
     @Autowired
-    private VoucherUsageRepository voucherUsageRepository;
-    
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, CachedStats> cache = new ConcurrentHashMap<>();
+
+    private record CachedStats(Map<String, Object> stats, long expiresAt) {}
+
     // Get comprehensive voucher statistics
     public Map<String, Object> getVoucherStatistics() {
+        return cached("global", GLOBAL_TTL_MILLIS, this::computeVoucherStatistics);
+    }
+
+    // Get shop voucher statistics
+    public Map<String, Object> getShopVoucherStatistics(String shopId) {
+        return cached("shop:" + shopId, SHOP_TTL_MILLIS, () -> computeShopVoucherStatistics(shopId));
+    }
+
+    private Map<String, Object> cached(String key, long ttl, java.util.function.Supplier<Map<String, Object>> loader) {
+        long now = System.currentTimeMillis();
+        CachedStats entry = cache.get(key);
+        if (entry == null || entry.expiresAt() < now) {
+            entry = new CachedStats(loader.get(), now + ttl);
+            cache.put(key, entry);
+        }
+        return new HashMap<>(entry.stats());
+    }
+
+    private Map<String, Object> computeVoucherStatistics() {
         Map<String, Object> stats = new HashMap<>();
-        List<Voucher> allVouchers = voucherRepository.findAll();
-        
-        // Basic counts
-        stats.put("totalVouchers", allVouchers.size());
-        stats.put("activeVouchers", voucherRepository.countByStatus("active"));
-        stats.put("inactiveVouchers", voucherRepository.countByStatus("inactive"));
-        stats.put("expiredVouchers", voucherRepository.countByStatus("expired"));
-        stats.put("platformVouchers", voucherRepository.findPlatformVouchers().size());
-        
-        // Vouchers by type
-        Map<String, Long> byType = new HashMap<>();
-        byType.put("percentage", (long) voucherRepository.findByType("percentage").size());
-        byType.put("fixed_amount", (long) voucherRepository.findByType("fixed_amount").size());
-        byType.put("free_shipping", (long) voucherRepository.findByType("free_shipping").size());
-        stats.put("vouchersByType", byType);
-        
-        // Total usage
-        int totalUsage = allVouchers.stream()
-            .mapToInt(Voucher::getUsedCount)
-            .sum();
-        stats.put("totalUsage", totalUsage);
-        
-        // Total discount given (from voucher usages)
-        List<VoucherUsage> allUsages = voucherUsageRepository.findAll();
-        double totalDiscount = allUsages.stream()
-            .filter(u -> "used".equals(u.getStatus()))
-            .mapToDouble(VoucherUsage::getDiscountAmount)
-            .sum();
-        stats.put("totalDiscountGiven", totalDiscount);
-        
-        // Most used vouchers
-        List<Map<String, Object>> mostUsed = allVouchers.stream()
-            .filter(v -> v.getUsedCount() > 0)
-            .sorted((a, b) -> Integer.compare(b.getUsedCount(), a.getUsedCount()))
-            .limit(10)
-            .map(v -> {
-                Map<String, Object> voucherStat = new HashMap<>();
-                voucherStat.put("id", v.getId());
-                voucherStat.put("code", v.getCode());
-                voucherStat.put("name", v.getName());
-                voucherStat.put("usedCount", v.getUsedCount());
-                voucherStat.put("usageLimit", v.getUsageLimit());
-                return voucherStat;
-            })
-            .collect(Collectors.toList());
-        stats.put("mostUsedVouchers", mostUsed);
-        
-        // Vouchers expiring in next 7 days
         LocalDateTime now = LocalDateTime.now();
-        LocalDateTime weekFromNow = now.plusDays(7);
-        long expiringSoon = allVouchers.stream()
-            .filter(v -> {
-                LocalDateTime endDate = v.getEndDate();
-                return endDate != null && 
-                       endDate.isAfter(now) && 
-                       endDate.isBefore(weekFromNow) &&
-                       "active".equals(v.getStatus());
-            })
-            .count();
-        stats.put("expiringSoon", expiringSoon);
-        
-        // Usage by month (last 6 months)
-        Map<String, Long> usageByMonth = new HashMap<>();
-        LocalDateTime sixMonthsAgo = now.minusMonths(6);
-        List<VoucherUsage> recentUsages = voucherUsageRepository.findAll().stream()
-            .filter(u -> u.getUsedAt() != null && u.getUsedAt().isAfter(sixMonthsAgo))
-            .collect(Collectors.toList());
-        
-        for (int i = 5; i >= 0; i--) {
-            LocalDateTime monthStart = now.minusMonths(i).withDayOfMonth(1).withHour(0).withMinute(0);
-            LocalDateTime monthEnd = monthStart.plusMonths(1);
-            String monthKey = (monthStart.getMonth() != null ? monthStart.getMonth().toString() : "") + " " + monthStart.getYear();
-            
-            long count = recentUsages.stream()
-                .filter(u -> {
-                    LocalDateTime usedAt = u.getUsedAt();
-                    return usedAt != null && 
-                           usedAt.isAfter(monthStart) && 
-                           usedAt.isBefore(monthEnd);
-                })
-                .count();
-            usageByMonth.put(monthKey, count);
+
+        Document facet = new Document()
+            .append("total", List.of(new Document("$count", "n")))
+            .append("byStatus", List.of(new Document("$group", new Document("_id", "$status").append("n", new Document("$sum", 1)))))
+            .append("byType", List.of(new Document("$group", new Document("_id", "$type").append("n", new Document("$sum", 1)))))
+            .append("platform", List.of(new Document("$match", new Document("shopId", null)), new Document("$count", "n")))
+            .append("usage", List.of(new Document("$group", new Document("_id", null).append("n", new Document("$sum", "$usedCount")))))
+            .append("expiringSoon", List.of(
+                new Document("$match", new Document("status", "active")
+                    .append("endDate", new Document("$gt", toDate(now)).append("$lt", toDate(now.plusDays(7))))),
+                new Document("$count", "n")))
+            .append("mostUsed", List.of(
+                new Document("$match", new Document("usedCount", new Document("$gt", 0))),
+                new Document("$sort", new Document("usedCount", -1)),
+                new Document("$limit", 10),
+                new Document("$project", new Document("code", 1).append("name", 1).append("usedCount", 1).append("usageLimit", 1))));
+        Document vouchers = facet(Voucher.class, new Document(), facet);
+
+        Map<String, Long> byStatus = groupCounts(vouchers, "byStatus");
+        stats.put("totalVouchers", (int) single(vouchers, "total"));
+        stats.put("activeVouchers", byStatus.getOrDefault("active", 0L));
+        stats.put("inactiveVouchers", byStatus.getOrDefault("inactive", 0L));
+        stats.put("expiredVouchers", byStatus.getOrDefault("expired", 0L));
+        stats.put("platformVouchers", (int) single(vouchers, "platform"));
+        stats.put("vouchersByType", typeCounts(vouchers));
+        stats.put("totalUsage", (int) single(vouchers, "usage"));
+        stats.put("expiringSoon", single(vouchers, "expiringSoon"));
+
+        List<Map<String, Object>> mostUsed = new ArrayList<>();
+        for (Document doc : vouchers.getList("mostUsed", Document.class, List.of())) {
+            Map<String, Object> voucherStat = new HashMap<>();
+            voucherStat.put("id", doc.get("_id").toString());
+            voucherStat.put("code", doc.get("code"));
+            voucherStat.put("name", doc.get("name"));
+            voucherStat.put("usedCount", doc.get("usedCount"));
+            voucherStat.put("usageLimit", doc.get("usageLimit"));
+            mostUsed.add(voucherStat);
         }
-        stats.put("usageByMonth", usageByMonth);
-        
+        stats.put("mostUsedVouchers", mostUsed);
+
+        Document usages = usageFacet(new Document(), now, true);
+        stats.put("totalDiscountGiven", sum(usages, "discount"));
+        stats.put("usageByMonth", usageByMonth(usages, now));
         return stats;
     }
-    
-    // Get shop voucher statistics
-    public Map<String, Object> getShopVoucherStatistics(String shopId) {
+
+    private Map<String, Object> computeShopVoucherStatistics(String shopId) {
         Map<String, Object> stats = new HashMap<>();
-        List<Voucher> shopVouchers = voucherRepository.findByShopId(shopId);
-        
-        stats.put("totalVouchers", shopVouchers.size());
-        
-        long activeCount = shopVouchers.stream()
-            .filter(v -> "active".equals(v.getStatus()))
-            .count();
-        stats.put("activeVouchers", activeCount);
-        
-        long inactiveCount = shopVouchers.stream()
-            .filter(v -> "inactive".equals(v.getStatus()))
-            .count();
-        stats.put("inactiveVouchers", inactiveCount);
-        
-        long expiredCount = shopVouchers.stream()
-            .filter(v -> "expired".equals(v.getStatus()))
-            .count();
-        stats.put("expiredVouchers", expiredCount);
-        
-        // Total usage
-        int totalUsage = shopVouchers.stream()
-            .mapToInt(Voucher::getUsedCount)
-            .sum();
-        stats.put("totalUsage", totalUsage);
-        
-        // Total discount given
-        List<VoucherUsage> shopUsages = voucherUsageRepository.findAll().stream()
-            .filter(u -> {
-                Optional<Voucher> voucherOpt = voucherRepository.findById(u.getVoucherId());
-                if (!voucherOpt.isPresent()) return false;
-                Voucher v = voucherOpt.get();
-                return v.getShopId() != null && shopId.equals(v.getShopId());
-            })
-            .collect(Collectors.toList());
-        
-        double totalDiscount = shopUsages.stream()
-            .filter(u -> "used".equals(u.getStatus()))
-            .mapToDouble(VoucherUsage::getDiscountAmount)
-            .sum();
-        stats.put("totalDiscountGiven", totalDiscount);
-        
-        // Vouchers by type
-        Map<String, Long> byType = new HashMap<>();
-        byType.put("percentage", 
-            shopVouchers.stream().filter(v -> "percentage".equals(v.getType())).count());
-        byType.put("fixed_amount", 
-            shopVouchers.stream().filter(v -> "fixed_amount".equals(v.getType())).count());
-        byType.put("free_shipping", 
-            shopVouchers.stream().filter(v -> "free_shipping".equals(v.getType())).count());
-        stats.put("vouchersByType", byType);
-        
+        Document facet = new Document()
+            .append("total", List.of(new Document("$count", "n")))
+            .append("byStatus", List.of(new Document("$group", new Document("_id", "$status").append("n", new Document("$sum", 1)))))
+            .append("byType", List.of(new Document("$group", new Document("_id", "$type").append("n", new Document("$sum", 1)))))
+            .append("usage", List.of(new Document("$group", new Document("_id", null).append("n", new Document("$sum", "$usedCount")))));
+        Document vouchers = facet(Voucher.class, new Document("shopId", shopId), facet);
+
+        Map<String, Long> byStatus = groupCounts(vouchers, "byStatus");
+        stats.put("totalVouchers", (int) single(vouchers, "total"));
+        stats.put("activeVouchers", byStatus.getOrDefault("active", 0L));
+        stats.put("inactiveVouchers", byStatus.getOrDefault("inactive", 0L));
+        stats.put("expiredVouchers", byStatus.getOrDefault("expired", 0L));
+        stats.put("totalUsage", (int) single(vouchers, "usage"));
+        stats.put("vouchersByType", typeCounts(vouchers));
+
+        Document usages = usageFacet(new Document("shopId", shopId), LocalDateTime.now(), false);
+        stats.put("totalDiscountGiven", sum(usages, "discount"));
         return stats;
     }
-}
 
+    // Tổng giảm giá của các usage còn hiệu lực và (tùy chọn) số lượt theo tháng trong 6 tháng gần nhất
+    private Document usageFacet(Document match, LocalDateTime now, boolean withMonths) {
+        Document facet = new Document("discount", List.of(
+            new Document("$match", new Document("status", "used")),
+            new Document("$group", new Document("_id", null).append("n", new Document("$sum", "$discountAmount")))));
+        if (withMonths) {
+            String zone = ZoneId.systemDefault().getId();
+            facet.append("byMonth", List.of(
+                new Document("$match", new Document("usedAt", new Document("$gte", toDate(monthStart(now, MONTHS - 1))))),
+                new Document("$group", new Document("_id", new Document()
+                        .append("year", new Document("$year", new Document("date", "$usedAt").append("timezone", zone)))
+                        .append("month", new Document("$month", new Document("date", "$usedAt").append("timezone", zone))))
+                    .append("n", new Document("$sum", 1)))));
+        }
+        return facet(VoucherUsage.class, match, facet);
+    }
+
+    private Map<String, Long> usageByMonth(Document usages, LocalDateTime now) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Document doc : usages.getList("byMonth", Document.class, List.of())) {
+            Document id = (Document) doc.get("_id");
+            counts.put(id.get("year") + "-" + id.get("month"), ((Number) doc.get("n")).longValue());
+        }
+        Map<String, Long> usageByMonth = new LinkedHashMap<>();
+        for (int i = MONTHS - 1; i >= 0; i--) {
+            LocalDateTime monthStart = monthStart(now, i);
+            String monthKey = monthStart.getMonth().toString() + " " + monthStart.getYear();
+            usageByMonth.put(monthKey, counts.getOrDefault(monthStart.getYear() + "-" + monthStart.getMonthValue(), 0L));
+        }
+        return usageByMonth;
+    }
+
+    /**
+     * Gán shopId (của voucher) cho các VoucherUsage cũ chưa có: đọc voucherId riêng biệt theo lô,
+     * nạp shop của các voucher bằng một query $in rồi cập nhật hàng loạt theo voucherId.
+     */
+    public int backfillUsageShopIds() {
+        Query missing = new Query(Criteria.where("shopId").exists(false));
+        List<String> voucherIds = mongoTemplate.findDistinct(missing, "voucherId", VoucherUsage.class, String.class);
+        int updated = 0;
+        for (int start = 0; start < voucherIds.size(); start += BACKFILL_BATCH_SIZE) {
+            List<String> batch = voucherIds.subList(start, Math.min(start + BACKFILL_BATCH_SIZE, voucherIds.size()));
+            Query vouchers = new Query(Criteria.where("_id").in(batch));
+            vouchers.fields().include("_id").include("shopId");
+            Map<String, String> shopByVoucher = new HashMap<>();
+            for (Voucher voucher : mongoTemplate.find(vouchers, Voucher.class)) {
+                shopByVoucher.put(voucher.getId(), voucher.getShopId());
+            }
+            for (String voucherId : batch) {
+                // Voucher đã bị xóa: coi như voucher toàn sàn (shopId null)
+                updated += (int) mongoTemplate.updateMulti(
+                    new Query(Criteria.where("voucherId").is(voucherId).and("shopId").exists(false)),
+                    new Update().set("shopId", shopByVoucher.get(voucherId)),
+                    VoucherUsage.class).getModifiedCount();
+            }
+        }
+        if (updated > 0) {
+            cache.clear();
+        }
+        return updated;
+    }
+
+    // ========== Helpers ==========
+
+    private Document facet(Class<?> type, Document match, Document facet) {
+        List<Document> pipeline = new ArrayList<>();
+        if (!match.isEmpty()) {
+            pipeline.add(new Document("$match", match));
+        }
+        pipeline.add(new Document("$facet", facet));
+        Document result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(type)).aggregate(pipeline).first();
+        return result != null ? result : new Document();
+    }
+
+    private static long single(Document facet, String name) {
+        List<Document> docs = facet.getList(name, Document.class, List.of());
+        return docs.isEmpty() ? 0 : ((Number) docs.get(0).get("n")).longValue();
+    }
+
+    private static double sum(Document facet, String name) {
+        List<Document> docs = facet.getList(name, Document.class, List.of());
+        return docs.isEmpty() ? 0 : ((Number) docs.get(0).get("n")).doubleValue();
+    }
+
+    private static Map<String, Long> groupCounts(Document facet, String name) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Document doc : facet.getList(name, Document.class, List.of())) {
+            if (doc.get("_id") != null) {
+                counts.put(doc.get("_id").toString(), ((Number) doc.get("n")).longValue());
+            }
+        }
+        return counts;
+    }
+
+    private static Map<String, Long> typeCounts(Document vouchers) {
+        Map<String, Long> byType = groupCounts(vouchers, "byType");
+        Map<String, Long> result = new HashMap<>();
+        for (String type : TYPES) {
+            result.put(type, byType.getOrDefault(type, 0L));
+        }
+        return result;
+    }
+
+    private static LocalDateTime monthStart(LocalDateTime now, int monthsAgo) {
+        return now.minusMonths(monthsAgo).withDayOfMonth(1).toLocalDate().atStartOfDay();
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
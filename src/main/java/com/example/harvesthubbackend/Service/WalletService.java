@@ -4,289 +4,368 @@ import com.example.harvesthubbackend.Models.Wallet;
 import com.example.harvesthubbackend.Models.WalletTransaction;
 import com.example.harvesthubbackend.Repository.WalletRepository;
 import com.example.harvesthubbackend.Repository.WalletTransactionRepository;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Sổ cái ví. Mỗi giao dịch làm thay đổi số dư đi qua 3 bước:
+ * 1. insert WalletTransaction trạng thái "processing" (idempotencyKey unique: ghi lại cùng khóa trả về giao dịch cũ);
+ * 2. một findAndModify trên ví: $inc balance (với khoản trừ thì điều kiện balance >= amount) và ghi id giao dịch
+ *    vào appliedTransactions, điều kiện id chưa có trong đó nên không bao giờ cộng/trừ hai lần. Giao dịch chỉ bị
+ *    đánh dấu failed sau khi id được ghi vào rejectedTransactions, nên một lần apply song song không thể trừ tiền sau đó;
+ * 3. chuyển giao dịch sang "completed" với số dư trước/sau.
+ * Không có transaction MongoDB nên giao dịch dừng giữa chừng (instance chết) được recoverStuckTransactions hoàn tất.
+ */
 @Service
 public class WalletService {
-    
+
+    private static final String PROCESSING = "processing";
+    private static final String APPLIED_FIELD = "appliedTransactions";
+    private static final String REJECTED_FIELD = "rejectedTransactions";
+    private static final int APPLIED_HISTORY = 200;
+    private static final long STUCK_AFTER_SECONDS = 60;
+
     @Autowired
     private WalletRepository walletRepository;
-    
+
     @Autowired
     private WalletTransactionRepository transactionRepository;
-    
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     /**
-     * Get or create wallet for user
+     * Get or create wallet for user (upsert nên hai request đồng thời không tạo hai ví)
      */
     public Wallet getOrCreateWallet(String userId) {
         Optional<Wallet> walletOpt = walletRepository.findByUserId(userId);
         if (walletOpt.isPresent()) {
             return walletOpt.get();
         }
-        
-        // Create new wallet
-        Wallet wallet = new Wallet();
-        wallet.setUserId(userId);
-        wallet.setBalance(0.0);
-        wallet.setCurrency("VND");
-        wallet.setStatus("active");
-        wallet.setCreatedAt(LocalDateTime.now());
-        wallet.setUpdatedAt(LocalDateTime.now());
-        
-        return walletRepository.save(wallet);
+
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            return mongoTemplate.findAndModify(
+                new Query(Criteria.where("userId").is(userId)),
+                new Update()
+                    .setOnInsert("balance", 0.0)
+                    .setOnInsert("currency", "VND")
+                    .setOnInsert("status", "active")
+                    .setOnInsert("createdAt", now)
+                    .setOnInsert("updatedAt", now),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Wallet.class);
+        } catch (DuplicateKeyException e) {
+            return walletRepository.findByUserId(userId).orElseThrow(() -> e);
+        }
     }
-    
+
     /**
      * Get wallet by user ID
      */
     public Optional<Wallet> getWalletByUserId(String userId) {
         return walletRepository.findByUserId(userId);
     }
-    
+
     /**
      * Deposit money to wallet
      */
-    @Transactional
     public WalletTransaction deposit(String userId, double amount, String paymentMethod, String description) {
+        return deposit(userId, amount, paymentMethod, description, null);
+    }
+
+    /**
+     * Deposit money to wallet. Nạp qua cổng thanh toán tạo giao dịch "pending", số dư chỉ tăng khi completeDeposit.
+     */
+    public WalletTransaction deposit(String userId, double amount, String paymentMethod, String description, String idempotencyKey) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Số tiền nạp phải lớn hơn 0");
         }
-        
+
         Wallet wallet = getOrCreateWallet(userId);
-        double balanceBefore = wallet.getBalance();
-        
-        // Create transaction
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWalletId(wallet.getId());
-        transaction.setUserId(userId);
-        transaction.setType("deposit");
-        transaction.setAmount(amount);
-        transaction.setBalanceBefore(balanceBefore);
-        transaction.setBalanceAfter(balanceBefore + amount);
-        transaction.setStatus("pending");
-        transaction.setDescription(description != null ? description : "Nạp tiền vào ví");
+        WalletTransaction transaction = newTransaction(wallet, "deposit", amount,
+            description != null ? description : "Nạp tiền vào ví");
         transaction.setPaymentMethod(paymentMethod);
-        transaction.setCreatedAt(LocalDateTime.now());
-        transaction.setUpdatedAt(LocalDateTime.now());
-        
+        transaction.setFromAccount("external:" + (paymentMethod != null ? paymentMethod : "wallet"));
+        transaction.setToAccount(walletAccount(wallet));
+        transaction.setIdempotencyKey(idempotencyKey != null ? "deposit:" + userId + ":" + idempotencyKey : null);
+
         // If payment method is wallet or immediate, complete immediately
         if ("wallet".equals(paymentMethod) || paymentMethod == null) {
-            wallet.deposit(amount);
-            wallet.setUpdatedAt(LocalDateTime.now());
-            walletRepository.save(wallet);
-            
-            transaction.setStatus("completed");
-            transaction.setBalanceAfter(wallet.getBalance());
+            return execute(transaction, amount);
+        }
+
+        transaction.setStatus("pending");
+        try {
+            return mongoTemplate.insert(transaction);
+        } catch (DuplicateKeyException e) {
+            return findByIdempotencyKey(transaction.getIdempotencyKey());
         }
-        
-        return transactionRepository.save(transaction);
     }
-    
+
     /**
      * Withdraw money from wallet
      */
-    @Transactional
     public WalletTransaction withdraw(String userId, double amount, String description) {
+        return withdraw(userId, amount, description, null);
+    }
+
+    /**
+     * Withdraw money from wallet
+     */
+    public WalletTransaction withdraw(String userId, double amount, String description, String idempotencyKey) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Số tiền rút phải lớn hơn 0");
         }
-        
+
         Wallet wallet = getOrCreateWallet(userId);
-        
-        if (!wallet.hasSufficientBalance(amount)) {
-            throw new IllegalStateException("Số dư không đủ để thực hiện giao dịch");
-        }
-        
-        double balanceBefore = wallet.getBalance();
-        
-        // Create transaction
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWalletId(wallet.getId());
-        transaction.setUserId(userId);
-        transaction.setType("withdraw");
-        transaction.setAmount(amount);
-        transaction.setBalanceBefore(balanceBefore);
-        transaction.setBalanceAfter(balanceBefore - amount);
-        transaction.setStatus("completed");
-        transaction.setDescription(description != null ? description : "Rút tiền từ ví");
-        transaction.setCreatedAt(LocalDateTime.now());
-        transaction.setUpdatedAt(LocalDateTime.now());
-        
-        // Update wallet
-        wallet.withdraw(amount);
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
-        
-        transaction.setBalanceAfter(wallet.getBalance());
-        return transactionRepository.save(transaction);
+        WalletTransaction transaction = newTransaction(wallet, "withdraw", amount,
+            description != null ? description : "Rút tiền từ ví");
+        transaction.setFromAccount(walletAccount(wallet));
+        transaction.setToAccount("external:withdrawal");
+        transaction.setIdempotencyKey(idempotencyKey != null ? "withdraw:" + userId + ":" + idempotencyKey : null);
+        return execute(transaction, -amount);
     }
-    
+
     /**
-     * Pay with wallet
+     * Pay with wallet (mỗi đơn hàng chỉ bị trừ tiền một lần)
      */
-    @Transactional
     public WalletTransaction payWithWallet(String userId, double amount, String orderId, String description) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Số tiền thanh toán phải lớn hơn 0");
         }
-        
+
         Wallet wallet = getOrCreateWallet(userId);
-        
-        if (!wallet.hasSufficientBalance(amount)) {
-            throw new IllegalStateException("Số dư ví không đủ để thanh toán");
-        }
-        
-        double balanceBefore = wallet.getBalance();
-        
-        // Create transaction
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWalletId(wallet.getId());
-        transaction.setUserId(userId);
-        transaction.setType("payment");
-        transaction.setAmount(amount);
-        transaction.setBalanceBefore(balanceBefore);
-        transaction.setBalanceAfter(balanceBefore - amount);
-        transaction.setStatus("completed");
-        transaction.setDescription(description != null ? description : "Thanh toán đơn hàng " + orderId);
+        WalletTransaction transaction = newTransaction(wallet, "payment", amount,
+            description != null ? description : "Thanh toán đơn hàng " + orderId);
         transaction.setReferenceId(orderId);
         transaction.setReferenceType("order");
         transaction.setPaymentMethod("wallet");
-        transaction.setCreatedAt(LocalDateTime.now());
-        transaction.setUpdatedAt(LocalDateTime.now());
-        
-        // Update wallet
-        wallet.withdraw(amount);
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
-        
-        transaction.setBalanceAfter(wallet.getBalance());
-        return transactionRepository.save(transaction);
+        transaction.setFromAccount(walletAccount(wallet));
+        transaction.setToAccount("order:" + orderId);
+        transaction.setIdempotencyKey("payment:" + userId + ":order:" + orderId);
+        return execute(transaction, -amount);
     }
-    
+
     /**
-     * Refund to wallet
+     * Refund to wallet (mỗi đơn hàng chỉ được hoàn một lần)
      */
-    @Transactional
     public WalletTransaction refundToWallet(String userId, double amount, String orderId, String description) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Số tiền hoàn phải lớn hơn 0");
         }
-        
+
         Wallet wallet = getOrCreateWallet(userId);
-        double balanceBefore = wallet.getBalance();
-        
-        // Create transaction
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWalletId(wallet.getId());
-        transaction.setUserId(userId);
-        transaction.setType("refund");
-        transaction.setAmount(amount);
-        transaction.setBalanceBefore(balanceBefore);
-        transaction.setBalanceAfter(balanceBefore + amount);
-        transaction.setStatus("completed");
-        transaction.setDescription(description != null ? description : "Hoàn tiền đơn hàng " + orderId);
+        WalletTransaction transaction = newTransaction(wallet, "refund", amount,
+            description != null ? description : "Hoàn tiền đơn hàng " + orderId);
         transaction.setReferenceId(orderId);
         transaction.setReferenceType("order");
-        transaction.setCreatedAt(LocalDateTime.now());
-        transaction.setUpdatedAt(LocalDateTime.now());
-        
-        // Update wallet
-        wallet.deposit(amount);
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
-        
-        transaction.setBalanceAfter(wallet.getBalance());
-        return transactionRepository.save(transaction);
+        transaction.setFromAccount("order:" + orderId);
+        transaction.setToAccount(walletAccount(wallet));
+        transaction.setIdempotencyKey("refund:" + userId + ":order:" + orderId);
+        return execute(transaction, amount);
     }
-    
+
     /**
-     * Complete pending deposit transaction
+     * Complete pending deposit transaction (callback cổng thanh toán có thể gọi nhiều lần, chỉ cộng tiền một lần)
      */
-    @Transactional
     public WalletTransaction completeDeposit(String transactionId) {
-        System.out.println("=== WalletService.completeDeposit ===");
-        System.out.println("Transaction ID: " + transactionId);
-        
-        Optional<WalletTransaction> transactionOpt = transactionRepository.findById(transactionId);
-        if (!transactionOpt.isPresent()) {
-            System.err.println("Transaction not found with ID: " + transactionId);
-            // Try to find by other means
-            List<WalletTransaction> allPending = transactionRepository.findByStatus("pending");
-            System.out.println("All pending transactions: " + allPending.size());
-            for (WalletTransaction t : allPending) {
-                System.out.println("  - Transaction ID: " + t.getId() + ", Type: " + t.getType() + ", Amount: " + t.getAmount());
+        System.out.println("=== WalletService.completeDeposit === Transaction ID: " + transactionId);
+
+        // Chỉ một callback chuyển được pending -> processing
+        WalletTransaction transaction = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(transactionId).and("status").is("pending")),
+            new Update().set("status", PROCESSING).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            WalletTransaction.class);
+        if (transaction == null) {
+            WalletTransaction existing = transactionRepository.findById(transactionId)
+                .orElseThrow(() -> new IllegalArgumentException("Transaction not found with ID: " + transactionId));
+            if (!PROCESSING.equals(existing.getStatus())) {
+                System.out.println("Transaction is not pending, current status: " + existing.getStatus());
+                return existing;
             }
-            throw new IllegalArgumentException("Transaction not found with ID: " + transactionId);
+            // Lần xử lý trước dừng giữa chừng: ghi tiếp (không cộng trùng)
+            transaction = existing;
+        }
+        if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(transaction.getWalletId())), Wallet.class)) {
+            System.err.println("Wallet not found with ID: " + transaction.getWalletId());
+            throw new IllegalArgumentException("Wallet not found");
         }
-        
-        WalletTransaction transaction = transactionOpt.get();
-        System.out.println("Transaction found:");
-        System.out.println("  - ID: " + transaction.getId());
-        System.out.println("  - Status: " + transaction.getStatus());
-        System.out.println("  - Type: " + transaction.getType());
-        System.out.println("  - Amount: " + transaction.getAmount());
-        System.out.println("  - Wallet ID: " + transaction.getWalletId());
-        
-        if (!"pending".equals(transaction.getStatus())) {
-            System.out.println("Transaction is not pending, current status: " + transaction.getStatus());
+
+        WalletTransaction completed = apply(transaction, transaction.getAmount());
+        System.out.println("Transaction completed successfully! Final balance: " + completed.getBalanceAfter());
+        return completed;
+    }
+
+    /**
+     * Hoàn tất các giao dịch dừng ở trạng thái "processing" quá STUCK_AFTER_SECONDS (gọi định kỳ).
+     */
+    public int recoverStuckTransactions() {
+        Query query = new Query(Criteria.where("status").is(PROCESSING)
+            .and("updatedAt").lt(LocalDateTime.now().minusSeconds(STUCK_AFTER_SECONDS)))
+            .with(Sort.by(Sort.Direction.ASC, "updatedAt"))
+            .limit(100);
+        int recovered = 0;
+        for (WalletTransaction transaction : mongoTemplate.find(query, WalletTransaction.class)) {
+            try {
+                apply(transaction, signedAmount(transaction));
+                recovered++;
+            } catch (Exception e) {
+                System.err.println("Wallet transaction " + transaction.getId() + " could not be recovered: " + e.getMessage());
+            }
+        }
+        return recovered;
+    }
+
+    // Bước 1: ghi giao dịch; cùng idempotencyKey thì trả về (hoặc ghi tiếp) giao dịch đã có
+    private WalletTransaction execute(WalletTransaction transaction, double delta) {
+        transaction.setStatus(PROCESSING);
+        try {
+            transaction = mongoTemplate.insert(transaction);
+        } catch (DuplicateKeyException e) {
+            WalletTransaction existing = findByIdempotencyKey(transaction.getIdempotencyKey());
+            if (existing != null && PROCESSING.equals(existing.getStatus())) {
+                return apply(existing, signedAmount(existing));
+            }
+            return existing;
+        }
+        return apply(transaction, delta);
+    }
+
+    // Bước 2 và 3: đổi số dư đúng một lần rồi hoàn tất giao dịch
+    private WalletTransaction apply(WalletTransaction transaction, double delta) {
+        LocalDateTime now = LocalDateTime.now();
+        Criteria criteria = Criteria.where("_id").is(transaction.getWalletId())
+            .and(APPLIED_FIELD).ne(transaction.getId())
+            .and(REJECTED_FIELD).ne(transaction.getId());
+        if (delta < 0) {
+            criteria = criteria.and("balance").gte(-delta);
+        }
+        Update update = new Update().inc("balance", delta).set("updatedAt", now);
+        update.push(APPLIED_FIELD).slice(-APPLIED_HISTORY).each(transaction.getId());
+        Wallet wallet = mongoTemplate.findAndModify(new Query(criteria), update,
+            FindAndModifyOptions.options().returnNew(true), Wallet.class);
+
+        Query self = new Query(Criteria.where("_id").is(transaction.getId()).and("status").is(PROCESSING));
+        if (wallet == null) {
+            boolean applied = isApplied(transaction);
+            if (!applied) {
+                // Chặn mọi lần apply sau của giao dịch này trước khi đánh dấu failed; không chặn được nghĩa là
+                // một lần gọi song song vừa trừ tiền (hoặc đã chặn trước đó)
+                Update reject = new Update().set("updatedAt", now);
+                reject.push(REJECTED_FIELD).slice(-APPLIED_HISTORY).each(transaction.getId());
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(transaction.getWalletId())
+                    .and(APPLIED_FIELD).ne(transaction.getId())
+                    .and(REJECTED_FIELD).ne(transaction.getId())), reject, Wallet.class);
+                applied = isApplied(transaction);
+            }
+            if (!applied) {
+                // Không đủ số dư: đánh dấu failed và giải phóng idempotencyKey để có thể thử lại
+                Update failed = new Update().set("status", "failed").set("updatedAt", now);
+                if (transaction.getIdempotencyKey() != null) {
+                    failed.set("idempotencyKey", transaction.getIdempotencyKey() + ":failed:" + transaction.getId());
+                }
+                mongoTemplate.updateFirst(self, failed, WalletTransaction.class);
+                throw new IllegalStateException("payment".equals(transaction.getType())
+                    ? "Số dư ví không đủ để thanh toán"
+                    : "Số dư không đủ để thực hiện giao dịch");
+            }
+            // Đã ghi vào số dư ở lần trước nhưng chưa hoàn tất: giữ số dư ước tính lúc tạo giao dịch
+            mongoTemplate.updateFirst(self, new Update().set("status", "completed").set("updatedAt", now), WalletTransaction.class);
+            transaction.setStatus("completed");
             return transaction;
         }
-        
-        Wallet wallet = walletRepository.findById(transaction.getWalletId())
-            .orElseThrow(() -> {
-                System.err.println("Wallet not found with ID: " + transaction.getWalletId());
-                return new IllegalArgumentException("Wallet not found");
-            });
-        
-        System.out.println("Wallet found:");
-        System.out.println("  - ID: " + wallet.getId());
-        System.out.println("  - Current balance: " + wallet.getBalance());
-        System.out.println("  - Amount to deposit: " + transaction.getAmount());
-        
-        double balanceBefore = wallet.getBalance();
-        wallet.deposit(transaction.getAmount());
-        wallet.setUpdatedAt(LocalDateTime.now());
-        Wallet savedWallet = walletRepository.save(wallet);
-        
-        System.out.println("Wallet updated:");
-        System.out.println("  - New balance: " + savedWallet.getBalance());
-        
+
+        double balanceAfter = wallet.getBalance();
+        mongoTemplate.updateFirst(self, new Update()
+            .set("status", "completed")
+            .set("balanceBefore", balanceAfter - delta)
+            .set("balanceAfter", balanceAfter)
+            .set("updatedAt", now), WalletTransaction.class);
         transaction.setStatus("completed");
-        transaction.setBalanceBefore(balanceBefore);
-        transaction.setBalanceAfter(savedWallet.getBalance());
+        transaction.setBalanceBefore(balanceAfter - delta);
+        transaction.setBalanceAfter(balanceAfter);
+        transaction.setUpdatedAt(now);
+        return transaction;
+    }
+
+    private boolean isApplied(WalletTransaction transaction) {
+        return mongoTemplate.exists(new Query(Criteria.where("_id").is(transaction.getWalletId())
+            .and(APPLIED_FIELD).is(transaction.getId())), Wallet.class);
+    }
+
+    private WalletTransaction newTransaction(Wallet wallet, String type, double amount, String description) {
+        double delta = "deposit".equals(type) || "refund".equals(type) ? amount : -amount;
+        WalletTransaction transaction = new WalletTransaction();
+        transaction.setWalletId(wallet.getId());
+        transaction.setUserId(wallet.getUserId());
+        transaction.setType(type);
+        transaction.setAmount(amount);
+        // Ước tính theo số dư lúc đọc, được ghi lại chính xác khi hoàn tất
+        transaction.setBalanceBefore(wallet.getBalance());
+        transaction.setBalanceAfter(wallet.getBalance() + delta);
+        transaction.setDescription(description);
+        transaction.setCreatedAt(LocalDateTime.now());
         transaction.setUpdatedAt(LocalDateTime.now());
-        
-        WalletTransaction savedTransaction = transactionRepository.save(transaction);
-        System.out.println("Transaction completed successfully!");
-        System.out.println("  - Final balance: " + savedTransaction.getBalanceAfter());
-        
-        return savedTransaction;
+        return transaction;
+    }
+
+    private static double signedAmount(WalletTransaction transaction) {
+        return "deposit".equals(transaction.getType()) || "refund".equals(transaction.getType())
+            ? transaction.getAmount()
+            : -transaction.getAmount();
     }
-    
+
+    private static String walletAccount(Wallet wallet) {
+        return "wallet:" + wallet.getId();
+    }
+
+    private WalletTransaction findByIdempotencyKey(String idempotencyKey) {
+        return mongoTemplate.findOne(new Query(Criteria.where("idempotencyKey").is(idempotencyKey)), WalletTransaction.class);
+    }
+
     /**
      * Get transaction history
      */
     public List<WalletTransaction> getTransactionHistory(String userId, int limit) {
-        List<WalletTransaction> transactions = transactionRepository.findByUserIdOrderByCreatedAtDesc(userId);
-        if (limit > 0 && transactions.size() > limit) {
-            return transactions.subList(0, limit);
+        return getTransactionHistory(userId, limit, null);
+    }
+
+    /**
+     * Get transaction history, phân trang keyset: trang sau truyền before = id giao dịch cuối của trang trước
+     * (index user_id_idx, không skip).
+     */
+    public List<WalletTransaction> getTransactionHistory(String userId, int limit, String before) {
+        Criteria criteria = Criteria.where("userId").is(userId);
+        if (before != null && ObjectId.isValid(before)) {
+            criteria = criteria.and("_id").lt(new ObjectId(before));
         }
-        return transactions;
+        Query query = new Query(criteria)
+            .with(Sort.by(Sort.Direction.DESC, "_id"))
+            .limit(Math.max(1, Math.min(limit, 100)));
+        return mongoTemplate.find(query, WalletTransaction.class);
     }
-    
+
     /**
      * Get all transactions for user
      */
     public List<WalletTransaction> getAllTransactions(String userId) {
         return transactionRepository.findByUserIdOrderByCreatedAtDesc(userId);
     }
-    
+
     /**
      * Get transaction by ID
      */
@@ -294,4 +373,3 @@ public class WalletService {
         return transactionRepository.findById(transactionId);
     }
 }
-
@@ -0,0 +1,38 @@
+package com.example.harvesthubbackend.Utils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Chuẩn hóa chuỗi tiếng Việt cho tìm kiếm: bỏ dấu ("Cà chua" -> "ca chua"), chữ thường, tách từ.
+ */
+public class VietnameseTextUtils {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private VietnameseTextUtils() {}
+
+    // Bỏ dấu và chuyển về chữ thường
+    public static String fold(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String withoutMarks = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        return withoutMarks.replace('đ', 'd').replace('Đ', 'D').toLowerCase();
+    }
+
+    // Tách chuỗi đã bỏ dấu thành các từ (bỏ từ rỗng)
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : NON_ALPHANUMERIC.split(fold(text))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Models.Inventory;
+import com.example.harvesthubbackend.Models.Product;
+import com.example.harvesthubbackend.Repository.InventoryRepository;
+import com.example.harvesthubbackend.Repository.InventoryTransactionRepository;
+import com.example.harvesthubbackend.Repository.ProductRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test cho trừ tồn kho song song: hàng trăm đơn cùng lúc trên một SKU không được bán vượt.
+ * Cần MongoDB local (mongodb://localhost:27017); nếu không kết nối được thì test được bỏ qua.
+ */
+class InventoryServiceConcurrencyTest extends MongoConcurrencyTestSupport {
+
+    private static final String DATABASE = "harvesthub_inventory_stress_test";
+
+    private static InventoryService inventoryService;
+
+    @BeforeAll
+    static void setUp() {
+        connect(DATABASE);
+        MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+        ProductService productService = new ProductService();
+        ReflectionTestUtils.setField(productService, "productRepository", factory.getRepository(ProductRepository.class));
+
+        inventoryService = new InventoryService();
+        ReflectionTestUtils.setField(inventoryService, "inventoryRepository", factory.getRepository(InventoryRepository.class));
+        ReflectionTestUtils.setField(inventoryService, "transactionRepository", factory.getRepository(InventoryTransactionRepository.class));
+        ReflectionTestUtils.setField(inventoryService, "productService", productService);
+        ReflectionTestUtils.setField(inventoryService, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    void parallelCheckoutsOnOneSkuNeverOversell() throws Exception {
+        Product product = createProduct(100);
+        inventoryService.createInventory(product.getId(), "seller-1", 100);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        runConcurrently(500, () -> {
+            try {
+                inventoryService.deductForOrder(Map.of(product.getId(), 1));
+                succeeded.incrementAndGet();
+            } catch (ApiException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        Inventory inventory = inventoryService.getByProductId(product.getId()).orElseThrow();
+        assertEquals(100, succeeded.get());
+        assertEquals(400, rejected.get());
+        assertEquals(0, inventory.getCurrentStock());
+        assertEquals(0, inventory.getAvailableStock());
+        assertEquals(100, inventory.getTotalSold());
+        assertEquals("out_of_stock", inventory.getStatus());
+
+        Product reloaded = mongoTemplate.findById(product.getId(), Product.class);
+        assertEquals(0, reloaded.getStock());
+        assertEquals("out_of_stock", reloaded.getStatus());
+    }
+
+    @Test
+    void failedMultiItemCheckoutRestoresEarlierItems() throws Exception {
+        Product plenty = createProduct(300);
+        Product scarce = createProduct(50);
+        inventoryService.createInventory(plenty.getId(), "seller-1", 300);
+        inventoryService.createInventory(scarce.getId(), "seller-1", 50);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(200, () -> {
+            try {
+                inventoryService.deductForOrder(Map.of(plenty.getId(), 1, scarce.getId(), 1));
+                succeeded.incrementAndGet();
+            } catch (ApiException ignored) {
+            }
+        });
+
+        assertEquals(50, succeeded.get());
+        assertEquals(250, inventoryService.getByProductId(plenty.getId()).orElseThrow().getAvailableStock());
+        assertEquals(0, inventoryService.getByProductId(scarce.getId()).orElseThrow().getAvailableStock());
+        assertEquals(250, mongoTemplate.findById(plenty.getId(), Product.class).getStock());
+        assertEquals(0, mongoTemplate.findById(scarce.getId(), Product.class).getStock());
+    }
+
+    @Test
+    void productsWithoutInventoryAreDeductedConditionally() throws Exception {
+        Product product = createProduct(30);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(300, () -> {
+            try {
+                inventoryService.deductForOrder(Map.of(product.getId(), 1));
+                succeeded.incrementAndGet();
+            } catch (ApiException ignored) {
+            }
+        });
+
+        assertEquals(30, succeeded.get());
+        Product reloaded = mongoTemplate.findById(product.getId(), Product.class);
+        assertEquals(0, reloaded.getStock());
+        assertTrue(!reloaded.isInStock());
+    }
+
+    private Product createProduct(int stock) {
+        Product product = new Product();
+        product.setName("Stress test product");
+        product.setSellerId("seller-1");
+        product.setStatus("active");
+        product.setStock(stock);
+        product.setInStock(stock > 0);
+        return mongoTemplate.save(product);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.harvesthubbackend.Service;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixture chung cho các stress test chạy trên MongoDB local (mongodb://localhost:27017).
+ * Lớp con gọi connect(database) trong @BeforeAll rồi tự nối service; nếu không kết nối được thì test được bỏ qua.
+ * Database bị xóa trước mỗi test và sau khi chạy xong lớp test.
+ */
+abstract class MongoConcurrencyTestSupport {
+
+    private static final int THREADS = 32;
+
+    private static MongoClient client;
+    private static boolean available;
+    protected static MongoTemplate mongoTemplate;
+
+    protected static MongoTemplate connect(String database) {
+        MongoClientSettings settings = MongoClientSettings.builder()
+            .applyConnectionString(new ConnectionString("mongodb://localhost:27017"))
+            .applyToClusterSettings(builder -> builder.serverSelectionTimeout(2, TimeUnit.SECONDS))
+            .build();
+        client = MongoClients.create(settings);
+        mongoTemplate = new MongoTemplate(client, database);
+        try {
+            mongoTemplate.executeCommand(new Document("ping", 1));
+            available = true;
+        } catch (Exception e) {
+            available = false;
+        }
+        Assumptions.assumeTrue(available, "MongoDB is not reachable on localhost:27017");
+        return mongoTemplate;
+    }
+
+    @AfterAll
+    static void dropDatabase() {
+        if (client == null) {
+            return;
+        }
+        if (available) {
+            mongoTemplate.getDb().drop();
+        }
+        client.close();
+        client = null;
+    }
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.getDb().drop();
+    }
+
+    // Chạy task song song trên THREADS luồng, tất cả bắt đầu cùng lúc
+    protected void runConcurrently(int tasks, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+}
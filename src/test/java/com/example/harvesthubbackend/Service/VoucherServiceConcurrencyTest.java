@@ -0,0 +1,127 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Exception.ApiException;
+import com.example.harvesthubbackend.Exception.ErrorCode;
+import com.example.harvesthubbackend.Models.Voucher;
+import com.example.harvesthubbackend.Models.VoucherUserCounter;
+import com.example.harvesthubbackend.Repository.UserVoucherRepository;
+import com.example.harvesthubbackend.Repository.VoucherRepository;
+import com.example.harvesthubbackend.Repository.VoucherUsageRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Stress test cho giữ lượt voucher song song: usageLimit và maxUsagePerUser không bị vượt,
+ * hoàn voucher chỉ trả lại đúng một lượt.
+ * Cần MongoDB local (mongodb://localhost:27017); nếu không kết nối được thì test được bỏ qua.
+ */
+class VoucherServiceConcurrencyTest extends MongoConcurrencyTestSupport {
+
+    private static final String DATABASE = "harvesthub_voucher_stress_test";
+
+    private static VoucherService voucherService;
+
+    @BeforeAll
+    static void setUp() {
+        connect(DATABASE);
+        MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+        UserVoucherRepository userVoucherRepository = factory.getRepository(UserVoucherRepository.class);
+
+        VoucherEngine voucherEngine = new VoucherEngine();
+        ReflectionTestUtils.setField(voucherEngine, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(voucherEngine, "userVoucherRepository", userVoucherRepository);
+
+        voucherService = new VoucherService();
+        ReflectionTestUtils.setField(voucherService, "voucherRepository", factory.getRepository(VoucherRepository.class));
+        ReflectionTestUtils.setField(voucherService, "voucherUsageRepository", factory.getRepository(VoucherUsageRepository.class));
+        ReflectionTestUtils.setField(voucherService, "userVoucherRepository", userVoucherRepository);
+        ReflectionTestUtils.setField(voucherService, "voucherEngine", voucherEngine);
+        ReflectionTestUtils.setField(voucherService, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    void parallelRedemptionsNeverExceedUsageLimit() throws Exception {
+        Voucher voucher = createVoucher("LIMITED50", 50, -1);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger user = new AtomicInteger();
+        runConcurrently(500, () -> {
+            try {
+                voucherService.redeemVoucher("user-" + user.incrementAndGet(), voucher.getCode());
+                succeeded.incrementAndGet();
+            } catch (ApiException e) {
+                assertEquals(ErrorCode.VOUCHER_USAGE_LIMIT_REACHED, e.getErrorCode());
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(50, succeeded.get());
+        assertEquals(450, rejected.get());
+        assertEquals(50, mongoTemplate.findById(voucher.getId(), Voucher.class).getUsedCount());
+    }
+
+    @Test
+    void perUserLimitHoldsAndRejectedRedemptionsAreRolledBack() throws Exception {
+        Voucher voucher = createVoucher("TWICE", 100, 2);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(200, () -> {
+            try {
+                voucherService.redeemVoucher("user-1", voucher.getCode());
+                succeeded.incrementAndGet();
+            } catch (ApiException ignored) {
+            }
+        });
+
+        assertEquals(2, succeeded.get());
+        assertEquals(2, mongoTemplate.findById(voucher.getId(), Voucher.class).getUsedCount());
+        VoucherUserCounter counter = mongoTemplate.findById(VoucherUserCounter.idOf(voucher.getId(), "user-1"), VoucherUserCounter.class);
+        assertEquals(2, counter.getCount());
+    }
+
+    @Test
+    void refundReleasesExactlyOneRedemption() throws Exception {
+        Voucher voucher = createVoucher("REFUNDABLE", 1, 1);
+        voucherService.redeemVoucher("user-1", voucher.getCode());
+        voucherService.applyVoucherToOrder("user-1", "order-1", voucher.getCode(), 200000, 20000);
+
+        // Hủy đơn bị xử lý trùng (retry, nhiều instance) vẫn chỉ hoàn một lượt
+        runConcurrently(50, () -> voucherService.refundVoucher("order-1"));
+
+        assertEquals(0, mongoTemplate.findById(voucher.getId(), Voucher.class).getUsedCount());
+        assertEquals(0, mongoTemplate.findById(VoucherUserCounter.idOf(voucher.getId(), "user-1"), VoucherUserCounter.class).getCount());
+
+        // Lượt được trả lại có thể dùng lại, đúng một lần
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(50, () -> {
+            try {
+                voucherService.redeemVoucher("user-1", voucher.getCode());
+                succeeded.incrementAndGet();
+            } catch (ApiException ignored) {
+            }
+        });
+        assertEquals(1, succeeded.get());
+        assertEquals(1, mongoTemplate.findById(voucher.getId(), Voucher.class).getUsedCount());
+    }
+
+    private Voucher createVoucher(String code, int usageLimit, int maxUsagePerUser) {
+        Voucher voucher = new Voucher();
+        voucher.setCode(code);
+        voucher.setName("Stress test voucher");
+        voucher.setType("fixed_amount");
+        voucher.setValue(20000);
+        voucher.setUsageLimit(usageLimit);
+        voucher.setMaxUsagePerUser(maxUsagePerUser);
+        voucher.setStartDate(LocalDateTime.now().minusDays(1));
+        voucher.setEndDate(LocalDateTime.now().plusDays(1));
+        return mongoTemplate.save(voucher);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.harvesthubbackend.Service;
+
+import com.example.harvesthubbackend.Models.Wallet;
+import com.example.harvesthubbackend.Models.WalletTransaction;
+import com.example.harvesthubbackend.Repository.WalletRepository;
+import com.example.harvesthubbackend.Repository.WalletTransactionRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test cho sổ cái ví: chi tiêu song song không làm số dư âm, thanh toán/hoàn tiền/callback nạp tiền
+ * trùng lặp chỉ ghi một lần, và tổng các giao dịch completed khớp số dư.
+ * Cần MongoDB local (mongodb://localhost:27017); nếu không kết nối được thì test được bỏ qua.
+ */
+class WalletServiceConcurrencyTest extends MongoConcurrencyTestSupport {
+
+    private static final String DATABASE = "harvesthub_wallet_stress_test";
+
+    private static WalletService walletService;
+
+    @BeforeAll
+    static void setUp() {
+        connect(DATABASE);
+        MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+        walletService = new WalletService();
+        ReflectionTestUtils.setField(walletService, "walletRepository", factory.getRepository(WalletRepository.class));
+        ReflectionTestUtils.setField(walletService, "transactionRepository", factory.getRepository(WalletTransactionRepository.class));
+        ReflectionTestUtils.setField(walletService, "mongoTemplate", mongoTemplate);
+    }
+
+    @BeforeEach
+    void createIndexes() {
+        // auto-index-creation tắt trong ứng dụng; tạo các unique index mà sổ cái dựa vào
+        mongoTemplate.indexOps(Wallet.class).createIndex(new Index().on("userId", Sort.Direction.ASC).unique());
+        mongoTemplate.indexOps(WalletTransaction.class).createIndex(
+            new Index().on("idempotencyKey", Sort.Direction.ASC).unique().sparse());
+    }
+
+    @Test
+    void parallelSpendingNeverOverdrawsWallet() throws Exception {
+        walletService.deposit("user-1", 100000, "wallet", null);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger order = new AtomicInteger();
+        runConcurrently(200, () -> {
+            try {
+                walletService.payWithWallet("user-1", 1000, "order-" + order.incrementAndGet(), null);
+                succeeded.incrementAndGet();
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(100, succeeded.get());
+        assertEquals(100, rejected.get());
+        assertEquals(0.0, walletService.getOrCreateWallet("user-1").getBalance());
+        assertEquals(0, mongoTemplate.count(new Query(Criteria.where("status").is("processing")), WalletTransaction.class));
+
+        // Số dư sau mỗi giao dịch completed không bao giờ âm
+        for (WalletTransaction transaction : walletService.getAllTransactions("user-1")) {
+            if ("completed".equals(transaction.getStatus())) {
+                assertTrue(transaction.getBalanceAfter() >= 0);
+            }
+        }
+    }
+
+    @Test
+    void concurrentCreationYieldsSingleWallet() throws Exception {
+        runConcurrently(100, () -> walletService.getOrCreateWallet("user-1"));
+        assertEquals(1, mongoTemplate.count(new Query(Criteria.where("userId").is("user-1")), Wallet.class));
+    }
+
+    @Test
+    void duplicatePaymentForSameOrderDebitsOnce() throws Exception {
+        walletService.deposit("user-1", 100000, "wallet", null);
+
+        runConcurrently(100, () -> walletService.payWithWallet("user-1", 30000, "order-1", null));
+
+        assertEquals(70000.0, walletService.getOrCreateWallet("user-1").getBalance());
+        assertEquals(1, mongoTemplate.count(new Query(Criteria.where("type").is("payment")), WalletTransaction.class));
+    }
+
+    @Test
+    void duplicatePaymentRacingTopUpNeverDebitsFailedTransaction() throws Exception {
+        walletService.deposit("user-1", 20000, "wallet", null);
+
+        AtomicInteger calls = new AtomicInteger();
+        runConcurrently(100, () -> {
+            if (calls.incrementAndGet() == 50) {
+                walletService.deposit("user-1", 10000, "wallet", null);
+                return;
+            }
+            try {
+                walletService.payWithWallet("user-1", 30000, "order-1", null);
+            } catch (IllegalStateException ignored) {
+                // Không đủ số dư trước khi nạp thêm
+            }
+        });
+
+        // Số tiền bị trừ khớp đúng số giao dịch payment completed (tối đa một cho mỗi đơn)
+        long completed = mongoTemplate.count(new Query(Criteria.where("type").is("payment").and("status").is("completed")),
+            WalletTransaction.class);
+        assertTrue(completed <= 1);
+        assertEquals(30000.0 - 30000.0 * completed, walletService.getOrCreateWallet("user-1").getBalance());
+        assertEquals(0, mongoTemplate.count(new Query(Criteria.where("status").is("processing")), WalletTransaction.class));
+    }
+
+    @Test
+    void duplicateRefundAndDepositCallbackCreditOnce() throws Exception {
+        walletService.deposit("user-1", 50000, "wallet", null);
+        walletService.payWithWallet("user-1", 50000, "order-1", null);
+        WalletTransaction pending = walletService.deposit("user-1", 20000, "vnpay", null);
+        assertEquals("pending", pending.getStatus());
+
+        runConcurrently(100, () -> walletService.refundToWallet("user-1", 50000, "order-1", null));
+        runConcurrently(100, () -> walletService.completeDeposit(pending.getId()));
+
+        assertEquals(70000.0, walletService.getOrCreateWallet("user-1").getBalance());
+        assertEquals("completed", walletService.getTransactionById(pending.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void transactionHistoryPagesWithKeyset() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            walletService.deposit("user-1", 1000, "wallet", null);
+        }
+
+        Set<String> seen = new HashSet<>();
+        String before = null;
+        int pages = 0;
+        while (true) {
+            List<WalletTransaction> page = walletService.getTransactionHistory("user-1", 10, before);
+            if (page.isEmpty()) {
+                break;
+            }
+            page.forEach(transaction -> seen.add(transaction.getId()));
+            before = page.get(page.size() - 1).getId();
+            pages++;
+        }
+        assertEquals(25, seen.size());
+        assertEquals(3, pages);
+    }
+}